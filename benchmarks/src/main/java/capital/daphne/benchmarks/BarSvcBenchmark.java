@@ -0,0 +1,103 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.models.BarInfo;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.BarWindow;
+import capital.daphne.services.BarSvc;
+import capital.daphne.services.VolatilityEngine;
+import capital.daphne.services.WapMirror;
+import capital.daphne.utils.JsonCodec;
+import org.openjdk.jmh.annotations.*;
+import tech.tablesaw.api.Table;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BarSvc中每根bar都会执行的部分
+ * jsonToTable是原来getDataTable的路径：解析BAR_LIST的json，再生成dataframe；
+ * windowToTable和barWindow是现在从常驻的BarSeries截取窗口的路径
+ * calVolatility对比WAP_LIST字符串全量解析和增量维护的WapMirror
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BarSvcBenchmark {
+    // datasource的WAP_LIST保留7200秒的5秒bar
+    private static final int WAP_LIST_SIZE = 1440;
+
+    @Param({"18", "300", "1200"})
+    private int numStatsBars;
+
+    private AppConfigManager.AppConfig.AlgorithmConfig ac;
+    private BarSvc barSvc;
+
+    private String barListJson;
+    private BarSeries parsedSeries;
+    private BarSeries barSeries;
+
+    private List<String> wapList;
+    private WapMirror wapMirror;
+    private double nextWap;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkData.quietLogs();
+        BenchmarkData data = new BenchmarkData(WAP_LIST_SIZE * 2);
+        ac = BenchmarkData.algorithm("EMA", "TrailingStop", numStatsBars);
+        barSvc = new BarSvc(false);
+
+        barListJson = JsonCodec.write(data.toBarInfos(0, WAP_LIST_SIZE));
+        parsedSeries = new BarSeries(numStatsBars + 1);
+        barSeries = new BarSeries(4096);
+        for (int i = 0; i < WAP_LIST_SIZE; i++) {
+            data.append(barSeries, i);
+        }
+
+        wapList = new ArrayList<>(WAP_LIST_SIZE);
+        wapMirror = new WapMirror();
+        for (int i = 0; i < WAP_LIST_SIZE; i++) {
+            wapList.add(String.valueOf(data.vwap[i]));
+            wapMirror.add(data.vwap[i], WAP_LIST_SIZE);
+        }
+        nextWap = data.vwap[WAP_LIST_SIZE];
+    }
+
+    @Benchmark
+    public Table jsonToTable() throws Exception {
+        List<BarInfo> bars = JsonCodec.readTailBars(barListJson, numStatsBars + 1);
+        parsedSeries.clear();
+        for (BarInfo bar : bars) {
+            parsedSeries.append(bar.getDate(), 0L, bar.getVwap(), bar.getOpen(), bar.getHigh(), bar.getLow(), bar.getClose());
+        }
+        return barSvc.getDataTable(parsedSeries.window(parsedSeries.size()), ac, 0.5);
+    }
+
+    @Benchmark
+    public Table windowToTable() {
+        return barSvc.getDataTable(barSeries.window(barSeries.size()), ac, 0.5);
+    }
+
+    @Benchmark
+    public BarWindow barWindow() {
+        return barSvc.getBarWindow(barSeries.window(barSeries.size()), ac, 0.5, 449.99, 450.01);
+    }
+
+    @Benchmark
+    public double calVolatilityFromWapList() {
+        return barSvc.calVolatility(ac, wapList);
+    }
+
+    @Benchmark
+    public double calVolatility() {
+        // 和实盘一样每根bar追加一个wap，超过保留数量从队头删除
+        wapMirror.add(nextWap, WAP_LIST_SIZE);
+        VolatilityEngine volatilityEngine = wapMirror.toVolatilityEngine();
+        return barSvc.calVolatility(ac, volatilityEngine);
+    }
+}
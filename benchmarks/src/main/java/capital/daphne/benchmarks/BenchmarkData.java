@@ -0,0 +1,208 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.models.BarInfo;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.OrderInfo;
+import capital.daphne.models.Signal;
+import capital.daphne.models.WapCache;
+import capital.daphne.services.ta.TARegistry;
+import capital.daphne.transport.SendResult;
+import capital.daphne.transport.SignalTransport;
+import capital.daphne.utils.JsonCodec;
+import capital.daphne.utils.Utils;
+import ch.qos.logback.classic.Level;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 各个基准测试共用的数据：随机游走生成的连续5秒bar，和config.json同一量级的algorithm配置，
+ * 以及代替redis的内存store（交给RedisContext.offline），不需要redis和mysql
+ */
+final class BenchmarkData {
+    static final String SYMBOL = "SPY";
+    static final String SEC_TYPE = "STK";
+    static final String ACCOUNT_ID = "BENCHMARK";
+
+    // 和trader写入ORDER_LIST的dateTime格式一致
+    private static final DateTimeFormatter ORDER_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    // 第一根bar是2023-12-08 09:30:00美东
+    private static final long START_EPOCH_SECONDS = ZonedDateTime.of(2023, 12, 8, 9, 30, 0, 0, ZoneId.of("America/New_York")).toEpochSecond();
+
+    final int size;
+    final long[] epochSeconds;
+    final String[] dates;
+    final double[] vwap;
+    final double[] open;
+    final double[] high;
+    final double[] low;
+    final double[] close;
+
+    BenchmarkData(int size) {
+        this.size = size;
+        epochSeconds = new long[size];
+        dates = new String[size];
+        vwap = new double[size];
+        open = new double[size];
+        high = new double[size];
+        low = new double[size];
+        close = new double[size];
+
+        Random random = new Random(42);
+        double price = 450.0;
+        for (int i = 0; i < size; i++) {
+            epochSeconds[i] = START_EPOCH_SECONDS + 5L * i;
+            // 日期字符串是datasource给的，预先生成，不计入每根bar的开销
+            dates[i] = Utils.formatBarDate(epochSeconds[i]);
+            open[i] = price;
+            double hi = price;
+            double lo = price;
+            for (int j = 0; j < 4; j++) {
+                price += random.nextGaussian() * 0.02;
+                hi = Math.max(hi, price);
+                lo = Math.min(lo, price);
+            }
+            high[i] = hi;
+            low[i] = lo;
+            close[i] = price;
+            vwap[i] = (open[i] + hi + lo + price) / 4;
+        }
+    }
+
+    void append(BarSeries barSeries, int i) {
+        barSeries.append(dates[i], epochSeconds[i] * 1_000_000_000L, vwap[i], open[i], high[i], low[i], close[i]);
+    }
+
+    List<BarInfo> toBarInfos(int from, int to) {
+        List<BarInfo> bars = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            BarInfo bar = new BarInfo();
+            bar.setDate(dates[i]);
+            bar.setVwap(vwap[i]);
+            bar.setOpen(open[i]);
+            bar.setHigh(high[i]);
+            bar.setLow(low[i]);
+            bar.setClose(close[i]);
+            bars.add(bar);
+        }
+        return bars;
+    }
+
+    /**
+     * open是SMA、EMA或DMA，close是TrailingStop或MACDSingal，其余参数和config.json中的EMA配置一致
+     */
+    static AppConfigManager.AppConfig.AlgorithmConfig algorithm(String open, String close, int numStatsBars) {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = new AppConfigManager.AppConfig.AlgorithmConfig();
+        ac.setName(open);
+        ac.setAccountId(ACCOUNT_ID);
+        ac.setSymbol(SYMBOL);
+        ac.setSecType(SEC_TYPE);
+        ac.setMaxPortfolioPositions(500);
+        ac.setOrderSize(100);
+        ac.setMinIntervalBetweenSignal(35);
+        ac.setSignalMargin(0.0003f);
+        ac.setNumStatsBars(numStatsBars);
+        ac.setVolatilityA(0.2f);
+        ac.setVolatilityB(200);
+        ac.setVolatilityC(-250);
+        ac.setTimeWeightedA(1);
+        ac.setVolatilityOpenMarketK(1.1e-05);
+        ac.setMarketOpenReductionSeconds(100);
+        ac.setReductionFactor(0.025);
+
+        AppConfigManager.AppConfig.DMAParams dp = new AppConfigManager.AppConfig.DMAParams();
+        dp.setOrderMode("b");
+        dp.setFastWindow(Math.max(numStatsBars / 3, 2));
+        dp.setSlowWindow(numStatsBars);
+        dp.setTrendWindow(numStatsBars);
+        dp.setLongFilterKey(TARegistry.NO_FILTER);
+        dp.setShortFilterKey(TARegistry.NO_FILTER);
+        dp.setBarSeconds(5);
+        ac.setDmaParams(dp);
+
+        AppConfigManager.AppConfig.CloseAlgorithmConfig cac = new AppConfigManager.AppConfig.CloseAlgorithmConfig();
+        cac.setMethod(close);
+        cac.setMinDurationBeforeClose(5);
+        cac.setMaxDurationToClose(9999999);
+        cac.setTrailingStopThreshold(0.00015);
+        cac.setMacdShortNumStatsBar(12);
+        cac.setMacdLongNumStatsBar(26);
+        cac.setMacdSignalNumStatsBar(9);
+        ac.setCloseAlgo(cac);
+        return ac;
+    }
+
+    /**
+     * 持有一笔第一根bar时开的仓，TrailingStop和MACDSingal每根bar都会走完整的判断
+     */
+    Map<String, String> store(AppConfigManager.AppConfig.AlgorithmConfig ac, ZoneId zone) throws Exception {
+        Map<String, String> store = new HashMap<>();
+        String prefix = String.format("%s:%s:%s", ac.getAccountId(), ac.getSymbol(), ac.getSecType());
+        store.put(prefix + ":POSITION", String.valueOf(ac.getOrderSize()));
+
+        OrderInfo order = new OrderInfo();
+        order.setOrderId(1);
+        order.setQuantity(ac.getOrderSize());
+        order.setDateTime(LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds[0]), zone).format(ORDER_DATE_TIME_FORMATTER));
+        store.put(prefix + ":ORDER_LIST", JsonCodec.write(Collections.singletonList(order)));
+
+        WapCache wapCache = new WapCache();
+        wapCache.setMaxWap(vwap[0] * 1.001);
+        wapCache.setMinWap(vwap[0] * 0.999);
+        store.put(String.format("%s:%s:MAX_MIN_WAP", ac.getSymbol(), ac.getSecType()), JsonCodec.write(wapCache));
+        return store;
+    }
+
+    static SignalTransport noopTransport() {
+        return new SignalTransport() {
+            @Override
+            public SendResult send(Signal signal) {
+                return SendResult.ACCEPTED;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * processor的getSignal捕获异常后printStackTrace并返回null，这时测到的是异常的构造和stderr，不是每根bar的计算
+     * setup时先跑一段bar，stderr中有输出就让基准测试失败
+     */
+    static void failOnSwallowedException(String name, Runnable bars) {
+        PrintStream err = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(captured, true));
+        try {
+            bars.run();
+        } finally {
+            System.setErr(err);
+        }
+        if (captured.size() > 0) {
+            throw new IllegalStateException(name + " returned through the exception path:\n" + captured);
+        }
+    }
+
+    /**
+     * processor每根bar都会写日志，基准测试只保留错误，避免测量的是文件appender
+     * 日志字符串在调用logger之前就已经拼好，这部分分配仍然会被GC profiler统计到
+     */
+    static void quietLogs() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("capital.daphne")).setLevel(Level.ERROR);
+    }
+}
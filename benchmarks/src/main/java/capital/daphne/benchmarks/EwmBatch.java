@@ -0,0 +1,52 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.utils.EwmKernel;
+
+/**
+ * 同一个输入在多组alpha/period下的ewm，prefillSma=true, adjust=false
+ * JVM启动时加了--add-modules jdk.incubator.vector时走Vector API，每个lane对应一组参数，否则逐组调用EwmKernel.ewm
+ * 实盘没有这样的调用方，只在基准测试中对比，所以放在这里，主工程不依赖incubator模块
+ */
+final class EwmBatch {
+    // -Dewm.vector=false可以关闭Vector API
+    private static final boolean VECTOR_ENABLED = detectVectorApi();
+
+    private EwmBatch() {
+    }
+
+    private static boolean detectVectorApi() {
+        if (!Boolean.parseBoolean(System.getProperty("ewm.vector", "true"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.incubator.vector.DoubleVector");
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    static boolean isVectorEnabled() {
+        return VECTOR_ENABLED;
+    }
+
+    /**
+     * output[j]对应alphas[j]和periods[j]
+     */
+    static void ewmBatch(double[] input, double[] alphas, int[] periods, double[][] output) {
+        if (alphas.length != periods.length || alphas.length != output.length) {
+            throw new IllegalArgumentException("alphas, periods and output must have the same length");
+        }
+        if (VECTOR_ENABLED && alphas.length > 1) {
+            EwmVectorKernel.ewmBatch(input, alphas, periods, output);
+            return;
+        }
+        ewmBatchScalar(input, alphas, periods, output);
+    }
+
+    static void ewmBatchScalar(double[] input, double[] alphas, int[] periods, double[][] output) {
+        for (int j = 0; j < alphas.length; j++) {
+            EwmKernel.ewm(input, output[j], alphas[j], true, false, periods[j], periods[j] - 1);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.utils.EwmKernel;
+import capital.daphne.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.columns.numbers.DoubleColumnType;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原来基于DoubleColumn的ewm和double[]版本的对比
+ * legacy是改写前Utils.ewm的实现；batch对比同一个输入多组参数时逐组计算和Vector API（EwmBatch）的差别，
+ * fork的JVM默认加了jdk.incubator.vector模块，-jvmArgsAppend -Dewm.vector=false可以让batch也走标量实现
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class EwmBenchmark {
+    // 61是实盘MACD的窗口，23400是一天5秒bar的WAP_LIST
+    @Param({"61", "23400"})
+    private int size;
+
+    @Param({"true", "false"})
+    private boolean adjust;
+
+    private double[] input;
+    private double[] output;
+    private DoubleColumn inputCol;
+
+    private double[] alphas;
+    private int[] periods;
+    private double[][] batchOutput;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        input = new double[size];
+        double price = 450.0;
+        for (int i = 0; i < size; i++) {
+            price += random.nextGaussian() * 0.05;
+            input[i] = price;
+        }
+        output = new double[size];
+        inputCol = DoubleColumn.create("vwap", input);
+
+        // 参数扫描的典型规模：8组周期
+        periods = new int[]{5, 9, 12, 20, 26, 30, 40, 50};
+        alphas = new double[periods.length];
+        for (int i = 0; i < periods.length; i++) {
+            alphas[i] = 2.0 / (periods[i] + 1);
+        }
+        batchOutput = new double[periods.length][size];
+
+        // Vector API和逐组计算的舍入相同，结果必须逐位一致
+        double[][] expected = new double[periods.length][size];
+        EwmBatch.ewmBatchScalar(input, alphas, periods, expected);
+        EwmBatch.ewmBatch(input, alphas, periods, batchOutput);
+        for (int j = 0; j < periods.length; j++) {
+            if (!Arrays.equals(batchOutput[j], expected[j])) {
+                throw new IllegalStateException("ewmBatch differs from ewm, period=" + periods[j] + ", vector=" + EwmBatch.isVectorEnabled());
+            }
+        }
+    }
+
+    @Benchmark
+    public DoubleColumn legacy() {
+        return legacyEwm(inputCol, 2.0 / 27, "ewm", true, adjust, 26, 25);
+    }
+
+    @Benchmark
+    public DoubleColumn column() {
+        return Utils.ewm(inputCol, 2.0 / 27, "ewm", true, adjust, 26, 25);
+    }
+
+    @Benchmark
+    public double[] kernel() {
+        EwmKernel.ewm(input, output, 2.0 / 27, true, adjust, 26, 25);
+        return output;
+    }
+
+    @Benchmark
+    public void batchScalar(Blackhole blackhole) {
+        EwmBatch.ewmBatchScalar(input, alphas, periods, batchOutput);
+        blackhole.consume(batchOutput);
+    }
+
+    @Benchmark
+    public void batch(Blackhole blackhole) {
+        EwmBatch.ewmBatch(input, alphas, periods, batchOutput);
+        blackhole.consume(batchOutput);
+    }
+
+    /**
+     * 改写前的Utils.ewm
+     */
+    static DoubleColumn legacyEwm(DoubleColumn inputCol, double alpha, String outputColumnName, boolean prefillSma, boolean adjust, int period, int minPeriods) {
+        DoubleColumn result = DoubleColumn.create(outputColumnName, inputCol.size());
+        int startIndex = 1;
+        if (prefillSma) {
+            DoubleColumn sma = inputCol.rolling(period).mean();
+            Double initialSma = sma.getDouble(period - 1);
+            if (initialSma == null || initialSma.isNaN()) {
+                initialSma = 0.0d;
+            }
+            result.set(period - 1, initialSma);
+            startIndex = period;
+        } else {
+            result.set(0, inputCol.getDouble(0));
+        }
+        if (!adjust) {
+            for (int i = startIndex; i < inputCol.size(); i++) {
+                Double prevValue = result.getDouble(i - 1);
+                if (prevValue == null || prevValue.isNaN()) {
+                    prevValue = 0.0d;
+                }
+                double ema = inputCol.getDouble(i) * alpha + prevValue * (1 - alpha);
+                result.set(i, ema);
+            }
+        } else {
+            double alphaWeightedSum = 0;
+            double alphaWeightedInputSum = 0;
+
+            for (int i = 0; i < inputCol.size(); i++) {
+                double alphaWeightRet = Math.pow(1 - alpha, i);
+                alphaWeightedSum += alphaWeightRet;
+
+                alphaWeightedInputSum = (alphaWeightedInputSum * (1 - alpha) + inputCol.getDouble(i));
+
+                if (alphaWeightedSum != 0) {
+                    result.set(i, alphaWeightedInputSum / alphaWeightedSum);
+                } else {
+                    result.set(i, 0);
+                }
+            }
+        }
+
+        if (!prefillSma || adjust) {
+            for (int i = 0; i <= minPeriods; i++) {
+                result.set(i, DoubleColumnType.missingValueIndicator());
+            }
+        }
+        return result;
+    }
+}
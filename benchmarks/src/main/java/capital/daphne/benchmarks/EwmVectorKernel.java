@@ -0,0 +1,71 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.utils.EwmKernel;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * EwmBatch.ewmBatch的Vector API实现，只在jdk.incubator.vector模块可用时才会被加载
+ * 递推在时间上是串行的，所以按参数组并行：每个lane是一组alpha/period，每个时间点一次乘加
+ */
+final class EwmVectorKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private EwmVectorKernel() {
+    }
+
+    static void ewmBatch(double[] input, double[] alphas, int[] periods, double[][] output) {
+        int lanes = SPECIES.length();
+        int n = input.length;
+        double[] alphaLanes = new double[lanes];
+        double[] seedLanes = new double[lanes];
+        double[] seedIndexLanes = new double[lanes];
+        // 按时间交错存放的结果，最后再拆到各组的数组
+        double[] buffer = new double[n * lanes];
+
+        for (int base = 0; base < alphas.length; base += lanes) {
+            int count = Math.min(lanes, alphas.length - base);
+            for (int k = 0; k < lanes; k++) {
+                if (k < count) {
+                    int period = periods[base + k];
+                    alphaLanes[k] = alphas[base + k];
+                    seedLanes[k] = EwmKernel.seed(input, period);
+                    seedIndexLanes[k] = period - 1;
+                } else {
+                    // 补齐的lane不输出
+                    alphaLanes[k] = 0.0;
+                    seedLanes[k] = 0.0;
+                    seedIndexLanes[k] = 0.0;
+                }
+            }
+            DoubleVector alpha = DoubleVector.fromArray(SPECIES, alphaLanes, 0);
+            DoubleVector decay = DoubleVector.broadcast(SPECIES, 1.0).sub(alpha);
+            DoubleVector seed = DoubleVector.fromArray(SPECIES, seedLanes, 0);
+            DoubleVector seedIndex = DoubleVector.fromArray(SPECIES, seedIndexLanes, 0);
+            DoubleVector zero = DoubleVector.zero(SPECIES);
+            DoubleVector nan = DoubleVector.broadcast(SPECIES, Double.NaN);
+
+            DoubleVector prev = nan;
+            for (int i = 0; i < n; i++) {
+                VectorMask<Double> prevMissing = prev.test(VectorOperators.IS_NAN);
+                // 不用fma，保证和标量版本的舍入完全一致
+                DoubleVector current = DoubleVector.broadcast(SPECIES, input[i]).mul(alpha)
+                        .add(prev.blend(zero, prevMissing).mul(decay));
+                // 初始值之前是缺失值，初始值位置是前period个值的平均值
+                current = current.blend(nan, seedIndex.compare(VectorOperators.GT, i))
+                        .blend(seed, seedIndex.compare(VectorOperators.EQ, i));
+                current.intoArray(buffer, i * lanes);
+                prev = current;
+            }
+
+            for (int k = 0; k < count; k++) {
+                double[] out = output[base + k];
+                for (int i = 0; i < n; i++) {
+                    out[i] = buffer[i * lanes + k];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.algorithms.BarWindowProcessor;
+import capital.daphne.algorithms.ProcessorBundle;
+import capital.daphne.backtest.BacktestClock;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.Signal;
+import capital.daphne.services.BarSvc;
+import capital.daphne.services.RedisContext;
+import capital.daphne.services.SignalSvc;
+import capital.daphne.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个processor每根bar的getSignal开销：每次调用追加一根新bar，再用最近numStatsBars + 1根bar的视图计算信号
+ * 18是config.json中的窗口，300和1200是较大的窗口；redis中的状态由RedisContext.offline的内存store提供
+ * tape用完之后重新创建processor和BarSeries，从头开始；processor捕获异常返回null时setup直接失败
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessorBenchmark {
+    private static final int TAPE_SIZE = 1 << 16;
+
+    // setup时检查异常路径跑的bar数
+    private static final int CHECK_BARS = 256;
+
+    @Param({"SMA", "EMA", "DMA", "MACDSingal", "TrailingStop"})
+    private String processor;
+
+    @Param({"18", "300", "1200"})
+    private int numStatsBars;
+
+    private BenchmarkData data;
+    private AppConfigManager.AppConfig.AlgorithmConfig ac;
+    private BacktestClock clock;
+    private RedisContext context;
+    private BarSvc barSvc;
+
+    private BarSeries barSeries;
+    private BarWindowProcessor barWindowProcessor;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        BenchmarkData.quietLogs();
+        data = new BenchmarkData(TAPE_SIZE);
+        boolean close = processor.equals("MACDSingal") || processor.equals("TrailingStop");
+        ac = BenchmarkData.algorithm(close ? "EMA" : processor, close ? processor : "TrailingStop", numStatsBars);
+        clock = new BacktestClock(ZoneId.systemDefault());
+        Utils.setClock(clock);
+        context = RedisContext.offline(data.store(ac, clock.getZone()), key -> data.vwap);
+        barSvc = new BarSvc(false);
+        BenchmarkData.failOnSwallowedException(processor, () -> {
+            reset();
+            for (int i = 0; i < CHECK_BARS; i++) {
+                getSignal();
+            }
+        });
+        reset();
+    }
+
+    private void reset() {
+        ProcessorBundle bundle = new SignalSvc(Collections.singletonList(ac), BenchmarkData.noopTransport()).route(ac.getSymbol(), ac.getSecType())[0];
+        boolean close = processor.equals("MACDSingal") || processor.equals("TrailingStop");
+        barWindowProcessor = close ? bundle.getCloseProcessor() : bundle.getOpenProcessor();
+
+        // 先放入一个窗口的bar，第一次调用时processor完成初始化
+        barSeries = new BarSeries(4096);
+        for (next = 0; next <= numStatsBars; next++) {
+            data.append(barSeries, next);
+        }
+        clock.set(data.epochSeconds[next - 1]);
+        barWindowProcessor.getSignal(window(), 0, ac.getMaxPortfolioPositions());
+    }
+
+    private BarWindow window() {
+        double wap = data.vwap[next - 1];
+        return barSvc.getBarWindow(barSeries.window(barSeries.size()), ac, 0.5, wap * 0.9999, wap * 1.0001);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        Utils.setClock(null);
+    }
+
+    @Benchmark
+    public Signal getSignal() {
+        if (next == data.size) {
+            reset();
+        }
+        data.append(barSeries, next);
+        clock.set(data.epochSeconds[next]);
+        next++;
+        return barWindowProcessor.getSignal(window(), ac.getOrderSize(), ac.getMaxPortfolioPositions());
+    }
+}
@@ -0,0 +1,119 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.algorithms.ProcessorBundle;
+import capital.daphne.backtest.BacktestClock;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.MarketSnapshot;
+import capital.daphne.models.Signal;
+import capital.daphne.services.BarSvc;
+import capital.daphne.services.RedisContext;
+import capital.daphne.services.SignalSvc;
+import capital.daphne.services.WapMirror;
+import capital.daphne.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一根bar从进入内存到给出信号的完整路径，和Main.processAlgorithm相同：
+ * 追加bar和wap、生成行情快照、calVolatility、SignalSvc.getTradeSignal（open、close、hardLimit processor）
+ * redis用RedisContext.offline的内存store代替（POSITION、ORDER_LIST、LAST_ACTION、MAX_MIN_WAP），
+ * 所以测量的是计算和分配，不包括网络；tape用完之后重新创建SignalSvc和BarSeries；走异常路径时setup直接失败
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TradeSignalBenchmark {
+    private static final int TAPE_SIZE = 1 << 16;
+
+    // datasource的WAP_LIST保留7200秒的5秒bar
+    private static final int WAP_LIST_SIZE = 1440;
+
+    // setup时检查异常路径跑的bar数
+    private static final int CHECK_BARS = 256;
+
+    @Param({"SMA", "EMA", "DMA"})
+    private String algorithm;
+
+    @Param({"TrailingStop", "MACDSingal"})
+    private String closeAlgorithm;
+
+    @Param({"18", "300"})
+    private int numStatsBars;
+
+    private BenchmarkData data;
+    private AppConfigManager.AppConfig.AlgorithmConfig ac;
+    private BacktestClock clock;
+    private RedisContext context;
+    private BarSvc barSvc;
+
+    private SignalSvc signalSvc;
+    private ProcessorBundle bundle;
+    private BarSeries barSeries;
+    private WapMirror wapMirror;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        BenchmarkData.quietLogs();
+        data = new BenchmarkData(TAPE_SIZE);
+        ac = BenchmarkData.algorithm(algorithm, closeAlgorithm, numStatsBars);
+        clock = new BacktestClock(ZoneId.systemDefault());
+        Utils.setClock(clock);
+        wapMirror = new WapMirror();
+        context = RedisContext.offline(data.store(ac, clock.getZone()), key -> wapMirror.toArray());
+        barSvc = new BarSvc(false);
+        BenchmarkData.failOnSwallowedException(algorithm + "/" + closeAlgorithm, () -> {
+            reset();
+            for (int i = 0; i < CHECK_BARS; i++) {
+                processBar();
+            }
+        });
+        reset();
+    }
+
+    private void reset() {
+        signalSvc = new SignalSvc(Collections.singletonList(ac), BenchmarkData.noopTransport());
+        bundle = signalSvc.route(ac.getSymbol(), ac.getSecType())[0];
+        barSeries = new BarSeries(4096);
+        wapMirror.reload(new double[0]);
+        next = 0;
+        // 先放入WAP_LIST保留数量的bar，第一次调用时processor完成初始化
+        while (next < WAP_LIST_SIZE) {
+            processBar();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        Utils.setClock(null);
+    }
+
+    private Signal processBar() {
+        data.append(barSeries, next);
+        double wap = data.vwap[next];
+        wapMirror.add(wap, WAP_LIST_SIZE);
+        clock.set(data.epochSeconds[next]);
+        next++;
+
+        MarketSnapshot snapshot = new MarketSnapshot(ac.getSymbol(), ac.getSecType(), barSeries.window(barSeries.size()),
+                wapMirror.toVolatilityEngine(), wap * 0.9999, wap * 1.0001, null);
+        double volatility = barSvc.calVolatility(ac, snapshot.getVolatilityEngine());
+        return signalSvc.getTradeSignal(bundle, snapshot, volatility);
+    }
+
+    @Benchmark
+    public Signal getTradeSignal() {
+        if (next == data.size) {
+            reset();
+        }
+        return processBar();
+    }
+}
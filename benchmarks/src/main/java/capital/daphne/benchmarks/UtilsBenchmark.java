@@ -0,0 +1,47 @@
+package capital.daphne.benchmarks;
+
+import capital.daphne.models.TradingHours;
+import capital.daphne.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utils中每根bar或者每次TRADING_PERIODS变化时调用的解析函数，ewm在EwmBenchmark中
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilsBenchmark {
+    // 和contract中STK的TRADING_PERIODS格式一致，一周的交易时段
+    private static final String TRADING_PERIODS = "20231101:0400-20231101:2000;20231102:0400-20231102:2000;20231103:0400-20231103:2000;"
+            + "20231104:CLOSED;20231105:CLOSED;20231106:0400-20231106:2000;20231107:0400-20231107:2000";
+
+    private static final String BAR_DATE = "2023-12-08 09:30:05-05:00";
+
+    private static final String BAR_DATE_PATTERN = "yyyy-MM-dd HH:mm:ssXXX";
+
+    @Benchmark
+    public TradingHours[] parseTradingHours() {
+        return Utils.parseTradingHours(TRADING_PERIODS, "STK");
+    }
+
+    @Benchmark
+    public LocalDateTime genUsDateTime() {
+        return Utils.genUsDateTime(BAR_DATE, BAR_DATE_PATTERN);
+    }
+
+    @Benchmark
+    public LocalDateTime genUsDateTimeNow() {
+        return Utils.genUsDateTimeNow();
+    }
+
+    @Benchmark
+    public long parseEpochNanos() {
+        return Utils.parseEpochNanos(BAR_DATE);
+    }
+}
@@ -1,7 +1,7 @@
 package capital.daphne;
 
+import capital.daphne.utils.JsonCodec;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Data;
 
 import java.io.File;
@@ -11,7 +11,7 @@ import java.util.List;
 
 public class AppConfigManager {
     private static AppConfigManager instance;
-    private AppConfig appConfig;
+    private volatile AppConfig appConfig;
 
     private AppConfigManager() {
         // 在构造函数中加载配置文件并创建 AppConfig 实例
@@ -29,10 +29,21 @@ public class AppConfigManager {
         return appConfig;
     }
 
+    /**
+     * 重新加载config.json，加载失败时保留原来的配置并返回null
+     */
+    public synchronized AppConfig reload() {
+        AppConfig newConfig = loadConfig();
+        if (newConfig == null) {
+            return null;
+        }
+        appConfig = newConfig;
+        return newConfig;
+    }
+
     private AppConfig loadConfig() {
-        ObjectMapper objectMapper = new ObjectMapper();
         try {
-            return objectMapper.readValue(new File("config.json"), AppConfig.class);
+            return JsonCodec.mapper().readValue(new File("config.json"), AppConfig.class);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -46,6 +57,13 @@ public class AppConfigManager {
         private Http http;
         private List<ContractConfig> contracts;
         private List<AlgorithmConfig> algorithms;
+        private Dispatcher dispatcher;
+        private Audit audit;
+        private StateCache stateCache;
+        private Checkpoint checkpoint;
+        private BinaryCodec binaryCodec;
+        private Backtest backtest;
+        private Warmup warmup;
 
         @Data
         public static class Database {
@@ -66,10 +84,106 @@ public class AppConfigManager {
         }
 
         @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
         public static class Http {
             private String host;
             private int port;
             private String path;
+            // 信号发送方式：http 或 redisStream
+            private String transport;
+            private long connectTimeoutMillis;
+            private long requestTimeoutMillis;
+            // 失败后的重试次数，重试使用相同的uuid
+            private int maxRetries;
+            private long retryBackoffMillis;
+            // transport为redisStream时使用
+            private String streamKey;
+            private long streamMaxLen;
+        }
+
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class Dispatcher {
+            // 分片数，同一个symbol:secType固定落在一个分片上
+            private int shards;
+            // 每个分片的队列长度
+            private int queueCapacity;
+            // DROP 或 COALESCE
+            private String stalePolicy;
+            // 并行计算algorithm的线程数
+            private int workerThreads;
+            private int metricsIntervalSeconds;
+        }
+
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class Audit {
+            // 等待写入数据库的队列长度，满了以后交给后台线程落盘，落盘前最多再缓存同样数量的数据
+            private int queueCapacity;
+            private int batchSize;
+            private long flushIntervalMillis;
+            // MySQL写入失败时的落盘文件
+            private String spillFile;
+            private int replayIntervalSeconds;
+            private int metricsIntervalSeconds;
+        }
+
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class StateCache {
+            private boolean enabled;
+            // redis的db编号，用来拼keyspace通知的channel
+            private int database;
+            private long heartbeatIntervalMillis;
+            // 超过这个时间没收到心跳通知，直接读redis
+            private long maxLagMillis;
+            // 缓存的最长有效期，兜底
+            private long maxAgeMillis;
+        }
+
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class Checkpoint {
+            // 内存中的指标状态（e.g. EMA）写入redis/mysql的间隔
+            private long intervalMillis;
+        }
+
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class BinaryCodec {
+            // 优先读取BAR_BIN，不存在时读取BAR_LIST
+            private boolean bars;
+            // 优先读取WAP_BIN，不存在时读取WAP_LIST
+            private boolean waps;
+        }
+
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class Backtest {
+            // 和datasource的WAP_LIST保留数量一致，默认7200秒的5秒bar
+            private int maxKeepNumOfWap;
+            // 每天开盘时清空bar和wap，和datasource的行为一致
+            private boolean resetDaily;
+            // 美东时间的交易时段，e.g. 09:30-16:00，用来判断是否可交易和收盘前平仓
+            private String sessionStart;
+            private String sessionEnd;
+            // 用vwap模拟bid/ask的价差，单位bp
+            private double spreadBps;
+            // 成交价相对bid/ask的滑点，单位bp
+            private double slippageBps;
+            // 每股（每张）手续费
+            private double commissionPerShare;
+        }
+
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class Warmup {
+            // 启动时在订阅bar消息之前预热，让processor在第一条bar消息时就能给出信号
+            private boolean enabled;
+            // BarArchive的根目录，为空时只用redis中的bar
+            private String archiveRoot;
+            // redis中的bar不够时，从存档中读取最近几个交易日，默认1
+            private int archiveDays;
         }
 
         @Data
@@ -130,6 +244,9 @@ public class AppConfigManager {
             private int addLongAfterSeconds;
             private int delayOpenSeconds;
             private int barSeconds;
+            // WILLR过滤器的参数，不配置时分别是990和1
+            private int willrPeriod;
+            private Integer willrOffset;
         }
 
         @Data
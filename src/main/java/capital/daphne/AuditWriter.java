@@ -0,0 +1,518 @@
+package capital.daphne;
+
+import capital.daphne.models.AuditRecord;
+import capital.daphne.utils.JsonCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 审计数据（tb_wap_log, tb_benchmark_log, tb_signal）的异步批量写入
+ * 信号线程只把数据放进有界队列，由后台线程按数量或时间攒批，用addBatch/executeBatch写入
+ * 队列满了或者MySQL写入失败时，数据追加到本地落盘文件，MySQL恢复后再重放
+ * 队列满了时信号线程也不写文件，只把数据放进溢出队列，由后台线程每轮攒成一批落盘、fsync一次
+ * 只有连接失败等暂时性的错误才落盘重试；个别行永远写不进去（e.g. NaN、超长的值）时逐行写入，
+ * 写不进去的行隔离到<spillFile>.rejected，不会一直留在落盘文件里挡住后面的数据
+ * 没有初始化时（比如单元测试）直接同步写入
+ */
+public class AuditWriter {
+    private static final Logger logger = LoggerFactory.getLogger(AuditWriter.class);
+
+    public enum Table {
+        WAP_LOG("INSERT INTO tb_wap_log (account_id, symbol, sec_type, max_wap, min_wap, volatility, adjusted_volatility) VALUES (?, ?, ?, ?, ?, ?, ?)"),
+        BENCHMARK_LOG("INSERT INTO tb_benchmark_log (account_id, symbol, sec_type, benchmark, benchmark_value) VALUES (?, ?, ?, ?, ?)"),
+        SIGNAL("INSERT INTO tb_signal (account_id, uuid, symbol, sec_type, wap, quantity) VALUES (?, ?, ?, ?, ?, ?)");
+
+        private final String insertSql;
+
+        Table(String insertSql) {
+            this.insertSql = insertSql;
+        }
+
+        public String getInsertSql() {
+            return insertSql;
+        }
+    }
+
+    // 落盘文件的追加和重放互斥
+    private static final Object spillLock = new Object();
+
+    private static BlockingQueue<AuditRecord> queue;
+    // 队列满了以后的数据，等后台线程落盘，容量和queue相同，再满了就丢弃
+    private static Queue<AuditRecord> overflow;
+    private static final AtomicInteger overflowSize = new AtomicInteger();
+    private static int overflowCapacity;
+    private static Thread writerThread;
+    private static ScheduledExecutorService metricsExecutor;
+    private static volatile boolean running = false;
+
+    private static int batchSize;
+    private static long flushIntervalMillis;
+    private static long replayIntervalMillis;
+    private static Path spillPath;
+    private static Path rejectedPath;
+    private static long lastReplayMillis = 0;
+
+    private static final LongAdder enqueuedCount = new LongAdder();
+    private static final LongAdder writtenCount = new LongAdder();
+    private static final LongAdder spilledCount = new LongAdder();
+    private static final LongAdder replayedCount = new LongAdder();
+    private static final LongAdder droppedCount = new LongAdder();
+    private static final LongAdder rejectedCount = new LongAdder();
+    private static final LongAdder failedBatchCount = new LongAdder();
+    // 最近一批数据从入队到写入数据库的最大延迟
+    private static final AtomicLong maxLagMillis = new AtomicLong();
+
+    public static synchronized void initialize() {
+        if (running) {
+            return;
+        }
+        AppConfigManager.AppConfig.Audit config = AppConfigManager.getInstance().getAppConfig().getAudit();
+        int queueCapacity = 10000;
+        batchSize = 200;
+        flushIntervalMillis = 500;
+        replayIntervalMillis = 30000;
+        int metricsIntervalSeconds = 60;
+        String spillFile = "audit-spill.jsonl";
+        if (config != null) {
+            queueCapacity = config.getQueueCapacity() > 0 ? config.getQueueCapacity() : queueCapacity;
+            batchSize = config.getBatchSize() > 0 ? config.getBatchSize() : batchSize;
+            flushIntervalMillis = config.getFlushIntervalMillis() > 0 ? config.getFlushIntervalMillis() : flushIntervalMillis;
+            replayIntervalMillis = config.getReplayIntervalSeconds() > 0 ? config.getReplayIntervalSeconds() * 1000L : replayIntervalMillis;
+            metricsIntervalSeconds = config.getMetricsIntervalSeconds() > 0 ? config.getMetricsIntervalSeconds() : metricsIntervalSeconds;
+            spillFile = config.getSpillFile() != null && !config.getSpillFile().isEmpty() ? config.getSpillFile() : spillFile;
+        }
+        spillPath = Paths.get(spillFile);
+        rejectedPath = spillPath.resolveSibling(spillPath.getFileName() + ".rejected");
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        overflow = new ConcurrentLinkedQueue<>();
+        overflowCapacity = queueCapacity;
+        running = true;
+
+        writerThread = new Thread(AuditWriter::runLoop, "audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        metricsExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "audit-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metricsExecutor.scheduleAtFixedRate(AuditWriter::logMetrics, metricsIntervalSeconds, metricsIntervalSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(AuditWriter::shutdown, "audit-shutdown"));
+        logger.info(String.format("audit writer started, queueCapacity=%d, batchSize=%d, flushIntervalMillis=%d, spillFile=%s",
+                queueCapacity, batchSize, flushIntervalMillis, spillPath.toAbsolutePath()));
+    }
+
+    /**
+     * 提交一行审计数据，不阻塞调用线程，也不做磁盘IO
+     */
+    public static void write(Table table, Object... values) {
+        AuditRecord record = new AuditRecord(table.name(), values);
+        if (!running) {
+            writeSync(record);
+            return;
+        }
+        enqueuedCount.increment();
+        if (!queue.offer(record)) {
+            // 队列满了说明MySQL跟不上，交给后台线程落盘，等恢复后重放
+            if (overflowSize.incrementAndGet() > overflowCapacity) {
+                overflowSize.decrementAndGet();
+                droppedCount.increment();
+                return;
+            }
+            overflow.offer(record);
+        }
+    }
+
+    /**
+     * 停止后台线程，把队列中剩余的数据写入数据库，写不进去的落盘
+     */
+    public static synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // 不中断后台线程：中断会关闭正在落盘的FileChannel，poll最多等flushIntervalMillis就会退出循环
+        try {
+            writerThread.join(flushIntervalMillis * 4);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<AuditRecord> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            spill(flush(remaining));
+        }
+        spillOverflow();
+        metricsExecutor.shutdown();
+        logMetrics();
+    }
+
+    public static int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public static int getOverflowDepth() {
+        return overflowSize.get();
+    }
+
+    public static long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    public static long getSpilledCount() {
+        return spilledCount.sum();
+    }
+
+    public static long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public static long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    private static void runLoop() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        // 启动时先重放上次没写进去的数据
+        replaySpillFile();
+        while (running) {
+            try {
+                AuditRecord first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                    // 攒够batchSize或者到了flush时间就写一次
+                    while (batch.size() < batchSize) {
+                        queue.drainTo(batch, batchSize - batch.size());
+                        long waitMillis = deadline - System.currentTimeMillis();
+                        if (batch.size() >= batchSize || waitMillis <= 0) {
+                            break;
+                        }
+                        AuditRecord next = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    spill(flush(batch));
+                    batch.clear();
+                }
+                spillOverflow();
+                if (System.currentTimeMillis() - lastReplayMillis >= replayIntervalMillis) {
+                    replaySpillFile();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.warn("audit writer loop failed, error:" + e.getMessage());
+                if (!batch.isEmpty()) {
+                    spill(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            spill(flush(batch));
+        }
+        spillOverflow();
+    }
+
+    /**
+     * 在一个事务中按表分组批量写入，返回因为连接失败等暂时性错误没有写入、需要落盘重试的数据，全部处理完时返回空list
+     * 批量写入因为数据本身的错误失败时，回滚后逐行写入，写不进去的行隔离，其余的行照常写入
+     */
+    private static List<AuditRecord> flush(List<AuditRecord> batch) {
+        Map<String, List<AuditRecord>> grouped = new LinkedHashMap<>();
+        for (AuditRecord record : batch) {
+            grouped.computeIfAbsent(record.getTable(), k -> new ArrayList<>()).add(record);
+        }
+
+        try (Connection connection = DbManager.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (Map.Entry<String, List<AuditRecord>> entry : grouped.entrySet()) {
+                    Table table = Table.valueOf(entry.getKey());
+                    try (PreparedStatement insertStatement = connection.prepareStatement(table.getInsertSql())) {
+                        for (AuditRecord record : entry.getValue()) {
+                            bind(insertStatement, record);
+                            insertStatement.addBatch();
+                        }
+                        insertStatement.executeBatch();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | IllegalArgumentException e) {
+                connection.rollback();
+                if (e instanceof SQLException && isRetryable((SQLException) e)) {
+                    throw e;
+                }
+                logger.warn(String.format("audit batch insert rejected, insert one by one, size=%d, error:%s", batch.size(), e.getMessage()));
+                connection.setAutoCommit(true);
+                return insertOneByOne(connection, batch);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (Exception e) {
+            failedBatchCount.increment();
+            logger.warn(String.format("audit batch insert failed, size=%d, error:%s", batch.size(), e.getMessage()));
+            return batch;
+        }
+
+        recordWritten(batch);
+        return Collections.emptyList();
+    }
+
+    /**
+     * 逐行自动提交，数据本身有问题的行隔离；遇到暂时性错误时停止，返回这一行和之后的数据
+     */
+    private static List<AuditRecord> insertOneByOne(Connection connection, List<AuditRecord> batch) {
+        List<AuditRecord> written = new ArrayList<>();
+        List<AuditRecord> rejected = new ArrayList<>();
+        List<AuditRecord> retry = Collections.emptyList();
+        for (int i = 0; i < batch.size(); i++) {
+            AuditRecord record = batch.get(i);
+            try {
+                Table table = Table.valueOf(record.getTable());
+                try (PreparedStatement insertStatement = connection.prepareStatement(table.getInsertSql())) {
+                    bind(insertStatement, record);
+                    insertStatement.executeUpdate();
+                }
+                written.add(record);
+            } catch (SQLException e) {
+                if (isRetryable(e)) {
+                    failedBatchCount.increment();
+                    logger.warn(String.format("audit insert failed, retry later, size=%d, error:%s", batch.size() - i, e.getMessage()));
+                    retry = new ArrayList<>(batch.subList(i, batch.size()));
+                    break;
+                }
+                rejected.add(record);
+                logger.warn(String.format("audit record rejected, table=%s, values=%s, error:%s", record.getTable(), Arrays.toString(record.getValues()), e.getMessage()));
+            } catch (IllegalArgumentException e) {
+                rejected.add(record);
+                logger.warn(String.format("audit record rejected, unknown table=%s, values=%s", record.getTable(), Arrays.toString(record.getValues())));
+            }
+        }
+        recordWritten(written);
+        if (!rejected.isEmpty()) {
+            if (append(rejectedPath, rejected)) {
+                rejectedCount.add(rejected.size());
+            }
+        }
+        return retry;
+    }
+
+    /**
+     * 连接失败、超时、死锁等重试有可能成功的错误，SQLState 08是连接错误，40是事务回滚
+     */
+    private static boolean isRetryable(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientException || t instanceof SQLRecoverableException || t instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String sqlState = ((SQLException) t).getSQLState();
+                if (sqlState != null && (sqlState.startsWith("08") || sqlState.startsWith("40"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void recordWritten(List<AuditRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long lag = 0;
+        for (AuditRecord record : records) {
+            lag = Math.max(lag, now - record.getCreatedAt());
+        }
+        maxLagMillis.accumulateAndGet(lag, Math::max);
+        writtenCount.add(records.size());
+        logger.debug(String.format("audit batch inserted, size=%d, lagMillis=%d", records.size(), lag));
+    }
+
+    private static void writeSync(AuditRecord record) {
+        Table table = Table.valueOf(record.getTable());
+        try (Connection connection = DbManager.getConnection();
+             PreparedStatement insertStatement = connection.prepareStatement(table.getInsertSql())) {
+            bind(insertStatement, record);
+            int rowCount = insertStatement.executeUpdate();
+            if (rowCount > 0) {
+                logger.debug(String.format("%s insert successfully, values=%s", table, Arrays.toString(record.getValues())));
+            } else {
+                logger.warn(String.format("%s insert failed, values=%s", table, Arrays.toString(record.getValues())));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            logger.warn(String.format("%s insert failed, values=%s, error:%s", table, Arrays.toString(record.getValues()), e.getMessage()));
+        }
+    }
+
+    private static void bind(PreparedStatement insertStatement, AuditRecord record) throws SQLException {
+        Object[] values = record.getValues();
+        for (int i = 0; i < values.length; i++) {
+            insertStatement.setObject(i + 1, values[i]);
+        }
+    }
+
+    /**
+     * 把溢出队列中的数据一次落盘，只在后台线程（和shutdown）中调用
+     */
+    private static void spillOverflow() {
+        List<AuditRecord> records = new ArrayList<>();
+        AuditRecord record;
+        while ((record = overflow.poll()) != null) {
+            overflowSize.decrementAndGet();
+            records.add(record);
+        }
+        if (!records.isEmpty()) {
+            spill(records);
+        }
+    }
+
+    /**
+     * 追加到落盘文件，每行一个json，写完后fsync
+     */
+    private static void spill(List<AuditRecord> records) {
+        if (!records.isEmpty() && append(spillPath, records)) {
+            spilledCount.add(records.size());
+        }
+    }
+
+    /**
+     * 追加到文件，每行一个json，写完后fsync，失败时计入dropped
+     */
+    private static boolean append(Path path, List<AuditRecord> records) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (AuditRecord record : records) {
+                sb.append(JsonCodec.write(record)).append('\n');
+            }
+        } catch (IOException e) {
+            droppedCount.add(records.size());
+            logger.warn(String.format("audit records dropped, serialize failed, size=%d, error:%s", records.size(), e.getMessage()));
+            return false;
+        }
+
+        synchronized (spillLock) {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                return true;
+            } catch (IOException e) {
+                droppedCount.add(records.size());
+                logger.warn(String.format("audit records dropped, write %s failed, size=%d, error:%s", path, records.size(), e.getMessage()));
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 把落盘文件中的数据重新写入数据库
+     * 先把文件改名再读，重放期间新落盘的数据写到新文件里，没写进去的数据再追加回去
+     */
+    private static void replaySpillFile() {
+        lastReplayMillis = System.currentTimeMillis();
+        Path replayPath = spillPath.resolveSibling(spillPath.getFileName() + ".replay");
+        synchronized (spillLock) {
+            try {
+                if (!Files.exists(replayPath)) {
+                    if (!Files.exists(spillPath) || Files.size(spillPath) == 0) {
+                        return;
+                    }
+                    Files.move(spillPath, replayPath, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                logger.warn("audit spill file rotate failed, error:" + e.getMessage());
+                return;
+            }
+        }
+
+        List<AuditRecord> pending = new ArrayList<>();
+        List<AuditRecord> failed = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(replayPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    pending.add(JsonCodec.read(line, AuditRecord.class));
+                } catch (IOException e) {
+                    droppedCount.increment();
+                    logger.warn("audit spill line dropped, parse failed, line:" + line);
+                    continue;
+                }
+                if (pending.size() >= batchSize) {
+                    replayBatch(pending, failed);
+                }
+            }
+            if (!pending.isEmpty()) {
+                replayBatch(pending, failed);
+            }
+        } catch (IOException e) {
+            logger.warn("audit spill file replay failed, error:" + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.delete(replayPath);
+        } catch (IOException e) {
+            logger.warn("audit spill file delete failed, error:" + e.getMessage());
+            return;
+        }
+        spill(failed);
+    }
+
+    private static void replayBatch(List<AuditRecord> pending, List<AuditRecord> failed) {
+        // 前面的批次因为连接失败等暂时性错误没有写入时不再尝试，说明MySQL还没恢复
+        // 数据本身有问题的行在flush中已经隔离，不会让后面的批次一直重试
+        if (failed.isEmpty()) {
+            List<AuditRecord> retry = flush(pending);
+            // 写入或者隔离的行都不再留在落盘文件中
+            replayedCount.add(pending.size() - retry.size());
+            failed.addAll(retry);
+        } else {
+            failed.addAll(pending);
+        }
+        pending.clear();
+    }
+
+    private static void logMetrics() {
+        logger.info(String.format("AUDIT_METRICS|enqueued=%d|written=%d|spilled=%d|replayed=%d|dropped=%d|rejected=%d|failedBatches=%d|queueDepth=%d|overflowDepth=%d|maxLagMs=%d",
+                enqueuedCount.sum(), writtenCount.sum(), spilledCount.sum(), replayedCount.sum(), droppedCount.sum(),
+                rejectedCount.sum(), failedBatchCount.sum(), getQueueDepth(), getOverflowDepth(), maxLagMillis.getAndSet(0)));
+    }
+}
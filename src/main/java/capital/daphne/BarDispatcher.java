@@ -0,0 +1,201 @@
+package capital.daphne;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 常驻的bar消息分发器
+ * 按symbol:secType做分片，每个分片一个线程 + 有界队列，保证同一个标的的bar按顺序处理
+ * 同一条bar消息匹配到的多个algorithm，再交给共享的worker线程池并行计算
+ */
+public class BarDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(BarDispatcher.class);
+
+    public enum StalePolicy {
+        // 队列满了直接丢弃新到的消息
+        DROP,
+        // 同一个标的已经有消息在排队时，丢弃新到的消息，排队中的任务执行时会读取最新的数据
+        COALESCE
+    }
+
+    private final ThreadPoolExecutor[] shards;
+    private final ExecutorService workerExecutor;
+    private final ScheduledExecutorService metricsExecutor;
+    private final StalePolicy stalePolicy;
+
+    // COALESCE模式下，已经在队列中还没开始执行的标的
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder receivedCount = new LongAdder();
+    private final LongAdder processedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public BarDispatcher(AppConfigManager.AppConfig.Dispatcher config) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int shardNum = cpus;
+        int queueCapacity = 64;
+        int workerThreads = cpus * 2;
+        int metricsIntervalSeconds = 60;
+        StalePolicy policy = StalePolicy.DROP;
+        if (config != null) {
+            shardNum = config.getShards() > 0 ? config.getShards() : shardNum;
+            queueCapacity = config.getQueueCapacity() > 0 ? config.getQueueCapacity() : queueCapacity;
+            workerThreads = config.getWorkerThreads() > 0 ? config.getWorkerThreads() : workerThreads;
+            metricsIntervalSeconds = config.getMetricsIntervalSeconds() > 0 ? config.getMetricsIntervalSeconds() : metricsIntervalSeconds;
+            if (config.getStalePolicy() != null) {
+                policy = StalePolicy.valueOf(config.getStalePolicy().toUpperCase());
+            }
+        }
+        stalePolicy = policy;
+
+        shards = new ThreadPoolExecutor[shardNum];
+        for (int i = 0; i < shardNum; i++) {
+            shards[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), namedThreadFactory("bar-shard-" + i + "-"));
+        }
+        workerExecutor = Executors.newFixedThreadPool(workerThreads, namedThreadFactory("algo-worker-"));
+        metricsExecutor = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("dispatcher-metrics-"));
+        metricsExecutor.scheduleAtFixedRate(this::logMetrics, metricsIntervalSeconds, metricsIntervalSeconds, TimeUnit.SECONDS);
+        logger.info(String.format("bar dispatcher started, shards=%d, queueCapacity=%d, workerThreads=%d, stalePolicy=%s",
+                shardNum, queueCapacity, workerThreads, stalePolicy));
+    }
+
+    /**
+     * 把一条bar消息的处理任务放到对应标的的分片中，不阻塞订阅线程
+     */
+    public void dispatch(String key, Runnable task) {
+        receivedCount.increment();
+        if (stalePolicy == StalePolicy.COALESCE && !pendingKeys.add(key)) {
+            coalescedCount.increment();
+            logger.debug(key + " message coalesced, a pending task will read the latest bar");
+            return;
+        }
+
+        long enqueueNanos = System.nanoTime();
+        ThreadPoolExecutor shard = shards[Math.floorMod(key.hashCode(), shards.length)];
+        try {
+            shard.execute(() -> {
+                pendingKeys.remove(key);
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    logger.warn(key + " process bar message failed, error:" + e.getMessage());
+                } finally {
+                    recordLatency(System.nanoTime() - enqueueNanos);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            droppedCount.increment();
+            logger.warn(String.format("%s bar message dropped, shard queue is full, queueDepth=%d", key, shard.getQueue().size()));
+        }
+    }
+
+    /**
+     * 在worker线程池中并行执行同一条bar消息的各个algorithm，等待全部完成后返回，保证同一个标的不会并发处理
+     */
+    public void invokeAll(List<Callable<Void>> tasks) throws InterruptedException {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        workerExecutor.invokeAll(tasks);
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            depth += shard.getQueue().size();
+        }
+        return depth;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.sum();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * 停止接收新消息，最多等待timeoutMillis让已经排队和正在执行的任务完成，超时后中断
+     * 返回后不会再有任务调用saveSignal或者提交检查点，下游的EmaCheckpointSvc、AuditWriter可以安全关闭
+     * 分片中的任务会调用invokeAll，所以先等分片结束再关闭worker线程池
+     */
+    public void shutdown(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+        metricsExecutor.shutdown();
+        try {
+            for (ThreadPoolExecutor shard : shards) {
+                awaitOrInterrupt(shard, deadline);
+            }
+            workerExecutor.shutdown();
+            awaitOrInterrupt(workerExecutor, deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (ThreadPoolExecutor shard : shards) {
+                shard.shutdownNow();
+            }
+            workerExecutor.shutdownNow();
+        }
+    }
+
+    private static void awaitOrInterrupt(ExecutorService executor, long deadline) throws InterruptedException {
+        long remainingMillis = Math.max(deadline - System.currentTimeMillis(), 0);
+        if (!executor.awaitTermination(remainingMillis, TimeUnit.MILLISECONDS)) {
+            List<Runnable> dropped = executor.shutdownNow();
+            logger.warn(String.format("bar dispatcher shutdown timed out, interrupted running tasks, dropped=%d", dropped.size()));
+        }
+    }
+
+    private void recordLatency(long latencyNanos) {
+        processedCount.increment();
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    private void logMetrics() {
+        long processed = processedCount.sum();
+        long avgLatencyMicros = processed == 0 ? 0 : totalLatencyNanos.sum() / processed / 1000;
+        // max只统计一个周期内的
+        long maxLatencyMicros = maxLatencyNanos.getAndSet(0) / 1000;
+        logger.info(String.format("DISPATCHER_METRICS|received=%d|processed=%d|dropped=%d|coalesced=%d|queueDepth=%d|avgLatencyUs=%d|maxLatencyUs=%d",
+                receivedCount.sum(), processed, droppedCount.sum(), coalescedCount.sum(), getQueueDepth(), avgLatencyMicros, maxLatencyMicros));
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
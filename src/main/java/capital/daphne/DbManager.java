@@ -2,16 +2,17 @@ package capital.daphne;
 
 import org.apache.commons.dbcp2.BasicDataSource;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 
 public class DbManager {
 
-    private static BasicDataSource dataSource;
+    private static DataSource dataSource;
 
     public static void initializeDbConnectionPool() {
         AppConfigManager.AppConfig appConfig = AppConfigManager.getInstance().getAppConfig();
-        dataSource = new BasicDataSource();
+        BasicDataSource dataSource = new BasicDataSource();
 
         String jdbcUrl = String.format(
                 "jdbc:mysql://%s:%d/%s",
@@ -23,6 +24,14 @@ public class DbManager {
         dataSource.setPassword(appConfig.getDatabase().getPassword());
         dataSource.setInitialSize(appConfig.getDatabase().getInitialConnectionsSize()); // 初始连接数
         dataSource.setMaxTotal(appConfig.getDatabase().getMaxConnectionsTotal()); // 最大连接数
+        DbManager.dataSource = dataSource;
+    }
+
+    /**
+     * 替换连接池，测试中使用
+     */
+    public static void setDataSource(DataSource dataSource) {
+        DbManager.dataSource = dataSource;
     }
 
     public static Connection getConnection() throws SQLException {
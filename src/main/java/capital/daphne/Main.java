@@ -1,125 +1,212 @@
 package capital.daphne;
 
+import capital.daphne.algorithms.ProcessorBundle;
+import capital.daphne.models.MarketSnapshot;
 import capital.daphne.models.Signal;
+import capital.daphne.models.TradingSchedule;
 import capital.daphne.services.BarSvc;
+import capital.daphne.services.EmaCheckpointSvc;
+import capital.daphne.services.LockSvc;
+import capital.daphne.services.MarketSnapshotSvc;
+import capital.daphne.services.RedisContext;
 import capital.daphne.services.SignalSvc;
+import capital.daphne.services.StateCache;
+import capital.daphne.services.WarmupSvc;
+import capital.daphne.transport.SendResult;
 import capital.daphne.utils.Utils;
-import com.ib.client.TickType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPubSub;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
 
 public class Main {
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
     private static BarSvc barSvc;
 
+    private static MarketSnapshotSvc marketSnapshotSvc;
+
+    private static SignalSvc signalSvc;
+
+    private static LockSvc lockSvc;
+
+    private static BarDispatcher barDispatcher;
+
+    private static final String BAR_UPDATE_CHANNEL = "barUpdateChannel";
+
+    private static final String CONFIG_RELOAD_CHANNEL = "configReloadChannel";
+
+    // 退出时等待正在处理的bar消息的最长时间
+    private static final long DISPATCHER_SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
     public static void main(String[] args) {
         AppConfigManager.AppConfig appConfig = AppConfigManager.getInstance().getAppConfig();
 
         barSvc = new BarSvc();
+        marketSnapshotSvc = new MarketSnapshotSvc(barSvc);
 
         logger.info("initialize database handler: mysql");
         DbManager.initializeDbConnectionPool();
 
+        logger.info("initialize audit writer");
+        AuditWriter.initialize();
+
         logger.info("initialize cache handler: redis");
         JedisManager.initializeJedisPool();
 
+        logger.info("initialize state cache");
+        StateCache.initialize();
+
+        logger.info("initialize ema checkpoint");
+        EmaCheckpointSvc.initialize();
+
         logger.info("initialize signal service");
-        SignalSvc signalSvc = new SignalSvc(appConfig.getAlgorithms());
+        signalSvc = new SignalSvc(appConfig.getAlgorithms());
+        lockSvc = new LockSvc();
+
+        logger.info("initialize bar dispatcher");
+        barDispatcher = new BarDispatcher(appConfig.getDispatcher());
+
+        // 订阅之前恢复bar、开盘系数和指标状态，第一条bar消息就可以给出信号
+        AppConfigManager.AppConfig.Warmup warmup = appConfig.getWarmup();
+        if (warmup != null && warmup.isEnabled()) {
+            logger.info("warm up algorithms");
+            new WarmupSvc(barSvc, marketSnapshotSvc, signalSvc, warmup).warmUp(appConfig.getAlgorithms());
+        }
 
         JedisPool jedisPool = JedisManager.getJedisPool();
         try (Jedis jedis = jedisPool.getResource()) {
-            // 监听bar更新的消息，然后根据配置中的algorithm来进行判断和处理，如果有信号，就给trader模块发送信号
+            // 监听bar更新的消息，交给分发器按标的排队处理，订阅线程不做计算
+            // 监听配置重载的消息，重新构建路由表
             jedis.subscribe(new JedisPubSub() {
                 @Override
                 public void onMessage(String channel, String message) {
                     logger.info("Received message: " + message + " from channel: " + channel);
+                    if (CONFIG_RELOAD_CHANNEL.equals(channel)) {
+                        reloadConfig();
+                        return;
+                    }
                     String[] strings = Utils.parseKey(message);
                     String symbol = strings[0];
                     String secType = strings[1];
+                    barDispatcher.dispatch(Utils.genKey(symbol, secType), () -> processBarMessage(symbol, secType));
+                }
+            }, BAR_UPDATE_CHANNEL, CONFIG_RELOAD_CHANNEL);
+        } catch (Exception e) {
+            logger.warn("handling subscription message failed, error:" + e.getMessage());
+        } finally {
+            // 等正在计算的bar处理完，之后才能关闭信号发送、检查点和审计写入
+            barDispatcher.shutdown(DISPATCHER_SHUTDOWN_TIMEOUT_MILLIS);
+            signalSvc.close();
+            // 检查点会写tb_benchmark_log，需要在AuditWriter之前停止
+            EmaCheckpointSvc.shutdown();
+            AuditWriter.shutdown();
+        }
+    }
 
-                    // 在algorithms里面，过滤出涉及到这个股票的algorithm
-                    List<AppConfigManager.AppConfig.AlgorithmConfig> matchedAlgorithms = appConfig.getAlgorithms().stream()
-                            .filter(algorithm -> symbol.equals(algorithm.getSymbol()) && secType.equals(algorithm.getSecType()))
-                            .collect(Collectors.toList());
-                    if (matchedAlgorithms.size() == 0) {
-                        logger.warn(String.format("%s %s no matched algorithms to process", symbol, secType));
-                        return;
-                    }
+    /**
+     * 根据配置中的algorithm来进行判断和处理，如果有信号，就给trader模块发送信号
+     */
+    private static void processBarMessage(String symbol, String secType) {
+        // 通过路由表找到涉及到这个股票的algorithm
+        ProcessorBundle[] matchedBundles = signalSvc.route(symbol, secType);
+        if (matchedBundles.length == 0) {
+            logger.debug(String.format("%s %s no matched algorithms to process", symbol, secType));
+            return;
+        }
 
-                    // 获取wapList
-                    List<String> wapList = barSvc.getWapList(Utils.genKey(symbol, secType));
+        // 一次性读取bar、wapList、bid ask price和交易时段，各algorithm共享
+        MarketSnapshot snapshot = marketSnapshotSvc.load(symbol, secType);
+        double bidPrice = snapshot.getBidPrice();
+        double askPrice = snapshot.getAskPrice();
+        if (bidPrice == 0.0 || askPrice == 0.0) {
+            logger.warn(String.format("Bid price or ask price is invalid, symbol=%s, bidPrice=%f, askPrice=%f", symbol, bidPrice, askPrice));
+            return;
+        }
 
-                    // 获取bid ask price
-                    String key = Utils.genKey(symbol, secType);
-                    double bidPrice = Utils.getTickerPrice(key, TickType.BID);
-                    double askPrice = Utils.getTickerPrice(key, TickType.ASK);
-                    if (bidPrice == 0.0 || askPrice == 0.0) {
-                        logger.warn(String.format("Bid price or ask price is invalid, symbol=%s, bidPrice=%f, askPrice=%f", symbol, bidPrice, askPrice));
-                        return;
-                    }
+        // 根据matchedBundles，交给worker线程池并行处理
+        List<Callable<Void>> tasks = new ArrayList<>(matchedBundles.length);
+        for (ProcessorBundle bundle : matchedBundles) {
+            tasks.add(() -> {
+                processAlgorithm(bundle, snapshot);
+                return null;
+            });
+        }
+        try {
+            barDispatcher.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn(String.format("%s %s process algorithms interrupted", symbol, secType));
+        }
+    }
+
+    private static void reloadConfig() {
+        AppConfigManager.AppConfig newConfig = AppConfigManager.getInstance().reload();
+        if (newConfig == null) {
+            logger.warn("reload config failed, keep using the current config");
+            return;
+        }
+        signalSvc.reload(newConfig.getAlgorithms());
+    }
 
+    private static void processAlgorithm(ProcessorBundle bundle, MarketSnapshot snapshot) {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = bundle.getAlgorithmConfig();
+        String symbol = snapshot.getSymbol();
+        String secType = snapshot.getSecType();
+        // position、last action、order list等在同一个连接上一次读取，evaluation过程中不再单独访问redis
+        try (RedisContext ignored = RedisContext.open(bundle.collectStateKeys())) {
+            // 计算当前标的的volatility
+            double volatility = barSvc.calVolatility(ac, snapshot.getVolatilityEngine());
+
+            // 获取信号
+            Signal tradeSignal = signalSvc.getTradeSignal(bundle, snapshot, volatility);
+            if (tradeSignal != null && tradeSignal.isValid()) {
+                // 之所以把判断条件放在这里，是因为有些交易的benchmark（如EMA）对历史数据是有依赖的
+                // 因此无论如何都调用一下getTradingSingal，把对应的benchmark值给计算出来
+
+                // 当前股票已经有交易在进行（本地缓存，只是提前过滤，真正的互斥靠下面的加锁）
+                String inProgressKey = String.format("%s:%s:%s:IN_PROGRESS", ac.getAccountId(), ac.getSymbol(), ac.getSecType());
+                boolean inProgress = Utils.isInProgress(inProgressKey);
+                if (inProgress) {
+                    logger.warn(String.format("%s Order is in progressing, won't trigger signal this time", inProgressKey));
+                    return;
+                }
 
-                    // 根据matchedAlgorithms，开启对应的线程来并行处理
-                    int numThreads = matchedAlgorithms.size();
-                    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-
-                    for (AppConfigManager.AppConfig.AlgorithmConfig ac : matchedAlgorithms) {
-                        executor.submit(() -> {
-                            try {
-
-                                // 计算当前标的的volatility
-                                double volatility = barSvc.calVolatility(ac, wapList);
-
-                                // 获取信号
-                                Signal tradeSignal = signalSvc.getTradeSignal(ac, volatility, bidPrice, askPrice);
-                                if (tradeSignal != null && tradeSignal.isValid()) {
-                                    // 之所以把判断条件放在这里，是因为有些交易的benchmark（如EMA）对历史数据是有依赖的
-                                    // 因此无论如何都调用一下getTradingSingal，把对应的benchmark值给计算出来
-
-                                    // 当前股票已经有交易在进行
-                                    String inProgressKey = String.format("%s:%s:%s:IN_PROGRESS", ac.getAccountId(), ac.getSymbol(), ac.getSecType());
-                                    boolean inProgress = Utils.isInProgress(inProgressKey);
-                                    if (inProgress) {
-                                        logger.warn(String.format("%s Order is in progressing, won't trigger signal this time", inProgressKey));
-                                        return;
-                                    }
-
-                                    // 当前是否是可交易时间
-                                    boolean isTradingNow = Utils.isTradingNow(symbol, secType, Utils.genUsDateTimeNow(), ac.getStartTradingAfterOpenMarketSeconds());
-                                    if (!isTradingNow) {
-                                        logger.info(String.format("account=%s, symbol=%s, secType=%s, is not trading now", ac.getAccountId(), symbol, secType));
-                                        return;
-                                    }
-
-                                    // 记录信号
-                                    signalSvc.saveSignal(tradeSignal);
-
-                                    // 发送下单信号
-                                    signalSvc.sendSignal(tradeSignal);
-
-                                    // 加锁，60s过期，订单成交也会解锁
-                                    Utils.setInProgress(inProgressKey);
-
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        });
-                    }
-                    executor.shutdown();
+                // 当前是否是可交易时间
+                TradingSchedule tradingSchedule = snapshot.getTradingSchedule();
+                boolean isTradingNow = tradingSchedule != null && tradingSchedule.isTradingNow(Utils.genUsDateTimeNow(), ac.getStartTradingAfterOpenMarketSeconds());
+                if (!isTradingNow) {
+                    logger.info(String.format("account=%s, symbol=%s, secType=%s, is not trading now", ac.getAccountId(), symbol, secType));
+                    return;
+                }
+
+                // 发送前原子加锁，60s过期，订单成交也会解锁；同一个标的的其他algorithm加锁失败，不会重复下单
+                String lockToken = lockSvc.tryLock(inProgressKey);
+                if (lockToken == null) {
+                    logger.warn(String.format("%s Order is in progressing, won't trigger signal this time", inProgressKey));
+                    return;
                 }
-            }, "barUpdateChannel");
+
+                // 记录信号
+                signalSvc.saveSignal(tradeSignal);
+
+                // 发送下单信号，trader确定没有收到时才释放锁，结果不确定时保留锁
+                SendResult sendResult = signalSvc.sendSignal(tradeSignal);
+                if (sendResult != SendResult.ACCEPTED) {
+                    boolean released = lockSvc.releaseIfRejected(inProgressKey, lockToken, sendResult);
+                    logger.warn(String.format("%s send signal failed, uuid=%s, result=%s, lockReleased=%s",
+                            inProgressKey, tradeSignal.getUuid(), sendResult, released));
+                    return;
+                }
+
+            }
         } catch (Exception e) {
-            logger.warn("handling subscription message failed, error:" + e.getMessage());
+            e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
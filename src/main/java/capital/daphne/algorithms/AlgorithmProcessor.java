@@ -3,6 +3,16 @@ package capital.daphne.algorithms;
 import capital.daphne.models.Signal;
 import tech.tablesaw.api.Table;
 
+import java.util.Collections;
+import java.util.List;
+
 public interface AlgorithmProcessor {
     public Signal getSignal(Table df, int position, int maxPosition, double bidPrice, double askPrice);
+
+    /**
+     * 计算信号时需要读取的redis key（e.g. LAST_ACTION、ORDER_LIST），每次evaluation开始前统一批量读取
+     */
+    default List<String> getStateKeys() {
+        return Collections.emptyList();
+    }
 }
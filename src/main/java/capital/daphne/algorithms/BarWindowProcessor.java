@@ -0,0 +1,21 @@
+package capital.daphne.algorithms;
+
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.Signal;
+import tech.tablesaw.api.Table;
+
+/**
+ * 直接读取BarWindow的processor，处理bar时不需要构建Table
+ * bars是最近numStatsBars + 1根bar，带有当前algorithm的volatility和报价
+ */
+public interface BarWindowProcessor extends AlgorithmProcessor {
+    public Signal getSignal(BarWindow bars, int position, int maxPosition);
+
+    /**
+     * 回测和测试中仍然可以传入dataframe
+     */
+    @Override
+    default Signal getSignal(Table df, int position, int maxPosition, double bidPrice, double askPrice) {
+        return getSignal(BarWindow.fromTable(df, bidPrice, askPrice), position, maxPosition);
+    }
+}
@@ -1,19 +1,24 @@
 package capital.daphne.algorithms;
 
 import capital.daphne.AppConfigManager;
+import capital.daphne.indicators.BarCursor;
+import capital.daphne.indicators.RollingMean;
+import capital.daphne.indicators.RollingWindow;
 import capital.daphne.models.ActionInfo;
 import capital.daphne.models.Signal;
-import capital.daphne.services.ta.TA;
+import capital.daphne.services.ta.TARegistry;
 import capital.daphne.utils.Utils;
+import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.tablesaw.api.DoubleColumn;
 import tech.tablesaw.api.Row;
 import tech.tablesaw.api.Table;
 
-import java.lang.reflect.Constructor;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
 
 public class DMA implements AlgorithmProcessor {
     private static final Logger logger = LoggerFactory.getLogger(DMA.class);
@@ -23,22 +28,56 @@ public class DMA implements AlgorithmProcessor {
     private AppConfigManager.AppConfig.DMAParams dp;
     private String benchmarkColumnName;
 
+    // 流式计算的均线，以及最近几根bar的均线值
+    private RollingMean fast;
+    private RollingMean slow;
+    private RollingMean trend;
+    private RollingWindow fastHistory;
+    private RollingWindow slowHistory;
+    private RollingWindow trendHistory;
+    private final BarCursor barCursor = new BarCursor();
+
+    // 当前bar用到的指标值，getter给和Tablesaw结果的对照测试使用
+    @Getter
+    private double fast1, fast2, slow1, slow2;
+    @Getter
+    private double fast1Cur, slow1Cur, fast2Cur, slow2Cur;
+    @Getter
+    private double trend1, trend1Cur;
+    private double longFilterValue;
+    private double shortFilterValue;
+
+    private final TARegistry taRegistry;
+
     public DMA(AppConfigManager.AppConfig.AlgorithmConfig algorithmConfig) {
+        this(algorithmConfig, TARegistry.of(algorithmConfig));
+    }
+
+    public DMA(AppConfigManager.AppConfig.AlgorithmConfig algorithmConfig, TARegistry taRegistry) {
+        this.taRegistry = taRegistry;
         ac = algorithmConfig;
         dp = algorithmConfig.getDmaParams();
         benchmarkColumnName = "dma";
     }
 
+    @Override
+    public List<String> getStateKeys() {
+        return Collections.singletonList(lastActionKey());
+    }
+
+    private String lastActionKey() {
+        return String.format("%s:%s:%s:%s:LAST_ACTION", ac.getAccountId(), ac.getSymbol(), ac.getSecType(), benchmarkColumnName);
+    }
+
     @Override
     public Signal getSignal(Table inputDf, int position, int maxPosition, double bidPrice, double askPrice) {
         try {
-            // 预处理dataframe，准备好对应的数据字段
-            Table taDf = preProcess(inputDf);
+            // 用新增的bar更新指标，准备好对应的数据字段
+            preProcess(inputDf);
 
             // 处理数据，获取并返回信号
             Row latestRow = inputDf.row(inputDf.rowCount() - 1);
-            Row latestTaRow = taDf.row(taDf.rowCount() - 1);
-            return processToGetSignal(latestRow, latestTaRow, position, maxPosition);
+            return processToGetSignal(latestRow, position, maxPosition);
         } catch (Exception e) {
             e.printStackTrace();
             logger.error("save signal failed, error:" + e.getMessage());
@@ -46,80 +85,85 @@ public class DMA implements AlgorithmProcessor {
         }
     }
 
-    private Table preProcess(Table df) {
-        Table taDf = Table.create("TA");
-
-        String longFilterKey = dp.getLongFilterKey();
-        String shortFilterKey = dp.getShortFilterKey();
-
-        if (!longFilterKey.equals("-")) {
-            TA longTa = null;
-            try {
-                String packageToClassName = "capital.daphne.services.ta." + longFilterKey;
-                // 使用反射加载类
-                Class<?> clazz = Class.forName(packageToClassName);
-                Constructor<?> constructor = clazz.getConstructor();
-                longTa = (TA) constructor.newInstance();
-                df = longTa.ta(df);
-                taDf.addColumns(df.doubleColumn(longFilterKey));
-            } catch (ClassNotFoundException e) {
-                logger.error("Class not found: " + longFilterKey);
-                System.exit(1);
-            } catch (Exception e) {
-                logger.error("Error creating instance for: " + longFilterKey);
-                e.printStackTrace();
-                System.exit(1);
-            }
+    private void preProcess(Table df) {
+        // 技术指标过滤器在构建时已经创建好
+        longFilterValue = Double.NaN;
+        shortFilterValue = Double.NaN;
+        if (taRegistry.getLongFilter() != null) {
+            longFilterValue = taRegistry.getLongFilter().latest(df, taRegistry.getLongFilterKey());
         }
-
-        if (!shortFilterKey.equals("-")) {
-            // todo generate short filter column
+        if (taRegistry.getShortFilter() != null) {
+            shortFilterValue = taRegistry.getShortFilter().latest(df, taRegistry.getShortFilterKey());
         }
 
         int fastWindow = dp.getFastWindow();
         int slowWindow = dp.getSlowWindow();
         int trendWindow = dp.getTrendWindow() + slowWindow;
-
-        DoubleColumn vwap = df.doubleColumn("vwap");
-        DoubleColumn fast = vwap.rolling(fastWindow).mean();
-        DoubleColumn slow = vwap.rolling(slowWindow).mean();
-        fast.setName("fast");
-        slow.setName("slow");
-
         int delayBars = dp.getDelayOpenSeconds() / dp.getBarSeconds();
-        DoubleColumn fast1 = fast.lag(1 + delayBars).setName("fast1");
-        DoubleColumn fast2 = fast.lag(2 + delayBars).setName("fast2");
-        DoubleColumn slow1 = slow.lag(1 + delayBars).setName("slow1");
-        DoubleColumn slow2 = slow.lag(2 + delayBars).setName("slow2");
-
-        DoubleColumn fast1Cur = fast.lag(1).setName("fast1Cur");
-        DoubleColumn slow1Cur = slow.lag(1).setName("slow1Cur");
-        DoubleColumn fast2Cur = fast.lag(2).setName("fast2Cur");
-        DoubleColumn slow2Cur = slow.lag(2).setName("slow2Cur");
+        if (fast == null) {
+            // 最多需要2 + delayBars根bar之前的均线
+            int historySize = 3 + delayBars;
+            fast = new RollingMean(fastWindow);
+            slow = new RollingMean(slowWindow);
+            trend = new RollingMean(trendWindow);
+            fastHistory = new RollingWindow(historySize);
+            slowHistory = new RollingWindow(historySize);
+            trendHistory = new RollingWindow(historySize);
+        }
 
+        DoubleColumn vwap = df.doubleColumn("vwap");
+        int from = barCursor.seek(df);
+        if (from < 0) {
+            fast.reset();
+            slow.reset();
+            trend.reset();
+            fastHistory.clear();
+            slowHistory.clear();
+            trendHistory.clear();
+            from = 0;
+        }
+        for (int i = from; i < df.rowCount(); i++) {
+            double value = vwap.getDouble(i);
+            fast.update(value);
+            slow.update(value);
+            trend.update(value);
+            fastHistory.add(fast.getValue());
+            slowHistory.add(slow.getValue());
+            trendHistory.add(trend.getValue());
+        }
+        barCursor.commit(df);
 
-        taDf.addColumns(fast1);
-        taDf.addColumns(fast2);
-        taDf.addColumns(slow1);
-        taDf.addColumns(slow2);
+        int rowCount = df.rowCount();
+        fast1 = lag(fastHistory, fastWindow, 1 + delayBars, rowCount);
+        fast2 = lag(fastHistory, fastWindow, 2 + delayBars, rowCount);
+        slow1 = lag(slowHistory, slowWindow, 1 + delayBars, rowCount);
+        slow2 = lag(slowHistory, slowWindow, 2 + delayBars, rowCount);
 
-        taDf.addColumns(fast1Cur);
-        taDf.addColumns(slow1Cur);
-        taDf.addColumns(fast2Cur);
-        taDf.addColumns(slow2Cur);
+        fast1Cur = lag(fastHistory, fastWindow, 1, rowCount);
+        slow1Cur = lag(slowHistory, slowWindow, 1, rowCount);
+        fast2Cur = lag(fastHistory, fastWindow, 2, rowCount);
+        slow2Cur = lag(slowHistory, slowWindow, 2, rowCount);
 
+        trend1 = Double.NaN;
+        trend1Cur = Double.NaN;
         if (trendWindow > slowWindow) {
-            DoubleColumn trend = vwap.rolling(trendWindow).mean();
-            trend.setName("trend");
-            DoubleColumn trend1 = trend.lag(1 + delayBars).setName("trend1");
-            DoubleColumn trend1Cur = trend.lag(1).setName("trend1Cur");
-            taDf.addColumns(trend1);
-            taDf.addColumns(trend1Cur);
-        }
-        return taDf;
+            trend1 = lag(trendHistory, trendWindow, 1 + delayBars, rowCount);
+            trend1Cur = lag(trendHistory, trendWindow, 1, rowCount);
+        }
     }
 
-    private Signal processToGetSignal(Row row, Row taRow, int position, int maxPosition) {
+    /**
+     * 等价于在dataframe上rolling(window).mean().lag(lag)后取最后一行
+     * 指标是跨dataframe连续计算的，dataframe本身的行数不够算出这个均线时返回NaN，和原来的结果保持一致
+     */
+    private static double lag(RollingWindow history, int window, int lag, int rowCount) {
+        if (rowCount - 1 - lag < window - 1) {
+            return Double.NaN;
+        }
+        return history.get(lag);
+    }
+
+    private Signal processToGetSignal(Row row, int position, int maxPosition) {
         boolean onlyLong = isOnlyLong();
         boolean onlyShort = isOnlyShort();
         if (isBothOrderMode()) {
@@ -127,18 +171,7 @@ public class DMA implements AlgorithmProcessor {
             onlyShort = true;
         }
 
-        double fast1 = taRow.getDouble("fast1");
-        double slow1 = taRow.getDouble("slow1");
-        double fast2 = taRow.getDouble("fast2");
-        double slow2 = taRow.getDouble("slow2");
-        double fast1Cur = taRow.getDouble("fast1Cur");
-        double slow1Cur = taRow.getDouble("slow1Cur");
-        double fast2Cur = taRow.getDouble("fast2Cur");
-        double slow2Cur = taRow.getDouble("slow2Cur");
-
         // using ta filter
-        String longFilterKey = dp.getLongFilterKey();
-        String shortFilterKey = dp.getShortFilterKey();
         double longFilterGt = dp.getLongFilterGt();
         double shortFilterGt = dp.getShortFilterGt();
 
@@ -150,8 +183,6 @@ public class DMA implements AlgorithmProcessor {
         int tw = dp.getTrendWindow();
         if (tw != 0) {
             // need use trend as filter
-            double trend1 = taRow.getDouble("trend1");
-            double trend1Cur = taRow.getDouble("trend1Cur");
             trendFilterLong = slow1 > trend1;
             trendFilterShort = slow1 < trend1;
             trendFilterLongCur = slow1Cur > trend1Cur;
@@ -169,13 +200,11 @@ public class DMA implements AlgorithmProcessor {
 //        handle filter
         boolean longFilter = true;
         boolean shortFilter = true;
-        if (!longFilterKey.equals("-")) {
-            double ta1 = taRow.getDouble(longFilterKey);
-            longFilter = ta1 >= longFilterGt;
+        if (taRegistry.getLongFilter() != null) {
+            longFilter = longFilterValue >= longFilterGt;
         }
-        if (!shortFilterKey.equals("-")) {
-            double ta1 = taRow.getDouble(shortFilterKey);
-            shortFilter = ta1 >= shortFilterGt;
+        if (taRegistry.getShortFilter() != null) {
+            shortFilter = shortFilterValue >= shortFilterGt;
         }
 
         LocalDateTime datetime = Utils.genUsDateTime(row.getString("date_us"), "yyyy-MM-dd HH:mm:ssXXX");
@@ -183,7 +212,7 @@ public class DMA implements AlgorithmProcessor {
         LocalDateTime lastBuyDateTime = null;
         LocalDateTime lastSellDateTime = null;
 
-        String redisKey = String.format("%s:%s:%s:%s:LAST_ACTION", ac.getAccountId(), ac.getSymbol(), ac.getSecType(), benchmarkColumnName);
+        String redisKey = lastActionKey();
         ActionInfo lastActionInfo = Utils.getLastActionInfo(redisKey);
 
 
@@ -1,22 +1,28 @@
 package capital.daphne.algorithms;
 
 import capital.daphne.AppConfigManager;
+import capital.daphne.indicators.BarCursor;
 import capital.daphne.models.ActionInfo;
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.EmaCheckpoint;
 import capital.daphne.models.Signal;
 import capital.daphne.services.BarSvc;
+import capital.daphne.services.EmaCheckpointSvc;
 import capital.daphne.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.api.Row;
-import tech.tablesaw.api.Table;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Collections;
 import java.util.List;
 
-public class EMA implements AlgorithmProcessor {
+/**
+ * ema保存在实例中，每根新bar更新一次，由EmaCheckpointSvc定时写入redis和mysql
+ * 第一次调用时从检查点恢复，并补算检查点之后的bar；检查点不在当前bar窗口中时用WAP_LIST重新计算
+ */
+public class EMA implements BarWindowProcessor {
     private static final Logger logger = LoggerFactory.getLogger(EMA.class);
 
     private AppConfigManager.AppConfig.AlgorithmConfig ac;
@@ -27,22 +33,36 @@ public class EMA implements AlgorithmProcessor {
 
     private BarSvc barSvc;
 
+    // 还没有从检查点恢复时是NaN
+    private double ema = Double.NaN;
+
+    private final BarCursor barCursor = new BarCursor();
+
     public EMA(AppConfigManager.AppConfig.AlgorithmConfig algorithmConfig) {
         ac = algorithmConfig;
         resetDatetime = null;
         barSvc = new BarSvc();
+        // 生成关键指标，这里是ema+numStatsBars,e.g. ema12
+        benchmarkColumnName = ac.getName() + ac.getNumStatsBars();
+    }
+
+    @Override
+    public List<String> getStateKeys() {
+        return Collections.singletonList(lastActionKey());
+    }
+
+    private String lastActionKey() {
+        return String.format("%s:%s:%s:%s:LAST_ACTION", ac.getAccountId(), ac.getSymbol(), ac.getSecType(), benchmarkColumnName);
     }
 
     @Override
-    public Signal getSignal(Table inputDf, int position, int maxPosition, double bidPrice, double askPrice) {
+    public Signal getSignal(BarWindow bars, int position, int maxPosition) {
         try {
-            if (!isEmaReady()) {
+            if (!updateEma(bars)) {
                 logger.info(String.format("%s %s %s EMA is not ready", ac.getAccountId(), ac.getSymbol(), ac.getSecType()));
                 return null;
             }
-            Table df = preProcess(inputDf);
-            Row latestBar = df.row(df.rowCount() - 1);
-            return processToGetSignal(latestBar, position, maxPosition, bidPrice, askPrice);
+            return processToGetSignal(bars, position, maxPosition);
         } catch (Exception e) {
             e.printStackTrace();
             logger.warn("save signal failed, error:" + e.getMessage());
@@ -50,37 +70,101 @@ public class EMA implements AlgorithmProcessor {
         }
     }
 
-    private Table preProcess(Table df) {
-        // 生成关键指标，这里是sma+numStatsBars,e.g. sma12
-        int numStatsBars = ac.getNumStatsBars();
-        benchmarkColumnName = ac.getName() + numStatsBars;
-        DoubleColumn vWapCol = df.doubleColumn("vwap");
-        DoubleColumn emaColumn = DoubleColumn.create(benchmarkColumnName, vWapCol.size());
-
+    /**
+     * 用还没有处理过的bar更新ema，同一根bar不会重复计入
+     */
+    private boolean updateEma(BarWindow bars) {
+        int from;
+        if (Double.isNaN(ema)) {
+            from = recover(bars);
+        } else {
+            from = barCursor.seek(bars);
+            if (from < 0) {
+                // 漏掉的bar超过了窗口，无法补算
+                logger.warn(String.format("%s %s %s EMA lost track of bars, recalculate from wapList", ac.getAccountId(), ac.getSymbol(), ac.getSecType()));
+                from = reseed(bars);
+            }
+        }
+        if (from < 0) {
+            return false;
+        }
 
-        int period = numStatsBars;
+        int period = ac.getNumStatsBars();
         double multiplier = 2.0 / (period + 1);
+        for (int i = from; i < bars.size(); i++) {
+            ema = bars.vwap(i) * multiplier + ema * (1 - multiplier);
+        }
+        barCursor.commit(bars);
+        if (from < bars.size()) {
+            checkpoint(bars.date(bars.lastIndex()));
+        }
+        return true;
+    }
+
+    /**
+     * 从检查点恢复，返回需要补算的第一根bar的下标，不能恢复时返回-1
+     */
+    private int recover(BarWindow bars) {
+        EmaCheckpoint checkpoint = EmaCheckpointSvc.load(ac.getAccountId(), ac.getSymbol(), ac.getSecType());
+        if (checkpoint != null && checkpoint.getEma() > 0.0) {
+            String barDate = checkpoint.getBarDate();
+            if (barDate == null) {
+                // 旧版本的检查点没有bar时间，和原来一样用最新的bar更新
+                ema = checkpoint.getEma();
+                return bars.lastIndex();
+            }
+            for (int i = bars.lastIndex(); i >= 0; i--) {
+                if (barDate.equals(bars.date(i))) {
+                    ema = checkpoint.getEma();
+                    logger.info(String.format("%s %s %s EMA recovered from checkpoint at %s, replay %d bars",
+                            ac.getAccountId(), ac.getSymbol(), ac.getSecType(), barDate, bars.lastIndex() - i));
+                    return i + 1;
+                }
+            }
+            logger.info(String.format("%s %s %s EMA checkpoint at %s is out of the bar window", ac.getAccountId(), ac.getSymbol(), ac.getSecType(), barDate));
+        }
+        return reseed(bars);
+    }
+
+    /**
+     * 用WAP_LIST重新计算ema的初始值，然后用最新的bar更新
+     */
+    private int reseed(BarWindow bars) {
+        double[] waps = barSvc.getWaps(ac.getSymbol() + ":" + ac.getSecType());
         String key = ac.getAccountId() + ":" + ac.getSymbol() + ":" + ac.getSecType();
-        Double prevEma = barSvc.getEma(key);
-        Double ema = vWapCol.get(vWapCol.size() - 1) * multiplier + prevEma * (1 - multiplier);
-        // System.out.println(df.row(df.rowCount() - 1).getString("date_us") + "|" + ema);
-        emaColumn.set(emaColumn.size() - 1, ema);
-        barSvc.setEma(key, ema);
-        barSvc.saveEmaToDb(key, benchmarkColumnName, ema);
-        df.addColumns(emaColumn);
-        logger.debug("====" + ema + "==" + emaColumn.get(emaColumn.size() - 1) + "==" + df.row(df.rowCount() - 1).getDouble(benchmarkColumnName));
-        return df;
+        double seed = barSvc.calEma(key, waps, ac.getNumStatsBars());
+        if (!(seed > 0.0)) {
+            ema = Double.NaN;
+            return -1;
+        }
+        ema = seed;
+        return bars.lastIndex();
+    }
+
+    private void checkpoint(String barDate) {
+        EmaCheckpoint checkpoint = new EmaCheckpoint();
+        checkpoint.setAccountId(ac.getAccountId());
+        checkpoint.setSymbol(ac.getSymbol());
+        checkpoint.setSecType(ac.getSecType());
+        checkpoint.setBenchmark(benchmarkColumnName);
+        checkpoint.setEma(ema);
+        checkpoint.setBarDate(barDate);
+        checkpoint.setUpdatedAt(System.currentTimeMillis());
+        EmaCheckpointSvc.submit(checkpoint);
     }
 
-    private Signal processToGetSignal(Row row, int position, int maxPosition, double bidPrice, double askPrice) {
-        double volatility = row.getDouble("volatility");
+    private Signal processToGetSignal(BarWindow bars, int position, int maxPosition) {
+        int last = bars.lastIndex();
+        double bidPrice = bars.bidPrice();
+        double askPrice = bars.askPrice();
+        double volatility = bars.volatility();
 
         double volatilityMultiplier = Utils.calToVolatilityMultiplier(ac.getVolatilityA(), ac.getVolatilityB(), ac.getVolatilityC(), volatility);
         // System.out.println(ac.getVolatilityA() + "|" + ac.getVolatilityB() + "|" + ac.getVolatilityC() + "|" + volatility + "|" + volatilityMultiplier);
         LocalDateTime lastSellDateTime = null;
         LocalDateTime lastBuyDateTime = null;
 
-        String redisKey = String.format("%s:%s:%s:%s:LAST_ACTION", ac.getAccountId(), ac.getSymbol(), ac.getSecType(), benchmarkColumnName);
+        String redisKey = lastActionKey();
         ActionInfo lastActionInfo = Utils.getLastActionInfo(redisKey);
         logger.info(redisKey + "|" + lastActionInfo);
 
@@ -91,14 +175,13 @@ public class EMA implements AlgorithmProcessor {
             lastSellDateTime = lastActionInfo.getDateTime();
         }
 
-        LocalDateTime datetime = Utils.genUsDateTime(row.getString("date_us"), "yyyy-MM-dd HH:mm:ssXXX");
+        LocalDateTime datetime = bars.usDateTime(last);
         LocalTime time = datetime.toLocalTime();
 
         double[] signalMargins = Utils.calculateSignalMargin(ac.getSecType(), ac.getSignalMargin(), ac.getPositionSignalMarginOffset(), volatilityMultiplier, position);
         double sellSignalMargin = signalMargins[1];
         double buySignalMargin = signalMargins[0];
-        double vwap = row.getDouble("vwap");
-        double ema = row.getDouble(benchmarkColumnName);
+        double vwap = bars.vwap(last);
 
         long sellIntervalSeconds = 0L;
         if (!lastAction.equals(Signal.TradeActionType.NO_ACTION) && lastSellDateTime != null) {
@@ -129,19 +212,4 @@ public class EMA implements AlgorithmProcessor {
         }
         return signal;
     }
-
-    private boolean isEmaReady() {
-        String key = ac.getAccountId() + ":" + ac.getSymbol() + ":" + ac.getSecType();
-        if (barSvc.getEma(key) > 0.0) {
-            return true;
-        }
-        initEMA(key);
-        return barSvc.getEma(key) > 0.0;
-    }
-
-    private void initEMA(String key) {
-        // 初始化ema的值
-        List<String> wapList = barSvc.getWapList(ac.getSymbol() + ":" + ac.getSecType());
-        barSvc.initEma(key, wapList, ac.getNumStatsBars());
-    }
 }
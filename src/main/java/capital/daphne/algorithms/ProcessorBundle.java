@@ -0,0 +1,50 @@
+package capital.daphne.algorithms;
+
+import capital.daphne.AppConfigManager;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个algorithm配置对应的全部processor，启动时（或配置重载时）构建好，处理bar时直接使用
+ * Table-based processor在构建时已经用TableProcessorAdapter包装好
+ */
+@Data
+public class ProcessorBundle {
+    private final AppConfigManager.AppConfig.AlgorithmConfig algorithmConfig;
+    // 判断是否开仓, e.g. SMA
+    private final BarWindowProcessor openProcessor;
+    // 判断是否平仓, e.g. TrailingStop，可能为null
+    private final BarWindowProcessor closeProcessor;
+    // 判断是否在收盘前平仓, e.g. Portfolio，可能为null
+    private final BarWindowProcessor closePortfolioProcessor;
+    // 满仓减仓, e.g. Reset，可能为null
+    private final BarWindowProcessor hardLimitProcessor;
+
+    /**
+     * 所有processor都已经迁移到BarWindow时，处理bar的过程中不会构建Table
+     */
+    public boolean isTableFree() {
+        return !(openProcessor instanceof TableProcessorAdapter)
+                && !(closeProcessor instanceof TableProcessorAdapter)
+                && !(closePortfolioProcessor instanceof TableProcessorAdapter)
+                && !(hardLimitProcessor instanceof TableProcessorAdapter);
+    }
+
+    /**
+     * 一次evaluation需要读取的全部redis key：position、in progress以及各processor自己的key
+     */
+    public List<String> collectStateKeys() {
+        String prefix = String.format("%s:%s:%s", algorithmConfig.getAccountId(), algorithmConfig.getSymbol(), algorithmConfig.getSecType());
+        List<String> keys = new ArrayList<>();
+        keys.add(prefix + ":POSITION");
+        keys.add(prefix + ":IN_PROGRESS");
+        for (BarWindowProcessor processor : new BarWindowProcessor[]{openProcessor, closeProcessor, closePortfolioProcessor, hardLimitProcessor}) {
+            if (processor != null) {
+                keys.addAll(processor.getStateKeys());
+            }
+        }
+        return keys;
+    }
+}
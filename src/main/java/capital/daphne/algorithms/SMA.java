@@ -1,20 +1,22 @@
 package capital.daphne.algorithms;
 
 import capital.daphne.AppConfigManager;
+import capital.daphne.indicators.BarCursor;
+import capital.daphne.indicators.RollingMean;
 import capital.daphne.models.ActionInfo;
+import capital.daphne.models.BarWindow;
 import capital.daphne.models.Signal;
 import capital.daphne.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.api.Row;
-import tech.tablesaw.api.Table;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Collections;
+import java.util.List;
 
-public class SMA implements AlgorithmProcessor {
+public class SMA implements BarWindowProcessor {
     private static final Logger logger = LoggerFactory.getLogger(SMA.class);
 
     private AppConfigManager.AppConfig.AlgorithmConfig ac;
@@ -23,20 +25,24 @@ public class SMA implements AlgorithmProcessor {
 
     private String benchmarkColumnName;
 
+    // 流式计算sma，每根bar只更新一次
+    private RollingMean sma;
+
+    private final BarCursor barCursor = new BarCursor();
+
     public SMA(AppConfigManager.AppConfig.AlgorithmConfig algorithmConfig) {
         ac = algorithmConfig;
         resetDatetime = null;
     }
 
     @Override
-    public Signal getSignal(Table inputDf, int position, int maxPosition, double bidPrice, double askPrice) {
+    public Signal getSignal(BarWindow bars, int position, int maxPosition) {
         try {
-            // 预处理dataframe，准备好对应的数据字段
-            Table df = preProcess(inputDf);
+            // 用新增的bar更新指标
+            double sma = preProcess(bars);
 
             // 处理数据，获取并返回信号
-            Row latestBar = df.row(df.rowCount() - 1);
-            return processToGetSignal(latestBar, position, maxPosition, bidPrice, askPrice);
+            return processToGetSignal(bars, sma, position, maxPosition, bars.bidPrice(), bars.askPrice());
         } catch (Exception e) {
             e.printStackTrace();
             logger.error("save signal failed, error:" + e.getMessage());
@@ -44,26 +50,51 @@ public class SMA implements AlgorithmProcessor {
         }
     }
 
-    private Table preProcess(Table df) {
+    /**
+     * 最近一次getSignal时的sma，没有计算过时是NaN
+     */
+    public double getSmaValue() {
+        return sma == null ? Double.NaN : sma.getValue();
+    }
+
+    @Override
+    public List<String> getStateKeys() {
+        return Collections.singletonList(lastActionKey());
+    }
+
+    private String lastActionKey() {
+        return String.format("%s:%s:%s:%s:LAST_ACTION", ac.getAccountId(), ac.getSymbol(), ac.getSecType(), ac.getName() + ac.getNumStatsBars());
+    }
+
+    private double preProcess(BarWindow bars) {
         // 生成关键指标，这里是sma+numStatsBars,e.g. sma12
         int numStatsBars = ac.getNumStatsBars();
         benchmarkColumnName = ac.getName() + numStatsBars;
+        if (sma == null) {
+            sma = new RollingMean(numStatsBars);
+        }
         // 实盘用vwap
-        DoubleColumn vwap = df.doubleColumn("vwap");
-        DoubleColumn sma = vwap.rolling(numStatsBars).mean();
-        sma.setName(benchmarkColumnName);
-        df.addColumns(sma);
-        return df;
+        int from = barCursor.seek(bars);
+        if (from < 0) {
+            sma.reset();
+            from = 0;
+        }
+        for (int i = from; i < bars.size(); i++) {
+            sma.update(bars.vwap(i));
+        }
+        barCursor.commit(bars);
+        return sma.getValue();
     }
 
-    private Signal processToGetSignal(Row row, int position, int maxPosition, double bidPrice, double askPrice) {
-        double volatility = row.getDouble("volatility");
+    private Signal processToGetSignal(BarWindow bars, double sma, int position, int maxPosition, double bidPrice, double askPrice) {
+        int last = bars.lastIndex();
+        double volatility = bars.volatility();
 
         double volatilityMultiplier = Utils.calToVolatilityMultiplier(ac.getVolatilityA(), ac.getVolatilityB(), ac.getVolatilityC(), volatility);
         LocalDateTime lastBuyDateTime = null;
         LocalDateTime lastSellDateTime = null;
 
-        String redisKey = String.format("%s:%s:%s:%s:LAST_ACTION", ac.getAccountId(), ac.getSymbol(), ac.getSecType(), benchmarkColumnName);
+        String redisKey = lastActionKey();
         ActionInfo lastActionInfo = Utils.getLastActionInfo(redisKey);
 
         Signal.TradeActionType lastAction = lastActionInfo.getAction();
@@ -73,15 +104,14 @@ public class SMA implements AlgorithmProcessor {
             lastSellDateTime = lastActionInfo.getDateTime();
         }
 
-        LocalDateTime datetime = Utils.genUsDateTime(row.getString("date_us"), "yyyy-MM-dd HH:mm:ssXXX");
+        LocalDateTime datetime = bars.usDateTime(last);
         LocalTime time = datetime.toLocalTime();
 
         double[] signalMargins = Utils.calculateSignalMargin(ac.getSecType(), ac.getSignalMargin(), ac.getPositionSignalMarginOffset(), volatilityMultiplier, position);
         double buySignalMargin = signalMargins[0];
         double sellSignalMargin = signalMargins[1];
 
-        double vwap = row.getDouble("vwap");
-        double sma = row.getDouble(benchmarkColumnName);
+        double vwap = bars.vwap(last);
 
         long buyIntervalSeconds = 0L;
         if (!lastAction.equals(Signal.TradeActionType.NO_ACTION) && lastBuyDateTime != null) {
@@ -98,7 +128,7 @@ public class SMA implements AlgorithmProcessor {
         double shortThreshold = sma * (1 + sellSignalMargin);
 
         Signal signal = null;
-        logger.info(String.format("%|%s|%s|%s|place|vol=%f|volMulti:%f|sma=%f|sm=%f|bsm=%f|ssm=%f|vwap=%f|ask=%f|<=%f %s|bid=%f|>=%f %s|pos=%d|%s",
+        logger.info(String.format("%s|%s|%s|%s|place|vol=%f|volMulti:%f|sma=%f|sm=%f|bsm=%f|ssm=%f|vwap=%f|ask=%f|<=%f %s|bid=%f|>=%f %s|pos=%d|%s",
                 time, ac.getAccountId(), ac.getSymbol(), ac.getSecType(), volatility, volatilityMultiplier, sma, ac.getSignalMargin(),
                 buySignalMargin, sellSignalMargin, vwap, askPrice, longThreshold, askPrice <= longThreshold, bidPrice, shortThreshold, bidPrice >= shortThreshold, position, lastAction));
         if (askPrice <= longThreshold
@@ -0,0 +1,56 @@
+package capital.daphne.algorithms;
+
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.Signal;
+import tech.tablesaw.api.Table;
+
+import java.util.List;
+
+/**
+ * 让还没有迁移的Table-based processor（目前只有DMA）按BarWindowProcessor调用
+ * dataframe在第一次用到时由BarWindow生成，同一个视图上的processor共享同一个dataframe
+ */
+public class TableProcessorAdapter implements BarWindowProcessor {
+    private final AlgorithmProcessor delegate;
+
+    private TableProcessorAdapter(AlgorithmProcessor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 已经是BarWindowProcessor的直接返回，null返回null
+     */
+    public static BarWindowProcessor adapt(AlgorithmProcessor processor) {
+        if (processor == null) {
+            return null;
+        }
+        if (processor instanceof BarWindowProcessor) {
+            return (BarWindowProcessor) processor;
+        }
+        return new TableProcessorAdapter(processor);
+    }
+
+    @Override
+    public Signal getSignal(BarWindow bars, int position, int maxPosition) {
+        return delegate.getSignal(bars.toTable(), position, maxPosition, bars.bidPrice(), bars.askPrice());
+    }
+
+    @Override
+    public Signal getSignal(Table df, int position, int maxPosition, double bidPrice, double askPrice) {
+        return delegate.getSignal(df, position, maxPosition, bidPrice, askPrice);
+    }
+
+    @Override
+    public List<String> getStateKeys() {
+        return delegate.getStateKeys();
+    }
+
+    public AlgorithmProcessor getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String toString() {
+        return "TableProcessorAdapter(" + delegate + ")";
+    }
+}
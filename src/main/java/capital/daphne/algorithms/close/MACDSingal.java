@@ -1,25 +1,25 @@
 package capital.daphne.algorithms.close;
 
 import capital.daphne.AppConfigManager;
-import capital.daphne.JedisManager;
-import capital.daphne.algorithms.AlgorithmProcessor;
+import capital.daphne.algorithms.BarWindowProcessor;
 import capital.daphne.algorithms.SMA;
+import capital.daphne.indicators.BarCursor;
+import capital.daphne.indicators.Macd;
+import capital.daphne.models.BarWindow;
 import capital.daphne.models.OrderInfo;
 import capital.daphne.models.Signal;
 import capital.daphne.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.api.Row;
 import tech.tablesaw.api.Table;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
 import java.util.List;
 
-public class MACDSingal implements AlgorithmProcessor {
+public class MACDSingal implements BarWindowProcessor {
     private static final Logger logger = LoggerFactory.getLogger(SMA.class);
     private final AppConfigManager.AppConfig.AlgorithmConfig ac;
     private final AppConfigManager.AppConfig.CloseAlgorithmConfig cac;
@@ -29,6 +29,10 @@ public class MACDSingal implements AlgorithmProcessor {
     private final String signalBenchmarkColumn;
     private final String benchmarkColumn;
 
+    private Macd macd;
+
+    private final BarCursor barCursor = new BarCursor();
+
     public MACDSingal(AppConfigManager.AppConfig.AlgorithmConfig algorithmConfig) {
         ac = algorithmConfig;
         cac = ac.getCloseAlgo();
@@ -39,19 +43,27 @@ public class MACDSingal implements AlgorithmProcessor {
         benchmarkColumn = "MACDLine";
     }
 
-    public Signal getSignal(Table inputDf, int position, int maxPosition, double bidPrice, double askPrice) {
-        Table df = generateBenchmarkColumn(inputDf);
-        Row row = df.row(df.rowCount() - 1);
+    @Override
+    public List<String> getStateKeys() {
+        return Collections.singletonList(String.format("%s:%s:%s:ORDER_LIST", ac.getAccountId(), ac.getSymbol(), ac.getSecType()));
+    }
 
+    @Override
+    public Signal getSignal(BarWindow bars, int position, int maxPosition) {
         String accountId = ac.getAccountId();
         String symbol = ac.getSymbol();
         String secType = ac.getSecType();
 
 
-        // 通过redis获取orderList，如果不存在，直接返回无信号
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            List<OrderInfo> orderList = Utils.getOrderList(jedis, accountId, symbol, secType);
+        // 通过本地缓存获取orderList，如果不存在，直接返回无信号
+        try {
+            // 放在try中，计算失败时返回无信号，不影响后面的processor
+            updateMacd(bars);
+            double macdLine = macd.getValue();
+            double macdSignal = macd.getSignal();
+            double vwap = bars.vwap(bars.lastIndex());
+
+            List<OrderInfo> orderList = Utils.getOrderList(accountId, symbol, secType);
             if (orderList == null) {
                 return null;
             }
@@ -62,7 +74,7 @@ public class MACDSingal implements AlgorithmProcessor {
 
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
             LocalDateTime lastOrderDateTime = LocalDateTime.parse(lodt, formatter);
-            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime now = Utils.localDateTimeNow();
 
 
 //            String nowDateTime = row.getString("date_us");
@@ -75,13 +87,13 @@ public class MACDSingal implements AlgorithmProcessor {
             if (lastOrderDateTime.plusSeconds(cac.getMinDurationBeforeClose()).isBefore(now) &&
                     lastOrderDateTime.plusSeconds(cac.getMaxDurationToClose()).isAfter(now)) {
                 logger.info(String.format("MACD_SIGNAL_CHECK|accountId=%s|symbol=%s|secType=%s|orderId=%s|quantity=%d|position=%d|bm=%f|sbm=%f|%s",
-                        accountId, symbol, secType, lastOrder.getOrderId(), lastOrder.getQuantity(), position, row.getDouble(benchmarkColumn), row.getDouble(signalBenchmarkColumn),
-                        (lastOrder.getQuantity() > 0 && row.getDouble(benchmarkColumn) < row.getDouble(signalBenchmarkColumn) && position > 0) ||
-                                (lastOrder.getQuantity() < 0 && row.getDouble(benchmarkColumn) > row.getDouble(signalBenchmarkColumn) && position < 0)));
-                if ((lastOrder.getQuantity() > 0 && row.getDouble(benchmarkColumn) < row.getDouble(signalBenchmarkColumn) && position > 0) ||
-                        (lastOrder.getQuantity() < 0 && row.getDouble(benchmarkColumn) > row.getDouble(signalBenchmarkColumn) && position < 0)) {
+                        accountId, symbol, secType, lastOrder.getOrderId(), lastOrder.getQuantity(), position, macdLine, macdSignal,
+                        (lastOrder.getQuantity() > 0 && macdLine < macdSignal && position > 0) ||
+                                (lastOrder.getQuantity() < 0 && macdLine > macdSignal && position < 0)));
+                if ((lastOrder.getQuantity() > 0 && macdLine < macdSignal && position > 0) ||
+                        (lastOrder.getQuantity() < 0 && macdLine > macdSignal && position < 0)) {
                     String benchmarkColumn = ac.getName().toLowerCase() + ac.getNumStatsBars();
-                    signal = Utils.fulfillSignal(accountId, symbol, secType, row.getDouble("vwap"), -lastOrder.getQuantity(), Signal.OrderType.CLOSE, benchmarkColumn);
+                    signal = Utils.fulfillSignal(accountId, symbol, secType, vwap, -lastOrder.getQuantity(), Signal.OrderType.CLOSE, benchmarkColumn);
                 }
             } else {
                 logger.info(String.format("MACD_SIGNAL_EXPIRED|accountId=%s|symbol=%s|secType=%s|orderId=%s|order_datetime=%s|now=%s",
@@ -89,12 +101,46 @@ public class MACDSingal implements AlgorithmProcessor {
             }
             return signal;
         } catch (Exception e) {
-            logger.error(String.format("get order list in redis failed, accountId=%s, symbol=%s, secType=%s error=%s",
+            logger.error(String.format("macd signal failed, accountId=%s, symbol=%s, secType=%s error=%s",
                     accountId, symbol, secType, e.getMessage()));
             return null;
         }
     }
 
+    /**
+     * 用新增的bar更新流式MACD，结果和generateBenchmarkColumn最后一行相同
+     */
+    private void updateMacd(BarWindow bars) {
+        int windowSize = bars.size();
+        if (macd == null || macd.getWindowSize() != windowSize) {
+            macd = new Macd(cac.getMacdShortNumStatsBar(), cac.getMacdLongNumStatsBar(), cac.getMacdSignalNumStatsBar(), windowSize);
+            barCursor.reset();
+        }
+        int from = barCursor.seek(bars);
+        if (from < 0) {
+            macd.reset();
+            from = 0;
+        }
+        for (int i = from; i < windowSize; i++) {
+            macd.update(bars.vwap(i));
+        }
+        barCursor.commit(bars);
+    }
+
+    /**
+     * 最近一次getSignal时的MACD线和信号线，没有计算过时是NaN
+     */
+    public double getMacdLine() {
+        return macd == null ? Double.NaN : macd.getValue();
+    }
+
+    public double getMacdSignal() {
+        return macd == null ? Double.NaN : macd.getSignal();
+    }
+
+    /**
+     * 在整个dataframe上计算MACD的各列，实盘使用流式的updateMacd，这里保留给回测和对照测试
+     */
     public Table generateBenchmarkColumn(Table df) {
         AppConfigManager.AppConfig.CloseAlgorithmConfig closeAlgo = ac.getCloseAlgo();
         int shortPeriod = closeAlgo.getMacdShortNumStatsBar();
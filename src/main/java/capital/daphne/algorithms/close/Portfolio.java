@@ -1,16 +1,15 @@
 package capital.daphne.algorithms.close;
 
 import capital.daphne.AppConfigManager;
-import capital.daphne.algorithms.AlgorithmProcessor;
+import capital.daphne.algorithms.BarWindowProcessor;
+import capital.daphne.models.BarWindow;
 import capital.daphne.models.Signal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tech.tablesaw.api.Row;
-import tech.tablesaw.api.Table;
 
 import java.util.UUID;
 
-public class Portfolio implements AlgorithmProcessor {
+public class Portfolio implements BarWindowProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(Portfolio.class);
     private final AppConfigManager.AppConfig.AlgorithmConfig ac;
@@ -20,21 +19,19 @@ public class Portfolio implements AlgorithmProcessor {
     }
 
     @Override
-    public Signal getSignal(Table df, int position, int maxPosition, double bidPrice, double askPrice) {
+    public Signal getSignal(BarWindow bars, int position, int maxPosition) {
         if (position == 0) {
             return null;
         }
 
         // 有仓位，发送平仓信号
-        Row row = df.row(df.rowCount() - 1);
-
         Signal signal = new Signal();
         signal.setValid(true);
         signal.setAccountId(ac.getAccountId());
         signal.setUuid(UUID.randomUUID().toString());
         signal.setSymbol(ac.getSymbol());
         signal.setSecType(ac.getSecType());
-        signal.setWap(row.getDouble("vwap"));
+        signal.setWap(bars.vwap(bars.lastIndex()));
         signal.setQuantity(-position);
         signal.setOrderType(Signal.OrderType.CLOSE);
         signal.setBenchmarkColumn("closePortfolio");
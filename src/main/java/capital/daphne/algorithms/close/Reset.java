@@ -1,18 +1,17 @@
 package capital.daphne.algorithms.close;
 
 import capital.daphne.AppConfigManager;
-import capital.daphne.algorithms.AlgorithmProcessor;
+import capital.daphne.algorithms.BarWindowProcessor;
+import capital.daphne.models.BarWindow;
 import capital.daphne.models.Signal;
 import capital.daphne.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tech.tablesaw.api.Row;
-import tech.tablesaw.api.Table;
 
 import java.time.LocalDateTime;
 import java.util.UUID;
 
-public class Reset implements AlgorithmProcessor {
+public class Reset implements BarWindowProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(Reset.class);
     private final AppConfigManager.AppConfig.AlgorithmConfig ac;
@@ -25,7 +24,7 @@ public class Reset implements AlgorithmProcessor {
     }
 
     @Override
-    public Signal getSignal(Table df, int position, int maxPosition, double bidPrice, double askPrice) {
+    public Signal getSignal(BarWindow bars, int position, int maxPosition) {
         if (position == 0) {
             return null;
         }
@@ -34,9 +33,9 @@ public class Reset implements AlgorithmProcessor {
         String secType = ac.getSecType();
 
         AppConfigManager.AppConfig.hardLimit hl = ac.getHardLimit();
-        Row row = df.row(df.rowCount() - 1);
+        int last = bars.lastIndex();
 
-        LocalDateTime datetime = Utils.genUsDateTime(row.getString("date_us"), "yyyy-MM-dd HH:mm:ssXXX");
+        LocalDateTime datetime = bars.usDateTime(last);
 
         // 有仓位，检查是否可以平仓
         if (Math.abs(position) >= maxPosition) {
@@ -56,7 +55,7 @@ public class Reset implements AlgorithmProcessor {
                 signal.setUuid(UUID.randomUUID().toString());
                 signal.setSymbol(symbol);
                 signal.setSecType(secType);
-                signal.setWap(row.getDouble("vwap"));
+                signal.setWap(bars.vwap(last));
                 signal.setQuantity(-position);
                 signal.setOrderType(Signal.OrderType.CLOSE);
                 signal.setBenchmarkColumn("hardLimitReset");
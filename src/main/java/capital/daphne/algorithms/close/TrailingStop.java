@@ -1,26 +1,23 @@
 package capital.daphne.algorithms.close;
 
 import capital.daphne.AppConfigManager;
-import capital.daphne.JedisManager;
-import capital.daphne.algorithms.AlgorithmProcessor;
+import capital.daphne.algorithms.BarWindowProcessor;
+import capital.daphne.models.BarWindow;
 import capital.daphne.models.OrderInfo;
 import capital.daphne.models.Signal;
 import capital.daphne.models.WapCache;
+import capital.daphne.services.RedisContext;
+import capital.daphne.utils.JsonCodec;
 import capital.daphne.utils.Utils;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
-import tech.tablesaw.api.Row;
-import tech.tablesaw.api.Table;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.List;
 
-public class TrailingStop implements AlgorithmProcessor {
+public class TrailingStop implements BarWindowProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(TrailingStop.class);
     private final AppConfigManager.AppConfig.AlgorithmConfig ac;
@@ -30,40 +27,49 @@ public class TrailingStop implements AlgorithmProcessor {
     }
 
     @Override
-    public Signal getSignal(Table df, int position, int maxPosition, double bidPrice, double askPrice) {
+    public List<String> getStateKeys() {
+        return Arrays.asList(
+                String.format("%s:%s:%s:ORDER_LIST", ac.getAccountId(), ac.getSymbol(), ac.getSecType()),
+                maxMinKey());
+    }
+
+    private String maxMinKey() {
+        return String.format("%s:%s:MAX_MIN_WAP", ac.getSymbol(), ac.getSecType());
+    }
+
+    @Override
+    public Signal getSignal(BarWindow bars, int position, int maxPosition) {
         if (position == 0) {
             return null;
         }
 
         AppConfigManager.AppConfig.CloseAlgorithmConfig cac = ac.getCloseAlgo();
-        Row row = df.row(df.rowCount() - 1);
+        double bidPrice = bars.bidPrice();
+        double askPrice = bars.askPrice();
+        double vwap = bars.vwap(bars.lastIndex());
 
-        double volatility = row.getDouble("volatility");
+        double volatility = bars.volatility();
         double volatilityMultiplier = Utils.calToVolatilityMultiplier(ac.getVolatilityA(), ac.getVolatilityB(), ac.getVolatilityC(), volatility);
 
         String accountId = ac.getAccountId();
         String symbol = ac.getSymbol();
         String secType = ac.getSecType();
 
-        // 通过redis获取orderList，如果不存在，直接返回无信号
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            List<OrderInfo> orderList = Utils.getOrderList(jedis, accountId, symbol, secType);
+        // 获取orderList，如果不存在，直接返回无信号
+        // orderList和MAX_MIN_WAP在evaluation开始前已经批量读取（RedisContext）
+        try {
+            List<OrderInfo> orderList = Utils.getOrderList(accountId, symbol, secType);
             if (orderList == null) {
                 return null;
             }
 
-            String maxMinKey = String.format("%s:%s:MAX_MIN_WAP", symbol, secType);
-            String storedWapMaxMinJson = jedis.get(maxMinKey);
-            logger.debug("redis|" + maxMinKey + "|" + storedWapMaxMinJson);
+            String storedWapMaxMinJson = RedisContext.get(maxMinKey());
             if (storedWapMaxMinJson == null) {
                 return null;
             }
 
-            ObjectMapper objectMapper = new ObjectMapper();
             // logger.info("storedWapMaxMinJson:" + storedWapMaxMinJson);
-            WapCache wapMaxMin = objectMapper.readValue(storedWapMaxMinJson, new TypeReference<>() {
-            });
+            WapCache wapMaxMin = JsonCodec.readWapCache(storedWapMaxMinJson);
             if (wapMaxMin == null || wapMaxMin.getMinWap() == Double.MIN_VALUE || wapMaxMin.getMinWap() == Double.MAX_VALUE) {
                 return null;
             }
@@ -76,7 +82,7 @@ public class TrailingStop implements AlgorithmProcessor {
 
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
             LocalDateTime lastOrderDateTime = LocalDateTime.parse(lodt, formatter);
-            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime now = Utils.localDateTimeNow();
 
 //            String nowDateTime = row.getString("date_us");
 //            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ssXXX");
@@ -86,7 +92,6 @@ public class TrailingStop implements AlgorithmProcessor {
             double threshold = volatilityMultiplier * cac.getTrailingStopThreshold();
             double maxWap = wapMaxMin.getMaxWap();
             double minWap = wapMaxMin.getMinWap();
-            double vwap = row.getDouble("vwap");
             if (lastOrderDateTime.plusSeconds(cac.getMinDurationBeforeClose()).isBefore(now) &&
                     lastOrderDateTime.plusSeconds(cac.getMaxDurationToClose()).isAfter(now)) {
                 logger.warn(String.format("%s|TRAILING_STOP_SIGNAL_CHECK|accountId=%s|symbol=%s|secType=%s|orderId=%s|quantity=%d|" +
@@ -100,7 +105,7 @@ public class TrailingStop implements AlgorithmProcessor {
                         (lastOrder.getQuantity() > 0 && position > 0 && maxWap > 0 && askPrice <= (1 - threshold) * maxWap) ||
                                 (lastOrder.getQuantity() < 0 && position < 0 && minWap > 0 && bidPrice >= (1 + threshold) * minWap)
                 ) {
-                    signal = Utils.fulfillSignal(accountId, symbol, secType, row.getDouble("vwap"), -lastOrder.getQuantity(), Signal.OrderType.CLOSE, "trailingStop");
+                    signal = Utils.fulfillSignal(accountId, symbol, secType, vwap, -lastOrder.getQuantity(), Signal.OrderType.CLOSE, "trailingStop");
                     logger.warn(String.format("TRAILING_STOP_SIGNAL_CHECK|generated signal %s %s %s", accountId, symbol, secType));
                 }
             }
@@ -0,0 +1,227 @@
+package capital.daphne.archive;
+
+import capital.daphne.models.BarTape;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 历史bar的列式存档，每个symbol:secType一个目录，每个交易日（美东日期）一个文件：<root>/<symbol>_<secType>/<yyyy-MM-dd>.bars
+ * 文件是小端格式，128字节的头之后依次是6列，每列count个8字节的值：
+ * epoch秒(int64)、vwap、open、high、low、close(float64)
+ * 头：magic(int32)、version(int32)、count(int32)、列数(int32)、第一根和最后一根bar的epoch秒(int64)、每列的起始offset(int64)
+ * 读取时用FileChannel.map映射整个文件，BarTape的列直接是映射内存上的视图，不复制也不解析字符串
+ */
+public class BarArchive {
+    private static final Logger logger = LoggerFactory.getLogger(BarArchive.class);
+
+    public static final int MAGIC = 0x44424152;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 128;
+
+    public static final int COLUMNS = 6;
+
+    private static final String SUFFIX = ".bars";
+
+    private static final ZoneId EASTERN_TIME_ZONE = ZoneId.of("America/New_York");
+
+    private final Path root;
+
+    public BarArchive(String root) {
+        this.root = Paths.get(root);
+    }
+
+    /**
+     * 按美东日期把tape拆成每天一个文件，已经存在的同一天文件会被覆盖
+     * 返回写入的天数
+     */
+    public int write(BarTape tape) throws IOException {
+        Path dir = symbolDir(tape.getSymbol(), tape.getSecType());
+        Files.createDirectories(dir);
+        int days = 0;
+        int from = 0;
+        while (from < tape.size()) {
+            LocalDate day = toLocalDate(tape.epochSeconds(from));
+            int to = from + 1;
+            while (to < tape.size() && toLocalDate(tape.epochSeconds(to)).equals(day)) {
+                to++;
+            }
+            writeDay(dir.resolve(day + SUFFIX), tape, from, to);
+            days++;
+            from = to;
+        }
+        return days;
+    }
+
+    private void writeDay(Path path, BarTape tape, int from, int to) throws IOException {
+        int count = to - from;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + COLUMNS * count * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+        buffer.putInt(COLUMNS);
+        buffer.putLong(tape.epochSeconds(from));
+        buffer.putLong(tape.epochSeconds(to - 1));
+        for (int c = 0; c < COLUMNS; c++) {
+            buffer.putLong(HEADER_BYTES + (long) c * count * 8);
+        }
+
+        buffer.position(HEADER_BYTES);
+        for (int i = from; i < to; i++) {
+            buffer.putLong(tape.epochSeconds(i));
+        }
+        for (int i = from; i < to; i++) {
+            buffer.putDouble(tape.vwap(i));
+        }
+        for (int i = from; i < to; i++) {
+            buffer.putDouble(tape.open(i));
+        }
+        for (int i = from; i < to; i++) {
+            buffer.putDouble(tape.high(i));
+        }
+        for (int i = from; i < to; i++) {
+            buffer.putDouble(tape.low(i));
+        }
+        for (int i = from; i < to; i++) {
+            buffer.putDouble(tape.close(i));
+        }
+        buffer.flip();
+
+        // 先写临时文件再替换，读取方不会看到写了一半的文件
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 映射某一天的文件，不存在时返回null
+     */
+    public BarTape loadDay(String symbol, String secType, LocalDate day) throws IOException {
+        Path path = symbolDir(symbol, secType).resolve(day + SUFFIX);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // 映射在channel关闭之后仍然有效
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.limit() < HEADER_BYTES || mapped.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a bar archive file");
+        }
+        int version = mapped.getInt(4);
+        int count = mapped.getInt(8);
+        int columns = mapped.getInt(12);
+        if (version != VERSION || columns != COLUMNS) {
+            throw new IOException(String.format("%s has unsupported version=%d, columns=%d", path, version, columns));
+        }
+        if (count < 0 || (long) HEADER_BYTES + (long) COLUMNS * count * 8 > mapped.limit()) {
+            throw new IOException(path + " is truncated, count=" + count);
+        }
+
+        LongBuffer epochSeconds = column(path, mapped, 0, count).asLongBuffer();
+        return new BarTape(symbol, secType, epochSeconds,
+                column(path, mapped, 1, count).asDoubleBuffer(),
+                column(path, mapped, 2, count).asDoubleBuffer(),
+                column(path, mapped, 3, count).asDoubleBuffer(),
+                column(path, mapped, 4, count).asDoubleBuffer(),
+                column(path, mapped, 5, count).asDoubleBuffer());
+    }
+
+    private static ByteBuffer column(Path path, MappedByteBuffer mapped, int c, int count) throws IOException {
+        long offset = mapped.getLong(32 + c * 8);
+        // 头中的offset损坏时不能让slice抛出IndexOutOfBoundsException
+        if (offset < HEADER_BYTES || offset + (long) count * 8 > mapped.limit()) {
+            throw new IOException(String.format("%s column %d is out of range, offset=%d, count=%d, limit=%d", path, c, offset, count, mapped.limit()));
+        }
+        // slice之后的字节序会变回大端，需要重新设置
+        return mapped.slice((int) offset, count * 8).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * [from, to]之间所有存档的天，每天一段映射的视图，多天时拼成一个多段的BarTape，不复制到堆内
+     */
+    public BarTape load(String symbol, String secType, LocalDate from, LocalDate to) throws IOException {
+        List<BarTape> tapes = new ArrayList<>();
+        for (LocalDate day : days(symbol, secType)) {
+            if (day.isBefore(from) || day.isAfter(to)) {
+                continue;
+            }
+            BarTape tape = loadDay(symbol, secType, day);
+            if (tape != null) {
+                tapes.add(tape);
+            }
+        }
+        if (tapes.size() == 1) {
+            return tapes.get(0);
+        }
+        return BarTape.concat(symbol, secType, tapes);
+    }
+
+    /**
+     * 已经存档的天，按日期排序
+     */
+    public List<LocalDate> days(String symbol, String secType) throws IOException {
+        Path dir = symbolDir(symbol, secType);
+        List<LocalDate> days = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return days;
+        }
+        try (Stream<Path> paths = Files.list(dir)) {
+            paths.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .sorted()
+                    .forEach(name -> days.add(LocalDate.parse(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        return days;
+    }
+
+    private Path symbolDir(String symbol, String secType) {
+        return root.resolve(symbol + "_" + secType);
+    }
+
+    private static LocalDate toLocalDate(long epochSeconds) {
+        return LocalDate.ofInstant(Instant.ofEpochSecond(epochSeconds), EASTERN_TIME_ZONE);
+    }
+
+    /**
+     * 一次性把csv导入存档，用法：BarArchive <root> <bars.csv> <symbol> <secType>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: BarArchive <root> <bars.csv> <symbol> <secType>");
+            System.exit(1);
+        }
+        long startNanos = System.nanoTime();
+        BarTape tape = BarTape.readCsv(args[1], args[2], args[3]);
+        int days = new BarArchive(args[0]).write(tape);
+        logger.info(String.format("import %s into %s finished, bars=%d, days=%d, seconds=%.3f",
+                args[1], args[0], tape.size(), days, (System.nanoTime() - startNanos) / 1e9));
+    }
+}
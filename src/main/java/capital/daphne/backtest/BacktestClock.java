@@ -0,0 +1,40 @@
+package capital.daphne.backtest;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * 回测的时钟，时间是正在处理的bar的时间，只在回测（或基准测试）线程中使用
+ */
+public class BacktestClock extends Clock {
+    private final ZoneId zone;
+    private long epochSeconds;
+    private Instant instant = Instant.EPOCH;
+
+    public BacktestClock(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public void set(long epochSeconds) {
+        if (epochSeconds != this.epochSeconds) {
+            this.epochSeconds = epochSeconds;
+            instant = Instant.ofEpochSecond(epochSeconds);
+        }
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return Clock.fixed(instant, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return instant;
+    }
+}
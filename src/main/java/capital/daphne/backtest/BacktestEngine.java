@@ -0,0 +1,160 @@
+package capital.daphne.backtest;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.algorithms.ProcessorBundle;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.BarTape;
+import capital.daphne.models.MarketSnapshot;
+import capital.daphne.models.Signal;
+import capital.daphne.models.TradingHours;
+import capital.daphne.models.TradingSchedule;
+import capital.daphne.services.BarSvc;
+import capital.daphne.services.RedisContext;
+import capital.daphne.services.SignalSvc;
+import capital.daphne.services.WapMirror;
+import capital.daphne.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 事件驱动的回测：把BarTape中的bar逐根交给和线上相同的SignalSvc.getTradeSignal
+ * （open、close、closePortfolio、hardLimit processor），信号交给SimulatedBroker立即成交
+ * POSITION、LAST_ACTION、ORDER_LIST、MAX_MIN_WAP都在内存中的store里（RedisContext.offline），不需要redis和mysql
+ * 每次run都重新创建processor，同一个engine可以重复运行，不同engine可以在不同线程中同时运行
+ */
+public class BacktestEngine {
+    private static final Logger logger = LoggerFactory.getLogger(BacktestEngine.class);
+
+    // 和BarSvc中的环形缓冲区容量一致
+    private static final int BAR_SERIES_CAPACITY = 4096;
+
+    private final List<AppConfigManager.AppConfig.AlgorithmConfig> algorithms;
+
+    private final int maxKeepNumOfWap;
+    private final boolean resetDaily;
+    private final LocalTime sessionStart;
+    private final LocalTime sessionEnd;
+    private final double spreadBps;
+    private final double slippageBps;
+    private final double commissionPerShare;
+
+    public BacktestEngine(List<AppConfigManager.AppConfig.AlgorithmConfig> algorithms, AppConfigManager.AppConfig.Backtest config) {
+        this.algorithms = algorithms;
+        if (config == null) {
+            config = new AppConfigManager.AppConfig.Backtest();
+            config.setResetDaily(true);
+        }
+        maxKeepNumOfWap = config.getMaxKeepNumOfWap() > 0 ? config.getMaxKeepNumOfWap() : 1440;
+        resetDaily = config.isResetDaily();
+        sessionStart = LocalTime.parse(config.getSessionStart() != null ? config.getSessionStart() : "09:30");
+        sessionEnd = LocalTime.parse(config.getSessionEnd() != null ? config.getSessionEnd() : "16:00");
+        spreadBps = Math.max(config.getSpreadBps(), 0);
+        slippageBps = Math.max(config.getSlippageBps(), 0);
+        commissionPerShare = Math.max(config.getCommissionPerShare(), 0);
+    }
+
+    /**
+     * 只处理和tape同一个symbol:secType的algorithm，返回每个account的结果
+     */
+    public List<BacktestResult> run(BarTape tape) {
+        String symbol = tape.getSymbol();
+        String secType = tape.getSecType();
+
+        Map<String, String> store = new HashMap<>();
+        SimulatedBroker broker = new SimulatedBroker(store, symbol, secType, slippageBps, commissionPerShare);
+        SignalSvc signalSvc = new SignalSvc(algorithms, broker);
+        // 不写tb_wap_log，开盘的volatility系数只在这次回测中有效
+        BarSvc barSvc = new BarSvc(false);
+        ProcessorBundle[] bundles = signalSvc.route(symbol, secType);
+        for (ProcessorBundle bundle : bundles) {
+            broker.register(bundle.getAlgorithmConfig().getAccountId());
+        }
+
+        BarSeries barSeries = new BarSeries(BAR_SERIES_CAPACITY);
+        WapMirror wapMirror = new WapMirror();
+        BarDateFormatter dateFormatter = new BarDateFormatter();
+        BacktestClock clock = new BacktestClock(ZoneId.systemDefault());
+        double halfSpread = spreadBps / 20000.0;
+
+        long startNanos = System.nanoTime();
+        Utils.setClock(clock);
+        try (RedisContext ignored = RedisContext.offline(store, key -> wapMirror.toArray())) {
+            LocalDate day = null;
+            TradingSchedule tradingSchedule = null;
+            for (int i = 0; i < tape.size(); i++) {
+                long epochSeconds = tape.epochSeconds(i);
+                String date = dateFormatter.format(epochSeconds);
+                clock.set(epochSeconds);
+
+                LocalDate localDate = dateFormatter.getLocalDate();
+                if (!localDate.equals(day)) {
+                    day = localDate;
+                    if (resetDaily) {
+                        barSeries.clear();
+                        wapMirror.reload(new double[0]);
+                    }
+                    tradingSchedule = session(localDate, secType);
+                }
+
+                // datasource写入BAR_LIST和WAP_LIST
+                double wap = tape.vwap(i);
+                barSeries.append(date, epochSeconds * 1_000_000_000L, wap, tape.open(i), tape.high(i), tape.low(i), tape.close(i));
+                wapMirror.add(wap, maxKeepNumOfWap);
+
+                double bidPrice = wap * (1 - halfSpread);
+                double askPrice = wap * (1 + halfSpread);
+                broker.onBar(date, wap, bidPrice, askPrice);
+
+                MarketSnapshot snapshot = new MarketSnapshot(symbol, secType, barSeries.window(barSeries.size()),
+                        wapMirror.toVolatilityEngine(), bidPrice, askPrice, tradingSchedule);
+                for (ProcessorBundle bundle : bundles) {
+                    processAlgorithm(signalSvc, barSvc, bundle, snapshot);
+                }
+            }
+        } finally {
+            Utils.setClock(null);
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        logger.info(String.format("backtest %s:%s finished, bars=%d, algorithms=%d, seconds=%.3f, barsPerSecond=%.0f",
+                symbol, secType, tape.size(), bundles.length, seconds, tape.size() / Math.max(seconds, 1e-9)));
+        return broker.getResults();
+    }
+
+    /**
+     * 和Main.processAlgorithm相同的流程，成交是同步的，所以没有IN_PROGRESS
+     */
+    private void processAlgorithm(SignalSvc signalSvc, BarSvc barSvc, ProcessorBundle bundle, MarketSnapshot snapshot) {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = bundle.getAlgorithmConfig();
+        try {
+            double volatility = barSvc.calVolatility(ac, snapshot.getVolatilityEngine());
+            Signal tradeSignal = signalSvc.getTradeSignal(bundle, snapshot, volatility);
+            if (tradeSignal == null || !tradeSignal.isValid()) {
+                return;
+            }
+
+            TradingSchedule tradingSchedule = snapshot.getTradingSchedule();
+            boolean isTradingNow = tradingSchedule != null && tradingSchedule.isTradingNow(Utils.genUsDateTimeNow(), ac.getStartTradingAfterOpenMarketSeconds());
+            if (!isTradingNow) {
+                return;
+            }
+            signalSvc.sendSignal(tradeSignal);
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(String.format("backtest %s %s %s failed at %s, error=%s", ac.getAccountId(), ac.getSymbol(), ac.getName(),
+                    snapshot.getBars().date(snapshot.getBars().lastIndex()), e.getMessage()));
+        }
+    }
+
+    private TradingSchedule session(LocalDate date, String secType) {
+        TradingHours[] tradingHours = {new TradingHours(date.atTime(sessionStart), date.atTime(sessionEnd), false)};
+        return TradingSchedule.of(null, secType, tradingHours);
+    }
+}
@@ -0,0 +1,29 @@
+package capital.daphne.backtest;
+
+import lombok.Data;
+
+/**
+ * 一个account在一次回测中的结果，金额都是标的的计价货币
+ */
+@Data
+public class BacktestResult {
+    private String accountId;
+    private String symbol;
+    private String secType;
+    // 处理的bar数量
+    private int bars;
+    // 成交次数
+    private int trades;
+    // 买入和卖出的股数之和，position = boughtShares - soldShares
+    private int boughtShares;
+    private int soldShares;
+    // 回测结束时的持仓
+    private int position;
+    // 按最后一根bar的wap计算的盈亏（已扣除手续费）
+    private double pnl;
+    // 按每根bar的wap计算的权益曲线的最大回撤
+    private double maxDrawdown;
+    // 成交金额之和
+    private double turnover;
+    private double commission;
+}
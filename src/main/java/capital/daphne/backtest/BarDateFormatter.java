@@ -0,0 +1,70 @@
+package capital.daphne.backtest;
+
+import capital.daphne.utils.Utils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * 把epoch秒格式化成bar的date_us（e.g. 2023-09-28 09:30:00-04:00），结果和Utils.formatBarDate相同
+ * 同一天、同一个时区偏移内只改写时分秒，不经过DateTimeFormatter，不是线程安全的
+ */
+class BarDateFormatter {
+    private static final ZoneId EASTERN_TIME_ZONE = ZoneId.of("America/New_York");
+
+    private final ZoneRules rules = EASTERN_TIME_ZONE.getRules();
+
+    // buffer中的日期和偏移适用的epoch秒范围[validFrom, validUntil)
+    private long validFrom = Long.MAX_VALUE;
+    private long validUntil = Long.MIN_VALUE;
+    // 按当前偏移计算的本地0点
+    private long dayStart;
+    private LocalDate localDate;
+    private char[] buffer;
+
+    String format(long epochSeconds) {
+        if (epochSeconds < validFrom || epochSeconds >= validUntil) {
+            reset(epochSeconds);
+        }
+        int secondOfDay = (int) (epochSeconds - dayStart);
+        put2(11, secondOfDay / 3600);
+        put2(14, secondOfDay / 60 % 60);
+        put2(17, secondOfDay % 60);
+        return new String(buffer);
+    }
+
+    /**
+     * 最近一次format的美东日期
+     */
+    LocalDate getLocalDate() {
+        return localDate;
+    }
+
+    private void reset(long epochSeconds) {
+        Instant instant = Instant.ofEpochSecond(epochSeconds);
+        ZonedDateTime dateTime = instant.atZone(EASTERN_TIME_ZONE);
+        buffer = Utils.formatBarDate(epochSeconds).toCharArray();
+        localDate = dateTime.toLocalDate();
+        dayStart = epochSeconds - dateTime.toLocalTime().toSecondOfDay();
+
+        validFrom = dayStart;
+        validUntil = dayStart + 86400;
+        ZoneOffsetTransition previous = rules.previousTransition(instant.plusSeconds(1));
+        if (previous != null) {
+            validFrom = Math.max(validFrom, previous.toEpochSecond());
+        }
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        if (next != null) {
+            validUntil = Math.min(validUntil, next.toEpochSecond());
+        }
+    }
+
+    private void put2(int pos, int value) {
+        buffer[pos] = (char) ('0' + value / 10);
+        buffer[pos + 1] = (char) ('0' + value % 10);
+    }
+}
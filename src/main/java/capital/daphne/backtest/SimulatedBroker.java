@@ -0,0 +1,219 @@
+package capital.daphne.backtest;
+
+import capital.daphne.models.OrderInfo;
+import capital.daphne.models.Signal;
+import capital.daphne.models.WapCache;
+import capital.daphne.transport.SendResult;
+import capital.daphne.transport.SignalTransport;
+import capital.daphne.utils.JsonCodec;
+import capital.daphne.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 回测中代替trader和datasource：收到信号立即按当前bar的bid/ask成交，
+ * 像trader一样更新store中的POSITION、ORDER_LIST、LAST_ACTION，像datasource一样维护MAX_MIN_WAP
+ * 同时记录每个account的现金、成交和权益曲线，只在回测线程中使用
+ */
+public class SimulatedBroker implements SignalTransport {
+    private static final Logger logger = LoggerFactory.getLogger(SimulatedBroker.class);
+
+    // 和trader写入ORDER_LIST的dateTime格式一致
+    private static final DateTimeFormatter ORDER_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    private final Map<String, String> store;
+    private final String symbol;
+    private final String secType;
+    private final String maxMinKey;
+    private final double slippage;
+    private final double commissionPerShare;
+
+    private final Map<String, Account> accounts = new LinkedHashMap<>();
+
+    // 上一笔开仓之后的wap最大最小值
+    private final WapCache wapMaxMin = new WapCache();
+
+    private String barDate;
+    private double wap;
+    private double bidPrice;
+    private double askPrice;
+    private int bars;
+    private int nextOrderId = 1;
+
+    private static class Account {
+        private final String accountId;
+        private final String prefix;
+        private final List<OrderInfo> orders = new ArrayList<>();
+        private int position;
+        private double cash;
+        private int trades;
+        private int boughtShares;
+        private int soldShares;
+        private double turnover;
+        private double commission;
+        private double peakEquity;
+        private double maxDrawdown;
+
+        private Account(String accountId, String prefix) {
+            this.accountId = accountId;
+            this.prefix = prefix;
+        }
+
+        private double equity(double wap) {
+            return cash + position * wap;
+        }
+    }
+
+    public SimulatedBroker(Map<String, String> store, String symbol, String secType, double slippageBps, double commissionPerShare) {
+        this.store = store;
+        this.symbol = symbol;
+        this.secType = secType;
+        this.maxMinKey = String.format("%s:%s:MAX_MIN_WAP", symbol, secType);
+        this.slippage = slippageBps / 10000.0;
+        this.commissionPerShare = commissionPerShare;
+    }
+
+    /**
+     * 每根bar处理algorithm之前调用，更新行情、MAX_MIN_WAP和权益曲线
+     */
+    public void onBar(String barDate, double wap, double bidPrice, double askPrice) {
+        this.barDate = barDate;
+        this.wap = wap;
+        this.bidPrice = bidPrice;
+        this.askPrice = askPrice;
+        bars++;
+
+        boolean hasOrders = false;
+        for (Account account : accounts.values()) {
+            double equity = account.equity(wap);
+            account.peakEquity = Math.max(account.peakEquity, equity);
+            account.maxDrawdown = Math.max(account.maxDrawdown, account.peakEquity - equity);
+            hasOrders |= !account.orders.isEmpty();
+        }
+
+        boolean updated = false;
+        if (wap >= wapMaxMin.getMaxWap()) {
+            wapMaxMin.setMaxWap(wap);
+            updated = true;
+        }
+        if (wap <= wapMaxMin.getMinWap()) {
+            wapMaxMin.setMinWap(wap);
+            updated = true;
+        }
+        // 只有TrailingStop在有订单时读取，没有订单时不用序列化
+        if (updated && hasOrders) {
+            writeWapMaxMin();
+        }
+    }
+
+    /**
+     * 立即成交，买入按ask、卖出按bid，再加上滑点
+     */
+    @Override
+    public SendResult send(Signal signal) {
+        int quantity = signal.getQuantity();
+        if (quantity == 0) {
+            return SendResult.ACCEPTED;
+        }
+        Account account = account(signal.getAccountId());
+        double price = quantity > 0 ? askPrice * (1 + slippage) : bidPrice * (1 - slippage);
+        double fee = Math.abs(quantity) * commissionPerShare;
+        account.position += quantity;
+        account.cash -= quantity * price + fee;
+        account.trades++;
+        if (quantity > 0) {
+            account.boughtShares += quantity;
+        } else {
+            account.soldShares -= quantity;
+        }
+        account.turnover += Math.abs(quantity) * price;
+        account.commission += fee;
+        store.put(account.prefix + ":POSITION", String.valueOf(account.position));
+
+        if (signal.getOrderType() == Signal.OrderType.OPEN) {
+            OrderInfo orderInfo = new OrderInfo();
+            orderInfo.setOrderId(nextOrderId++);
+            orderInfo.setQuantity(quantity);
+            orderInfo.setDateTime(Utils.localDateTimeNow().format(ORDER_DATE_TIME_FORMATTER));
+            account.orders.add(orderInfo);
+
+            String action = quantity > 0 ? "BUY" : "SELL";
+            store.put(String.format("%s:%s:LAST_ACTION", account.prefix, signal.getBenchmarkColumn()), action + "|" + barDate);
+
+            // 新的订单从成交价开始跟踪最大最小值
+            wapMaxMin.setMaxWap(signal.getWap());
+            wapMaxMin.setMinWap(signal.getWap());
+            writeWapMaxMin();
+        } else {
+            // 平仓之后清空订单
+            account.orders.clear();
+        }
+        writeOrders(account);
+        return SendResult.ACCEPTED;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public List<BacktestResult> getResults() {
+        List<BacktestResult> results = new ArrayList<>(accounts.size());
+        for (Account account : accounts.values()) {
+            BacktestResult result = new BacktestResult();
+            result.setAccountId(account.accountId);
+            result.setSymbol(symbol);
+            result.setSecType(secType);
+            result.setBars(bars);
+            result.setTrades(account.trades);
+            result.setBoughtShares(account.boughtShares);
+            result.setSoldShares(account.soldShares);
+            result.setPosition(account.position);
+            result.setPnl(account.equity(wap));
+            result.setMaxDrawdown(account.maxDrawdown);
+            result.setTurnover(account.turnover);
+            result.setCommission(account.commission);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * 回测开始前登记account，没有成交的account也有结果
+     */
+    public void register(String accountId) {
+        account(accountId);
+    }
+
+    private Account account(String accountId) {
+        return accounts.computeIfAbsent(accountId, id -> new Account(id, String.format("%s:%s:%s", id, symbol, secType)));
+    }
+
+    private void writeOrders(Account account) {
+        String redisKey = account.prefix + ":ORDER_LIST";
+        if (account.orders.isEmpty()) {
+            store.remove(redisKey);
+            return;
+        }
+        try {
+            store.put(redisKey, JsonCodec.write(account.orders));
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(redisKey + " write order list failed, error:" + e.getMessage());
+        }
+    }
+
+    private void writeWapMaxMin() {
+        try {
+            store.put(maxMinKey, JsonCodec.write(wapMaxMin));
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(maxMinKey + " write wap max min failed, error:" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package capital.daphne.backtest;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 一组参数的回测结果，rank按pnl从高到低，从1开始
+ */
+@Data
+public class SweepResult {
+    private int rank;
+    private Map<String, Double> params;
+    private BacktestResult result;
+}
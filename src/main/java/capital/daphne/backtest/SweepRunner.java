@@ -0,0 +1,207 @@
+package capital.daphne.backtest;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.archive.BarArchive;
+import capital.daphne.models.BarTape;
+import capital.daphne.utils.JsonCodec;
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 参数扫描：按SweepSpec生成一组参数，每组参数一个独立的BacktestEngine，在ForkJoinPool中并行运行
+ * 所有回测共享同一份只读的BarTape，store、clock、RedisContext都是每次回测各自的，不需要redis和mysql
+ * 结果按pnl从高到低排序
+ */
+public class SweepRunner {
+    private static final Logger logger = LoggerFactory.getLogger(SweepRunner.class);
+
+    private final AppConfigManager.AppConfig.Backtest config;
+    private final int parallelism;
+
+    public SweepRunner(AppConfigManager.AppConfig.Backtest config, int parallelism) {
+        this.config = config;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public List<SweepResult> run(BarTape tape, AppConfigManager.AppConfig.AlgorithmConfig base, SweepSpec spec) throws Exception {
+        List<Map<String, Double>> candidates = candidates(spec);
+        // 先把所有参数组合转成配置，路径写错时在开始回测之前就失败
+        List<AppConfigManager.AppConfig.AlgorithmConfig> algorithms = new ArrayList<>(candidates.size());
+        for (Map<String, Double> params : candidates) {
+            algorithms.add(apply(base, params));
+        }
+
+        long startNanos = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<SweepResult> results;
+        try {
+            // 在自定义的pool中执行parallel stream，并行度由pool决定
+            results = pool.submit(() -> IntStream.range(0, candidates.size()).parallel()
+                    .mapToObj(i -> runOne(tape, algorithms.get(i), candidates.get(i)))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList())).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        results.sort(Comparator.comparingDouble((SweepResult r) -> r.getResult().getPnl()).reversed());
+        for (int i = 0; i < results.size(); i++) {
+            results.get(i).setRank(i + 1);
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        logger.info(String.format("sweep %s:%s finished, runs=%d, parallelism=%d, seconds=%.3f, bars=%d, barsPerSecond=%.0f",
+                tape.getSymbol(), tape.getSecType(), results.size(), parallelism, seconds, tape.size(),
+                (double) tape.size() * results.size() / Math.max(seconds, 1e-9)));
+        return results;
+    }
+
+    private SweepResult runOne(BarTape tape, AppConfigManager.AppConfig.AlgorithmConfig ac, Map<String, Double> params) {
+        try {
+            List<BacktestResult> backtestResults = new BacktestEngine(Collections.singletonList(ac), config).run(tape);
+            if (backtestResults.isEmpty()) {
+                return null;
+            }
+            SweepResult result = new SweepResult();
+            result.setParams(params);
+            result.setResult(backtestResults.get(0));
+            return result;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn("sweep " + params + " failed, error=" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * grid取所有组合；有ranges时随机取samples次，每次在grid的组合中随机选一个，再加上ranges中随机的值
+     */
+    public static List<Map<String, Double>> candidates(SweepSpec spec) {
+        List<Map<String, Double>> combos = new ArrayList<>();
+        combos.add(new LinkedHashMap<>());
+        if (spec.getGrid() != null) {
+            for (Map.Entry<String, List<Double>> entry : spec.getGrid().entrySet()) {
+                List<Map<String, Double>> next = new ArrayList<>(combos.size() * entry.getValue().size());
+                for (Map<String, Double> combo : combos) {
+                    for (Double value : entry.getValue()) {
+                        Map<String, Double> params = new LinkedHashMap<>(combo);
+                        params.put(entry.getKey(), value);
+                        next.add(params);
+                    }
+                }
+                combos = next;
+            }
+        }
+        if (spec.getRanges() == null || spec.getRanges().isEmpty()) {
+            return combos;
+        }
+
+        Random random = new Random(spec.getSeed());
+        int samples = spec.getSamples() > 0 ? spec.getSamples() : 100;
+        List<Map<String, Double>> candidates = new ArrayList<>(samples);
+        for (int i = 0; i < samples; i++) {
+            Map<String, Double> params = new LinkedHashMap<>(combos.get(random.nextInt(combos.size())));
+            for (Map.Entry<String, List<Double>> entry : spec.getRanges().entrySet()) {
+                List<Double> range = entry.getValue();
+                if (range.size() != 2) {
+                    throw new IllegalArgumentException("range of " + entry.getKey() + " should be [min, max]");
+                }
+                params.put(entry.getKey(), range.get(0) + random.nextDouble() * (range.get(1) - range.get(0)));
+            }
+            candidates.add(params);
+        }
+        return candidates;
+    }
+
+    /**
+     * 复制base并设置参数，路径用.分隔，e.g. dmaParams.slowWindow；int字段四舍五入
+     * 路径在base中不存在时抛出IllegalArgumentException
+     */
+    public static AppConfigManager.AppConfig.AlgorithmConfig apply(AppConfigManager.AppConfig.AlgorithmConfig base, Map<String, Double> params) throws Exception {
+        ObjectNode root = JsonCodec.mapper().valueToTree(base);
+        for (Map.Entry<String, Double> entry : params.entrySet()) {
+            String[] path = entry.getKey().split("\\.");
+            JsonNode node = root;
+            for (int i = 0; i < path.length - 1; i++) {
+                node = node.get(path[i]);
+                if (node == null || !node.isObject()) {
+                    throw new IllegalArgumentException(entry.getKey() + " not found in " + base.getName());
+                }
+            }
+            String field = path[path.length - 1];
+            JsonNode old = node.get(field);
+            if (old == null || !old.isNumber()) {
+                throw new IllegalArgumentException(entry.getKey() + " is not a number field of " + base.getName());
+            }
+            if (old.isIntegralNumber()) {
+                ((ObjectNode) node).put(field, Math.round(entry.getValue()));
+            } else {
+                ((ObjectNode) node).put(field, entry.getValue());
+            }
+        }
+        return JsonCodec.mapper().treeToValue(root, AppConfigManager.AppConfig.AlgorithmConfig.class);
+    }
+
+    public static String formatTable(List<SweepResult> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-6s%14s%8s%14s%16s  %s%n", "rank", "pnl", "trades", "maxDrawdown", "turnover", "params"));
+        for (SweepResult r : results) {
+            BacktestResult result = r.getResult();
+            sb.append(String.format("%-6d%14.2f%8d%14.2f%16.2f  %s%n", r.getRank(), result.getPnl(), result.getTrades(),
+                    result.getMaxDrawdown(), result.getTurnover(), r.getParams()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 用法：SweepRunner <spec.json> <bars.csv|archiveRoot> <symbol> <secType> [fromDate toDate]
+     * 第二个参数是目录时从BarArchive读取，多个回测共享同一份映射的数据
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: SweepRunner <spec.json> <bars.csv|archiveRoot> <symbol> <secType> [fromDate toDate]");
+            System.exit(1);
+        }
+        SweepSpec spec = JsonCodec.mapper().readValue(new File(args[0]), SweepSpec.class);
+        BarTape tape;
+        if (new File(args[1]).isDirectory()) {
+            LocalDate from = args.length >= 6 ? LocalDate.parse(args[4]) : LocalDate.MIN;
+            LocalDate to = args.length >= 6 ? LocalDate.parse(args[5]) : LocalDate.MAX;
+            tape = new BarArchive(args[1]).load(args[2], args[3], from, to);
+        } else {
+            tape = BarTape.readCsv(args[1], args[2], args[3]);
+        }
+
+        AppConfigManager.AppConfig appConfig = AppConfigManager.getInstance().getAppConfig();
+        AppConfigManager.AppConfig.AlgorithmConfig base = spec.getAlgorithm();
+        if (base == null) {
+            base = appConfig.getAlgorithms().stream()
+                    .filter(ac -> ac.getSymbol().equals(tape.getSymbol()) && ac.getSecType().equals(tape.getSecType()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("no algorithm for " + tape.getSymbol() + ":" + tape.getSecType()));
+        }
+
+        // processor每根bar都会写日志，扫描时调高级别，避免所有线程争用同一个appender
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("capital.daphne.algorithms")).setLevel(Level.ERROR);
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("capital.daphne.services")).setLevel(Level.WARN);
+
+        List<SweepResult> results = new SweepRunner(appConfig.getBacktest(), spec.getParallelism()).run(tape, base, spec);
+        System.out.print(formatTable(results));
+    }
+}
@@ -0,0 +1,28 @@
+package capital.daphne.backtest;
+
+import capital.daphne.AppConfigManager;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 参数扫描的配置，参数用AlgorithmConfig中的字段路径表示，e.g. signalMargin、volatilityB、dmaParams.slowWindow
+ * grid中的参数取所有组合；ranges中的参数在[min, max]之间随机取值，和grid的一个随机组合一起组成一次回测，共samples次
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SweepSpec {
+    // 参数路径 -> 候选值
+    private Map<String, List<Double>> grid;
+    // 参数路径 -> [min, max]
+    private Map<String, List<Double>> ranges;
+    // 随机搜索的次数，只在ranges不为空时使用
+    private int samples;
+    private long seed;
+    // 并行的回测数量，默认等于cpu核数
+    private int parallelism;
+    // 扫描的基础配置，为空时使用config.json中同一个symbol:secType的第一个algorithm
+    private AppConfigManager.AppConfig.AlgorithmConfig algorithm;
+}
@@ -0,0 +1,59 @@
+package capital.daphne.indicators;
+
+import capital.daphne.models.BarWindow;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+
+/**
+ * 记录流式指标已经处理到哪一根bar，每次只把dataframe中新增的bar喂给指标
+ * 按date_us匹配，dataframe和BarWindow都可以使用，找不到上一次处理的bar（第一次调用或者中间漏了太多bar）时需要重置指标，从头喂整个dataframe
+ */
+public class BarCursor {
+    private String lastDate;
+
+    /**
+     * 返回第一根没有处理过的bar的下标，没有新bar时返回df.rowCount()，需要重置指标时返回-1
+     */
+    public int seek(Table df) {
+        if (lastDate == null) {
+            return -1;
+        }
+        StringColumn dates = df.stringColumn("date_us");
+        // 新bar都在末尾，从后往前找
+        for (int i = dates.size() - 1; i >= 0; i--) {
+            if (lastDate.equals(dates.get(i))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    public int seek(BarWindow bars) {
+        if (lastDate == null) {
+            return -1;
+        }
+        for (int i = bars.size() - 1; i >= 0; i--) {
+            if (lastDate.equals(bars.date(i))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 指标已经处理完df中的所有bar
+     */
+    public void commit(Table df) {
+        int rowCount = df.rowCount();
+        lastDate = rowCount == 0 ? null : df.stringColumn("date_us").get(rowCount - 1);
+    }
+
+    public void commit(BarWindow bars) {
+        int size = bars.size();
+        lastDate = size == 0 ? null : bars.date(size - 1);
+    }
+
+    public void reset() {
+        lastDate = null;
+    }
+}
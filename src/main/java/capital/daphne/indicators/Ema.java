@@ -0,0 +1,74 @@
+package capital.daphne.indicators;
+
+/**
+ * 连续的指数移动平均，前period个值的简单平均作为初始值，之后 ema = value * alpha + prev * (1 - alpha)
+ */
+public class Ema implements Indicator {
+    private final double alpha;
+    private final int period;
+    private double value;
+    private double seedSum;
+    private long count;
+
+    public Ema(int period) {
+        this(2.0 / (period + 1), period);
+    }
+
+    public Ema(double alpha, int period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        this.alpha = alpha;
+        this.period = period;
+    }
+
+    @Override
+    public void update(double input) {
+        count++;
+        if (count < period) {
+            seedSum += input;
+        } else if (count == period) {
+            seedSum += input;
+            value = seedSum / period;
+        } else {
+            value = input * alpha + value * (1 - alpha);
+        }
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? value : Double.NaN;
+    }
+
+    @Override
+    public boolean isReady() {
+        return count >= period;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    @Override
+    public void reset() {
+        value = 0.0;
+        seedSum = 0.0;
+        count = 0;
+    }
+
+    @Override
+    public double[] snapshot() {
+        return new double[]{value, seedSum, count};
+    }
+
+    @Override
+    public void restore(double[] state) {
+        value = state[0];
+        seedSum = state[1];
+        count = (long) state[2];
+    }
+}
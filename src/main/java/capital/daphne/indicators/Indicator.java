@@ -0,0 +1,22 @@
+package capital.daphne.indicators;
+
+/**
+ * 流式指标，每根bar调用一次update，O(1)更新
+ * snapshot/restore把内部状态导出成double数组，用于checkpoint和回测
+ */
+public interface Indicator {
+    void update(double value);
+
+    /**
+     * 最新的指标值，数据不足时返回NaN
+     */
+    double getValue();
+
+    boolean isReady();
+
+    void reset();
+
+    double[] snapshot();
+
+    void restore(double[] state);
+}
@@ -0,0 +1,154 @@
+package capital.daphne.indicators;
+
+import capital.daphne.utils.EwmKernel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 最近windowSize个值上的MACD，和MACDSingal.generateBenchmarkColumn的最后一行相同
+ * MACD线 = 短周期WindowedEma - 长周期WindowedEma，O(1)更新
+ * 信号线是MACD线在窗口内的ewm，窗口滑动时整条MACD线都会变化，没有O(1)的递推；
+ * 但它对窗口内的输入是线性的，所以预先算出每个位置的系数，每根bar做一次长度为windowSize的点积
+ * 窗口比任意一个周期短时（e.g. 刚启动bar不够，或者numStatsBars比长周期小），MACD线和信号线都是NaN，不抛异常
+ */
+public class Macd implements Indicator {
+    // 同样参数的系数只算一次
+    private static final Map<String, double[]> SIGNAL_COEFFICIENTS = new ConcurrentHashMap<>();
+
+    // 窗口比周期短时为null，永远不会ready
+    private final WindowedEma shortEma;
+    private final WindowedEma longEma;
+    private final RollingWindow window;
+    private final double[] signalCoefficients;
+
+    public Macd(int shortPeriod, int longPeriod, int signalPeriod, int windowSize) {
+        this.window = new RollingWindow(windowSize);
+        if (windowSize < Math.max(Math.max(shortPeriod, longPeriod), signalPeriod)) {
+            this.shortEma = null;
+            this.longEma = null;
+            this.signalCoefficients = new double[0];
+            return;
+        }
+        this.shortEma = new WindowedEma(shortPeriod, windowSize);
+        this.longEma = new WindowedEma(longPeriod, windowSize);
+        String key = shortPeriod + ":" + longPeriod + ":" + signalPeriod + ":" + windowSize;
+        this.signalCoefficients = SIGNAL_COEFFICIENTS.computeIfAbsent(key,
+                k -> calSignalCoefficients(shortPeriod, longPeriod, signalPeriod, windowSize));
+    }
+
+    @Override
+    public void update(double value) {
+        window.add(value);
+        if (shortEma == null) {
+            return;
+        }
+        shortEma.update(value);
+        longEma.update(value);
+    }
+
+    /**
+     * MACD线
+     */
+    @Override
+    public double getValue() {
+        if (!isReady()) {
+            return Double.NaN;
+        }
+        return shortEma.getValue() - longEma.getValue();
+    }
+
+    /**
+     * 信号线
+     */
+    public double getSignal() {
+        if (!isReady()) {
+            return Double.NaN;
+        }
+        double signal = 0.0;
+        for (int i = 0; i < signalCoefficients.length; i++) {
+            signal += signalCoefficients[i] * window.getOldest(i);
+        }
+        return signal;
+    }
+
+    @Override
+    public boolean isReady() {
+        return shortEma != null && window.isFull();
+    }
+
+    public int getWindowSize() {
+        return window.getCapacity();
+    }
+
+    @Override
+    public void reset() {
+        window.clear();
+        if (shortEma == null) {
+            return;
+        }
+        shortEma.reset();
+        longEma.reset();
+    }
+
+    @Override
+    public double[] snapshot() {
+        if (shortEma == null) {
+            double[] state = new double[window.stateLength()];
+            window.snapshotInto(state, 0);
+            return state;
+        }
+        double[] shortState = shortEma.snapshot();
+        double[] longState = longEma.snapshot();
+        double[] state = new double[shortState.length + longState.length + window.stateLength()];
+        System.arraycopy(shortState, 0, state, 0, shortState.length);
+        System.arraycopy(longState, 0, state, shortState.length, longState.length);
+        window.snapshotInto(state, shortState.length + longState.length);
+        return state;
+    }
+
+    @Override
+    public void restore(double[] state) {
+        if (shortEma == null) {
+            window.restore(state, 0);
+            return;
+        }
+        // 两个WindowedEma的状态长度相同
+        int emaStateLength = (state.length - window.stateLength()) / 2;
+        double[] shortState = new double[emaStateLength];
+        double[] longState = new double[emaStateLength];
+        System.arraycopy(state, 0, shortState, 0, emaStateLength);
+        System.arraycopy(state, emaStateLength, longState, 0, emaStateLength);
+        shortEma.restore(shortState);
+        longEma.restore(longState);
+        window.restore(state, emaStateLength * 2);
+    }
+
+    /**
+     * 对每个单位向量按原来的计算方式算一遍信号线，得到每个位置的系数
+     */
+    static double[] calSignalCoefficients(int shortPeriod, int longPeriod, int signalPeriod, int windowSize) {
+        double[] coefficients = new double[windowSize];
+        double[] input = new double[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            input[i] = 1.0;
+            coefficients[i] = calSignal(input, shortPeriod, longPeriod, signalPeriod);
+            input[i] = 0.0;
+        }
+        return coefficients;
+    }
+
+    /**
+     * 按generateBenchmarkColumn的方式计算最后一个信号线的值
+     */
+    static double calSignal(double[] input, int shortPeriod, int longPeriod, int signalPeriod) {
+        double[] shortEma = EwmKernel.ewm(input, 2.0 / (shortPeriod + 1), true, false, shortPeriod, shortPeriod - 1);
+        double[] longEma = EwmKernel.ewm(input, 2.0 / (longPeriod + 1), true, false, longPeriod, longPeriod - 1);
+        double[] line = new double[input.length];
+        for (int i = 0; i < input.length; i++) {
+            line[i] = shortEma[i] - longEma[i];
+        }
+        double[] signal = EwmKernel.ewm(line, 2.0 / (signalPeriod + 1), true, false, signalPeriod, signalPeriod - 1);
+        return signal[signal.length - 1];
+    }
+}
@@ -0,0 +1,103 @@
+package capital.daphne.indicators;
+
+/**
+ * 单调队列实现的滚动最大值/最小值，均摊O(1)
+ * 队列中保存窗口内可能成为极值的元素（序号和值），队首就是当前窗口的极值
+ */
+abstract class RollingExtreme implements Indicator {
+    private final int period;
+    private final boolean max;
+    // 环形数组实现的双端队列，最多period个元素
+    private final long[] seqs;
+    private final double[] values;
+    private int front;
+    private int size;
+    // 已经输入的值的个数
+    private long seq;
+
+    RollingExtreme(int period, boolean max) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        this.period = period;
+        this.max = max;
+        this.seqs = new long[period];
+        this.values = new double[period];
+    }
+
+    /**
+     * 输入不能是NaN
+     */
+    @Override
+    public void update(double value) {
+        // 从队尾移除不可能再成为极值的元素
+        while (size > 0) {
+            double back = values[index(size - 1)];
+            if (max ? back <= value : back >= value) {
+                size--;
+            } else {
+                break;
+            }
+        }
+        // 移除已经滑出窗口的队首
+        if (size > 0 && seqs[front] <= seq - period) {
+            front = index(1);
+            size--;
+        }
+        int tail = index(size);
+        seqs[tail] = seq;
+        values[tail] = value;
+        size++;
+        seq++;
+    }
+
+    private int index(int i) {
+        int idx = front + i;
+        return idx >= period ? idx - period : idx;
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? values[front] : Double.NaN;
+    }
+
+    @Override
+    public boolean isReady() {
+        return seq >= period;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    @Override
+    public void reset() {
+        front = 0;
+        size = 0;
+        seq = 0;
+    }
+
+    @Override
+    public double[] snapshot() {
+        double[] state = new double[2 + size * 2];
+        state[0] = seq;
+        state[1] = size;
+        for (int i = 0; i < size; i++) {
+            int idx = index(i);
+            state[2 + i * 2] = seqs[idx];
+            state[3 + i * 2] = values[idx];
+        }
+        return state;
+    }
+
+    @Override
+    public void restore(double[] state) {
+        seq = (long) state[0];
+        size = (int) state[1];
+        front = 0;
+        for (int i = 0; i < size; i++) {
+            seqs[i] = (long) state[2 + i * 2];
+            values[i] = state[3 + i * 2];
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package capital.daphne.indicators;
+
+/**
+ * 最近period个值的最大值，等价于DoubleColumn.rolling(period).max()的最后一个值
+ */
+public class RollingMax extends RollingExtreme {
+    public RollingMax(int period) {
+        super(period, true);
+    }
+}
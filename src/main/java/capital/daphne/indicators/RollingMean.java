@@ -0,0 +1,46 @@
+package capital.daphne.indicators;
+
+/**
+ * 最近period个值的平均值，等价于DoubleColumn.rolling(period).mean()的最后一个值
+ */
+public class RollingMean implements Indicator {
+    private final RollingSum sum;
+
+    public RollingMean(int period) {
+        this.sum = new RollingSum(period);
+    }
+
+    @Override
+    public void update(double value) {
+        sum.update(value);
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? sum.getValue() / sum.getPeriod() : Double.NaN;
+    }
+
+    @Override
+    public boolean isReady() {
+        return sum.isReady();
+    }
+
+    public int getPeriod() {
+        return sum.getPeriod();
+    }
+
+    @Override
+    public void reset() {
+        sum.reset();
+    }
+
+    @Override
+    public double[] snapshot() {
+        return sum.snapshot();
+    }
+
+    @Override
+    public void restore(double[] state) {
+        sum.restore(state);
+    }
+}
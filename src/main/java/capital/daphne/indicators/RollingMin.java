@@ -0,0 +1,10 @@
+package capital.daphne.indicators;
+
+/**
+ * 最近period个值的最小值，等价于DoubleColumn.rolling(period).min()的最后一个值
+ */
+public class RollingMin extends RollingExtreme {
+    public RollingMin(int period) {
+        super(period, false);
+    }
+}
@@ -0,0 +1,83 @@
+package capital.daphne.indicators;
+
+/**
+ * 最近period个值的和，加一个减一个，每period次更新重新求和一次，避免浮点误差累积
+ */
+public class RollingSum implements Indicator {
+    private final int period;
+    private final RollingWindow window;
+    private double sum;
+    private int sinceResum;
+
+    public RollingSum(int period) {
+        this.period = period;
+        this.window = new RollingWindow(period);
+    }
+
+    @Override
+    public void update(double value) {
+        double evicted = window.add(value);
+        if (++sinceResum >= period) {
+            resum();
+            return;
+        }
+        sum += value;
+        if (!Double.isNaN(evicted)) {
+            sum -= evicted;
+        }
+    }
+
+    private void resum() {
+        double s = 0.0;
+        int size = window.size();
+        for (int i = 0; i < size; i++) {
+            s += window.getOldest(i);
+        }
+        sum = s;
+        sinceResum = 0;
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? sum : Double.NaN;
+    }
+
+    @Override
+    public boolean isReady() {
+        return window.isFull();
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * 窗口中lag根之前的输入值，0是最新的
+     */
+    public double getInput(int lag) {
+        return window.get(lag);
+    }
+
+    @Override
+    public void reset() {
+        window.clear();
+        sum = 0.0;
+        sinceResum = 0;
+    }
+
+    @Override
+    public double[] snapshot() {
+        double[] state = new double[window.stateLength() + 2];
+        state[0] = sum;
+        state[1] = sinceResum;
+        window.snapshotInto(state, 2);
+        return state;
+    }
+
+    @Override
+    public void restore(double[] state) {
+        sum = state[0];
+        sinceResum = (int) state[1];
+        window.restore(state, 2);
+    }
+}
@@ -0,0 +1,107 @@
+package capital.daphne.indicators;
+
+import java.util.Arrays;
+
+/**
+ * 最近capacity个值的环形缓冲区
+ */
+public class RollingWindow {
+    private final int capacity;
+    private final double[] values;
+    // 下一个写入的位置
+    private int head;
+    private long count;
+
+    public RollingWindow(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.values = new double[capacity];
+    }
+
+    /**
+     * 追加一个值，返回被挤出的值，还没满时返回NaN
+     */
+    public double add(double value) {
+        double evicted = count >= capacity ? values[head] : Double.NaN;
+        values[head] = value;
+        head = head + 1 == capacity ? 0 : head + 1;
+        count++;
+        return evicted;
+    }
+
+    /**
+     * lag=0是最新的值，超出范围返回NaN
+     */
+    public double get(int lag) {
+        if (lag < 0 || lag >= size()) {
+            return Double.NaN;
+        }
+        int idx = head - 1 - lag;
+        return values[idx < 0 ? idx + capacity : idx];
+    }
+
+    /**
+     * 按时间顺序的第i个值，0是最早的
+     */
+    public double getOldest(int i) {
+        return get(size() - 1 - i);
+    }
+
+    public int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isFull() {
+        return count >= capacity;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+        Arrays.fill(values, 0.0);
+    }
+
+    /**
+     * 状态长度为capacity + 2
+     */
+    public double[] snapshot() {
+        double[] state = new double[capacity + 2];
+        state[0] = head;
+        state[1] = count;
+        System.arraycopy(values, 0, state, 2, capacity);
+        return state;
+    }
+
+    public void restore(double[] state) {
+        restore(state, 0);
+    }
+
+    void restore(double[] state, int offset) {
+        if (state.length - offset < capacity + 2) {
+            throw new IllegalArgumentException("state length mismatch");
+        }
+        head = (int) state[offset];
+        count = (long) state[offset + 1];
+        System.arraycopy(state, offset + 2, values, 0, capacity);
+    }
+
+    void snapshotInto(double[] state, int offset) {
+        state[offset] = head;
+        state[offset + 1] = count;
+        System.arraycopy(values, 0, state, offset + 2, capacity);
+    }
+
+    int stateLength() {
+        return capacity + 2;
+    }
+}
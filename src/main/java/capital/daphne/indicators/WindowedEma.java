@@ -0,0 +1,120 @@
+package capital.daphne.indicators;
+
+/**
+ * 只在最近windowSize个值上计算的EMA，等价于对最近windowSize个值调用Utils.ewm(prefillSma=true, adjust=false)后取最后一个值
+ * 窗口内前period个值的平均值作为初始值，所以窗口滑动时初始值也跟着变，不能用连续的EMA代替
+ * 记 q = 1 - alpha, 窗口内的值为x[0..W-1], 则
+ * ema = q^(W-p) * S / p + alpha * A, 其中 S = x[0] + ... + x[p-1], A = sum(q^(W-1-k) * x[k]), k = p..W-1
+ * 窗口滑动时 S和A都可以O(1)更新，每windowSize次更新重新求和一次，避免误差累积
+ */
+public class WindowedEma implements Indicator {
+    private final double alpha;
+    private final int period;
+    private final int windowSize;
+    private final RollingWindow window;
+    // q^(W-p)
+    private final double tailDecay;
+    private double seedSum;
+    private double decayedSum;
+    private int sinceResum;
+
+    public WindowedEma(int period, int windowSize) {
+        this(2.0 / (period + 1), period, windowSize);
+    }
+
+    public WindowedEma(double alpha, int period, int windowSize) {
+        if (period <= 0 || windowSize < period) {
+            throw new IllegalArgumentException(String.format("invalid period=%d, windowSize=%d", period, windowSize));
+        }
+        this.alpha = alpha;
+        this.period = period;
+        this.windowSize = windowSize;
+        this.window = new RollingWindow(windowSize);
+        this.tailDecay = Math.pow(1 - alpha, windowSize - period);
+    }
+
+    @Override
+    public void update(double value) {
+        if (!window.isFull()) {
+            window.add(value);
+            if (window.isFull()) {
+                resum();
+            }
+            return;
+        }
+        // 窗口中第period个值滑入初始值区间
+        double boundary = window.getOldest(period);
+        double evicted = window.add(value);
+        if (++sinceResum >= windowSize) {
+            resum();
+            return;
+        }
+        if (period == windowSize) {
+            seedSum += value - evicted;
+            return;
+        }
+        seedSum += boundary - evicted;
+        decayedSum = (1 - alpha) * decayedSum + value - tailDecay * boundary;
+    }
+
+    private void resum() {
+        double s = 0.0;
+        for (int i = 0; i < period; i++) {
+            s += window.getOldest(i);
+        }
+        double a = 0.0;
+        for (int i = period; i < windowSize; i++) {
+            a = a * (1 - alpha) + window.getOldest(i);
+        }
+        seedSum = s;
+        decayedSum = a;
+        sinceResum = 0;
+    }
+
+    @Override
+    public double getValue() {
+        if (!isReady()) {
+            return Double.NaN;
+        }
+        return tailDecay * seedSum / period + alpha * decayedSum;
+    }
+
+    @Override
+    public boolean isReady() {
+        return window.isFull();
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public void reset() {
+        window.clear();
+        seedSum = 0.0;
+        decayedSum = 0.0;
+        sinceResum = 0;
+    }
+
+    @Override
+    public double[] snapshot() {
+        double[] state = new double[window.stateLength() + 3];
+        state[0] = seedSum;
+        state[1] = decayedSum;
+        state[2] = sinceResum;
+        window.snapshotInto(state, 3);
+        return state;
+    }
+
+    @Override
+    public void restore(double[] state) {
+        seedSum = state[0];
+        decayedSum = state[1];
+        sinceResum = (int) state[2];
+        window.restore(state, 3);
+    }
+}
@@ -0,0 +1,24 @@
+package capital.daphne.models;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 等待异步写入数据库的一行审计数据，也是落盘文件中每一行的格式
+ */
+@Data
+@NoArgsConstructor
+public class AuditRecord {
+    // AuditWriter.Table的名称
+    private String table;
+    // 按insert语句中的顺序排列的字段值
+    private Object[] values;
+    // 入队时间，用来计算写入延迟
+    private long createdAt;
+
+    public AuditRecord(String table, Object[] values) {
+        this.table = table;
+        this.values = values;
+        this.createdAt = System.currentTimeMillis();
+    }
+}
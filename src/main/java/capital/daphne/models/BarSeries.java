@@ -0,0 +1,130 @@
+package capital.daphne.models;
+
+/**
+ * 常驻内存的bar环形缓冲区，每个symbol:secType一份
+ * 按列存储在原始类型数组中，每次只追加最新的bar，通过window(n)拿到最近n根bar的零拷贝视图
+ * 只允许一个线程写入（处理barUpdateChannel消息的线程），读线程通过count的volatile语义看到完整写入的数据
+ */
+public class BarSeries {
+    private final int capacity;
+    private final int mask;
+
+    private final String[] dates;
+    private final long[] timeNanos;
+    private final double[] vwap;
+    private final double[] open;
+    private final double[] high;
+    private final double[] low;
+    private final double[] close;
+
+    // 累计追加的bar数量，同时作为写入序号
+    private volatile long count;
+
+    public BarSeries(int minCapacity) {
+        // 容量取2的幂，下标计算只需要位运算
+        int cap = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        capacity = cap;
+        mask = cap - 1;
+        dates = new String[cap];
+        timeNanos = new long[cap];
+        vwap = new double[cap];
+        open = new double[cap];
+        high = new double[cap];
+        low = new double[cap];
+        close = new double[cap];
+        count = 0;
+    }
+
+    public void append(String date, long nanos, double vwapValue, double openValue, double highValue, double lowValue, double closeValue) {
+        long seq = count;
+        int idx = (int) (seq & mask);
+        dates[idx] = date;
+        timeNanos[idx] = nanos;
+        vwap[idx] = vwapValue;
+        open[idx] = openValue;
+        high[idx] = highValue;
+        low[idx] = lowValue;
+        close[idx] = closeValue;
+        // 最后再更新count，保证读线程看到的都是完整的bar
+        count = seq + 1;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public String getLastDate() {
+        long c = count;
+        if (c == 0) {
+            return null;
+        }
+        return dates[(int) ((c - 1) & mask)];
+    }
+
+    /**
+     * 最后一根bar的epoch纳秒，没有bar时返回-1
+     */
+    public long getLastTimeNanos() {
+        long c = count;
+        if (c == 0) {
+            return -1;
+        }
+        return timeNanos[(int) ((c - 1) & mask)];
+    }
+
+    /**
+     * 返回最近n根bar的视图，数量不足时返回null
+     * 视图不复制数据，只要写线程在视图使用期间追加的bar数量不超过capacity - n，数据就不会被覆盖
+     */
+    public BarWindow window(int n) {
+        long end = count;
+        if (n <= 0 || n > Math.min(end, capacity)) {
+            return null;
+        }
+        return new BarWindow(this, end - n, n);
+    }
+
+    int index(long seq) {
+        return (int) (seq & mask);
+    }
+
+    String dateAt(long seq) {
+        return dates[index(seq)];
+    }
+
+    long timeNanosAt(long seq) {
+        return timeNanos[index(seq)];
+    }
+
+    double vwapAt(long seq) {
+        return vwap[index(seq)];
+    }
+
+    double openAt(long seq) {
+        return open[index(seq)];
+    }
+
+    double highAt(long seq) {
+        return high[index(seq)];
+    }
+
+    double lowAt(long seq) {
+        return low[index(seq)];
+    }
+
+    double closeAt(long seq) {
+        return close[index(seq)];
+    }
+}
@@ -0,0 +1,212 @@
+package capital.daphne.models;
+
+import capital.daphne.utils.Utils;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一段连续的历史bar，按列存储，只读，回测、BarArchive和启动预热共用，多个回测可以共享同一份
+ * 列可以是堆内数组包装的buffer，也可以是文件映射的buffer，读取时只用绝对下标，不改变buffer的position
+ * 可以由多段拼成（e.g. 多天的存档文件），每段各自的buffer，按下标读取时先找到所在的段
+ * vwap是datasource写入BAR_LIST时的wap（volume <= 0时已经换成了TWAP）
+ */
+public class BarTape {
+    private final String symbol;
+    private final String secType;
+    private final int size;
+    // 每一段第一根bar在整个tape中的下标，段内的列是同一个文件（或数组）上的buffer
+    private final int[] starts;
+    private final LongBuffer[] epochSeconds;
+    private final DoubleBuffer[] vwap;
+    private final DoubleBuffer[] open;
+    private final DoubleBuffer[] high;
+    private final DoubleBuffer[] low;
+    private final DoubleBuffer[] close;
+
+    public BarTape(String symbol, String secType, LongBuffer epochSeconds, DoubleBuffer vwap,
+                   DoubleBuffer open, DoubleBuffer high, DoubleBuffer low, DoubleBuffer close) {
+        int n = epochSeconds.limit();
+        if (vwap.limit() != n || open.limit() != n || high.limit() != n || low.limit() != n || close.limit() != n) {
+            throw new IllegalArgumentException(String.format("%s:%s columns have different lengths", symbol, secType));
+        }
+        this.symbol = symbol;
+        this.secType = secType;
+        this.size = n;
+        this.starts = new int[]{0};
+        this.epochSeconds = new LongBuffer[]{epochSeconds};
+        this.vwap = new DoubleBuffer[]{vwap};
+        this.open = new DoubleBuffer[]{open};
+        this.high = new DoubleBuffer[]{high};
+        this.low = new DoubleBuffer[]{low};
+        this.close = new DoubleBuffer[]{close};
+    }
+
+    private BarTape(String symbol, String secType, int size, int[] starts, LongBuffer[] epochSeconds, DoubleBuffer[] vwap,
+                    DoubleBuffer[] open, DoubleBuffer[] high, DoubleBuffer[] low, DoubleBuffer[] close) {
+        this.symbol = symbol;
+        this.secType = secType;
+        this.size = size;
+        this.starts = starts;
+        this.epochSeconds = epochSeconds;
+        this.vwap = vwap;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+    }
+
+    public static BarTape of(String symbol, String secType, List<BarInfo> bars) {
+        int n = bars.size();
+        long[] times = new long[n];
+        double[] vwaps = new double[n];
+        double[] opens = new double[n];
+        double[] highs = new double[n];
+        double[] lows = new double[n];
+        double[] closes = new double[n];
+        for (int i = 0; i < n; i++) {
+            BarInfo bar = bars.get(i);
+            times[i] = Math.floorDiv(Utils.parseEpochNanos(bar.getDate()), 1_000_000_000L);
+            vwaps[i] = bar.getVwap();
+            opens[i] = bar.getOpen();
+            highs[i] = bar.getHigh();
+            lows[i] = bar.getLow();
+            closes[i] = bar.getClose();
+        }
+        return new BarTape(symbol, secType, LongBuffer.wrap(times), DoubleBuffer.wrap(vwaps),
+                DoubleBuffer.wrap(opens), DoubleBuffer.wrap(highs), DoubleBuffer.wrap(lows), DoubleBuffer.wrap(closes));
+    }
+
+    /**
+     * 按顺序把多段tape拼成一个tape，不复制数据，各段的列仍然是原来的buffer（e.g. 每天一个映射的存档文件）
+     */
+    public static BarTape concat(String symbol, String secType, List<BarTape> tapes) {
+        int segments = 0;
+        for (BarTape tape : tapes) {
+            segments += tape.starts.length;
+        }
+        int[] starts = new int[segments];
+        LongBuffer[] times = new LongBuffer[segments];
+        DoubleBuffer[] vwaps = new DoubleBuffer[segments];
+        DoubleBuffer[] opens = new DoubleBuffer[segments];
+        DoubleBuffer[] highs = new DoubleBuffer[segments];
+        DoubleBuffer[] lows = new DoubleBuffer[segments];
+        DoubleBuffer[] closes = new DoubleBuffer[segments];
+        int n = 0;
+        int s = 0;
+        for (BarTape tape : tapes) {
+            for (int k = 0; k < tape.starts.length; k++) {
+                int length = tape.segmentSize(k);
+                // 空的段不保留，下标查找时每段至少有一根bar
+                if (length == 0) {
+                    continue;
+                }
+                starts[s] = n;
+                times[s] = tape.epochSeconds[k];
+                vwaps[s] = tape.vwap[k];
+                opens[s] = tape.open[k];
+                highs[s] = tape.high[k];
+                lows[s] = tape.low[k];
+                closes[s] = tape.close[k];
+                n += length;
+                s++;
+            }
+        }
+        return new BarTape(symbol, secType, n, Arrays.copyOf(starts, s), Arrays.copyOf(times, s), Arrays.copyOf(vwaps, s),
+                Arrays.copyOf(opens, s), Arrays.copyOf(highs, s), Arrays.copyOf(lows, s), Arrays.copyOf(closes, s));
+    }
+
+    /**
+     * 读取IBKR导出的csv（date,open,high,low,close,volume,average,...），和datasource一样，volume <= 0时用TWAP
+     */
+    public static BarTape readCsv(String path, String symbol, String secType) throws IOException {
+        List<BarInfo> bars = new ArrayList<>();
+        try (FileReader fileReader = new FileReader(path);
+             CSVParser csvParser = new CSVParser(fileReader, CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
+            for (CSVRecord csvRecord : csvParser) {
+                BarInfo bar = new BarInfo();
+                bar.setDate(csvRecord.get("date"));
+                bar.setOpen(Double.parseDouble(csvRecord.get("open")));
+                bar.setHigh(Double.parseDouble(csvRecord.get("high")));
+                bar.setLow(Double.parseDouble(csvRecord.get("low")));
+                bar.setClose(Double.parseDouble(csvRecord.get("close")));
+                double volume = Double.parseDouble(csvRecord.get("volume"));
+                bar.setVwap(volume <= 0 ? (bar.getOpen() + bar.getHigh() + bar.getLow() + bar.getClose()) / 4 : Double.parseDouble(csvRecord.get("average")));
+                bars.add(bar);
+            }
+        }
+        return of(symbol, secType, bars);
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public String getSecType() {
+        return secType;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long epochSeconds(int i) {
+        int s = segment(i);
+        return epochSeconds[s].get(i - starts[s]);
+    }
+
+    public double vwap(int i) {
+        int s = segment(i);
+        return vwap[s].get(i - starts[s]);
+    }
+
+    public double open(int i) {
+        int s = segment(i);
+        return open[s].get(i - starts[s]);
+    }
+
+    public double high(int i) {
+        int s = segment(i);
+        return high[s].get(i - starts[s]);
+    }
+
+    public double low(int i) {
+        int s = segment(i);
+        return low[s].get(i - starts[s]);
+    }
+
+    public double close(int i) {
+        int s = segment(i);
+        return close[s].get(i - starts[s]);
+    }
+
+    /**
+     * 段数，一个文件或者一个数组是一段
+     */
+    public int segments() {
+        return starts.length;
+    }
+
+    private int segmentSize(int s) {
+        return epochSeconds[s].limit();
+    }
+
+    /**
+     * 第i根bar所在的段，只有一段时不用查找
+     */
+    private int segment(int i) {
+        if (starts.length == 1) {
+            return 0;
+        }
+        int s = Arrays.binarySearch(starts, i);
+        return s >= 0 ? s : -s - 2;
+    }
+}
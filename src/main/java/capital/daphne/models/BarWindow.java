@@ -0,0 +1,200 @@
+package capital.daphne.models;
+
+import capital.daphne.utils.Utils;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * BarSeries上最近N根bar的只读视图，下标0是最早的bar，size()-1是最新的bar
+ * 交给processor的视图还带有当前algorithm的volatility和报价（withMarket），BarWindowProcessor直接读取原始类型，不需要构建Table
+ */
+public class BarWindow {
+    private static final ZoneId EASTERN_TIME_ZONE = ZoneId.of("America/New_York");
+
+    private final BarSeries series;
+    private final long start;
+    private final int size;
+    private final double volatility;
+    private final double bidPrice;
+    private final double askPrice;
+
+    // 第一次toTable时生成，同一个视图上的Table-based processor共享
+    private Table table;
+
+    BarWindow(BarSeries series, long start, int size) {
+        this(series, start, size, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    private BarWindow(BarSeries series, long start, int size, double volatility, double bidPrice, double askPrice) {
+        this.series = series;
+        this.start = start;
+        this.size = size;
+        this.volatility = volatility;
+        this.bidPrice = bidPrice;
+        this.askPrice = askPrice;
+    }
+
+    /**
+     * 同样的bar，带上当前algorithm的volatility和报价
+     */
+    public BarWindow withMarket(double volatility, double bidPrice, double askPrice) {
+        return new BarWindow(series, start, size, volatility, bidPrice, askPrice);
+    }
+
+    /**
+     * 把Table（回测、测试中的dataframe）转换成BarWindow，volatility取最后一行
+     */
+    public static BarWindow fromTable(Table df, double bidPrice, double askPrice) {
+        int rowCount = df.rowCount();
+        StringColumn dates = df.stringColumn("date_us");
+        DoubleColumn vwap = df.doubleColumn("vwap");
+        DoubleColumn open = optionalColumn(df, "open");
+        DoubleColumn high = optionalColumn(df, "high");
+        DoubleColumn low = optionalColumn(df, "low");
+        DoubleColumn close = optionalColumn(df, "close");
+        BarSeries series = new BarSeries(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            String date = dates.get(i);
+            series.append(date, Utils.parseEpochNanos(date), vwap.getDouble(i),
+                    valueAt(open, i), valueAt(high, i), valueAt(low, i), valueAt(close, i));
+        }
+        double volatility = df.containsColumn("volatility") && rowCount > 0
+                ? df.doubleColumn("volatility").getDouble(rowCount - 1) : Double.NaN;
+        return series.window(rowCount).withMarket(volatility, bidPrice, askPrice);
+    }
+
+    // 只有vwap的dataframe（e.g. 测试中）没有open/high/low/close，对应的值是NaN
+    private static DoubleColumn optionalColumn(Table df, String name) {
+        return df.containsColumn(name) ? df.doubleColumn(name) : null;
+    }
+
+    private static double valueAt(DoubleColumn column, int i) {
+        return column == null ? Double.NaN : column.getDouble(i);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String date(int i) {
+        return series.dateAt(start + i);
+    }
+
+    public long timeNanos(int i) {
+        return series.timeNanosAt(start + i);
+    }
+
+    /**
+     * bar时间对应的美东本地时间，和Utils.genUsDateTime(date_us)的结果相同
+     */
+    public LocalDateTime usDateTime(int i) {
+        long nanos = timeNanos(i);
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L)), EASTERN_TIME_ZONE);
+    }
+
+    public double vwap(int i) {
+        return series.vwapAt(start + i);
+    }
+
+    /**
+     * 前一根bar的vwap，第一根返回NaN，对应Table中的prev_vwap
+     */
+    public double prevVwap(int i) {
+        return i == 0 ? Double.NaN : vwap(i - 1);
+    }
+
+    public double open(int i) {
+        return series.openAt(start + i);
+    }
+
+    public double high(int i) {
+        return series.highAt(start + i);
+    }
+
+    public double low(int i) {
+        return series.lowAt(start + i);
+    }
+
+    public double close(int i) {
+        return series.closeAt(start + i);
+    }
+
+    public double volatility() {
+        return volatility;
+    }
+
+    public double bidPrice() {
+        return bidPrice;
+    }
+
+    public double askPrice() {
+        return askPrice;
+    }
+
+    /**
+     * 截取视图中最近n根bar，同样不复制数据，数量不足时返回null
+     */
+    public BarWindow tail(int n) {
+        if (n <= 0 || n > size) {
+            return null;
+        }
+        return new BarWindow(series, start + size - n, n, volatility, bidPrice, askPrice);
+    }
+
+    public int lastIndex() {
+        return size - 1;
+    }
+
+    /**
+     * 写线程追加的bar数量超过余量后，视图对应的槽位会被覆盖，这时视图失效
+     */
+    public boolean isValid() {
+        return series.getCount() - start <= series.getCapacity();
+    }
+
+    /**
+     * 给还没有迁移的Table-based processor使用，列和原来BarSvc生成的dataframe相同
+     */
+    public Table toTable() {
+        if (table != null) {
+            return table;
+        }
+        String[] dates = new String[size];
+        double[] vwap = new double[size];
+        double[] open = new double[size];
+        double[] close = new double[size];
+        double[] high = new double[size];
+        double[] low = new double[size];
+        double[] volatilities = new double[size];
+        double[] prevVwap = new double[size];
+        for (int i = 0; i < size; i++) {
+            dates[i] = date(i);
+            vwap[i] = vwap(i);
+            open[i] = open(i);
+            close[i] = close(i);
+            high[i] = high(i);
+            low[i] = low(i);
+            // 实际上通常我们只需要最后一行的数据，所以这里都设置成volatility
+            volatilities[i] = volatility;
+            prevVwap[i] = prevVwap(i);
+        }
+
+        Table dataframe = Table.create("IBKR Bar Dataframe");
+        dataframe.addColumns(
+                StringColumn.create("date_us", dates),
+                DoubleColumn.create("vwap", vwap),
+                DoubleColumn.create("open", open),
+                DoubleColumn.create("close", close),
+                DoubleColumn.create("high", high),
+                DoubleColumn.create("low", low),
+                DoubleColumn.create("volatility", volatilities),
+                DoubleColumn.create("prev_vwap", prevVwap));
+        table = dataframe;
+        return dataframe;
+    }
+}
@@ -0,0 +1,25 @@
+package capital.daphne.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+/**
+ * 内存中EMA的检查点，重启后从这里恢复，再用barDate之后的bar补算
+ */
+@Data
+public class EmaCheckpoint {
+    private String accountId;
+    private String symbol;
+    private String secType;
+    // benchmark列名，e.g. ema12
+    private String benchmark;
+    private double ema;
+    // 最后一根已经计入ema的bar的date_us，旧版本只保存了值，这里为null
+    private String barDate;
+    private long updatedAt;
+
+    @JsonIgnore
+    public String getKey() {
+        return accountId + ":" + symbol + ":" + secType;
+    }
+}
@@ -0,0 +1,21 @@
+package capital.daphne.models;
+
+import capital.daphne.services.VolatilityEngine;
+import lombok.Data;
+
+/**
+ * 一条bar更新消息对应的行情快照，同一symbol:secType的各个algorithm共享，只读
+ */
+@Data
+public class MarketSnapshot {
+    private final String symbol;
+    private final String secType;
+    // 快照时刻BarSeries中全部bar的视图，各algorithm按需截取尾部
+    private final BarWindow bars;
+    // wapList各分段的max和min，所有algorithm共享
+    private final VolatilityEngine volatilityEngine;
+    private final double bidPrice;
+    private final double askPrice;
+    // 解析好的TRADING_PERIODS，redis中没有时为null
+    private final TradingSchedule tradingSchedule;
+}
@@ -0,0 +1,147 @@
+package capital.daphne.models;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 解析好的TRADING_PERIODS，不可变
+ * 时间都是美东本地时间按UTC换算出来的秒数，和Utils.genUsDateTimeNow()得到的LocalDateTime直接比较，查询时不创建对象
+ */
+public class TradingSchedule {
+    // 原始的TRADING_PERIODS，用来判断redis中的值有没有变化
+    private final String raw;
+    private final String secType;
+    // 可交易时段，按开始时间排序
+    private final long[] starts;
+    // 和starts对应的结束时间的前缀最大值，时段有重叠时也能用二分查找
+    private final long[] maxEnds;
+    // 所有解析成功的时段的结束时间（包括开始时间晚于结束时间的），排序后用来判断是否临近收盘
+    private final long[] sortedEnds;
+    private final boolean hasClosedDay;
+
+    private TradingSchedule(String raw, String secType, long[] starts, long[] maxEnds, long[] sortedEnds, boolean hasClosedDay) {
+        this.raw = raw;
+        this.secType = secType;
+        this.starts = starts;
+        this.maxEnds = maxEnds;
+        this.sortedEnds = sortedEnds;
+        this.hasClosedDay = hasClosedDay;
+    }
+
+    public static TradingSchedule of(String raw, String secType, TradingHours[] tradingHours) {
+        long[][] segments = new long[tradingHours.length][];
+        long[] ends = new long[tradingHours.length];
+        int segmentNum = 0;
+        int endNum = 0;
+        boolean hasClosedDay = false;
+        for (TradingHours tradingHour : tradingHours) {
+            if (tradingHour == null) {
+                continue;
+            }
+            if (tradingHour.isClosed()) {
+                hasClosedDay = true;
+                continue;
+            }
+            long start = toSeconds(tradingHour.getStartTime());
+            long end = toSeconds(tradingHour.getEndTime());
+            ends[endNum++] = end;
+            // 开始时间不早于结束时间的时段（e.g. STK盘前时段被截断后）不可能处于交易中
+            if (start < end) {
+                segments[segmentNum++] = new long[]{start, end};
+            }
+        }
+
+        segments = Arrays.copyOf(segments, segmentNum);
+        Arrays.sort(segments, (a, b) -> Long.compare(a[0], b[0]));
+        long[] starts = new long[segmentNum];
+        long[] maxEnds = new long[segmentNum];
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < segmentNum; i++) {
+            starts[i] = segments[i][0];
+            maxEnd = Math.max(maxEnd, segments[i][1]);
+            maxEnds[i] = maxEnd;
+        }
+        long[] sortedEnds = Arrays.copyOf(ends, endNum);
+        Arrays.sort(sortedEnds);
+        return new TradingSchedule(raw, secType, starts, maxEnds, sortedEnds, hasClosedDay);
+    }
+
+    public static long toSeconds(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    public String getRaw() {
+        return raw;
+    }
+
+    public String getSecType() {
+        return secType;
+    }
+
+    public boolean isTradingNow(LocalDateTime currentTime, int startTradingAfterOpenMarketSeconds) {
+        return isTradingNow(toSeconds(currentTime), startTradingAfterOpenMarketSeconds);
+    }
+
+    /**
+     * 存在一个时段满足 开始时间 + startTradingAfterOpenMarketSeconds <= now < 结束时间
+     */
+    public boolean isTradingNow(long nowSeconds, int startTradingAfterOpenMarketSeconds) {
+        int i = lastStartNotAfter(nowSeconds - startTradingAfterOpenMarketSeconds);
+        return i >= 0 && maxEnds[i] > nowSeconds;
+    }
+
+    /**
+     * 距离当前所在时段收盘的秒数，不在交易时段内返回-1
+     */
+    public long secondsToClose(long nowSeconds) {
+        int i = lastStartNotAfter(nowSeconds);
+        if (i < 0 || maxEnds[i] <= nowSeconds) {
+            return -1;
+        }
+        return maxEnds[i] - nowSeconds;
+    }
+
+    public boolean isCloseToClosing(LocalDateTime currentTime, int seconds) {
+        return isCloseToClosing(toSeconds(currentTime), seconds);
+    }
+
+    /**
+     * 存在一个时段的结束时间满足 now < 结束时间 < now + seconds
+     */
+    public boolean isCloseToClosing(long nowSeconds, int seconds) {
+        int lo = 0;
+        int hi = sortedEnds.length;
+        // 找第一个大于now的结束时间
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedEnds[mid] > nowSeconds) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo < sortedEnds.length && sortedEnds[lo] < nowSeconds + seconds;
+    }
+
+    /**
+     * TRADING_PERIODS中包含休市日
+     */
+    public boolean isMarketClose() {
+        return hasClosedDay;
+    }
+
+    private int lastStartNotAfter(long seconds) {
+        int lo = 0;
+        int hi = starts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= seconds) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+}
@@ -1,151 +1,394 @@
 package capital.daphne.services;
 
 import capital.daphne.AppConfigManager;
-import capital.daphne.DbManager;
+import capital.daphne.AuditWriter;
 import capital.daphne.JedisManager;
 import capital.daphne.models.BarInfo;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.BarTape;
+import capital.daphne.models.BarWindow;
+import capital.daphne.utils.BinaryBarCodec;
+import capital.daphne.utils.EwmKernel;
+import capital.daphne.utils.JsonCodec;
 import capital.daphne.utils.Utils;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
-import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.api.StringColumn;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import tech.tablesaw.api.Table;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.time.ZoneId;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BarSvc {
     private static final Logger logger = LoggerFactory.getLogger(BarSvc.class);
 
+    private static final ZoneId US_TIME_ZONE = ZoneId.of("America/New_York");
+
     private Map<String, Double> openMarketVolatilityFactorMap;
 
     private Map<String, String> wapKeyMap;
 
+    // 每个symbol:secType的bar环形缓冲区，BarSvc会被多处实例化，所以这里是静态的
+    private static final Map<String, BarSeries> barSeriesMap = new ConcurrentHashMap<>();
+
+    // 环形缓冲区容量，需要大于最大的numStatsBars + 1，留出余量保证读取窗口期间不会被覆盖
+    private static final int BAR_SERIES_CAPACITY = 4096;
+
+    // 增量读取BAR_LIST时，从尾部读取的字节数，需要能容纳两根bar的json
+    private static final int BAR_LIST_TAIL_BYTES = 1024;
+
+    // 每个symbol:secType的WAP_LIST副本，和barSeriesMap一样是静态的
+    private static final Map<String, WapMirror> wapMirrorMap = new ConcurrentHashMap<>();
+
+    // 增量读取WAP_LIST时，从尾部读取的wap数量，用来和副本对齐
+    private static final int WAP_TAIL_SIZE = 32;
+
+    // 是否把每次计算的max、min和volatility写入tb_wap_log，回测时关闭
+    private final boolean wapLogEnabled;
+
     public BarSvc() {
-        openMarketVolatilityFactorMap = new HashMap<>();
+        this(true);
+    }
+
+    public BarSvc(boolean wapLogEnabled) {
+        // 启动预热时在主线程写入，之后由worker线程读写
+        openMarketVolatilityFactorMap = new ConcurrentHashMap<>();
+        this.wapLogEnabled = wapLogEnabled;
     }
 
     /**
-     * 通过datasource服务获取BAR_LIST写入Redis，这里从Redis读取数据
+     * 从内存中的BarSeries读取最近numStatsBars + 1根bar生成dataframe
      * 如果还没有达到所需的最少bar数量，就返回null，避免判断是否要给出signal的时候因为数据缺失出问题
      * 返回数据前，需要计算出prev_vwap
      */
     public Table getDataTable(String key, AppConfigManager.AppConfig.AlgorithmConfig ac, double volatility) {
+        BarSeries barSeries = barSeriesMap.get(key);
+        if (barSeries == null) {
+            barSeries = updateBarSeries(key);
+        }
+        return getDataTable(barSeries.window(barSeries.size()), ac, volatility);
+    }
+
+    /**
+     * 从快照中的bar视图截取最近numStatsBars + 1根bar生成dataframe，同一条bar消息的各个algorithm共享同一个视图
+     */
+    public Table getDataTable(BarWindow bars, AppConfigManager.AppConfig.AlgorithmConfig ac, double volatility) {
+        BarWindow window = getBarWindow(bars, ac, volatility, Double.NaN, Double.NaN);
+        return window == null ? null : window.toTable();
+    }
+
+    /**
+     * 从快照中的bar视图截取最近numStatsBars + 1根bar，带上当前algorithm的volatility和报价，不复制数据
+     */
+    public BarWindow getBarWindow(BarWindow bars, AppConfigManager.AppConfig.AlgorithmConfig ac, double volatility, double bidPrice, double askPrice) {
         int minBarNum = ac.getNumStatsBars();
-        JedisPool jedisPool = JedisManager.getJedisPool();
+        if (bars == null) {
+            logger.info(String.format("%s %s barList is empty", ac.getSymbol(), ac.getSecType()));
+            return null;
+        }
+
+        // for prev_wap, so add 1
+        BarWindow window = bars.tail(minBarNum + 1);
+        if (window == null) {
+            logger.info(String.format("barList is not ready, minBarNum=%d, currBarNum=%d", minBarNum, bars.size()));
+            return null;
+        }
+        return window.withMarket(volatility, bidPrice, askPrice);
+    }
+
+    public Table toTable(BarWindow window, double volatility) {
+        return window.withMarket(volatility, Double.NaN, Double.NaN).toTable();
+    }
 
+    /**
+     * 收到barUpdateChannel消息后调用，把Redis中BAR_BIN或者BAR_LIST的最新bar追加到内存的BarSeries
+     * 打开binaryCodec.bars时优先读取BAR_BIN，producer还没有写BAR_BIN时继续读取BAR_LIST
+     * BAR_LIST是一个json数组字符串，这里只用GETRANGE读取尾部的字节，解析最后两根bar：
+     * 倒数第二根和内存中最后一根一致，说明只新增了一根，直接追加；否则（首次加载、漏消息、datasource重启等）全量重新加载
+     */
+    public BarSeries updateBarSeries(String key) {
+        BarSeries barSeries = barSeriesMap.computeIfAbsent(key, k -> new BarSeries(BAR_SERIES_CAPACITY));
+        String redisKey = key + ":BAR_LIST";
+        JedisPool jedisPool = JedisManager.getJedisPool();
         try (Jedis jedis = jedisPool.getResource()) {
-            // 数据只与symbol和secType油管，和accountId无关
-            String redisKey = key + ":BAR_LIST";
-            String storedBarListJson = jedis.get(redisKey);
-            if (storedBarListJson != null) {
-                ObjectMapper objectMapper = new ObjectMapper();
-                List<BarInfo> barList = objectMapper.readValue(storedBarListJson, new TypeReference<>() {
-                });
+            if (isBinaryBars() && updateBarSeriesFromBinary(jedis, key, barSeries)) {
+                return barSeries;
+            }
 
-                if (barList.size() < minBarNum) {
-                    logger.info(String.format("barList is not ready, minBarNum=%d, currBarNum=%d", minBarNum, barList.size()));
-                    return null;
+            String lastDate = barSeries.getLastDate();
+            if (lastDate != null) {
+                String tail = jedis.getrange(redisKey, -BAR_LIST_TAIL_BYTES, -1);
+                String[] lastTwo = lastTwoJsonObjects(tail);
+                if (lastTwo != null) {
+                    BarInfo latest = JsonCodec.readBar(lastTwo[1]);
+                    if (lastDate.equals(latest.getDate())) {
+                        // 重复的消息，没有新的bar
+                        return barSeries;
+                    }
+                    BarInfo prev = JsonCodec.readBar(lastTwo[0]);
+                    if (lastDate.equals(prev.getDate())) {
+                        appendBar(barSeries, latest);
+                        return barSeries;
+                    }
                 }
+                logger.info(String.format("%s barList is not continuous, reload all, lastDate=%s", key, lastDate));
+            }
 
-                Table dataframe = Table.create("IBKR Bar Dataframe");
-                // 添加列到表格
-                dataframe.addColumns(
-                        StringColumn.create("date_us"),
-                        DoubleColumn.create("vwap"),
-                        DoubleColumn.create("open"),
-                        DoubleColumn.create("close"),
-                        DoubleColumn.create("high"),
-                        DoubleColumn.create("low"),
-                        DoubleColumn.create("volatility"));
-
-                // for prev_wap, so add 1
-                List<BarInfo> validBarList = barList.subList(barList.size() - (minBarNum + 1), barList.size());
-
-                for (BarInfo bar : validBarList) {
-                    dataframe.stringColumn("date_us").append(bar.getDate());
-                    dataframe.doubleColumn("vwap").append(bar.getVwap());
-                    dataframe.doubleColumn("open").append(bar.getOpen());
-                    dataframe.doubleColumn("high").append(bar.getHigh());
-                    dataframe.doubleColumn("low").append(bar.getLow());
-                    dataframe.doubleColumn("close").append(bar.getClose());
-                    // 实际上通常我们只需要最后一行的数据，所以这里都设置成volatility
-                    dataframe.doubleColumn("volatility").append(volatility);
+            String storedBarListJson = jedis.get(redisKey);
+            barSeries.clear();
+            if (storedBarListJson != null) {
+                // 只解析环形缓冲区能放下的最后几根bar
+                for (BarInfo bar : JsonCodec.readTailBars(storedBarListJson, barSeries.getCapacity())) {
+                    appendBar(barSeries, bar);
                 }
-
-                DoubleColumn prevVWapColumn = dataframe.doubleColumn("vwap").lag(1);
-                dataframe.addColumns(prevVWapColumn.setName("prev_vwap"));
-                return dataframe;
-            } else {
-                logger.info(key + " barList is empty");
-                return null;
             }
+            return barSeries;
         } catch (Exception e) {
-            logger.warn("getDataTable, error:" + e.getMessage());
+            logger.warn(key + " update bar series failed, error:" + e.getMessage());
+            barSeries.clear();
+            return barSeries;
+        }
+    }
+
+    /**
+     * BAR_BIN是定长记录，增量读取时只用GETRANGE读取最后两条记录，判断方式和BAR_LIST相同
+     * BAR_BIN不存在时返回false
+     */
+    private boolean updateBarSeriesFromBinary(Jedis jedis, String key, BarSeries barSeries) {
+        byte[] redisKey = (key + ":BAR_BIN").getBytes(StandardCharsets.UTF_8);
+        long lastTimeNanos = barSeries.getLastTimeNanos();
+        if (lastTimeNanos >= 0) {
+            byte[] tail = jedis.getrange(redisKey, -2L * BinaryBarCodec.BAR_RECORD_BYTES, -1);
+            if (tail == null || tail.length == 0) {
+                return false;
+            }
+            if (tail.length == 2 * BinaryBarCodec.BAR_RECORD_BYTES) {
+                long lastSeconds = Math.floorDiv(lastTimeNanos, 1_000_000_000L);
+                if (BinaryBarCodec.epochSecondsAt(tail, 1) == lastSeconds) {
+                    // 重复的消息，没有新的bar
+                    return true;
+                }
+                if (BinaryBarCodec.epochSecondsAt(tail, 0) == lastSeconds) {
+                    BinaryBarCodec.decodeInto(tail, 1, barSeries);
+                    return true;
+                }
+            }
+            logger.info(String.format("%s binary barList is not continuous, reload all, lastDate=%s", key, barSeries.getLastDate()));
+        }
+
+        byte[] data = jedis.get(redisKey);
+        if (data == null) {
+            return false;
+        }
+        barSeries.clear();
+        BinaryBarCodec.decodeInto(data, BinaryBarCodec.barCount(data) - barSeries.getCapacity(), barSeries);
+        return true;
+    }
+
+    /**
+     * redis中的bar不够时（e.g. datasource当天重启过），启动预热时用存档中更早的bar补在前面
+     * 只取第一根已有bar之前的存档bar，总数不超过环形缓冲区容量，返回补充的bar数量
+     * 之后的bar消息只要和内存中最后一根bar连续就会增量追加，补充的bar会一直保留；不连续时全量重新加载，补充的bar会被丢弃
+     */
+    public int prependBars(String key, BarTape tape) {
+        BarSeries barSeries = barSeriesMap.computeIfAbsent(key, k -> new BarSeries(BAR_SERIES_CAPACITY));
+        BarWindow current = barSeries.window(barSeries.size());
+        int currentSize = current == null ? 0 : current.size();
+        long firstNanos = current == null ? Long.MAX_VALUE : current.timeNanos(0);
+
+        int end = 0;
+        while (end < tape.size() && tape.epochSeconds(end) * 1_000_000_000L < firstNanos) {
+            end++;
+        }
+        int start = Math.max(0, end - (barSeries.getCapacity() - currentSize));
+        if (start >= end) {
+            return 0;
+        }
+
+        // 先复制已有的bar，clear之后会被覆盖
+        String[] dates = new String[currentSize];
+        long[] nanos = new long[currentSize];
+        double[][] values = new double[5][currentSize];
+        for (int i = 0; i < currentSize; i++) {
+            dates[i] = current.date(i);
+            nanos[i] = current.timeNanos(i);
+            values[0][i] = current.vwap(i);
+            values[1][i] = current.open(i);
+            values[2][i] = current.high(i);
+            values[3][i] = current.low(i);
+            values[4][i] = current.close(i);
+        }
+
+        barSeries.clear();
+        for (int i = start; i < end; i++) {
+            long epochSeconds = tape.epochSeconds(i);
+            barSeries.append(Utils.formatBarDate(epochSeconds), epochSeconds * 1_000_000_000L,
+                    tape.vwap(i), tape.open(i), tape.high(i), tape.low(i), tape.close(i));
+        }
+        for (int i = 0; i < currentSize; i++) {
+            barSeries.append(dates[i], nanos[i], values[0][i], values[1][i], values[2][i], values[3][i], values[4][i]);
+        }
+        return end - start;
+    }
+
+    /**
+     * 内存中所有bar的视图，还没有加载时返回null
+     */
+    public BarWindow getBars(String key) {
+        BarSeries barSeries = barSeriesMap.get(key);
+        return barSeries == null ? null : barSeries.window(barSeries.size());
+    }
+
+    private void appendBar(BarSeries barSeries, BarInfo bar) {
+        barSeries.append(bar.getDate(), Utils.parseEpochNanos(bar.getDate()),
+                bar.getVwap(), bar.getOpen(), bar.getHigh(), bar.getLow(), bar.getClose());
+    }
+
+    /**
+     * 从json数组的尾部片段中截取最后两个完整的对象，BarInfo没有嵌套对象，直接按大括号匹配
+     */
+    private String[] lastTwoJsonObjects(String tail) {
+        if (tail == null) {
             return null;
         }
+        int end1 = tail.lastIndexOf('}');
+        int start1 = end1 < 0 ? -1 : tail.lastIndexOf('{', end1);
+        int end0 = start1 < 0 ? -1 : tail.lastIndexOf('}', start1);
+        int start0 = end0 < 0 ? -1 : tail.lastIndexOf('{', end0);
+        if (start0 < 0) {
+            return null;
+        }
+        return new String[]{tail.substring(start0, end0 + 1), tail.substring(start1, end1 + 1)};
     }
 
-    public List<String> getWapList(String key) {
+    /**
+     * 每条bar消息调用一次，只读取WAP_LIST的长度、队头和尾部WAP_TAIL_SIZE个wap更新副本，读取量和开盘后的时间无关
+     * 副本对不齐时全量读取
+     */
+    public VolatilityEngine loadVolatilityEngine(Jedis jedis, String key) {
+        WapMirror wapMirror = wapMirrorMap.computeIfAbsent(key, k -> new WapMirror());
+        if (!updateWapMirror(jedis, key, wapMirror)) {
+            wapMirror.reload(getWaps(jedis, key));
+        }
+        return wapMirror.toVolatilityEngine();
+    }
+
+    private boolean updateWapMirror(Jedis jedis, String key, WapMirror wapMirror) {
+        if (wapMirror.size() == 0) {
+            return false;
+        }
+        if (isBinaryWaps()) {
+            byte[] redisKey = (key + ":WAP_BIN").getBytes(StandardCharsets.UTF_8);
+            Pipeline pipeline = jedis.pipelined();
+            Response<Long> length = pipeline.strlen(redisKey);
+            Response<byte[]> head = pipeline.getrange(redisKey, 0, BinaryBarCodec.WAP_RECORD_BYTES - 1);
+            Response<byte[]> tail = pipeline.getrange(redisKey, -(long) WAP_TAIL_SIZE * BinaryBarCodec.WAP_RECORD_BYTES, -1);
+            pipeline.sync();
+            if (length.get() >= BinaryBarCodec.WAP_RECORD_BYTES) {
+                return wapMirror.applyTail(length.get() / BinaryBarCodec.WAP_RECORD_BYTES,
+                        BinaryBarCodec.decodeWaps(head.get())[0], BinaryBarCodec.decodeWaps(tail.get()));
+            }
+            // WAP_BIN还不存在，读取WAP_LIST
+        }
+        String redisKey = String.format("%s:WAP_LIST", key);
+        Pipeline pipeline = jedis.pipelined();
+        Response<Long> length = pipeline.llen(redisKey);
+        Response<String> head = pipeline.lindex(redisKey, 0);
+        Response<List<String>> tail = pipeline.lrange(redisKey, -WAP_TAIL_SIZE, -1);
+        pipeline.sync();
+        List<String> tailList = tail.get();
+        if (head.get() == null || tailList == null) {
+            return false;
+        }
+        double[] tailWaps = new double[tailList.size()];
+        for (int i = 0; i < tailWaps.length; i++) {
+            tailWaps[i] = Double.parseDouble(tailList.get(i));
+        }
+        return wapMirror.applyTail(length.get(), Double.parseDouble(head.get()), tailWaps);
+    }
+
+    public double[] getWaps(String key) {
+        RedisContext context = RedisContext.current();
+        if (context != null && context.isOffline()) {
+            return context.waps(key);
+        }
         // 因为存在parallel和rewrite的symbol，所以先做key映射然后在获取对应的wap信息
-        List<String> wapList = new ArrayList<>();
         JedisPool jedisPool = JedisManager.getJedisPool();
         try (Jedis jedis = jedisPool.getResource()) {
-            String redisKey = String.format("%s:WAP_LIST", key);
-            List<String> storedList = jedis.lrange(redisKey, 0, -1);
-            return storedList == null ? wapList : storedList;
+            return getWaps(jedis, key);
         } catch (Exception e) {
             e.printStackTrace();
             logger.warn(key + " get wapList failed, error:" + e.getMessage());
-            return wapList;
+            return new double[0];
         }
     }
 
-    public double calVolatility(AppConfigManager.AppConfig.AlgorithmConfig ac, List<String> wapList) {
-        double max = 0.0;
-        double min = 0.0;
-
-        double totalWeight = 0.0;
-        double totalVolatility = 0.0;
-        // 将wapList中的数据分成10份
-        for (int i = 0; i < 10; i++) {
-            int startPercentage = i * 10;
-            int startIndex = (int) (wapList.size() * (startPercentage / 100.0));
-            // 获取对应百分比的subset
-            List<String> subset = wapList.subList(startIndex, wapList.size());
-            double[] maxMin = calMaxMin(subset);
-            if (i == 0) {
-                // 全集数据计算出来的max, min和更新到数据库中
-                max = maxMin[0];
-                min = maxMin[1];
+    /**
+     * 打开binaryCodec.waps时优先读取WAP_BIN，不存在时读取WAP_LIST
+     */
+    public double[] getWaps(Jedis jedis, String key) {
+        if (isBinaryWaps()) {
+            byte[] data = jedis.get((key + ":WAP_BIN").getBytes(StandardCharsets.UTF_8));
+            if (data != null) {
+                return BinaryBarCodec.decodeWaps(data);
             }
-            // 计算subset的volatility
-            double subsetVolatility = (maxMin[0] - maxMin[1]) / maxMin[1];
-            // 然后式用a + bx + c^2计算出不同时间段的权重
-            double timeWeight = calTimeWeighted(i + 1, ac);
-            logger.debug(String.format("subset size=%d, timeWeight=%f, subsetVola=%f", subset.size(), timeWeight, subsetVolatility));
-            totalWeight += timeWeight;
-            totalVolatility += subsetVolatility * timeWeight;
         }
+        List<String> storedList = jedis.lrange(String.format("%s:WAP_LIST", key), 0, -1);
+        if (storedList == null) {
+            return new double[0];
+        }
+        double[] waps = new double[storedList.size()];
+        for (int i = 0; i < waps.length; i++) {
+            waps[i] = Double.parseDouble(storedList.get(i));
+        }
+        return waps;
+    }
+
+    private static boolean isBinaryBars() {
+        AppConfigManager.AppConfig.BinaryCodec config = AppConfigManager.getInstance().getAppConfig().getBinaryCodec();
+        return config != null && config.isBars();
+    }
 
-        // 计算volatility的加权平均值
-        double volatility = totalVolatility / totalWeight;
+    private static boolean isBinaryWaps() {
+        AppConfigManager.AppConfig.BinaryCodec config = AppConfigManager.getInstance().getAppConfig().getBinaryCodec();
+        return config != null && config.isWaps();
+    }
+
+    public double calVolatility(AppConfigManager.AppConfig.AlgorithmConfig ac, List<String> wapList) {
+        double[] waps = new double[wapList.size()];
+        for (int i = 0; i < waps.length; i++) {
+            waps[i] = Double.parseDouble(wapList.get(i));
+        }
+        return calVolatility(ac, VolatilityEngine.of(waps));
+    }
+
+    /**
+     * 分段的max和min已经在行情快照中算好，这里只按当前algorithm的时间权重加权，再做开盘调整
+     */
+    public double calVolatility(AppConfigManager.AppConfig.AlgorithmConfig ac, VolatilityEngine volatilityEngine) {
+        // 全集数据计算出来的max, min和更新到数据库中
+        double max = volatilityEngine.getMax();
+        double min = volatilityEngine.getMin();
+
+        // 计算volatility的加权平均值, 权重用a + bx + c^2计算
+        double volatility = volatilityEngine.weightedVolatility(ac.getTimeWeightedA(), ac.getTimeWeightedB(), ac.getTimeWeightedC());
         String symbol = ac.getSymbol();
         String secType = ac.getSecType();
 
         double adjustedVolatility = adjustVolatilityDuringMarketOpenPeriod(volatility, ac);
 
+        if (!wapLogEnabled) {
+            return adjustedVolatility;
+        }
+
         // 更新max和min
         if (max > 0 && min > 0 && volatility > 0 && adjustedVolatility > 0) {
             logMaxMinWap(ac.getAccountId(), symbol, secType, max, min, volatility, adjustedVolatility);
@@ -155,47 +398,9 @@ public class BarSvc {
         return adjustedVolatility;
     }
 
-    private double[] calMaxMin(List<String> wapList) {
-        // 计算wapList的max和min
-        double newMax = Double.MIN_VALUE;
-        double newMin = Double.MAX_VALUE;
-        for (String wapStr : wapList) {
-            double wap = Double.parseDouble(wapStr);
-            newMax = Math.max(newMax, wap);
-            newMin = Math.min(newMin, wap);
-        }
-        return new double[]{newMax, newMin};
-    }
-
-    private double calTimeWeighted(int i, AppConfigManager.AppConfig.AlgorithmConfig ac) {
-        return ac.getTimeWeightedA() + ac.getTimeWeightedB() * i + ac.getTimeWeightedC() * i * i;
-    }
-
     public void logMaxMinWap(String accountId, String symbol, String secType, double maxWap, double minWap, double volatility, double adjustedVolatility) {
-        try (Connection connection = DbManager.getConnection()) {
-            String insertSQL = "INSERT INTO tb_wap_log (account_id, symbol, sec_type, max_wap, min_wap, volatility, adjusted_volatility) VALUES (?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement insertStatement = connection.prepareStatement(insertSQL);
-            insertStatement.setString(1, accountId);
-            insertStatement.setString(2, symbol);
-            insertStatement.setString(3, secType);
-            insertStatement.setDouble(4, maxWap);
-            insertStatement.setDouble(5, minWap);
-            insertStatement.setDouble(6, volatility);
-            insertStatement.setDouble(7, adjustedVolatility);
-            int rowCount = insertStatement.executeUpdate();
-            if (rowCount > 0) {
-                logger.debug(String.format("%s %s %s max_wap=%f, min_wap=%f, volatility=%f adjustedVolatility=%f insert wap mark successfully.",
-                        accountId, symbol, secType, maxWap, minWap, volatility, adjustedVolatility));
-            } else {
-                logger.warn(String.format("%s %s %s max_wap=%f, min_wap=%f, volatility=%f adjustedVolatility=%f insert wap mark failed.",
-                        accountId, symbol, secType, maxWap, minWap, volatility, adjustedVolatility));
-            }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            logger.warn(String.format("%s %s %s max_wap=%f, min_wap=%f volatility=%f adjustedVolatility=%f save wap mark failed.",
-                    accountId, symbol, secType, maxWap, minWap, volatility, adjustedVolatility));
-        }
+        // 异步批量写入tb_wap_log，不阻塞信号计算
+        AuditWriter.write(AuditWriter.Table.WAP_LOG, accountId, symbol, secType, maxWap, minWap, volatility, adjustedVolatility);
     }
 
     public double adjustVolatilityDuringMarketOpenPeriod(double volatility, AppConfigManager.AppConfig.AlgorithmConfig ac) {
@@ -224,7 +429,12 @@ public class BarSvc {
             volatility = openMarketVolatilityFactor * volatility;
             return volatility;
         } else if (duration.getSeconds() <= ac.getMarketOpenReductionSeconds()) {
-            double openMarketVolatilityFactor = openMarketVolatilityFactorMap.get(key);
+            Double openMarketVolatilityFactor = openMarketVolatilityFactorMap.get(key);
+            if (openMarketVolatilityFactor == null) {
+                // 开盘的bar之后才启动，并且预热时没能恢复开盘系数，不做调整
+                logger.warn(String.format("%s open market volatility factor is missing, skip adjustment", key));
+                return volatility;
+            }
             double currOpenMarketVolatilityFactor = calCurrentVolatilityFactor(openMarketVolatilityFactor, duration.getSeconds(), ac.getMarketOpenReductionSeconds(), ac.getReductionFactor());
             volatility = currOpenMarketVolatilityFactor * volatility;
             return volatility;
@@ -234,6 +444,48 @@ public class BarSvc {
         }
     }
 
+    /**
+     * 在开盘的bar之后启动时，用开盘那根bar对应的wap前缀重新计算开盘系数，和开盘时calVolatility的结果一致
+     * 开盘系数是在开盘前最后一根bar（开盘时刻收到）上计算的，之后每根bar的时间都不早于开盘时间
+     * WAP_LIST和BAR_LIST一样每根bar追加一个wap，所以计算开盘系数时的wap数量 = 现在的wap数量 - 开盘之后的bar数量
+     * 不在衰减期内或者数据不够时不恢复，返回是否恢复成功
+     */
+    public boolean restoreOpenMarketVolatilityFactor(AppConfigManager.AppConfig.AlgorithmConfig ac, BarWindow bars) {
+        String symbol = ac.getSymbol();
+        String secType = ac.getSecType();
+        String key = String.format("%s:%s:%s", ac.getAccountId(), symbol, secType);
+        LocalDateTime marketOpenTime = Utils.getMarketOpenTime(symbol, secType);
+        if (marketOpenTime == null || bars == null) {
+            return false;
+        }
+        long passedSeconds = Duration.between(marketOpenTime, Utils.genUsDateTimeNow()).getSeconds();
+        if (passedSeconds < 5 || passedSeconds > ac.getMarketOpenReductionSeconds()) {
+            return false;
+        }
+
+        long openNanos = marketOpenTime.atZone(US_TIME_ZONE).toEpochSecond() * 1_000_000_000L;
+        int barsSinceOpen = 0;
+        int i = bars.lastIndex();
+        while (i >= 0 && bars.timeNanos(i) >= openNanos) {
+            barsSinceOpen++;
+            i--;
+        }
+
+        String dataKey = Utils.genKey(symbol, secType);
+        WapMirror wapMirror = wapMirrorMap.get(dataKey);
+        double[] waps = wapMirror != null && wapMirror.size() > 0 ? wapMirror.toArray() : getWaps(dataKey);
+        int openSize = waps.length - barsSinceOpen;
+        if (openSize <= 0) {
+            logger.warn(String.format("%s wapList is shorter than bars after market open, waps=%d, bars=%d", key, waps.length, barsSinceOpen));
+            return false;
+        }
+        double volatility = VolatilityEngine.of(waps, openSize).weightedVolatility(ac.getTimeWeightedA(), ac.getTimeWeightedB(), ac.getTimeWeightedC());
+        double openMarketVolatilityFactor = calOpenMarketVolatilityFactor(volatility, ac);
+        openMarketVolatilityFactorMap.put(key, openMarketVolatilityFactor);
+        logger.info(String.format("%s open market volatility factor restored, barsSinceOpen=%d, factor=%f", key, barsSinceOpen, openMarketVolatilityFactor));
+        return true;
+    }
+
     private double calOpenMarketVolatilityFactor(double volatility, AppConfigManager.AppConfig.AlgorithmConfig ac) {
         return ac.getVolatilityOpenMarketK() / (volatility * volatility) + 1;
     }
@@ -261,17 +513,40 @@ public class BarSvc {
             return;
         }
 
-        // 生成ema
-        DoubleColumn wapColumn = DoubleColumn.create("wapCol");
-        for (String wapStr : wapList) {
-            double wap = Double.parseDouble(wapStr);
-            wapColumn.append(wap);
+        ema = calEma(key, wapList, numStatsBars);
+        if (!Double.isNaN(ema)) {
+            setEma(key, ema);
         }
+    }
+
+    /**
+     * 用wapList计算ema的初始值（不包括最后一个wap），wapList不够时返回NaN
+     */
+    public double calEma(String key, List<String> wapList, int numStatsBars) {
+        double[] waps = new double[wapList == null ? 0 : wapList.size()];
+        for (int i = 0; i < waps.length; i++) {
+            waps[i] = Double.parseDouble(wapList.get(i));
+        }
+        return calEma(key, waps, numStatsBars);
+    }
+
+    /**
+     * 用waps计算ema的初始值（不包括最后一个wap），waps不够时返回NaN
+     */
+    public double calEma(String key, double[] waps, int numStatsBars) {
+        if (waps.length < numStatsBars) {
+            logger.info(String.format("%s wapList is not ready for ema, numStatsBars=%d", key, numStatsBars));
+            return Double.NaN;
+        }
+
+        // 生成ema，用前一根bar的wap，第一个值缺失
+        double[] prevWaps = new double[waps.length];
+        prevWaps[0] = Double.NaN;
+        System.arraycopy(waps, 0, prevWaps, 1, waps.length - 1);
         int period = numStatsBars;
         double multiplier = 2.0 / (period + 1);
-        DoubleColumn prevEmaColumn = Utils.ewm(wapColumn.lag(1), multiplier, "prevEma", true, false, period, period - 1);
-        Double prevEmaValue = prevEmaColumn.get(prevEmaColumn.size() - 1);
-        setEma(key, prevEmaValue);
+        double[] prevEma = EwmKernel.ewm(prevWaps, multiplier, true, false, period, period - 1);
+        return prevEma[prevEma.length - 1];
     }
 
     public void setEma(String key, double ema) {
@@ -300,41 +575,6 @@ public class BarSvc {
 
 
     public void clearEma(String key) {
-        String redisKey = String.format("%s:EMA", key);
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.del(redisKey);
-        } catch (Exception e) {
-            e.printStackTrace();
-            logger.warn(redisKey + " clear ema failed, error:" + e.getMessage());
-        }
-    }
-
-    public void saveEmaToDb(String key, String benchmark, double benchmarkValue) {
-        String[] splits = key.split(":");
-        String accountId = splits[0];
-        String symbol = splits[1];
-        String secType = splits[2];
-        try (Connection connection = DbManager.getConnection()) {
-            String insertSQL = "INSERT INTO tb_benchmark_log (account_id, symbol, sec_type, benchmark, benchmark_value) VALUES (?, ?, ?, ?, ?)";
-            PreparedStatement insertStatement = connection.prepareStatement(insertSQL);
-            insertStatement.setString(1, accountId);
-            insertStatement.setString(2, symbol);
-            insertStatement.setString(3, secType);
-            insertStatement.setString(4, benchmark);
-            insertStatement.setDouble(5, benchmarkValue);
-            int rowCount = insertStatement.executeUpdate();
-            if (rowCount > 0) {
-                logger.debug(String.format("%s %s %s benchmark=%s, benchmarkValue=%f insert benchmark successfully.",
-                        accountId, symbol, secType, benchmark, benchmarkValue));
-            } else {
-                logger.warn(String.format("%s %s %s benchmark=%s, benchmarkValue=%f insert benchmark failed.",
-                        accountId, symbol, secType, benchmark, benchmarkValue));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            logger.warn(String.format("%s %s %s benchmark=%s, benchmarkValue=%f saveEmaToDb failed.",
-                    accountId, symbol, secType, benchmark, benchmarkValue));
-        }
+        EmaCheckpointSvc.clear(key);
     }
 }
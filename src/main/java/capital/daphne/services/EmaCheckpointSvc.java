@@ -0,0 +1,177 @@
+package capital.daphne.services;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.AuditWriter;
+import capital.daphne.JedisManager;
+import capital.daphne.models.EmaCheckpoint;
+import capital.daphne.utils.JsonCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EMA保存在algorithm实例中，这里定时把每个account:symbol:secType最新的值写入redis（EMA_CHECKPOINT和原来的EMA）和tb_benchmark_log
+ * 两次写入之间的更新只保留最新的一次；写redis失败时保留到下一次重试
+ * 没有初始化时（比如单元测试）直接同步写入
+ */
+public class EmaCheckpointSvc {
+    private static final Logger logger = LoggerFactory.getLogger(EmaCheckpointSvc.class);
+
+    // 还没有写入的检查点，account:symbol:secType -> 最新的检查点
+    private static final Map<String, EmaCheckpoint> pending = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService checkpointExecutor;
+    private static volatile boolean running = false;
+
+    public static synchronized void initialize() {
+        if (running) {
+            return;
+        }
+        AppConfigManager.AppConfig.Checkpoint config = AppConfigManager.getInstance().getAppConfig().getCheckpoint();
+        long intervalMillis = 5000;
+        if (config != null && config.getIntervalMillis() > 0) {
+            intervalMillis = config.getIntervalMillis();
+        }
+        checkpointExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ema-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointExecutor.scheduleWithFixedDelay(EmaCheckpointSvc::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        running = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(EmaCheckpointSvc::shutdown, "ema-checkpoint-shutdown"));
+        logger.info(String.format("ema checkpoint started, intervalMillis=%d", intervalMillis));
+    }
+
+    /**
+     * 提交最新的检查点，不阻塞调用线程
+     */
+    public static void submit(EmaCheckpoint checkpoint) {
+        if (isOffline()) {
+            // 回测不写检查点
+            return;
+        }
+        pending.put(checkpoint.getKey(), checkpoint);
+        if (!running) {
+            flush();
+        }
+    }
+
+    /**
+     * 读取检查点，没有EMA_CHECKPOINT时用旧版本的EMA（没有barDate），都没有返回null
+     */
+    public static EmaCheckpoint load(String accountId, String symbol, String secType) {
+        if (isOffline()) {
+            return null;
+        }
+        String key = accountId + ":" + symbol + ":" + secType;
+        EmaCheckpoint checkpoint = pending.get(key);
+        if (checkpoint != null) {
+            return checkpoint;
+        }
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            String checkpointString = jedis.get(key + ":EMA_CHECKPOINT");
+            if (checkpointString != null) {
+                return JsonCodec.read(checkpointString, EmaCheckpoint.class);
+            }
+            String emaString = jedis.get(key + ":EMA");
+            if (emaString == null) {
+                return null;
+            }
+            checkpoint = new EmaCheckpoint();
+            checkpoint.setAccountId(accountId);
+            checkpoint.setSymbol(symbol);
+            checkpoint.setSecType(secType);
+            checkpoint.setEma(Double.parseDouble(emaString));
+            return checkpoint;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(key + " load ema checkpoint failed, error:" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 删除检查点，包括还没有写入的
+     */
+    public static void clear(String key) {
+        pending.remove(key);
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(key + ":EMA", key + ":EMA_CHECKPOINT");
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(key + " clear ema checkpoint failed, error:" + e.getMessage());
+        }
+    }
+
+    /**
+     * 停止定时任务，把剩余的检查点写入
+     */
+    public static synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        checkpointExecutor.shutdown();
+        try {
+            checkpointExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private static synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<EmaCheckpoint> checkpoints = new ArrayList<>(pending.size());
+        for (String key : new ArrayList<>(pending.keySet())) {
+            EmaCheckpoint checkpoint = pending.remove(key);
+            if (checkpoint != null) {
+                checkpoints.add(checkpoint);
+            }
+        }
+
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (EmaCheckpoint checkpoint : checkpoints) {
+                String key = checkpoint.getKey();
+                pipeline.set(key + ":EMA_CHECKPOINT", JsonCodec.write(checkpoint));
+                pipeline.set(key + ":EMA", String.valueOf(checkpoint.getEma()));
+            }
+            pipeline.sync();
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn("write ema checkpoint failed, error:" + e.getMessage());
+            // 期间有更新的检查点时保留新的
+            for (EmaCheckpoint checkpoint : checkpoints) {
+                pending.putIfAbsent(checkpoint.getKey(), checkpoint);
+            }
+            return;
+        }
+
+        for (EmaCheckpoint checkpoint : checkpoints) {
+            AuditWriter.write(AuditWriter.Table.BENCHMARK_LOG, checkpoint.getAccountId(), checkpoint.getSymbol(), checkpoint.getSecType(),
+                    checkpoint.getBenchmark(), checkpoint.getEma());
+        }
+    }
+
+    private static boolean isOffline() {
+        RedisContext context = RedisContext.current();
+        return context != null && context.isOffline();
+    }
+}
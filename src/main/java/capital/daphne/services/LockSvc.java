@@ -0,0 +1,135 @@
+package capital.daphne.services;
+
+import capital.daphne.JedisManager;
+import capital.daphne.transport.SendResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * IN_PROGRESS锁，同一个account:symbol:secType同时只允许一个信号在途
+ * 值为"true"（trader写入，和原来的Utils.isInProgress一致）或者本类写入的token（TOKEN_PREFIX开头）时表示锁被占用，
+ * key不存在或者是其他值（e.g. trader写入的"false"）都表示空闲，不能只看key是否存在：trader用SET key false解锁时TTL被清掉，
+ * SET NX会一直失败
+ * 加锁用lua脚本按同样的规则判断并写入token和PX，只有持有token的一方才能释放
+ * 确定trader没有收到信号时立即释放；订单成交后trader会删除key，或者这里看到POSITION变化时释放；都没有发生时等TTL过期
+ */
+public class LockSvc {
+    private static final Logger logger = LoggerFactory.getLogger(LockSvc.class);
+
+    public static final long DEFAULT_TTL_MILLIS = 60_000;
+
+    public static final String TOKEN_PREFIX = "lock:";
+
+    // 锁空闲时写入token并设置过期时间，返回1；被占用时返回0
+    private static final String LOCK_SCRIPT =
+            "local v = redis.call('get', KEYS[1]) " +
+            "if v == 'true' or (v and string.sub(v, 1, string.len(ARGV[2])) == ARGV[2]) then return 0 end " +
+            "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[3]) " +
+            "return 1";
+
+    // 只有值等于token时才删除
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    private final long ttlMillis;
+
+    // 本进程持有的锁，IN_PROGRESS key -> token
+    private final Map<String, String> heldLocks = new ConcurrentHashMap<>();
+
+    public LockSvc() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    public LockSvc(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        StateCache.addListener(this::onKeyChanged);
+    }
+
+    /**
+     * 加锁成功返回token，锁已经被占用返回null
+     */
+    public String tryLock(String redisKey) {
+        String token = TOKEN_PREFIX + UUID.randomUUID();
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Object result = jedis.eval(LOCK_SCRIPT, Collections.singletonList(redisKey),
+                    Arrays.asList(token, TOKEN_PREFIX, String.valueOf(ttlMillis)));
+            if (!(result instanceof Long && (Long) result == 1L)) {
+                return null;
+            }
+            heldLocks.put(redisKey, token);
+            StateCache.writeThrough(redisKey, Boolean.TRUE);
+            return token;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(redisKey + " try lock failed, error:" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * IN_PROGRESS的值是否表示锁被占用，和LOCK_SCRIPT的规则一致
+     */
+    public static boolean isLocked(String value) {
+        return value != null && ("true".equals(value) || value.startsWith(TOKEN_PREFIX));
+    }
+
+    /**
+     * 只释放自己持有的锁，锁已经过期或者被别人持有时返回false
+     */
+    public boolean release(String redisKey, String token) {
+        heldLocks.remove(redisKey, token);
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Object result = jedis.eval(RELEASE_SCRIPT, Collections.singletonList(redisKey), Collections.singletonList(token));
+            return result instanceof Long && (Long) result == 1L;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(redisKey + " release lock failed, error:" + e.getMessage());
+            return false;
+        } finally {
+            StateCache.invalidate(redisKey);
+        }
+    }
+
+    /**
+     * 发送信号之后调用，只有REJECTED（trader确定没有收到）才释放锁，返回是否释放
+     * 超时或者请求发出后失败时trader可能已经下单，下一根bar的信号是新的uuid，Idempotency-Key不能去重，
+     * 所以保留锁，等POSITION变化或者TTL过期
+     */
+    public boolean releaseIfRejected(String redisKey, String token, SendResult result) {
+        if (result != SendResult.REJECTED) {
+            return false;
+        }
+        return release(redisKey, token);
+    }
+
+    /**
+     * POSITION变化说明订单已经成交，释放对应的IN_PROGRESS锁
+     */
+    private void onKeyChanged(String key, String event) {
+        if (key.endsWith(":IN_PROGRESS")) {
+            // trader删除了锁或者锁过期了
+            if (!"set".equals(event)) {
+                heldLocks.remove(key);
+            }
+            return;
+        }
+        if (!key.endsWith(":POSITION")) {
+            return;
+        }
+        String lockKey = key.substring(0, key.length() - "POSITION".length()) + "IN_PROGRESS";
+        String token = heldLocks.get(lockKey);
+        if (token != null && release(lockKey, token)) {
+            logger.info(lockKey + " released on fill");
+        }
+    }
+}
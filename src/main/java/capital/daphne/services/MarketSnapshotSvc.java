@@ -0,0 +1,60 @@
+package capital.daphne.services;
+
+import capital.daphne.JedisManager;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.MarketSnapshot;
+import capital.daphne.utils.Utils;
+import com.ib.client.TickType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class MarketSnapshotSvc {
+    private static final Logger logger = LoggerFactory.getLogger(MarketSnapshotSvc.class);
+
+    private final BarSvc barSvc;
+
+    public MarketSnapshotSvc(BarSvc barSvc) {
+        this.barSvc = barSvc;
+    }
+
+    /**
+     * 每条bar消息只调用一次，把bar、wapList、bid/ask和交易时段一次性读出来，交给所有匹配的algorithm使用
+     * 除了BAR_LIST的增量读取外，其余key在同一个连接上读取
+     */
+    public MarketSnapshot load(String symbol, String secType) {
+        String key = Utils.genKey(symbol, secType);
+        BarSeries barSeries = barSvc.updateBarSeries(key);
+
+        VolatilityEngine volatilityEngine = null;
+        double bidPrice = 0.0;
+        double askPrice = 0.0;
+        String tradingPeriods = null;
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            // wap只在这里增量读取一次
+            volatilityEngine = barSvc.loadVolatilityEngine(jedis, key);
+            bidPrice = parsePrice(jedis.get(key + ":" + TickType.BID));
+            askPrice = parsePrice(jedis.get(key + ":" + TickType.ASK));
+            tradingPeriods = jedis.get(String.format("%s:%s:TRADING_PERIODS", symbol, secType));
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(key + " load market snapshot failed, error:" + e.getMessage());
+        }
+
+        return new MarketSnapshot(symbol, secType, barSeries.window(barSeries.size()),
+                volatilityEngine == null ? VolatilityEngine.of(new double[0]) : volatilityEngine, bidPrice, askPrice, TradingCalendar.get(symbol, secType, tradingPeriods));
+    }
+
+    private double parsePrice(String priceStr) {
+        if (priceStr == null) {
+            return 0.0;
+        }
+        try {
+            return Math.max(Double.parseDouble(priceStr), 0.0);
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+}
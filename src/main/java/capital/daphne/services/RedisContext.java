@@ -0,0 +1,163 @@
+package capital.daphne.services;
+
+import capital.daphne.JedisManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 一次algorithm evaluation范围内的redis读取上下文
+ * 开始前收集processor链需要的key（POSITION、LAST_ACTION、ORDER_LIST、MAX_MIN_WAP、IN_PROGRESS），
+ * 在同一个连接上用一次MGET读出来，evaluation过程中StateCache和processor都优先读这里的值
+ * StateCache中已经缓存的key不会再读，缓存正常时大多数evaluation不需要访问redis
+ * 绑定在当前线程上，用try-with-resources关闭
+ * 回测时用offline上下文代替redis：所有key都从内存中的store读取，不访问redis，也不经过StateCache的缓存
+ */
+public class RedisContext implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(RedisContext.class);
+
+    private static final ThreadLocal<RedisContext> CURRENT = new ThreadLocal<>();
+
+    // 值可能是null（key不存在），用containsKey判断是否读取过；offline时是调用方的store
+    private final Map<String, String> values;
+
+    // 解析过的值，原始字符串没有变化（同一个对象）时直接返回
+    private final Map<String, Object[]> parsed = new HashMap<>();
+
+    private final boolean offline;
+
+    // offline时代替WAP_LIST，参数是symbol:secType
+    private final Function<String, double[]> wapSource;
+
+    // 读取前StateCache的失效序号，读取期间发生过失效的值不放进缓存
+    private final long seq;
+
+    private final RedisContext previous;
+
+    private RedisContext(long seq, RedisContext previous, Map<String, String> values, boolean offline, Function<String, double[]> wapSource) {
+        this.seq = seq;
+        this.previous = previous;
+        this.values = values;
+        this.offline = offline;
+        this.wapSource = wapSource;
+    }
+
+    /**
+     * 读取keys中本地缓存没有的部分，并绑定到当前线程
+     */
+    public static RedisContext open(Collection<String> keys) {
+        RedisContext context = new RedisContext(StateCache.getInvalidationSeq(), CURRENT.get(), new HashMap<>(), false, null);
+        List<String> missingKeys = new ArrayList<>(keys.size());
+        for (String key : new LinkedHashSet<>(keys)) {
+            if (!StateCache.isCached(key)) {
+                missingKeys.add(key);
+            }
+        }
+        if (!missingKeys.isEmpty()) {
+            context.fetch(missingKeys);
+        }
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * 不访问redis的上下文，store中没有的key当作不存在，调用方直接修改store来模拟trader和datasource的写入
+     */
+    public static RedisContext offline(Map<String, String> store, Function<String, double[]> wapSource) {
+        RedisContext context = new RedisContext(0, CURRENT.get(), store, true, wapSource);
+        CURRENT.set(context);
+        return context;
+    }
+
+    public static RedisContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 当前上下文中有就直接返回，否则单独读一次redis
+     */
+    public static String get(String key) {
+        RedisContext context = CURRENT.get();
+        if (context != null && context.contains(key)) {
+            return context.value(key);
+        }
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            String value = jedis.get(key);
+            logger.debug("redis|" + key + "|" + value);
+            return value;
+        }
+    }
+
+    public boolean contains(String key) {
+        return offline || values.containsKey(key);
+    }
+
+    public String value(String key) {
+        return values.get(key);
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * offline时的wap，没有设置wapSource时返回空数组
+     */
+    public double[] waps(String key) {
+        return wapSource == null ? new double[0] : wapSource.apply(key);
+    }
+
+    /**
+     * 解析key的值，值没有变化时返回上次的结果，同一个key需要使用同一个parser
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T parse(String key, Function<String, T> parser) {
+        String value = values.get(key);
+        Object[] entry = parsed.get(key);
+        if (entry != null && entry[0] == value) {
+            return (T) entry[1];
+        }
+        T result = parser.apply(value);
+        parsed.put(key, new Object[]{value, result});
+        return result;
+    }
+
+    long getSeq() {
+        return seq;
+    }
+
+    private void fetch(List<String> keys) {
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<String> result = jedis.mget(keys.toArray(new String[0]));
+            for (int i = 0; i < keys.size(); i++) {
+                values.put(keys.get(i), result.get(i));
+                logger.debug("redis|" + keys.get(i) + "|" + result.get(i));
+            }
+        } catch (Exception e) {
+            // 读取失败时上下文为空，各处退回到单独读取
+            e.printStackTrace();
+            logger.warn(String.format("mget %s failed, error=%s", keys, e.getMessage()));
+            values.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -1,26 +1,26 @@
 package capital.daphne.services;
 
 import capital.daphne.AppConfigManager;
-import capital.daphne.DbManager;
+import capital.daphne.AuditWriter;
 import capital.daphne.algorithms.AlgorithmProcessor;
+import capital.daphne.algorithms.BarWindowProcessor;
+import capital.daphne.algorithms.ProcessorBundle;
+import capital.daphne.algorithms.TableProcessorAdapter;
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.MarketSnapshot;
 import capital.daphne.models.Signal;
+import capital.daphne.models.TradingSchedule;
+import capital.daphne.services.ta.TARegistry;
+import capital.daphne.transport.SendResult;
+import capital.daphne.transport.SignalTransport;
+import capital.daphne.transport.SignalTransportFactory;
 import capital.daphne.utils.Utils;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tech.tablesaw.api.Table;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.lang.reflect.Constructor;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,71 +32,111 @@ public class SignalSvc {
 
     private final PositionSvc positionService;
 
-    // 判断是否开仓的algoProcessorMap
-    private final Map<String, AlgorithmProcessor> openAlgoProcessorMap;
+    private final SignalTransport signalTransport;
 
-    // 判断是否平仓的algoProcessorMap
-    private final Map<String, AlgorithmProcessor> closeAlgoProcessorMap;
+    private static final ProcessorBundle[] NO_BUNDLES = new ProcessorBundle[0];
 
-    // 判断是否在收盘前平仓的portfolioProcessMap
-    private final Map<String, AlgorithmProcessor> closePortfolioProcessorMap;
-
-    private final Map<String, AlgorithmProcessor> closeHardLimitProcessorMap;
+    // 路由表，symbol:secType -> 该标的上配置的全部algorithm，只读，配置重载时整体替换
+    private volatile Map<String, ProcessorBundle[]> routingTable;
 
     public SignalSvc(List<AppConfigManager.AppConfig.AlgorithmConfig> algorithmConfigList) {
+        this(algorithmConfigList, SignalTransportFactory.create(AppConfigManager.getInstance().getAppConfig().getHttp()));
+    }
+
+    /**
+     * 指定信号的发送通道，e.g. 回测时交给模拟成交
+     */
+    public SignalSvc(List<AppConfigManager.AppConfig.AlgorithmConfig> algorithmConfigList, SignalTransport signalTransport) {
         barService = new BarSvc();
         positionService = new PositionSvc();
+        this.signalTransport = signalTransport;
 
-        openAlgoProcessorMap = new HashMap<>();
-        closeAlgoProcessorMap = new HashMap<>();
-        closePortfolioProcessorMap = new HashMap<>();
-        closeHardLimitProcessorMap = new HashMap<>();
-        for (AppConfigManager.AppConfig.AlgorithmConfig ac : algorithmConfigList) {
-            String accountId = ac.getAccountId();
-            String symbol = ac.getSymbol();
-            String secType = ac.getSecType();
+        // EMA不再在启动时清理，由EMA从检查点恢复并补算之后的bar
+        routingTable = buildRoutingTable(algorithmConfigList);
+    }
 
-            String algoKey = accountId + ":" + symbol + ":" + secType;
-            // 删除脏数据
-            clearDirtyData(algoKey);
+    /**
+     * 根据symbol:secType查找需要处理的algorithm，没有配置时返回空数组
+     */
+    public ProcessorBundle[] route(String symbol, String secType) {
+        ProcessorBundle[] bundles = routingTable.get(Utils.genKey(symbol, secType));
+        return bundles == null ? NO_BUNDLES : bundles;
+    }
+
+    /**
+     * 配置重载，新的路由表构建完成后整体替换，处理中的bar继续使用旧的路由表
+     */
+    public void reload(List<AppConfigManager.AppConfig.AlgorithmConfig> algorithmConfigList) {
+        try {
+            routingTable = buildRoutingTable(algorithmConfigList);
+        } catch (IllegalArgumentException e) {
+            logger.error("reload routing table failed, keep using the current one, error:" + e.getMessage());
+            return;
+        }
+        logger.info(String.format("routing table reloaded, symbols=%d, algorithms=%d", routingTable.size(), algorithmConfigList.size()));
+    }
+
+    private Map<String, ProcessorBundle[]> buildRoutingTable(List<AppConfigManager.AppConfig.AlgorithmConfig> algorithmConfigList) {
+        Map<String, List<ProcessorBundle>> grouped = new HashMap<>();
+        for (AppConfigManager.AppConfig.AlgorithmConfig ac : algorithmConfigList) {
+            // 创建并校验技术指标过滤器，配置错误时直接抛出异常
+            TARegistry taRegistry = TARegistry.of(ac);
 
             // 初始化openAlgoProcessor
-            AlgorithmProcessor openAlgoProcessor = loadAlgoProcessor("capital.daphne.algorithms", ac.getName(), ac);
-            openAlgoProcessorMap.put(algoKey, openAlgoProcessor);
+            AlgorithmProcessor openAlgoProcessor = loadAlgoProcessor("capital.daphne.algorithms", ac.getName(), ac, taRegistry);
 
             // 初始化closeAlgoProcessor
+            AlgorithmProcessor closeAlgoProcessor = null;
             AppConfigManager.AppConfig.CloseAlgorithmConfig cac = ac.getCloseAlgo();
             if (cac != null) {
-                AlgorithmProcessor closeAlgoProcessor = loadAlgoProcessor("capital.daphne.algorithms.close", cac.getMethod(), ac);
-                closeAlgoProcessorMap.put(algoKey, closeAlgoProcessor);
+                closeAlgoProcessor = loadAlgoProcessor("capital.daphne.algorithms.close", cac.getMethod(), ac);
             }
 
             // 初始化closePortfolioProcessor
+            AlgorithmProcessor closePortfolioProcessor = null;
             AppConfigManager.AppConfig.ClosePortfolio cp = ac.getClosePortfolio();
             if (cp != null) {
-                AlgorithmProcessor closeAlgoProcessor = loadAlgoProcessor("capital.daphne.algorithms.close", cp.getMethod(), ac);
-                closePortfolioProcessorMap.put(algoKey, closeAlgoProcessor);
+                closePortfolioProcessor = loadAlgoProcessor("capital.daphne.algorithms.close", cp.getMethod(), ac);
             }
 
+            AlgorithmProcessor closeHardLimitProcessor = null;
             AppConfigManager.AppConfig.hardLimit hl = ac.getHardLimit();
             if (hl != null && hl.getMethod().equals("Reset")) {
-                AlgorithmProcessor closeHardLimitProcessor = loadAlgoProcessor("capital.daphne.algorithms.close", hl.getMethod(), ac);
-                closeHardLimitProcessorMap.put(algoKey, closeHardLimitProcessor);
+                closeHardLimitProcessor = loadAlgoProcessor("capital.daphne.algorithms.close", hl.getMethod(), ac);
+            }
+
+            ProcessorBundle bundle = new ProcessorBundle(ac,
+                    TableProcessorAdapter.adapt(openAlgoProcessor),
+                    TableProcessorAdapter.adapt(closeAlgoProcessor),
+                    TableProcessorAdapter.adapt(closePortfolioProcessor),
+                    TableProcessorAdapter.adapt(closeHardLimitProcessor));
+            if (!bundle.isTableFree()) {
+                logger.info(String.format("%s %s %s uses table-based processors", ac.getAccountId(), ac.getSymbol(), ac.getName()));
             }
+            grouped.computeIfAbsent(Utils.genKey(ac.getSymbol(), ac.getSecType()), k -> new ArrayList<>()).add(bundle);
+        }
+
+        Map<String, ProcessorBundle[]> table = new HashMap<>();
+        for (Map.Entry<String, List<ProcessorBundle>> entry : grouped.entrySet()) {
+            table.put(entry.getKey(), entry.getValue().toArray(new ProcessorBundle[0]));
         }
+        return Collections.unmodifiableMap(table);
     }
 
-    public Signal getTradeSignal(AppConfigManager.AppConfig.AlgorithmConfig ac, double volatility, double bidPrice, double askPrice) {
+    public Signal getTradeSignal(ProcessorBundle bundle, MarketSnapshot snapshot, double volatility) {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = bundle.getAlgorithmConfig();
         String accountId = ac.getAccountId();
         String symbol = ac.getSymbol();
         String secType = ac.getSecType();
         String dataKey = Utils.genKey(symbol, secType);
         String algoKey = ac.getAccountId() + ":" + dataKey;
+        double bidPrice = snapshot.getBidPrice();
+        double askPrice = snapshot.getAskPrice();
+        TradingSchedule tradingSchedule = snapshot.getTradingSchedule();
 
-
-        // 获取bar信息
-        Table df = barService.getDataTable(dataKey, ac, volatility);
-        if (df == null) {
+        // 获取bar信息，来自同一条消息的行情快照，不复制数据
+        BarWindow bars = barService.getBarWindow(snapshot.getBars(), ac, volatility, bidPrice, askPrice);
+        if (bars == null) {
             return null;
         }
 
@@ -108,23 +148,23 @@ public class SignalSvc {
         AppConfigManager.AppConfig.ClosePortfolio closePortfolio = ac.getClosePortfolio();
         if (closePortfolio != null) {
             // 如果配置了，并且当前处于收盘前的平仓阶段, 无论有没有信号，都不会往下进行了
-            if (Utils.isCloseToClosing(symbol, secType, Utils.genUsDateTimeNow(), closePortfolio.getSecondsBeforeMarketClose())) {
+            if (tradingSchedule != null && tradingSchedule.isCloseToClosing(Utils.genUsDateTimeNow(), closePortfolio.getSecondsBeforeMarketClose())) {
                 logger.info(String.format("symbol=%s, secType=%s, algoKey=%s is closing to close",
                         symbol, secType, algoKey));
-                AlgorithmProcessor closePortfolioProcessor = closePortfolioProcessorMap.get(algoKey);
+                BarWindowProcessor closePortfolioProcessor = bundle.getClosePortfolioProcessor();
                 if (closePortfolioProcessor == null) {
                     logger.warn(String.format("symbol=%s, secType=%s, algoKey=%s can't not find closePortfolioProcessor",
                             symbol, secType, algoKey));
                     return null;
                 }
-                return closePortfolioProcessor.getSignal(df, position, maxPosition, bidPrice, askPrice);
+                return closePortfolioProcessor.getSignal(bars, position, maxPosition);
             }
         }
 
         // 判断是否要开仓, (open, e.g. SMA)
-        AlgorithmProcessor openAlgoProcessor = openAlgoProcessorMap.get(algoKey);
+        BarWindowProcessor openAlgoProcessor = bundle.getOpenProcessor();
         if (openAlgoProcessor != null) {
-            Signal signal = openAlgoProcessor.getSignal(df, position, maxPosition, bidPrice, askPrice);
+            Signal signal = openAlgoProcessor.getSignal(bars, position, maxPosition);
             // 同一个标的的开仓和平仓信号不会在一个bar中处理，优先处理开仓信号，所以这里判断信号有效就先返回了
             if (signal != null && signal.isValid()) {
                 return signal;
@@ -132,105 +172,61 @@ public class SignalSvc {
         }
 
         // 如果有平仓的配置，尝试获取平仓信号 (close, e.g. TrailingStop)
-        AlgorithmProcessor closeAlgoProcessor = closeAlgoProcessorMap.get(algoKey);
+        BarWindowProcessor closeAlgoProcessor = bundle.getCloseProcessor();
         if (closeAlgoProcessor != null) {
-            Signal signal = closeAlgoProcessor.getSignal(df, position, maxPosition, bidPrice, askPrice);
+            Signal signal = closeAlgoProcessor.getSignal(bars, position, maxPosition);
             if (signal != null && signal.isValid()) {
                 return signal;
             }
         }
 
         // 如果有满仓减仓配置，尝试获取减仓信号(e.g. 当position达到上线，并且配置了reset参数）
-        AlgorithmProcessor closeHardLimitProcessor = closeHardLimitProcessorMap.get(algoKey);
+        BarWindowProcessor closeHardLimitProcessor = bundle.getHardLimitProcessor();
         if (closeHardLimitProcessor != null) {
-            return closeHardLimitProcessor.getSignal(df, position, maxPosition, bidPrice, askPrice);
+            return closeHardLimitProcessor.getSignal(bars, position, maxPosition);
         }
         return null;
     }
 
     public void saveSignal(Signal sig) {
-        try (Connection connection = DbManager.getConnection()) {
-            String insertSQL = "INSERT INTO tb_signal (account_id, uuid, symbol, sec_type, wap, quantity) VALUES (?, ?, ?, ?, ?, ?)";
-            PreparedStatement insertStatement = connection.prepareStatement(insertSQL);
-            insertStatement.setString(1, sig.getAccountId());
-            insertStatement.setString(2, sig.getUuid());
-            insertStatement.setString(3, sig.getSymbol());
-            insertStatement.setString(4, sig.getSecType());
-            insertStatement.setDouble(5, sig.getWap());
-            insertStatement.setInt(6, sig.getQuantity());
-            insertStatement.executeUpdate();
-            logger.info("save signal successfully, signal: " + sig);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            logger.warn("save signal failed, error:" + e.getMessage());
-        }
+        AuditWriter.write(AuditWriter.Table.SIGNAL, sig.getAccountId(), sig.getUuid(), sig.getSymbol(), sig.getSecType(), sig.getWap(), sig.getQuantity());
+        logger.info("save signal successfully, signal: " + sig);
     }
 
-    public void sendSignal(Signal signal) {
-        try {
-            AppConfigManager.AppConfig appConfig = AppConfigManager.getInstance().getAppConfig();
-            String traderSrvUrl = String.format(
-                    "http://%s:%d/%s",
-                    appConfig.getHttp().getHost(),
-                    appConfig.getHttp().getPort(),
-                    appConfig.getHttp().getPath()
-            );
-            URL apiUrl = new URL(traderSrvUrl);
-            HttpURLConnection connection = (HttpURLConnection) apiUrl.openConnection();
-
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-
-
-            JSONObject requestData = new JSONObject();
-            requestData.put("accountId", signal.getAccountId());
-            requestData.put("symbol", signal.getSymbol());
-            requestData.put("secType", signal.getSecType());
-            requestData.put("wap", signal.getWap());
-            requestData.put("quantity", signal.getQuantity());
-            requestData.put("orderType", signal.getOrderType());
-            requestData.put("benchmarkColumn", signal.getBenchmarkColumn());
-
-            // 获取 JSON 字符串形式的请求体
-            String requestBody = requestData.toString();
-
-            // 将请求数据写入输出流
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
+    /**
+     * 发送信号，调用方根据结果处理IN_PROGRESS锁（LockSvc.releaseIfRejected）：
+     * ACCEPTED：trader已经收到，保留锁，等成交后POSITION变化或者trader删除key时释放
+     * REJECTED：确定trader没有收到或者拒绝了，立即释放锁，下一根bar可以重新发送
+     * UNKNOWN：超时等情况，trader可能已经下单，保留锁，等POSITION变化或者TTL过期
+     */
+    public SendResult sendSignal(Signal signal) {
+        return signalTransport.send(signal);
+    }
 
-            // 获取响应
-            int responseCode = connection.getResponseCode();
-
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // 读取响应数据
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                    String line;
-                    StringBuilder response = new StringBuilder();
-                    while ((line = in.readLine()) != null) {
-                        response.append(line);
-                    }
-                    logger.debug("Response: " + response.toString());
-                }
-            } else {
-                logger.warn("HTTP POST request failed with response code: " + responseCode);
-            }
-            connection.disconnect();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public void close() {
+        signalTransport.close();
     }
 
     private AlgorithmProcessor loadAlgoProcessor(String packageName, String className, AppConfigManager.AppConfig.AlgorithmConfig ac) {
+        return loadAlgoProcessor(packageName, className, ac, null);
+    }
+
+    /**
+     * 需要技术指标过滤器的processor（e.g. DMA）提供(AlgorithmConfig, TARegistry)构造函数，使用构建时创建好的过滤器
+     */
+    private AlgorithmProcessor loadAlgoProcessor(String packageName, String className, AppConfigManager.AppConfig.AlgorithmConfig ac, TARegistry taRegistry) {
         AlgorithmProcessor algoProcessor = null;
         try {
             String packageToClassName = packageName + "." + className;
             // 使用反射加载类
             Class<?> clazz = Class.forName(packageToClassName);
-            Constructor<?> constructor = clazz.getConstructor(AppConfigManager.AppConfig.AlgorithmConfig.class);
-            algoProcessor = (AlgorithmProcessor) constructor.newInstance(ac);
+            Constructor<?> constructor = taRegistry == null ? null : findConstructor(clazz, AppConfigManager.AppConfig.AlgorithmConfig.class, TARegistry.class);
+            if (constructor != null) {
+                algoProcessor = (AlgorithmProcessor) constructor.newInstance(ac, taRegistry);
+            } else {
+                constructor = clazz.getConstructor(AppConfigManager.AppConfig.AlgorithmConfig.class);
+                algoProcessor = (AlgorithmProcessor) constructor.newInstance(ac);
+            }
 
             logger.info("Successfully created an instance of: " + className);
             logger.info("Instance: " + algoProcessor);
@@ -244,9 +240,11 @@ public class SignalSvc {
         return algoProcessor;
     }
 
-    private void clearDirtyData(String key) {
-        // 清理EMA信息
-        logger.warn(String.format("clear ema %s", key));
-        barService.clearEma(key);
+    private static Constructor<?> findConstructor(Class<?> clazz, Class<?>... parameterTypes) {
+        try {
+            return clazz.getConstructor(parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
     }
 }
@@ -0,0 +1,405 @@
+package capital.daphne.services;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.JedisManager;
+import capital.daphne.models.ActionInfo;
+import capital.daphne.models.OrderInfo;
+import capital.daphne.models.Signal;
+import capital.daphne.utils.JsonCodec;
+import capital.daphne.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * POSITION、LAST_ACTION、ORDER_LIST、IN_PROGRESS的本地缓存，这些值只在订单成交时变化
+ * 通过redis的keyspace notification失效缓存，信号计算时直接读内存
+ * 定时写心跳key，心跳事件超过maxLagMillis没收到（订阅断开或者通知延迟）时，直接读redis并且不缓存
+ * 没有初始化时（比如单元测试）总是直接读redis
+ * 当前线程有RedisContext时，需要读redis的key优先使用其中批量读取的值
+ */
+public class StateCache {
+    private static final Logger logger = LoggerFactory.getLogger(StateCache.class);
+
+    private static final String HEARTBEAT_KEY = "STATE_CACHE:HEARTBEAT";
+
+    private static final String[] WATCHED_SUFFIXES = {"POSITION", "LAST_ACTION", "ORDER_LIST", "IN_PROGRESS", "TRADING_PERIODS"};
+
+    // 缓存中的空值
+    private static final Object NULL_VALUE = new Object();
+
+    private static final Map<String, CachedValue> cache = new ConcurrentHashMap<>();
+
+    // 需要知道key变化的模块（e.g. 成交后释放IN_PROGRESS锁）
+    private static final List<BiConsumer<String, String>> listeners = new CopyOnWriteArrayList<>();
+
+    // 每次失效都加1，读redis期间发生过失效的结果不放进缓存
+    private static final AtomicLong invalidationSeq = new AtomicLong();
+
+    private static volatile boolean initialized = false;
+    private static volatile boolean subscribed = false;
+    private static volatile long lastHeartbeatMillis = 0;
+
+    private static long heartbeatIntervalMillis;
+    private static long maxLagMillis;
+    private static long maxAgeMillis;
+    private static String keyspacePrefix;
+
+    private static ScheduledExecutorService heartbeatExecutor;
+
+    private static class CachedValue {
+        private final Object value;
+        private final long loadedAt;
+
+        private CachedValue(Object value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    public static synchronized void initialize() {
+        if (initialized) {
+            return;
+        }
+        AppConfigManager.AppConfig appConfig = AppConfigManager.getInstance().getAppConfig();
+        AppConfigManager.AppConfig.StateCache config = appConfig.getStateCache();
+        heartbeatIntervalMillis = 1000;
+        maxLagMillis = 3000;
+        maxAgeMillis = 60000;
+        int database = 0;
+        if (config != null) {
+            if (!config.isEnabled()) {
+                logger.info("state cache is disabled, read state from redis directly");
+                return;
+            }
+            heartbeatIntervalMillis = config.getHeartbeatIntervalMillis() > 0 ? config.getHeartbeatIntervalMillis() : heartbeatIntervalMillis;
+            maxLagMillis = config.getMaxLagMillis() > 0 ? config.getMaxLagMillis() : maxLagMillis;
+            maxAgeMillis = config.getMaxAgeMillis() > 0 ? config.getMaxAgeMillis() : maxAgeMillis;
+            database = Math.max(config.getDatabase(), 0);
+        }
+        keyspacePrefix = String.format("__keyspace@%d__:", database);
+        enableKeyspaceEvents();
+
+        Thread subscriberThread = new Thread(() -> subscribeLoop(appConfig.getRedis()), "state-cache-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-cache-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatExecutor.scheduleAtFixedRate(StateCache::heartbeat, 0, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+        initialized = true;
+        logger.info(String.format("state cache started, heartbeatIntervalMillis=%d, maxLagMillis=%d, maxAgeMillis=%d",
+                heartbeatIntervalMillis, maxLagMillis, maxAgeMillis));
+    }
+
+    public static int getPosition(String accountId, String symbol, String secType) {
+        String redisKey = accountId + ":" + symbol + ":" + secType + ":POSITION";
+        Integer position = get(redisKey, StateCache::parsePosition);
+        return position == null ? 0 : position;
+    }
+
+    public static ActionInfo getLastActionInfo(String redisKey) {
+        ActionInfo cached = get(redisKey, StateCache::parseActionInfo);
+        // 返回副本，调用方修改不影响缓存
+        ActionInfo actionInfo = new ActionInfo();
+        actionInfo.setAction(cached.getAction());
+        actionInfo.setDateTime(cached.getDateTime());
+        return actionInfo;
+    }
+
+    /**
+     * 没有订单时返回null，返回的list不可修改
+     */
+    public static List<OrderInfo> getOrderList(String accountId, String symbol, String secType) {
+        String redisKey = accountId + ":" + symbol + ":" + secType + ":ORDER_LIST";
+        return get(redisKey, StateCache::parseOrderList);
+    }
+
+    /**
+     * 值为"true"或者加锁方的token时表示有交易在进行，规则见LockSvc.isLocked
+     */
+    public static boolean isInProgress(String redisKey) {
+        Boolean inProgress = get(redisKey, LockSvc::isLocked);
+        return inProgress != null && inProgress;
+    }
+
+    /**
+     * 自己写redis之后同步更新缓存
+     */
+    public static void writeThrough(String redisKey, Object value) {
+        put(redisKey, value, invalidationSeq.get());
+    }
+
+    public static void clearLastActionInfo(String redisKey) {
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(redisKey);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            invalidate(redisKey);
+        }
+    }
+
+    /**
+     * 收到keyspace通知时回调，参数是key和事件（set、del、expired等）
+     */
+    public static void addListener(BiConsumer<String, String> listener) {
+        listeners.add(listener);
+    }
+
+    public static void invalidate(String redisKey) {
+        invalidationSeq.incrementAndGet();
+        cache.remove(redisKey);
+    }
+
+    public static boolean isHealthy() {
+        return initialized && subscribed && System.currentTimeMillis() - lastHeartbeatMillis <= maxLagMillis;
+    }
+
+    /**
+     * 缓存中有没有过期的值，不读redis
+     */
+    public static boolean isCached(String redisKey) {
+        if (!isHealthy()) {
+            return false;
+        }
+        CachedValue cachedValue = cache.get(redisKey);
+        return cachedValue != null && System.currentTimeMillis() - cachedValue.loadedAt <= maxAgeMillis;
+    }
+
+    static long getInvalidationSeq() {
+        return invalidationSeq.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(String redisKey, Function<String, T> parser) {
+        RedisContext context = RedisContext.current();
+        if (context != null && context.isOffline()) {
+            // 回测，和线上的缓存隔离
+            return context.parse(redisKey, parser);
+        }
+
+        if (!isHealthy()) {
+            // 通知可能丢失，缓存中的值不再可信
+            if (!cache.isEmpty()) {
+                invalidationSeq.incrementAndGet();
+                cache.clear();
+            }
+            if (context != null && context.contains(redisKey)) {
+                return context.parse(redisKey, parser);
+            }
+            return parser.apply(load(redisKey));
+        }
+
+        long now = System.currentTimeMillis();
+        CachedValue cachedValue = cache.get(redisKey);
+        if (cachedValue != null && now - cachedValue.loadedAt <= maxAgeMillis) {
+            return cachedValue.value == NULL_VALUE ? null : (T) cachedValue.value;
+        }
+
+        // 本次evaluation已经批量读取过，用读取前的失效序号判断能否放进缓存
+        if (context != null && context.contains(redisKey)) {
+            T value = context.parse(redisKey, parser);
+            put(redisKey, value, context.getSeq());
+            return value;
+        }
+
+        long seq = invalidationSeq.get();
+        T value = parser.apply(load(redisKey));
+        put(redisKey, value, seq);
+        return value;
+    }
+
+    private static void put(String redisKey, Object value, long seq) {
+        if (!isHealthy()) {
+            return;
+        }
+        cache.put(redisKey, new CachedValue(value == null ? NULL_VALUE : value, System.currentTimeMillis()));
+        // 读取期间收到了失效通知，丢弃这次的结果
+        if (invalidationSeq.get() != seq) {
+            cache.remove(redisKey);
+        }
+    }
+
+    private static String load(String redisKey) {
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            String value = jedis.get(redisKey);
+            logger.debug("redis|" + redisKey + "|" + value);
+            return value;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(String.format("get %s in redis failed, error=%s", redisKey, e.getMessage()));
+            return null;
+        }
+    }
+
+    private static Integer parsePosition(String positionStr) {
+        if (positionStr == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(positionStr);
+        } catch (NumberFormatException e) {
+            logger.error("parse position failed, value=" + positionStr);
+            return 0;
+        }
+    }
+
+    private static ActionInfo parseActionInfo(String storedValue) {
+        ActionInfo actionInfo = new ActionInfo();
+        actionInfo.setAction(Signal.TradeActionType.NO_ACTION);
+        actionInfo.setDateTime(null);
+        if (storedValue == null) {
+            return actionInfo;
+        }
+
+        try {
+            String[] split = storedValue.split("\\|");
+            String action = split[0];
+            String datetime = split[1];
+            switch (action) {
+                case "NO_ACTION":
+                    break;
+                case "BUY":
+                    actionInfo.setAction(Signal.TradeActionType.BUY);
+                    actionInfo.setDateTime(Utils.genUsDateTime(datetime, "yyyy-MM-dd HH:mm:ssXXX"));
+                    break;
+                case "SELL":
+                    actionInfo.setAction(Signal.TradeActionType.SELL);
+                    actionInfo.setDateTime(Utils.genUsDateTime(datetime, "yyyy-MM-dd HH:mm:ssXXX"));
+                    break;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return actionInfo;
+    }
+
+    private static List<OrderInfo> parseOrderList(String storedOrderListJson) {
+        if (storedOrderListJson == null) {
+            return null;
+        }
+        try {
+            List<OrderInfo> orderList = JsonCodec.readOrderList(storedOrderListJson);
+            if (orderList == null || orderList.size() == 0) {
+                return null;
+            }
+            return Collections.unmodifiableList(orderList);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 在原有配置上加上K（keyspace）、$（string）、g（del/expire等通用命令）、x（过期）
+     * redis禁用了CONFIG命令时需要在redis.conf中配置
+     */
+    private static void enableKeyspaceEvents() {
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<String> current = jedis.configGet("notify-keyspace-events");
+            String flags = current != null && current.size() == 2 ? current.get(1) : "";
+            StringBuilder sb = new StringBuilder(flags);
+            for (char flag : new char[]{'K', '$', 'g', 'x'}) {
+                // A包含了$gx
+                if (sb.indexOf(String.valueOf(flag)) < 0 && !(flag != 'K' && sb.indexOf("A") >= 0)) {
+                    sb.append(flag);
+                }
+            }
+            if (!sb.toString().equals(flags)) {
+                jedis.configSet("notify-keyspace-events", sb.toString());
+                logger.info(String.format("notify-keyspace-events changed from %s to %s", flags, sb));
+            }
+        } catch (Exception e) {
+            logger.warn("enable keyspace events failed, state cache falls back to direct reads unless notifications are configured, error:" + e.getMessage());
+        }
+    }
+
+    private static void subscribeLoop(AppConfigManager.AppConfig.Redis redisConfig) {
+        String[] patterns = new String[WATCHED_SUFFIXES.length + 1];
+        for (int i = 0; i < WATCHED_SUFFIXES.length; i++) {
+            patterns[i] = keyspacePrefix + "*:" + WATCHED_SUFFIXES[i];
+        }
+        patterns[WATCHED_SUFFIXES.length] = keyspacePrefix + HEARTBEAT_KEY;
+
+        while (true) {
+            // 订阅需要独占一个连接，读超时设为0
+            try (Jedis jedis = new Jedis(redisConfig.getHost(), redisConfig.getPort(), 2000, 0)) {
+                if (redisConfig.getPassword() != null && !redisConfig.getPassword().isEmpty()) {
+                    jedis.auth(redisConfig.getPassword());
+                }
+                jedis.psubscribe(new JedisPubSub() {
+                    @Override
+                    public void onPSubscribe(String pattern, int subscribedChannels) {
+                        if (subscribedChannels == patterns.length) {
+                            subscribed = true;
+                            logger.info("state cache subscribed to keyspace events");
+                        }
+                    }
+
+                    @Override
+                    public void onPMessage(String pattern, String channel, String message) {
+                        onKeyspaceEvent(channel.substring(keyspacePrefix.length()), message);
+                    }
+                }, patterns);
+            } catch (Exception e) {
+                logger.warn("state cache subscription failed, error:" + e.getMessage());
+            }
+            subscribed = false;
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void onKeyspaceEvent(String key, String event) {
+        if (HEARTBEAT_KEY.equals(key)) {
+            lastHeartbeatMillis = System.currentTimeMillis();
+            return;
+        }
+        logger.debug(String.format("keyspace event, key=%s, event=%s", key, event));
+        invalidate(key);
+        if (key.endsWith(":TRADING_PERIODS")) {
+            String[] splits = key.split(":");
+            TradingCalendar.invalidate(splits[0], splits[1]);
+        }
+        for (BiConsumer<String, String> listener : listeners) {
+            try {
+                listener.accept(key, event);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void heartbeat() {
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.psetex(HEARTBEAT_KEY, maxLagMillis * 10, String.valueOf(System.currentTimeMillis()));
+        } catch (Exception e) {
+            logger.warn("state cache heartbeat failed, error:" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package capital.daphne.services;
+
+import capital.daphne.JedisManager;
+import capital.daphne.models.TradingSchedule;
+import capital.daphne.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 每个symbol:secType一份解析好的交易时段
+ * 只有TRADING_PERIODS的值发生变化时才重新解析；行情快照每次都会读取原始值，直接比较即可
+ * 没有原始值的调用方最多每REFRESH_INTERVAL_MILLIS到redis检查一次
+ */
+public class TradingCalendar {
+    private static final Logger logger = LoggerFactory.getLogger(TradingCalendar.class);
+
+    private static final long REFRESH_INTERVAL_MILLIS = 60_000;
+
+    private static final Map<String, Entry> calendarMap = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        private final TradingSchedule schedule;
+        private final long checkedAt;
+
+        private Entry(TradingSchedule schedule, long checkedAt) {
+            this.schedule = schedule;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    /**
+     * 使用已经读取好的TRADING_PERIODS，值没变时直接返回缓存，值为null时返回null
+     */
+    public static TradingSchedule get(String symbol, String secType, String tradingHoursStr) {
+        if (tradingHoursStr == null) {
+            return null;
+        }
+        String key = Utils.genKey(symbol, secType);
+        Entry entry = calendarMap.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.schedule != null && tradingHoursStr.equals(entry.schedule.getRaw())) {
+            return entry.schedule;
+        }
+        TradingSchedule schedule = parse(key, tradingHoursStr, secType);
+        calendarMap.put(key, new Entry(schedule, now));
+        return schedule;
+    }
+
+    /**
+     * 没有原始值时使用，超过刷新间隔才到redis检查是否有变化
+     */
+    public static TradingSchedule get(String symbol, String secType) {
+        String key = Utils.genKey(symbol, secType);
+        Entry entry = calendarMap.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.checkedAt < REFRESH_INTERVAL_MILLIS) {
+            return entry.schedule;
+        }
+
+        String redisKey = String.format("%s:%s:TRADING_PERIODS", symbol, secType);
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        try (Jedis jedis = jedisPool.getResource()) {
+            String tradingHoursStr = jedis.get(redisKey);
+            TradingSchedule schedule = null;
+            if (tradingHoursStr != null) {
+                schedule = entry != null && entry.schedule != null && tradingHoursStr.equals(entry.schedule.getRaw())
+                        ? entry.schedule
+                        : parse(key, tradingHoursStr, secType);
+            }
+            calendarMap.put(key, new Entry(schedule, now));
+            return schedule;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.warn(redisKey + " load trading periods failed, error:" + e.getMessage());
+            // 读取失败时沿用旧值
+            return entry == null ? null : entry.schedule;
+        }
+    }
+
+    /**
+     * TRADING_PERIODS被修改时调用，下一次查询会重新读取
+     */
+    public static void invalidate(String symbol, String secType) {
+        calendarMap.remove(Utils.genKey(symbol, secType));
+    }
+
+    private static TradingSchedule parse(String key, String tradingHoursStr, String secType) {
+        logger.info(String.format("%s trading periods changed, tradingHoursStr=%s", key, tradingHoursStr));
+        return TradingSchedule.of(tradingHoursStr, secType, Utils.parseTradingHours(tradingHoursStr, secType));
+    }
+}
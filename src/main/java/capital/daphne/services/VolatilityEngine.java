@@ -0,0 +1,110 @@
+package capital.daphne.services;
+
+/**
+ * 计算volatility需要的10个分段（wapList的后100%、90%、...、10%）的max和min
+ * 每条bar消息只从后往前扫描一遍wap，结果由同一标的的所有algorithm共享，各algorithm只需要按自己的时间权重参数加权
+ */
+public class VolatilityEngine {
+    public static final int SEGMENTS = 10;
+
+    private final int size;
+    private final double[] maxs = new double[SEGMENTS];
+    private final double[] mins = new double[SEGMENTS];
+
+    private VolatilityEngine(int size) {
+        this.size = size;
+    }
+
+    public static VolatilityEngine of(double[] waps) {
+        return of(waps, waps.length);
+    }
+
+    /**
+     * waps中前size个元素是按时间顺序排列的wap
+     */
+    public static VolatilityEngine of(double[] waps, int size) {
+        VolatilityEngine engine = new VolatilityEngine(size);
+
+        // 每个分段的起始下标，计算方式和原来的subList保持一致
+        int[] startIndexes = new int[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            int startPercentage = i * 10;
+            startIndexes[i] = (int) (size * (startPercentage / 100.0));
+        }
+
+        double max = Double.MIN_VALUE;
+        double min = Double.MAX_VALUE;
+        int segment = SEGMENTS - 1;
+        // 起始下标等于size的分段是空集
+        while (segment >= 0 && startIndexes[segment] >= size) {
+            engine.maxs[segment] = max;
+            engine.mins[segment] = min;
+            segment--;
+        }
+        for (int j = size - 1; j >= 0 && segment >= 0; j--) {
+            double wap = waps[j];
+            max = Math.max(max, wap);
+            min = Math.min(min, wap);
+            // 多个分段可能有相同的起始下标
+            while (segment >= 0 && startIndexes[segment] == j) {
+                engine.maxs[segment] = max;
+                engine.mins[segment] = min;
+                segment--;
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * 已经算好的各分段max和min（e.g. WapMirror增量维护的结果）
+     */
+    static VolatilityEngine of(double[] maxs, double[] mins, int size) {
+        VolatilityEngine engine = new VolatilityEngine(size);
+        System.arraycopy(maxs, 0, engine.maxs, 0, SEGMENTS);
+        System.arraycopy(mins, 0, engine.mins, 0, SEGMENTS);
+        return engine;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 全集数据的max
+     */
+    public double getMax() {
+        return maxs[0];
+    }
+
+    /**
+     * 全集数据的min
+     */
+    public double getMin() {
+        return mins[0];
+    }
+
+    public double getSegmentMax(int i) {
+        return maxs[i];
+    }
+
+    public double getSegmentMin(int i) {
+        return mins[i];
+    }
+
+    /**
+     * 各分段volatility按a + bx + cx^2的时间权重加权平均
+     */
+    public double weightedVolatility(double timeWeightedA, double timeWeightedB, double timeWeightedC) {
+        double totalWeight = 0.0;
+        double totalVolatility = 0.0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            // 计算subset的volatility
+            double subsetVolatility = (maxs[i] - mins[i]) / mins[i];
+            int x = i + 1;
+            double timeWeight = timeWeightedA + timeWeightedB * x + timeWeightedC * x * x;
+            totalWeight += timeWeight;
+            totalVolatility += subsetVolatility * timeWeight;
+        }
+        return totalVolatility / totalWeight;
+    }
+}
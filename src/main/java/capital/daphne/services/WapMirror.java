@@ -0,0 +1,240 @@
+package capital.daphne.services;
+
+/**
+ * 内存中的WAP_LIST副本，每个symbol:secType一份
+ * datasource在队尾追加wap，超过保留数量后从队头删除，所以每条bar消息只需要读取长度和尾部的几个wap：
+ * 和副本的末尾对齐后追加新增的部分，再按长度从队头删除
+ * 用尾部的wap和队头的wap校验对齐，对不齐（漏了太多消息、datasource重启）或者对齐方式不唯一（wap都相同）时由调用方全量读取后reload
+ * 同时用单调队列维护整个副本的后缀max/min，每根bar均摊O(1)；10个分段的max/min在队列上二分查找，不需要重新扫描
+ * 只允许一个线程更新（处理同一个标的bar消息的线程）
+ */
+public class WapMirror {
+    // 副本和WAP_LIST尾部最少需要重叠的wap数量
+    private static final int MIN_OVERLAP = 8;
+
+    // 增量更新次数达到这个值后全量读取一次，5秒bar大约1小时，避免极端情况下的误差一直保留
+    private static final int RESYNC_UPDATES = 720;
+
+    private double[] values;
+    private int mask;
+    // 队头的序号和下一个wap的序号，序号一直递增，下标是序号 & mask
+    private long head;
+    private long tail;
+    private int updatesSinceReload;
+
+    private final MonotonicDeque maxDeque = new MonotonicDeque(true);
+    private final MonotonicDeque minDeque = new MonotonicDeque(false);
+
+    public WapMirror() {
+        values = new double[16];
+        mask = values.length - 1;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * 全量读取的wap
+     */
+    public void reload(double[] waps) {
+        head = 0;
+        tail = 0;
+        updatesSinceReload = 0;
+        maxDeque.clear();
+        minDeque.clear();
+        for (double wap : waps) {
+            append(wap);
+        }
+    }
+
+    /**
+     * length是WAP_LIST当前的长度，headWap是队头的wap，tailWaps是最后几个wap（不超过length个）
+     * 能唯一对齐时更新副本返回true，否则返回false，副本不变
+     */
+    public boolean applyTail(long length, double headWap, double[] tailWaps) {
+        int t = tailWaps.length;
+        int n = size();
+        if (n == 0 || t == 0 || t > length || updatesSinceReload >= RESYNC_UPDATES) {
+            return false;
+        }
+        // 新增d个wap时，副本最后t - d个wap应该和tailWaps的前t - d个相同，删除队头后的第一个wap应该是headWap
+        // 至少重叠MIN_OVERLAP个，否则漏的消息太多，尾部的几个wap不足以判断
+        int added = -1;
+        for (int d = 0; d <= t - Math.min(MIN_OVERLAP, t); d++) {
+            int overlap = t - d;
+            if (overlap > n || n + d < length || !endsWith(tailWaps, overlap) || !headMatches(length, d, headWap, tailWaps)) {
+                continue;
+            }
+            if (added >= 0) {
+                // 多种对齐方式，不能确定新增了几个
+                return false;
+            }
+            added = d;
+        }
+        if (added < 0) {
+            return false;
+        }
+        for (int i = t - added; i < t; i++) {
+            append(tailWaps[i]);
+        }
+        head = tail - length;
+        maxDeque.evictBefore(head);
+        minDeque.evictBefore(head);
+        updatesSinceReload++;
+        return true;
+    }
+
+    /**
+     * 直接在队尾追加一个wap，超过maxLength时从队头删除，和datasource维护WAP_LIST的方式相同（回测时使用）
+     */
+    public void add(double wap, int maxLength) {
+        append(wap);
+        if (size() > maxLength) {
+            head = tail - maxLength;
+            maxDeque.evictBefore(head);
+            minDeque.evictBefore(head);
+        }
+    }
+
+    public double[] toArray() {
+        double[] waps = new double[size()];
+        for (int i = 0; i < waps.length; i++) {
+            waps[i] = values[(int) ((head + i) & mask)];
+        }
+        return waps;
+    }
+
+    private boolean headMatches(long length, int added, double headWap, double[] tailWaps) {
+        long headSeq = tail + added - length;
+        double wap = headSeq < tail ? values[(int) (headSeq & mask)] : tailWaps[(int) (tailWaps.length - added + headSeq - tail)];
+        return Double.compare(wap, headWap) == 0;
+    }
+
+    private boolean endsWith(double[] tailWaps, int overlap) {
+        long from = tail - overlap;
+        for (int i = 0; i < overlap; i++) {
+            if (Double.compare(values[(int) ((from + i) & mask)], tailWaps[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(double wap) {
+        if (size() == values.length) {
+            grow();
+        }
+        values[(int) (tail & mask)] = wap;
+        maxDeque.push(tail, wap);
+        minDeque.push(tail, wap);
+        tail++;
+    }
+
+    private void grow() {
+        double[] newValues = new double[values.length * 2];
+        int newMask = newValues.length - 1;
+        for (long seq = head; seq < tail; seq++) {
+            newValues[(int) (seq & newMask)] = values[(int) (seq & mask)];
+        }
+        values = newValues;
+        mask = newMask;
+    }
+
+    /**
+     * 和VolatilityEngine.of(waps)的结果相同
+     */
+    public VolatilityEngine toVolatilityEngine() {
+        int n = size();
+        double[] maxs = new double[VolatilityEngine.SEGMENTS];
+        double[] mins = new double[VolatilityEngine.SEGMENTS];
+        for (int i = 0; i < VolatilityEngine.SEGMENTS; i++) {
+            // 计算方式和VolatilityEngine中的分段起点保持一致
+            int startIndex = (int) (n * (i * 10 / 100.0));
+            if (startIndex >= n) {
+                maxs[i] = Double.MIN_VALUE;
+                mins[i] = Double.MAX_VALUE;
+            } else {
+                maxs[i] = Math.max(Double.MIN_VALUE, maxDeque.extremeFrom(head + startIndex));
+                mins[i] = Math.min(Double.MAX_VALUE, minDeque.extremeFrom(head + startIndex));
+            }
+        }
+        return VolatilityEngine.of(maxs, mins, n);
+    }
+
+    /**
+     * 单调队列，从队首到队尾序号递增、值递减（max）或递增（min）
+     * 从序号s开始的后缀的极值就是第一个序号不小于s的元素
+     */
+    private static class MonotonicDeque {
+        private final boolean max;
+        private long[] seqs = new long[16];
+        private double[] values = new double[16];
+        private int front;
+        private int size;
+
+        private MonotonicDeque(boolean max) {
+            this.max = max;
+        }
+
+        private void clear() {
+            front = 0;
+            size = 0;
+        }
+
+        private void push(long seq, double value) {
+            while (size > 0) {
+                double back = values[index(size - 1)];
+                if (max ? back <= value : back >= value) {
+                    size--;
+                } else {
+                    break;
+                }
+            }
+            if (size == seqs.length) {
+                grow();
+            }
+            int idx = index(size);
+            seqs[idx] = seq;
+            values[idx] = value;
+            size++;
+        }
+
+        private void evictBefore(long seq) {
+            while (size > 0 && seqs[front] < seq) {
+                front = index(1);
+                size--;
+            }
+        }
+
+        private double extremeFrom(long seq) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (seqs[index(mid)] < seq) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return values[index(lo)];
+        }
+
+        private int index(int i) {
+            return (front + i) & (seqs.length - 1);
+        }
+
+        private void grow() {
+            long[] newSeqs = new long[seqs.length * 2];
+            double[] newValues = new double[values.length * 2];
+            for (int i = 0; i < size; i++) {
+                newSeqs[i] = seqs[index(i)];
+                newValues[i] = values[index(i)];
+            }
+            seqs = newSeqs;
+            values = newValues;
+            front = 0;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package capital.daphne.services;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.algorithms.ProcessorBundle;
+import capital.daphne.archive.BarArchive;
+import capital.daphne.models.BarTape;
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.MarketSnapshot;
+import capital.daphne.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 启动预热：订阅bar消息之前，为每个配置的symbol:secType加载redis中的bar（不够时用BarArchive补充），
+ * 恢复开盘volatility系数，再把最新的快照交给所有processor计算一次（只计算不发送信号），
+ * 这样EMA等指标的状态在第一条bar消息之前就已经恢复，不用等实时的bar
+ */
+public class WarmupSvc {
+    private static final Logger logger = LoggerFactory.getLogger(WarmupSvc.class);
+
+    private final BarSvc barSvc;
+
+    private final MarketSnapshotSvc marketSnapshotSvc;
+
+    private final SignalSvc signalSvc;
+
+    private final BarArchive barArchive;
+
+    private final int archiveDays;
+
+    public WarmupSvc(BarSvc barSvc, MarketSnapshotSvc marketSnapshotSvc, SignalSvc signalSvc, AppConfigManager.AppConfig.Warmup config) {
+        this.barSvc = barSvc;
+        this.marketSnapshotSvc = marketSnapshotSvc;
+        this.signalSvc = signalSvc;
+        String archiveRoot = config == null ? null : config.getArchiveRoot();
+        this.barArchive = archiveRoot == null || archiveRoot.isEmpty() ? null : new BarArchive(archiveRoot);
+        this.archiveDays = config != null && config.getArchiveDays() > 0 ? config.getArchiveDays() : 1;
+    }
+
+    /**
+     * 返回可以给出信号的algorithm数量
+     */
+    public int warmUp(List<AppConfigManager.AppConfig.AlgorithmConfig> algorithms) {
+        long startMillis = System.currentTimeMillis();
+        Map<String, AppConfigManager.AppConfig.AlgorithmConfig> symbols = new LinkedHashMap<>();
+        for (AppConfigManager.AppConfig.AlgorithmConfig ac : algorithms) {
+            symbols.putIfAbsent(Utils.genKey(ac.getSymbol(), ac.getSecType()), ac);
+        }
+
+        int total = 0;
+        int ready = 0;
+        for (AppConfigManager.AppConfig.AlgorithmConfig ac : symbols.values()) {
+            ProcessorBundle[] bundles = signalSvc.route(ac.getSymbol(), ac.getSecType());
+            total += bundles.length;
+            try {
+                ready += warmUp(ac.getSymbol(), ac.getSecType(), bundles);
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.warn(String.format("%s %s warm up failed, error=%s", ac.getSymbol(), ac.getSecType(), e.getMessage()));
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+        logger.info(String.format("warm up finished, symbols=%d, algorithms=%d, ready=%d, warmUpMillis=%d, timeToReadyMillis=%d",
+                symbols.size(), total, ready, now - startMillis, now - jvmStartMillis));
+        return ready;
+    }
+
+    private int warmUp(String symbol, String secType, ProcessorBundle[] bundles) throws Exception {
+        if (bundles.length == 0) {
+            return 0;
+        }
+        long startMillis = System.currentTimeMillis();
+        String key = Utils.genKey(symbol, secType);
+
+        // 先读取redis中的bar，不够最大的numStatsBars + 1时用存档补充
+        MarketSnapshot snapshot = marketSnapshotSvc.load(symbol, secType);
+        int required = 0;
+        for (ProcessorBundle bundle : bundles) {
+            required = Math.max(required, bundle.getAlgorithmConfig().getNumStatsBars() + 1);
+        }
+        int archived = 0;
+        if (size(snapshot.getBars()) < required && barArchive != null) {
+            BarTape tape = loadArchive(symbol, secType);
+            archived = tape == null ? 0 : barSvc.prependBars(key, tape);
+            if (archived > 0) {
+                snapshot = new MarketSnapshot(symbol, secType, barSvc.getBars(key), snapshot.getVolatilityEngine(),
+                        snapshot.getBidPrice(), snapshot.getAskPrice(), snapshot.getTradingSchedule());
+            }
+        }
+
+        int ready = 0;
+        for (ProcessorBundle bundle : bundles) {
+            AppConfigManager.AppConfig.AlgorithmConfig ac = bundle.getAlgorithmConfig();
+            try (RedisContext ignored = RedisContext.open(bundle.collectStateKeys())) {
+                barSvc.restoreOpenMarketVolatilityFactor(ac, snapshot.getBars());
+                // 不写tb_wap_log，只计算volatility
+                double volatility = barSvc.adjustVolatilityDuringMarketOpenPeriod(
+                        snapshot.getVolatilityEngine().weightedVolatility(ac.getTimeWeightedA(), ac.getTimeWeightedB(), ac.getTimeWeightedC()), ac);
+                // processor的状态只和bar有关，信号丢弃，等下一根bar再决定是否下单
+                signalSvc.getTradeSignal(bundle, snapshot, volatility);
+                if (size(snapshot.getBars()) > ac.getNumStatsBars()) {
+                    ready++;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.warn(String.format("%s %s %s warm up failed, error=%s", ac.getAccountId(), symbol, ac.getName(), e.getMessage()));
+            }
+        }
+        logger.info(String.format("%s warm up finished, bars=%d, archivedBars=%d, algorithms=%d, ready=%d, millis=%d",
+                key, size(snapshot.getBars()), archived, bundles.length, ready, System.currentTimeMillis() - startMillis));
+        return ready;
+    }
+
+    private static int size(BarWindow bars) {
+        return bars == null ? 0 : bars.size();
+    }
+
+    private BarTape loadArchive(String symbol, String secType) throws Exception {
+        List<LocalDate> days = barArchive.days(symbol, secType);
+        if (days.isEmpty()) {
+            logger.info(String.format("%s %s no archived bars", symbol, secType));
+            return null;
+        }
+        LocalDate from = days.get(Math.max(0, days.size() - archiveDays));
+        return barArchive.load(symbol, secType, from, days.get(days.size() - 1));
+    }
+}
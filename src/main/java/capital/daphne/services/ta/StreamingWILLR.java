@@ -0,0 +1,80 @@
+package capital.daphne.services.ta;
+
+import capital.daphne.indicators.BarCursor;
+import capital.daphne.indicators.RollingMax;
+import capital.daphne.indicators.RollingMin;
+import capital.daphne.indicators.RollingWindow;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.Table;
+
+/**
+ * 流式WILLR，最高价/最低价用单调队列维护，每根新bar均摊O(1)
+ * latest的结果和WILLR在同一个dataframe上计算后的最后一行相同：
+ * dataframe本身的行数不够算出period根bar的最高/最低价时返回NaN
+ */
+public class StreamingWILLR implements TA {
+    private final int period;
+    private final int offset;
+    private final RollingMax highestHigh;
+    private final RollingMin lowestLow;
+    // 最近offset + 1根bar的WILLR
+    private final RollingWindow history;
+    private final BarCursor barCursor = new BarCursor();
+    private final WILLR batch;
+
+    public StreamingWILLR(int period, int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        }
+        this.period = period;
+        this.offset = offset;
+        this.highestHigh = new RollingMax(period);
+        this.lowestLow = new RollingMin(period);
+        this.history = new RollingWindow(offset + 1);
+        this.batch = new WILLR(period, offset);
+    }
+
+    /**
+     * 生成整列时和批量版本一样计算
+     */
+    @Override
+    public Table ta(Table df) {
+        return batch.ta(df);
+    }
+
+    @Override
+    public double latest(Table df, String column) {
+        DoubleColumn close = df.doubleColumn("close");
+        DoubleColumn high = df.doubleColumn("high");
+        DoubleColumn low = df.doubleColumn("low");
+        int from = barCursor.seek(df);
+        if (from < 0) {
+            highestHigh.reset();
+            lowestLow.reset();
+            history.clear();
+            from = 0;
+        }
+        int rowCount = df.rowCount();
+        for (int i = from; i < rowCount; i++) {
+            highestHigh.update(high.getDouble(i));
+            lowestLow.update(low.getDouble(i));
+            double hh = highestHigh.getValue();
+            double ll = lowestLow.getValue();
+            history.add(((close.getDouble(i) - ll) / (hh - ll) - 1) * 100);
+        }
+        barCursor.commit(df);
+
+        if (rowCount - 1 - offset < period - 1) {
+            return Double.NaN;
+        }
+        return history.get(offset);
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+}
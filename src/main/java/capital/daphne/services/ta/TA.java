@@ -4,4 +4,15 @@ import tech.tablesaw.api.Table;
 
 public interface TA {
     public Table ta(Table df);
+
+    /**
+     * 最后一行的指标值，column是指标输出的列名
+     * 默认在整个dataframe上计算后取最后一行，流式实现只处理新增的bar
+     */
+    default double latest(Table df, String column) {
+        if (!df.containsColumn(column)) {
+            df = ta(df);
+        }
+        return df.doubleColumn(column).getDouble(df.rowCount() - 1);
+    }
 }
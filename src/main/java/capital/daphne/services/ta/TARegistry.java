@@ -0,0 +1,91 @@
+package capital.daphne.services.ta;
+
+import capital.daphne.AppConfigManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 一个algorithm用到的技术指标过滤器，构建SignalSvc（或重载配置）时创建好，处理bar时直接使用
+ * 过滤器的key同时也是TA输出的列名，e.g. WILLR；配置成"-"表示不使用过滤器
+ * 不认识的key在构建时直接抛出IllegalArgumentException，不会等到开盘后处理bar时才发现
+ */
+public class TARegistry {
+    public static final String NO_FILTER = "-";
+
+    private static final Map<String, Function<AppConfigManager.AppConfig.DMAParams, TA>> FACTORIES = new HashMap<>();
+
+    static {
+        FACTORIES.put(WILLR.COLUMN, dp -> {
+            int period = dp.getWillrPeriod() > 0 ? dp.getWillrPeriod() : WILLR.DEFAULT_PERIOD;
+            int offset = dp.getWillrOffset() != null ? dp.getWillrOffset() : WILLR.DEFAULT_OFFSET;
+            return new StreamingWILLR(period, offset);
+        });
+    }
+
+    private static final TARegistry EMPTY = new TARegistry(null, null, null, null);
+
+    private final String longFilterKey;
+    private final TA longFilter;
+    private final String shortFilterKey;
+    private final TA shortFilter;
+
+    private TARegistry(String longFilterKey, TA longFilter, String shortFilterKey, TA shortFilter) {
+        this.longFilterKey = longFilterKey;
+        this.longFilter = longFilter;
+        this.shortFilterKey = shortFilterKey;
+        this.shortFilter = shortFilter;
+    }
+
+    public static TARegistry of(AppConfigManager.AppConfig.AlgorithmConfig ac) {
+        AppConfigManager.AppConfig.DMAParams dp = ac.getDmaParams();
+        if (dp == null) {
+            return EMPTY;
+        }
+        String longFilterKey = normalize(dp.getLongFilterKey());
+        String shortFilterKey = normalize(dp.getShortFilterKey());
+        TA longFilter = longFilterKey == null ? null : create(longFilterKey, dp);
+        TA shortFilter = null;
+        if (shortFilterKey != null) {
+            // 多空使用同一个指标时共用一个实例
+            shortFilter = shortFilterKey.equals(longFilterKey) ? longFilter : create(shortFilterKey, dp);
+        }
+        return new TARegistry(longFilterKey, longFilter, shortFilterKey, shortFilter);
+    }
+
+    public static boolean isRegistered(String key) {
+        return FACTORIES.containsKey(key);
+    }
+
+    private static String normalize(String key) {
+        return key == null || key.isEmpty() || key.equals(NO_FILTER) ? null : key;
+    }
+
+    private static TA create(String key, AppConfigManager.AppConfig.DMAParams dp) {
+        Function<AppConfigManager.AppConfig.DMAParams, TA> factory = FACTORIES.get(key);
+        if (factory == null) {
+            throw new IllegalArgumentException("unknown ta filter: " + key + ", available: " + FACTORIES.keySet());
+        }
+        return factory.apply(dp);
+    }
+
+    /**
+     * 没有配置时返回null
+     */
+    public String getLongFilterKey() {
+        return longFilterKey;
+    }
+
+    public TA getLongFilter() {
+        return longFilter;
+    }
+
+    public String getShortFilterKey() {
+        return shortFilterKey;
+    }
+
+    public TA getShortFilter() {
+        return shortFilter;
+    }
+}
@@ -5,21 +5,36 @@ import org.slf4j.LoggerFactory;
 import tech.tablesaw.api.DoubleColumn;
 import tech.tablesaw.api.Table;
 
+/**
+ * 在整个dataframe上计算WILLR，实盘使用StreamingWILLR，这里保留给回测和对照测试
+ */
 public class WILLR implements TA {
     private static final Logger logger = LoggerFactory.getLogger(WILLR.class);
 
+    public static final String COLUMN = "WILLR";
+    public static final int DEFAULT_PERIOD = 990;
+    public static final int DEFAULT_OFFSET = 1;
+
+    private final int period;
+    private final int offset;
+
+    public WILLR() {
+        this(DEFAULT_PERIOD, DEFAULT_OFFSET);
+    }
+
+    public WILLR(int period, int offset) {
+        this.period = period;
+        this.offset = offset;
+    }
+
     @Override
     public Table ta(Table df) {
-        // 计算DPO
-        int period = 990;
-        int offset = 1;
-
         DoubleColumn closePrices = df.doubleColumn("close");
         DoubleColumn highPrices = df.doubleColumn("high");
         DoubleColumn lowPrices = df.doubleColumn("low");
 
         DoubleColumn willrColumn = willr(closePrices, highPrices, lowPrices, period, offset);
-        df.addColumns(willrColumn.setName("WILLR"));
+        df.addColumns(willrColumn.setName(COLUMN));
         return df;
     }
 
@@ -0,0 +1,122 @@
+package capital.daphne.transport;
+
+import capital.daphne.models.Signal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+/**
+ * 通过常驻的HttpClient给trader发送信号，连接保持keep-alive复用，不再每个信号新建连接
+ * 失败时按配置重试，每次重试都带上相同的Idempotency-Key（信号的uuid）
+ */
+public class HttpSignalTransport implements SignalTransport {
+    private static final Logger logger = LoggerFactory.getLogger(HttpSignalTransport.class);
+
+    private final HttpClient httpClient;
+    private final URI endpoint;
+    private final Duration requestTimeout;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+
+    public HttpSignalTransport(String host, int port, String path, long connectTimeoutMillis, long requestTimeoutMillis,
+                               int maxRetries, long retryBackoffMillis) {
+        this.endpoint = URI.create(String.format("http://%s:%d/%s", host, port, path));
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .executor(Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "signal-http");
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .build();
+
+        // 启动时先解析一次域名，避免第一个信号等待DNS
+        try {
+            InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            logger.warn("resolve trader host failed, host=" + host + ", error:" + e.getMessage());
+        }
+        logger.info(String.format("http signal transport started, endpoint=%s, requestTimeoutMillis=%d, maxRetries=%d",
+                endpoint, requestTimeoutMillis, maxRetries));
+    }
+
+    @Override
+    public SendResult send(Signal signal) {
+        if (!SignalJson.isSendable(signal)) {
+            logger.warn(String.format("signal not sent, wap is not finite, uuid=%s, wap=%s", signal.getUuid(), signal.getWap()));
+            return SendResult.REJECTED;
+        }
+        if (signal.getUuid() == null) {
+            signal.setUuid(UUID.randomUUID().toString());
+        }
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", signal.getUuid())
+                .POST(HttpRequest.BodyPublishers.ofString(SignalJson.toJson(signal)))
+                .build();
+
+        // 之前的某次请求可能已经被trader处理（超时、发出后连接断开、5xx），之后即使被拒绝也不能确定没有下单
+        boolean maybeDelivered = false;
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(retryBackoffMillis * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return maybeDelivered ? SendResult.UNKNOWN : SendResult.REJECTED;
+                }
+            }
+            try {
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                int responseCode = response.statusCode();
+                // 201、202、204等2xx都表示trader已经收到
+                if (responseCode >= 200 && responseCode < 300) {
+                    logger.debug("Response: " + response.body());
+                    return SendResult.ACCEPTED;
+                }
+                logger.warn(String.format("HTTP POST request failed with response code: %d, uuid=%s, attempt=%d",
+                        responseCode, signal.getUuid(), attempt));
+                // 4xx是请求本身的问题，重试也没用
+                if (responseCode < 500) {
+                    return maybeDelivered ? SendResult.UNKNOWN : SendResult.REJECTED;
+                }
+                maybeDelivered = true;
+            } catch (ConnectException | HttpConnectTimeoutException e) {
+                // 连接没有建立，请求没有发出
+                logger.warn(String.format("HTTP POST connect failed, uuid=%s, attempt=%d, error:%s",
+                        signal.getUuid(), attempt, e.getMessage()));
+            } catch (IOException e) {
+                // 包括请求超时，请求可能已经被trader处理
+                maybeDelivered = true;
+                logger.warn(String.format("HTTP POST request failed, uuid=%s, attempt=%d, error:%s",
+                        signal.getUuid(), attempt, e.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return SendResult.UNKNOWN;
+            }
+        }
+        return maybeDelivered ? SendResult.UNKNOWN : SendResult.REJECTED;
+    }
+
+    @Override
+    public void close() {
+        // HttpClient没有显式关闭的方法，连接随空闲超时释放
+    }
+}
@@ -0,0 +1,70 @@
+package capital.daphne.transport;
+
+import capital.daphne.JedisManager;
+import capital.daphne.models.Signal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.StreamEntryID;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 通过redis stream把信号交给trader，trader用XREAD/XREADGROUP消费
+ * 只需要一次XADD，不经过http，适合trader和redis部署在同一台机器上的场景
+ */
+public class RedisStreamSignalTransport implements SignalTransport {
+    private static final Logger logger = LoggerFactory.getLogger(RedisStreamSignalTransport.class);
+
+    private final String streamKey;
+    private final long maxLen;
+
+    public RedisStreamSignalTransport(String streamKey, long maxLen) {
+        this.streamKey = streamKey;
+        this.maxLen = maxLen;
+        logger.info(String.format("redis stream signal transport started, streamKey=%s, maxLen=%d", streamKey, maxLen));
+    }
+
+    @Override
+    public SendResult send(Signal signal) {
+        if (!SignalJson.isSendable(signal)) {
+            logger.warn(String.format("signal not sent, wap is not finite, uuid=%s, wap=%s", signal.getUuid(), signal.getWap()));
+            return SendResult.REJECTED;
+        }
+        if (signal.getUuid() == null) {
+            signal.setUuid(UUID.randomUUID().toString());
+        }
+        Map<String, String> fields = new HashMap<>();
+        fields.put("uuid", signal.getUuid());
+        fields.put("signal", SignalJson.toJson(signal));
+
+        JedisPool jedisPool = JedisManager.getJedisPool();
+        Jedis jedis;
+        try {
+            jedis = jedisPool.getResource();
+        } catch (Exception e) {
+            // 没有拿到连接，XADD没有发出
+            e.printStackTrace();
+            logger.warn(String.format("get redis connection failed, uuid=%s, error:%s", signal.getUuid(), e.getMessage()));
+            return SendResult.REJECTED;
+        }
+        try (jedis) {
+            // 近似裁剪stream长度，避免无限增长
+            StreamEntryID id = jedis.xadd(streamKey, StreamEntryID.NEW_ENTRY, fields, maxLen, true);
+            logger.debug(String.format("signal added to stream %s, id=%s, uuid=%s", streamKey, id, signal.getUuid()));
+            return SendResult.ACCEPTED;
+        } catch (Exception e) {
+            // XADD可能已经执行，只是没有收到回复
+            e.printStackTrace();
+            logger.warn(String.format("add signal to stream %s failed, uuid=%s, error:%s", streamKey, signal.getUuid(), e.getMessage()));
+            return SendResult.UNKNOWN;
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
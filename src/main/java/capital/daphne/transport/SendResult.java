@@ -0,0 +1,13 @@
+package capital.daphne.transport;
+
+/**
+ * 信号发送的结果
+ */
+public enum SendResult {
+    // trader确认收到
+    ACCEPTED,
+    // 确定trader没有收到或者拒绝了：4xx、连接被拒绝、信号本身无效，可以立即释放IN_PROGRESS锁
+    REJECTED,
+    // 不确定trader是否已经下单：超时、请求发出后的IO异常、5xx，不能释放锁，等POSITION变化或者TTL过期
+    UNKNOWN;
+}
@@ -0,0 +1,77 @@
+package capital.daphne.transport;
+
+import capital.daphne.models.Signal;
+
+/**
+ * 信号的json序列化，字段固定，直接拼接到线程内复用的StringBuilder中，不经过org.json
+ * 字段和原来用org.json发送的一致，uuid只放在Idempotency-Key请求头中
+ */
+public class SignalJson {
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    /**
+     * 窗口为空时fulfillSignal可能给出NaN或者Infinity的wap，json中不能表示，这样的信号不发送
+     */
+    public static boolean isSendable(Signal signal) {
+        return Double.isFinite(signal.getWap());
+    }
+
+    public static String toJson(Signal signal) {
+        if (!isSendable(signal)) {
+            throw new IllegalArgumentException("wap is not finite: " + signal.getWap());
+        }
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        sb.append('{');
+        appendString(sb, "accountId", signal.getAccountId()).append(',');
+        appendString(sb, "symbol", signal.getSymbol()).append(',');
+        appendString(sb, "secType", signal.getSecType()).append(',');
+        sb.append("\"wap\":").append(signal.getWap()).append(',');
+        sb.append("\"quantity\":").append(signal.getQuantity());
+        if (signal.getOrderType() != null) {
+            sb.append(',');
+            appendString(sb, "orderType", signal.getOrderType().name());
+        }
+        if (signal.getBenchmarkColumn() != null) {
+            sb.append(',');
+            appendString(sb, "benchmarkColumn", signal.getBenchmarkColumn());
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static StringBuilder appendString(StringBuilder sb, String name, String value) {
+        sb.append('"').append(name).append("\":");
+        if (value == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+}
@@ -0,0 +1,16 @@
+package capital.daphne.transport;
+
+import capital.daphne.models.Signal;
+
+/**
+ * 把交易信号交给trader模块的通道
+ */
+public interface SignalTransport {
+    /**
+     * 发送信号，trader确认收到返回ACCEPTED，确定没有收到返回REJECTED，无法确定时返回UNKNOWN
+     * 同一个信号的重试使用相同的uuid，trader据此去重
+     */
+    SendResult send(Signal signal);
+
+    void close();
+}
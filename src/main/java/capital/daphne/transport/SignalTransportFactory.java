@@ -0,0 +1,30 @@
+package capital.daphne.transport;
+
+import capital.daphne.AppConfigManager;
+
+public class SignalTransportFactory {
+
+    /**
+     * 根据http.transport配置创建发送通道，默认http
+     */
+    public static SignalTransport create(AppConfigManager.AppConfig.Http config) {
+        String transport = config.getTransport() == null ? "http" : config.getTransport();
+        switch (transport) {
+            case "http":
+                return new HttpSignalTransport(
+                        config.getHost(),
+                        config.getPort(),
+                        config.getPath(),
+                        config.getConnectTimeoutMillis() > 0 ? config.getConnectTimeoutMillis() : 1000,
+                        config.getRequestTimeoutMillis() > 0 ? config.getRequestTimeoutMillis() : 2000,
+                        Math.max(config.getMaxRetries(), 0),
+                        config.getRetryBackoffMillis() > 0 ? config.getRetryBackoffMillis() : 50);
+            case "redisStream":
+                return new RedisStreamSignalTransport(
+                        config.getStreamKey() != null ? config.getStreamKey() : "SIGNAL_STREAM",
+                        config.getStreamMaxLen() > 0 ? config.getStreamMaxLen() : 100000);
+            default:
+                throw new IllegalArgumentException("unknown signal transport: " + transport);
+        }
+    }
+}
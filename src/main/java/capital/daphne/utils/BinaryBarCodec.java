@@ -0,0 +1,92 @@
+package capital.daphne.utils;
+
+import capital.daphne.models.BarInfo;
+import capital.daphne.models.BarSeries;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * BAR_BIN、WAP_BIN的二进制格式，都是小端定长记录，producer只需要APPEND新的记录
+ * BAR_BIN每根bar 48字节：epoch秒(int64)、vwap、open、high、low、close(float64)
+ * WAP_BIN每个wap 8字节(float64)
+ * 解码时直接写入BarSeries/double[]，不经过字符串和对象
+ */
+public class BinaryBarCodec {
+    public static final int BAR_RECORD_BYTES = 48;
+
+    public static final int WAP_RECORD_BYTES = 8;
+
+    private BinaryBarCodec() {
+    }
+
+    public static int barCount(byte[] data) {
+        return data == null ? 0 : data.length / BAR_RECORD_BYTES;
+    }
+
+    public static byte[] encodeBars(List<BarInfo> bars) {
+        ByteBuffer buffer = ByteBuffer.allocate(bars.size() * BAR_RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (BarInfo bar : bars) {
+            putBar(buffer, bar);
+        }
+        return buffer.array();
+    }
+
+    public static byte[] encodeBar(BarInfo bar) {
+        ByteBuffer buffer = ByteBuffer.allocate(BAR_RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        putBar(buffer, bar);
+        return buffer.array();
+    }
+
+    private static void putBar(ByteBuffer buffer, BarInfo bar) {
+        buffer.putLong(Math.floorDiv(Utils.parseEpochNanos(bar.getDate()), 1_000_000_000L));
+        buffer.putDouble(bar.getVwap());
+        buffer.putDouble(bar.getOpen());
+        buffer.putDouble(bar.getHigh());
+        buffer.putDouble(bar.getLow());
+        buffer.putDouble(bar.getClose());
+    }
+
+    /**
+     * 第i根bar的epoch秒
+     */
+    public static long epochSecondsAt(byte[] data, int i) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getLong(i * BAR_RECORD_BYTES);
+    }
+
+    /**
+     * 把第from根到最后一根bar追加到BarSeries，末尾不完整的记录（producer正在写）忽略
+     */
+    public static void decodeInto(byte[] data, int from, BarSeries barSeries) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int count = barCount(data);
+        for (int i = Math.max(from, 0); i < count; i++) {
+            int offset = i * BAR_RECORD_BYTES;
+            long epochSeconds = buffer.getLong(offset);
+            barSeries.append(Utils.formatBarDate(epochSeconds), epochSeconds * 1_000_000_000L,
+                    buffer.getDouble(offset + 8),
+                    buffer.getDouble(offset + 16),
+                    buffer.getDouble(offset + 24),
+                    buffer.getDouble(offset + 32),
+                    buffer.getDouble(offset + 40));
+        }
+    }
+
+    public static byte[] encodeWaps(double[] waps) {
+        ByteBuffer buffer = ByteBuffer.allocate(waps.length * WAP_RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double wap : waps) {
+            buffer.putDouble(wap);
+        }
+        return buffer.array();
+    }
+
+    public static double[] decodeWaps(byte[] data) {
+        if (data == null) {
+            return new double[0];
+        }
+        double[] waps = new double[data.length / WAP_RECORD_BYTES];
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(waps);
+        return waps;
+    }
+}
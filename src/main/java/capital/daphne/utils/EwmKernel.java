@@ -0,0 +1,75 @@
+package capital.daphne.utils;
+
+import java.util.Arrays;
+
+/**
+ * 基于double[]的ewm计算，语义和原来基于DoubleColumn的Utils.ewm相同，缺失值用NaN表示
+ * adjust模式下用累乘的衰减因子代替每个元素一次Math.pow
+ */
+public class EwmKernel {
+    public static double[] ewm(double[] input, double alpha, boolean prefillSma, boolean adjust, int period, int minPeriods) {
+        double[] result = new double[input.length];
+        ewm(input, result, alpha, prefillSma, adjust, period, minPeriods);
+        return result;
+    }
+
+    /**
+     * 结果写入output，output的长度不能小于input，调用方可以复用数组
+     */
+    public static void ewm(double[] input, double[] output, double alpha, boolean prefillSma, boolean adjust, int period, int minPeriods) {
+        int n = input.length;
+        Arrays.fill(output, 0, n, Double.NaN);
+        int startIndex = 1;
+        if (prefillSma) {
+            output[period - 1] = seed(input, period);
+            startIndex = period;
+        } else if (n > 0) {
+            output[0] = input[0];
+        }
+
+        double decay = 1 - alpha;
+        if (!adjust) {
+            double prev = n > 0 ? output[startIndex - 1] : Double.NaN;
+            for (int i = startIndex; i < n; i++) {
+                if (prev != prev) {
+                    prev = 0.0d;
+                }
+                prev = input[i] * alpha + prev * decay;
+                output[i] = prev;
+            }
+        } else {
+            double alphaWeightedSum = 0;
+            double alphaWeightedInputSum = 0;
+            double alphaWeightRet = 1.0;
+            for (int i = 0; i < n; i++) {
+                alphaWeightedSum += alphaWeightRet;
+                alphaWeightRet *= decay;
+                alphaWeightedInputSum = alphaWeightedInputSum * decay + input[i];
+                output[i] = alphaWeightedSum != 0 ? alphaWeightedInputSum / alphaWeightedSum : 0;
+            }
+        }
+
+        if (!prefillSma || adjust) {
+            Arrays.fill(output, 0, Math.min(minPeriods + 1, n), Double.NaN);
+        }
+    }
+
+    /**
+     * 前period个值的平均值，和DoubleColumn.rolling(period).mean()一样忽略缺失值，全部缺失时为0
+     */
+    public static double seed(double[] input, int period) {
+        if (period <= 0 || period > input.length) {
+            throw new IllegalArgumentException(String.format("period=%d out of range, size=%d", period, input.length));
+        }
+        double sum = 0.0;
+        int count = 0;
+        for (int i = 0; i < period; i++) {
+            double value = input[i];
+            if (value == value) {
+                sum += value;
+                count++;
+            }
+        }
+        return count == 0 ? 0.0d : sum / count;
+    }
+}
@@ -0,0 +1,118 @@
+package capital.daphne.utils;
+
+import capital.daphne.models.BarInfo;
+import capital.daphne.models.OrderInfo;
+import capital.daphne.models.WapCache;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 全局共享的ObjectMapper和预先构建好的reader，ObjectMapper/ObjectReader都是线程安全的，反序列化器只需要初始化一次
+ * BAR_LIST可以只解析尾部N根bar：前面的bar只做词法扫描跳过，不创建对象
+ */
+public class JsonCodec {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    private static final ObjectReader BAR_READER = objectMapper.readerFor(BarInfo.class);
+
+    private static final ObjectReader BAR_LIST_READER = objectMapper.readerFor(new TypeReference<List<BarInfo>>() {
+    });
+
+    private static final ObjectReader ORDER_LIST_READER = objectMapper.readerFor(new TypeReference<List<OrderInfo>>() {
+    });
+
+    private static final ObjectReader WAP_CACHE_READER = objectMapper.readerFor(WapCache.class);
+
+    private static final ObjectWriter WRITER = objectMapper.writer();
+
+    private JsonCodec() {
+    }
+
+    /**
+     * 没有预先构建reader的类型（e.g. 配置文件、审计记录）直接使用共享的ObjectMapper
+     */
+    public static ObjectMapper mapper() {
+        return objectMapper;
+    }
+
+    public static String write(Object value) throws JsonProcessingException {
+        return WRITER.writeValueAsString(value);
+    }
+
+    public static <T> T read(String json, Class<T> clazz) throws IOException {
+        return objectMapper.readValue(json, clazz);
+    }
+
+    public static BarInfo readBar(String json) throws IOException {
+        return BAR_READER.readValue(json);
+    }
+
+    public static List<BarInfo> readBarList(String json) throws IOException {
+        return BAR_LIST_READER.readValue(json);
+    }
+
+    public static List<OrderInfo> readOrderList(String json) throws IOException {
+        return ORDER_LIST_READER.readValue(json);
+    }
+
+    public static WapCache readWapCache(String json) throws IOException {
+        return WAP_CACHE_READER.readValue(json);
+    }
+
+    /**
+     * 只解析json数组中最后n根bar，顺序和数组中相同，不足n根时返回全部
+     * 第一遍扫描记录每个对象的起止位置（环形），第二遍只反序列化尾部的对象
+     */
+    public static List<BarInfo> readTailBars(String json, int n) throws IOException {
+        if (json == null || n <= 0) {
+            return Collections.emptyList();
+        }
+        char[] chars = json.toCharArray();
+        int[] starts = new int[n];
+        int[] ends = new int[n];
+        int count = 0;
+        try (JsonParser parser = jsonFactory.createParser(chars)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("bar list is not a json array");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new IOException("unexpected end of bar list");
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                int slot = count % n;
+                starts[slot] = (int) parser.getTokenLocation().getCharOffset();
+                parser.skipChildren();
+                ends[slot] = (int) parser.getTokenLocation().getCharOffset() + 1;
+                count++;
+            }
+        }
+
+        int size = Math.min(count, n);
+        List<BarInfo> bars = new ArrayList<>(size);
+        for (int i = count - size; i < count; i++) {
+            int slot = i % n;
+            try (JsonParser parser = jsonFactory.createParser(chars, starts[slot], ends[slot] - starts[slot])) {
+                bars.add(BAR_READER.readValue(parser));
+            }
+        }
+        return bars;
+    }
+}
@@ -5,64 +5,58 @@ import capital.daphne.models.ActionInfo;
 import capital.daphne.models.OrderInfo;
 import capital.daphne.models.Signal;
 import capital.daphne.models.TradingHours;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import capital.daphne.models.TradingSchedule;
+import capital.daphne.services.StateCache;
+import capital.daphne.services.TradingCalendar;
 import com.ib.client.TickType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.columns.numbers.DoubleColumnType;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Utils {
     private static final Logger logger = LoggerFactory.getLogger(Utils.class);
 
+    private static final DateTimeFormatter BAR_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ssXXX");
+
+    private static final DateTimeFormatter TRADING_HOURS_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd:HHmm");
+
+    private static final ZoneId EASTERN_TIME_ZONE = ZoneId.of("America/New_York");
+
+    // 当前线程的时钟，没有设置时用系统时钟；回测时设置为bar的时间
+    private static final ThreadLocal<Clock> CLOCK = new ThreadLocal<>();
+
+    // DateTimeFormatter是线程安全的，按pattern缓存
+    private static final Map<String, DateTimeFormatter> FORMATTER_CACHE = new ConcurrentHashMap<>();
+
     public static LocalDateTime getMarketOpenTime(String symbol, String secType) {
         LocalDateTime marketOpenTime = null;
-        LocalDate today = LocalDate.now();
+        LocalDate today = LocalDate.now(clock());
         LocalTime stkCfdTime = LocalTime.of(9, 30, 0);
         marketOpenTime = LocalDateTime.of(today, stkCfdTime);
         return marketOpenTime;
     }
 
     public static boolean isTradingNow(String symbol, String secType, LocalDateTime currentTime, int startTradingAfterOpenMarketSeconds) {
-        boolean open = false;
-        String redisKey = String.format("%s:%s:TRADING_PERIODS", symbol, secType);
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            String tradingHoursStr = jedis.get(redisKey);
-            logger.debug("tradingHoursStr:" + tradingHoursStr);
-            if (tradingHoursStr != null) {
-                TradingHours[] tradingHours = parseTradingHours(tradingHoursStr, secType);
-                for (TradingHours tradingHour : tradingHours) {
-                    if (tradingHour.isClosed()) {
-                        continue;
-                    }
-
-                    logger.debug("tradingHour is Closed:" + (currentTime.isAfter(tradingHour.getStartTime()) || currentTime.isEqual(tradingHour.getStartTime())));
-                    LocalDateTime startTradingTime = tradingHour.getStartTime().plusSeconds(startTradingAfterOpenMarketSeconds);
-                    if ((currentTime.isAfter(startTradingTime) || currentTime.isEqual(startTradingTime)) &&
-                            currentTime.isBefore(tradingHour.getEndTime())) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return open;
+        TradingSchedule schedule = TradingCalendar.get(symbol, secType);
+        return schedule != null && schedule.isTradingNow(currentTime, startTradingAfterOpenMarketSeconds);
     }
 
-    private static TradingHours[] parseTradingHours(String tradingHoursStr, String secType) {
+    /**
+     * 解析TRADING_PERIODS，解析失败的时段为null
+     * 只在TRADING_PERIODS发生变化时由TradingCalendar调用
+     */
+    public static TradingHours[] parseTradingHours(String tradingHoursStr, String secType) {
         String[] segments = tradingHoursStr.split(";");
         TradingHours[] tradingHours = new TradingHours[segments.length];
         for (int i = 0; i < segments.length; i++) {
@@ -71,12 +65,9 @@ public class Utils {
                 tradingHours[i] = new TradingHours(null, null, true);
             } else {
                 try {
-                    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd:HHmm");
-                    ZoneId easternTimeZone = ZoneId.of("America/New_York");
-
                     // 解析日期时间字符串为 LocalDateTime
-                    LocalDateTime startTime = LocalDateTime.parse(startAndEnd[0], formatter).atZone(easternTimeZone).toLocalDateTime();
-                    LocalDateTime endTime = LocalDateTime.parse(startAndEnd[1], formatter).atZone(easternTimeZone).toLocalDateTime();
+                    LocalDateTime startTime = LocalDateTime.parse(startAndEnd[0], TRADING_HOURS_FORMATTER).atZone(EASTERN_TIME_ZONE).toLocalDateTime();
+                    LocalDateTime endTime = LocalDateTime.parse(startAndEnd[1], TRADING_HOURS_FORMATTER).atZone(EASTERN_TIME_ZONE).toLocalDateTime();
 
                     if (secType.equals("STK") || secType.equals("CFD")) {
                         LocalDateTime openMarketTime = startTime.withHour(9).withMinute(30);
@@ -99,53 +90,13 @@ public class Utils {
     }
 
     public static boolean isCloseToClosing(String symbol, String secType, LocalDateTime currentTime, int seconds) {
-        boolean ret = false;
-        String redisKey = String.format("%s:%s:TRADING_PERIODS", symbol, secType);
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            String tradingHoursStr = jedis.get(redisKey);
-            if (tradingHoursStr != null) {
-                TradingHours[] tradingHours = parseTradingHours(tradingHoursStr, secType);
-                for (TradingHours tradingHour : tradingHours) {
-                    if (tradingHour.isClosed()) {
-                        continue;
-                    }
-
-                    if (currentTime.isBefore(tradingHour.getEndTime()) && currentTime.plusSeconds(seconds).isAfter(tradingHour.getEndTime())) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return ret;
+        TradingSchedule schedule = TradingCalendar.get(symbol, secType);
+        return schedule != null && schedule.isCloseToClosing(currentTime, seconds);
     }
 
     public static boolean isMarketClose(String symbol, String secType, LocalDateTime currentTime) {
-        boolean ret = false;
-        String redisKey = String.format("%s:%s:TRADING_PERIODS", symbol, secType);
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            String tradingHoursStr = jedis.get(redisKey);
-            if (tradingHoursStr != null) {
-                TradingHours[] tradingHours = parseTradingHours(tradingHoursStr, secType);
-                for (TradingHours tradingHour : tradingHours) {
-                    if (tradingHour.isClosed()) {
-                        return true;
-                    }
-
-                    if (currentTime.isAfter(tradingHour.getEndTime()) && currentTime.isBefore(tradingHour.getStartTime())) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return ret;
+        TradingSchedule schedule = TradingCalendar.get(symbol, secType);
+        return schedule != null && schedule.isMarketClose();
     }
 
     public static String genKey(String symbol, String secType) {
@@ -157,52 +108,8 @@ public class Utils {
     }
 
     public static DoubleColumn ewm(DoubleColumn inputCol, double alpha, String outputColumnName, boolean prefillSma, boolean adjust, int period, int minPeriods) {
-        DoubleColumn result = DoubleColumn.create(outputColumnName, inputCol.size());
-        int startIndex = 1;
-        if (prefillSma) {
-            DoubleColumn sma = inputCol.rolling(period).mean();
-            Double initialSma = sma.getDouble(period - 1);
-            if (initialSma == null || initialSma.isNaN()) {
-                initialSma = 0.0d;
-            }
-            result.set(period - 1, initialSma);
-            startIndex = period;
-        } else {
-            result.set(0, inputCol.getDouble(0));
-        }
-        if (!adjust) {
-            for (int i = startIndex; i < inputCol.size(); i++) {
-                Double prevValue = result.getDouble(i - 1);
-                if (prevValue == null || prevValue.isNaN()) {
-                    prevValue = 0.0d;
-                }
-                double ema = inputCol.getDouble(i) * alpha + prevValue * (1 - alpha);
-                result.set(i, ema);
-            }
-        } else {
-            double alphaWeightedSum = 0;
-            double alphaWeightedInputSum = 0;
-
-            for (int i = 0; i < inputCol.size(); i++) {
-                double alphaWeightRet = Math.pow(1 - alpha, i);
-                alphaWeightedSum += alphaWeightRet;
-
-                alphaWeightedInputSum = (alphaWeightedInputSum * (1 - alpha) + inputCol.getDouble(i));
-
-                if (alphaWeightedSum != 0) {
-                    result.set(i, alphaWeightedInputSum / alphaWeightedSum);
-                } else {
-                    result.set(i, 0);
-                }
-            }
-        }
-
-        if (!prefillSma || adjust) {
-            for (int i = 0; i <= minPeriods; i++) {
-                result.set(i, DoubleColumnType.missingValueIndicator());
-            }
-        }
-        return result;
+        double[] result = EwmKernel.ewm(inputCol.asDoubleArray(), alpha, prefillSma, adjust, period, minPeriods);
+        return DoubleColumn.create(outputColumnName, result);
     }
 
     public static double roundNum(double num, int decimals) {
@@ -213,90 +120,73 @@ public class Utils {
     }
 
     public static void clearLastActionInfo(String redisKey) {
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.del(redisKey);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        StateCache.clearLastActionInfo(redisKey);
     }
 
     public static ActionInfo getLastActionInfo(String redisKey) {
-        ActionInfo actionInfo = new ActionInfo();
-        actionInfo.setAction(Signal.TradeActionType.NO_ACTION);
-        actionInfo.setDateTime(null);
-
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            String storedValue = jedis.get(redisKey);
-            if (storedValue == null) {
-                return actionInfo;
-            }
-
-            String[] split = storedValue.split("\\|");
-            String action = split[0];
-            String datetime = split[1];
-            switch (action) {
-                case "NO_ACTION":
-                    break;
-                case "BUY":
-                    actionInfo.setAction(Signal.TradeActionType.BUY);
-                    actionInfo.setDateTime(Utils.genUsDateTime(datetime, "yyyy-MM-dd HH:mm:ssXXX"));
-                    break;
-                case "SELL":
-                    actionInfo.setAction(Signal.TradeActionType.SELL);
-                    actionInfo.setDateTime(Utils.genUsDateTime(datetime, "yyyy-MM-dd HH:mm:ssXXX"));
-                    break;
-            }
-            return actionInfo;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            return actionInfo;
-        }
+        return StateCache.getLastActionInfo(redisKey);
     }
 
     public static boolean isInProgress(String redisKey) {
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            String value = jedis.get(redisKey);
-            if (value == null) {
-                return false;
-            }
-            return value.equals("true");
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        }
+        return StateCache.isInProgress(redisKey);
     }
 
-    public static void setInProgress(String redisKey) {
-        JedisPool jedisPool = JedisManager.getJedisPool();
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.set(redisKey, "true");
-            long timestamp = System.currentTimeMillis() / 1000 + 60;
-            jedis.expireAt(redisKey, timestamp);
+    public static LocalDateTime genUsDateTime(String dateTimeStr, String pattern) {
+        DateTimeFormatter formatter = FORMATTER_CACHE.computeIfAbsent(pattern, DateTimeFormatter::ofPattern);
+        try {
+            // 解析日期时间字符串并获取Date对象
+            return LocalDateTime.parse(dateTimeStr, formatter).atZone(EASTERN_TIME_ZONE).toLocalDateTime();
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
     }
 
-    public static LocalDateTime genUsDateTime(String dateTimeStr, String pattern) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
-        ZoneId easternTimeZone = ZoneId.of("America/New_York");
+    /**
+     * 把bar的date_us（e.g. 2023-09-28 09:30:00-04:00）转换成epoch纳秒，解析失败返回0
+     */
+    public static long parseEpochNanos(String dateTimeStr) {
         try {
-            // 解析日期时间字符串并获取Date对象
-            return LocalDateTime.parse(dateTimeStr, formatter).atZone(easternTimeZone).toLocalDateTime();
+            Instant instant = OffsetDateTime.parse(dateTimeStr, BAR_DATE_FORMATTER).toInstant();
+            return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
         } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            logger.warn("parse bar date failed, date=" + dateTimeStr);
+            return 0L;
         }
     }
 
+    /**
+     * parseEpochNanos的反向转换，epoch秒转换成美东时间的date_us（e.g. 2023-09-28 09:30:00-04:00）
+     */
+    public static String formatBarDate(long epochSeconds) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds), EASTERN_TIME_ZONE).format(BAR_DATE_FORMATTER);
+    }
+
     public static LocalDateTime genUsDateTimeNow() {
-        ZonedDateTime easternTime = ZonedDateTime.now(ZoneId.of("America/New_York"));
-        return easternTime.toLocalDateTime();
+        return LocalDateTime.ofInstant(clock().instant(), EASTERN_TIME_ZONE);
+    }
+
+    /**
+     * 本地时区的当前时间，和trader写入ORDER_LIST的dateTime比较
+     */
+    public static LocalDateTime localDateTimeNow() {
+        return LocalDateTime.now(clock());
+    }
+
+    /**
+     * 设置当前线程的时钟，null恢复为系统时钟
+     */
+    public static void setClock(Clock clock) {
+        if (clock == null) {
+            CLOCK.remove();
+        } else {
+            CLOCK.set(clock);
+        }
+    }
+
+    private static Clock clock() {
+        Clock clock = CLOCK.get();
+        return clock == null ? Clock.systemDefaultZone() : clock;
     }
 
     public static double[] calculateSignalMargin(String secType, float signalMargin, float signalMarginOffset, double volatilityMultiplier, int position) {
@@ -323,26 +213,8 @@ public class Utils {
         return signal;
     }
 
-    public static List<OrderInfo> getOrderList(Jedis jedis, String accountId, String symbol, String secType) {
-        try {
-            String redisKey = accountId + ":" + symbol + ":" + secType + ":ORDER_LIST";
-            String storedOrderListJson = jedis.get(redisKey);
-            logger.debug("redis|" + redisKey + "|" + storedOrderListJson);
-            if (storedOrderListJson == null) {
-                return null;
-            }
-
-            ObjectMapper objectMapper = new ObjectMapper();
-            List<OrderInfo> orderList = objectMapper.readValue(storedOrderListJson, new TypeReference<>() {
-            });
-            if (orderList == null && orderList.size() == 0) {
-                return null;
-            }
-            return orderList;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+    public static List<OrderInfo> getOrderList(String accountId, String symbol, String secType) {
+        return StateCache.getOrderList(accountId, symbol, secType);
     }
 
     public static double calToVolatilityMultiplier(double volatilityA, int volatilityB, int volatilityC, double volatility) {
@@ -0,0 +1,135 @@
+package archive;
+
+import capital.daphne.archive.BarArchive;
+import capital.daphne.models.BarTape;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class BarArchiveTest {
+    private Path root;
+
+    @BeforeMethod
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("bar-archive");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteRoot() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            // 先删除文件再删除目录
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        Assert.assertFalse(Files.exists(root));
+    }
+
+    private static void assertSameBars(BarTape actual, int from, BarTape expected, int expectedFrom, int count) {
+        for (int j = 0; j < count; j++) {
+            int i = expectedFrom + j;
+            Assert.assertEquals(actual.epochSeconds(from + j), expected.epochSeconds(i));
+            Assert.assertEquals(actual.vwap(from + j), expected.vwap(i));
+            Assert.assertEquals(actual.open(from + j), expected.open(i));
+            Assert.assertEquals(actual.high(from + j), expected.high(i));
+            Assert.assertEquals(actual.low(from + j), expected.low(i));
+            Assert.assertEquals(actual.close(from + j), expected.close(i));
+        }
+    }
+
+    @Test
+    public void testImportAndMap() throws Exception {
+        BarTape csv = BarTape.readCsv("src/test/java/sma/spy_2023-09-27--2023-09-29.csv", "SPY", "STK");
+        BarArchive archive = new BarArchive(root.toString());
+        int days = archive.write(csv);
+
+        List<LocalDate> archived = archive.days("SPY", "STK");
+        Assert.assertEquals(archived.size(), days);
+        Assert.assertTrue(days > 1);
+        Assert.assertTrue(archive.days("QQQ", "STK").isEmpty());
+        Assert.assertNull(archive.loadDay("SPY", "STK", LocalDate.of(2000, 1, 1)));
+
+        // 逐天映射，拼起来和csv完全相同
+        int i = 0;
+        for (LocalDate day : archived) {
+            BarTape tape = archive.loadDay("SPY", "STK", day);
+            Assert.assertTrue(tape.size() > 0);
+            assertSameBars(tape, 0, csv, i, tape.size());
+            i += tape.size();
+        }
+        Assert.assertEquals(i, csv.size());
+
+        // 多天是每天一段映射的视图，不复制到堆内
+        BarTape all = archive.load("SPY", "STK", LocalDate.MIN, LocalDate.MAX);
+        Assert.assertEquals(all.segments(), days);
+        Assert.assertEquals(all.size(), csv.size());
+        assertSameBars(all, 0, csv, 0, csv.size());
+
+        // 重新导入同一天会覆盖原来的文件
+        Assert.assertEquals(archive.write(csv), days);
+        Assert.assertEquals(archive.load("SPY", "STK", LocalDate.MIN, LocalDate.MAX).size(), csv.size());
+    }
+
+    @Test
+    public void testConcatSkipsEmptySegments() throws Exception {
+        BarTape csv = BarTape.readCsv("src/test/java/sma/spy_2023-09-27--2023-09-29.csv", "SPY", "STK");
+        BarArchive archive = new BarArchive(root.toString());
+        archive.write(csv);
+        List<LocalDate> archived = archive.days("SPY", "STK");
+        BarTape first = archive.loadDay("SPY", "STK", archived.get(0));
+        BarTape second = archive.loadDay("SPY", "STK", archived.get(1));
+        BarTape empty = BarTape.concat("SPY", "STK", List.of());
+        Assert.assertEquals(empty.size(), 0);
+
+        // 多段的tape再拼接时展开成各自的段，空的段被去掉
+        BarTape nested = BarTape.concat("SPY", "STK", List.of(empty, BarTape.concat("SPY", "STK", List.of(first, empty)), second));
+        Assert.assertEquals(nested.segments(), 2);
+        Assert.assertEquals(nested.size(), first.size() + second.size());
+        assertSameBars(nested, 0, csv, 0, first.size() + second.size());
+        Assert.expectThrows(IndexOutOfBoundsException.class, () -> nested.close(nested.size()));
+    }
+
+    @Test
+    public void testCorruptHeaderIsIOException() throws Exception {
+        BarTape csv = BarTape.readCsv("src/test/java/sma/spy_2023-09-27--2023-09-29.csv", "SPY", "STK");
+        BarArchive archive = new BarArchive(root.toString());
+        archive.write(csv);
+        LocalDate day = archive.days("SPY", "STK").get(0);
+        Path path = root.resolve("SPY_STK").resolve(day + ".bars");
+
+        // close列的offset超出文件
+        writeLong(path, 32 + 5 * 8, Files.size(path));
+        Assert.expectThrows(IOException.class, () -> archive.loadDay("SPY", "STK", day));
+
+        // offset落在头里面
+        writeLong(path, 32 + 5 * 8, 0);
+        Assert.expectThrows(IOException.class, () -> archive.loadDay("SPY", "STK", day));
+
+        // count比文件中的数据多
+        archive.write(csv);
+        ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, Integer.MAX_VALUE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(count, 8);
+        }
+        Assert.expectThrows(IOException.class, () -> archive.loadDay("SPY", "STK", day));
+        Assert.expectThrows(IOException.class, () -> archive.load("SPY", "STK", LocalDate.MIN, LocalDate.MAX));
+    }
+
+    private static void writeLong(Path path, long position, long value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, value);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(buffer, position);
+        }
+    }
+}
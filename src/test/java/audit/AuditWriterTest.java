@@ -0,0 +1,247 @@
+package audit;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.AuditWriter;
+import capital.daphne.DbManager;
+import capital.daphne.models.AuditRecord;
+import capital.daphne.utils.JsonCodec;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 审计写入：个别写不进去的行不会让整批数据落盘，也不会挡住后面的重放
+ * 用代理实现的假数据库：NaN和超过16个字符的字符串会被拒绝，和MySQL的数据错误一样SQLState为22开头
+ */
+public class AuditWriterTest {
+    private static final int MAX_VARCHAR = 16;
+
+    private AppConfigManager.AppConfig.Audit originalAudit;
+    private Path dir;
+    private Path spillPath;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("audit-writer");
+        spillPath = dir.resolve("audit-spill.jsonl");
+        AppConfigManager.AppConfig appConfig = AppConfigManager.getInstance().getAppConfig();
+        originalAudit = appConfig.getAudit();
+        AppConfigManager.AppConfig.Audit audit = new AppConfigManager.AppConfig.Audit();
+        audit.setBatchSize(100);
+        audit.setFlushIntervalMillis(50);
+        audit.setSpillFile(spillPath.toString());
+        appConfig.setAudit(audit);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        AuditWriter.shutdown();
+        AppConfigManager.getInstance().getAppConfig().setAudit(originalAudit);
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void testBadRowInBatch() throws Exception {
+        FakeDatabase db = new FakeDatabase();
+        DbManager.setDataSource(db.dataSource());
+        long written = AuditWriter.getWrittenCount();
+        long spilled = AuditWriter.getSpilledCount();
+        long rejected = AuditWriter.getRejectedCount();
+
+        AuditWriter.initialize();
+        for (int i = 0; i < 5; i++) {
+            AuditWriter.write(AuditWriter.Table.BENCHMARK_LOG, "ACC", "SPY", "STK", "benchmark", i == 2 ? Double.NaN : (double) i);
+        }
+        AuditWriter.shutdown();
+
+        // 好的行照常写入，坏的行隔离，整批都不落盘
+        Assert.assertEquals(db.committed.size(), 4);
+        Assert.assertEquals(AuditWriter.getWrittenCount() - written, 4);
+        Assert.assertEquals(AuditWriter.getRejectedCount() - rejected, 1);
+        Assert.assertEquals(AuditWriter.getSpilledCount() - spilled, 0);
+        Assert.assertFalse(Files.exists(spillPath));
+        Assert.assertEquals(lines(rejectedPath()).size(), 1);
+    }
+
+    @Test
+    public void testBadRowDoesNotBlockReplay() throws Exception {
+        // 第一批里有一行写不进去，后面的批次也要重放
+        int total = 250;
+        List<String> seeded = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            String benchmark = i == 7 ? "benchmark-value-too-long" : "benchmark";
+            seeded.add(JsonCodec.write(new AuditRecord(AuditWriter.Table.BENCHMARK_LOG.name(), new Object[]{"ACC", "SPY", "STK", benchmark, (double) i})));
+        }
+        Files.write(spillPath, seeded, StandardCharsets.UTF_8);
+
+        FakeDatabase db = new FakeDatabase();
+        DbManager.setDataSource(db.dataSource());
+        long rejected = AuditWriter.getRejectedCount();
+
+        AuditWriter.initialize();
+        AuditWriter.shutdown();
+
+        Assert.assertEquals(db.committed.size(), total - 1);
+        Assert.assertEquals(AuditWriter.getRejectedCount() - rejected, 1);
+        Assert.assertFalse(Files.exists(spillPath));
+        Assert.assertFalse(Files.exists(dir.resolve("audit-spill.jsonl.replay")));
+        List<String> rejectedLines = lines(rejectedPath());
+        Assert.assertEquals(rejectedLines.size(), 1);
+        Assert.assertTrue(rejectedLines.get(0).contains("benchmark-value-too-long"));
+    }
+
+    @Test
+    public void testConnectionFailureSpills() throws Exception {
+        DbManager.setDataSource(failingDataSource());
+        long spilled = AuditWriter.getSpilledCount();
+        long rejected = AuditWriter.getRejectedCount();
+
+        AuditWriter.initialize();
+        for (int i = 0; i < 3; i++) {
+            AuditWriter.write(AuditWriter.Table.BENCHMARK_LOG, "ACC", "SPY", "STK", "benchmark", (double) i);
+        }
+        AuditWriter.shutdown();
+
+        // 连接失败时数据落盘等待重放，不当作坏数据隔离
+        Assert.assertEquals(AuditWriter.getSpilledCount() - spilled, 3);
+        Assert.assertEquals(AuditWriter.getRejectedCount() - rejected, 0);
+        Assert.assertEquals(lines(spillPath).size(), 3);
+        Assert.assertFalse(Files.exists(rejectedPath()));
+    }
+
+    private Path rejectedPath() {
+        return dir.resolve("audit-spill.jsonl.rejected");
+    }
+
+    private static List<String> lines(Path path) throws Exception {
+        return Files.readAllLines(path, StandardCharsets.UTF_8).stream().filter(l -> !l.isEmpty()).collect(Collectors.toList());
+    }
+
+    private static DataSource failingDataSource() {
+        return (DataSource) Proxy.newProxyInstance(AuditWriterTest.class.getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                throw new SQLNonTransientConnectionException("Communications link failure", "08S01");
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * 只支持AuditWriter用到的方法：事务中的行在commit时生效，rollback时丢弃
+     */
+    private static class FakeDatabase {
+        private final List<Object[]> committed = Collections.synchronizedList(new ArrayList<>());
+
+        DataSource dataSource() {
+            return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+                if (method.getName().equals("getConnection")) {
+                    return connection();
+                }
+                return defaultValue(method.getReturnType());
+            });
+        }
+
+        private Connection connection() {
+            boolean[] autoCommit = {true};
+            List<Object[]> pending = new ArrayList<>();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setAutoCommit":
+                        autoCommit[0] = (Boolean) args[0];
+                        return null;
+                    case "getAutoCommit":
+                        return autoCommit[0];
+                    case "commit":
+                        committed.addAll(pending);
+                        pending.clear();
+                        return null;
+                    case "rollback":
+                        pending.clear();
+                        return null;
+                    case "prepareStatement":
+                        return statement(row -> {
+                            if (autoCommit[0]) {
+                                committed.add(row);
+                            } else {
+                                pending.add(row);
+                            }
+                        });
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            });
+        }
+
+        private PreparedStatement statement(java.util.function.Consumer<Object[]> sink) {
+            Map<Integer, Object> params = new TreeMap<>();
+            List<Object[]> batch = new ArrayList<>();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setObject":
+                        params.put((Integer) args[0], args[1]);
+                        return null;
+                    case "addBatch":
+                        batch.add(params.values().toArray());
+                        params.clear();
+                        return null;
+                    case "executeBatch":
+                        for (Object[] row : batch) {
+                            check(row);
+                        }
+                        batch.forEach(sink);
+                        int[] counts = new int[batch.size()];
+                        Arrays.fill(counts, 1);
+                        batch.clear();
+                        return counts;
+                    case "executeUpdate":
+                        Object[] row = params.values().toArray();
+                        params.clear();
+                        check(row);
+                        sink.accept(row);
+                        return 1;
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            });
+        }
+
+        private static void check(Object[] row) throws SQLException {
+            for (Object value : row) {
+                if (value instanceof Double && ((Double) value).isNaN()) {
+                    throw new SQLDataException("Incorrect decimal value: 'NaN'", "22007");
+                }
+                if (value instanceof String && ((String) value).length() > MAX_VARCHAR) {
+                    throw new SQLDataException("Data too long for column", "22001");
+                }
+            }
+        }
+    }
+}
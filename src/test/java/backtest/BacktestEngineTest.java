@@ -0,0 +1,88 @@
+package backtest;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.backtest.BacktestEngine;
+import capital.daphne.backtest.BacktestResult;
+import capital.daphne.models.BarInfo;
+import capital.daphne.models.BarTape;
+import capital.daphne.services.RedisContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 不需要redis和mysql，用csv中的bar跑完整的processor链
+ */
+public class BacktestEngineTest {
+
+    private static BarTape loadTape() {
+        List<Bar> bars = TestUtils.loadCsv("src/test/java/sma/spy_2023-09-27--2023-09-29.csv");
+        List<BarInfo> barList = new ArrayList<>(bars.size());
+        for (Bar bar : bars) {
+            BarInfo barInfo = new BarInfo();
+            barInfo.setDate(bar.getDate());
+            // 和datasource一样，volume <= 0时用TWAP
+            barInfo.setVwap(bar.getVolume() <= 0 ? (bar.getOpen() + bar.getHigh() + bar.getLow() + bar.getClose()) / 4 : bar.getVwap());
+            barInfo.setOpen(bar.getOpen());
+            barInfo.setHigh(bar.getHigh());
+            barInfo.setLow(bar.getLow());
+            barInfo.setClose(bar.getClose());
+            barList.add(barInfo);
+        }
+        return BarTape.of("SPY", "STK", barList);
+    }
+
+    private static AppConfigManager.AppConfig.AlgorithmConfig loadAlgorithm() throws Exception {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = TestUtils.copyAlgorithm("BACKTEST", "SPY", "STK");
+        ac.setOrderSize(100);
+        ac.setMaxPortfolioPositions(500);
+        return ac;
+    }
+
+    @Test
+    public void testDeterministicReplay() throws Exception {
+        BarTape tape = loadTape();
+        AppConfigManager.AppConfig.Backtest config = AppConfigManager.getInstance().getAppConfig().getBacktest();
+        AppConfigManager.AppConfig.AlgorithmConfig ac = loadAlgorithm();
+        BacktestEngine engine = new BacktestEngine(Collections.singletonList(ac), config);
+
+        List<BacktestResult> first = engine.run(tape);
+        List<BacktestResult> second = engine.run(tape);
+        Assert.assertEquals(first.size(), 1);
+        // 每次运行都重新创建processor和store，结果相同
+        Assert.assertEquals(second, first);
+
+        BacktestResult result = first.get(0);
+        Assert.assertEquals(result.getAccountId(), "BACKTEST");
+        Assert.assertEquals(result.getBars(), tape.size());
+        // config.json中的EMA + TrailingStop，收盘前30分钟由Portfolio平仓
+        Assert.assertEquals(ac.getName(), "EMA");
+        Assert.assertEquals(ac.getCloseAlgo().getMethod(), "TrailingStop");
+        Assert.assertEquals(result.getTrades(), 678);
+        Assert.assertEquals(result.getBoughtShares(), 33900);
+        Assert.assertEquals(result.getSoldShares(), 33900);
+        // 持仓和成交一致，每天收盘前都已经平仓
+        Assert.assertEquals(result.getPosition(), result.getBoughtShares() - result.getSoldShares());
+        Assert.assertEquals(result.getPosition(), 0);
+        Assert.assertEquals(result.getCommission(), (result.getBoughtShares() + result.getSoldShares()) * config.getCommissionPerShare(), 1e-9);
+        Assert.assertEquals(result.getPnl(), -603.90, 1e-6);
+        Assert.assertEquals(result.getMaxDrawdown(), 760.00, 1e-6);
+        Assert.assertEquals(result.getTurnover(), 29049812.90, 1e-4);
+
+        // 回测结束后当前线程恢复原来的状态
+        Assert.assertNull(RedisContext.current());
+    }
+
+    @Test
+    public void testOtherSymbolsIgnored() throws Exception {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = loadAlgorithm();
+        ac.setSymbol("QQQ");
+        List<BacktestResult> results = new BacktestEngine(Collections.singletonList(ac), null).run(loadTape());
+        Assert.assertTrue(results.isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+package backtest;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.backtest.BacktestEngine;
+import capital.daphne.backtest.BacktestResult;
+import capital.daphne.backtest.SweepResult;
+import capital.daphne.backtest.SweepRunner;
+import capital.daphne.backtest.SweepSpec;
+import capital.daphne.models.BarTape;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testutils.TestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SweepRunnerTest {
+
+    private static AppConfigManager.AppConfig.AlgorithmConfig loadAlgorithm() throws Exception {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = TestUtils.copyAlgorithm("BACKTEST", "SPY", "STK");
+        ac.setOrderSize(100);
+        ac.setMaxPortfolioPositions(500);
+        return ac;
+    }
+
+    @Test
+    public void testCandidates() {
+        SweepSpec spec = new SweepSpec();
+        Map<String, List<Double>> grid = new LinkedHashMap<>();
+        grid.put("signalMargin", Arrays.asList(0.0002, 0.0004));
+        grid.put("numStatsBars", Arrays.asList(50.0, 100.0, 200.0));
+        spec.setGrid(grid);
+        Assert.assertEquals(SweepRunner.candidates(spec).size(), 6);
+
+        // 随机搜索：次数由samples决定，同一个seed结果相同
+        spec.setRanges(Collections.singletonMap("volatilityA", Arrays.asList(0.5, 1.5)));
+        spec.setSamples(10);
+        spec.setSeed(7);
+        List<Map<String, Double>> candidates = SweepRunner.candidates(spec);
+        Assert.assertEquals(candidates.size(), 10);
+        Assert.assertEquals(SweepRunner.candidates(spec), candidates);
+        for (Map<String, Double> params : candidates) {
+            Assert.assertEquals(params.size(), 3);
+            double volatilityA = params.get("volatilityA");
+            Assert.assertTrue(volatilityA >= 0.5 && volatilityA <= 1.5);
+        }
+    }
+
+    @Test
+    public void testApply() throws Exception {
+        AppConfigManager.AppConfig.AlgorithmConfig base = loadAlgorithm();
+        Map<String, Double> params = new LinkedHashMap<>();
+        params.put("numStatsBars", 120.4);
+        params.put("signalMargin", 0.0005);
+        AppConfigManager.AppConfig.AlgorithmConfig ac = SweepRunner.apply(base, params);
+        Assert.assertEquals(ac.getNumStatsBars(), 120);
+        Assert.assertEquals(ac.getSignalMargin(), 0.0005f);
+        // base不变
+        Assert.assertEquals(base.getAccountId(), ac.getAccountId());
+        Assert.assertNotEquals(base.getNumStatsBars(), 120);
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> SweepRunner.apply(base, Collections.singletonMap("notAField", 1.0)));
+    }
+
+    @Test
+    public void testParallelEqualsSequential() throws Exception {
+        BarTape tape = BarTape.readCsv("src/test/java/sma/spy_2023-09-27--2023-09-29.csv", "SPY", "STK");
+        AppConfigManager.AppConfig.Backtest config = AppConfigManager.getInstance().getAppConfig().getBacktest();
+        AppConfigManager.AppConfig.AlgorithmConfig base = loadAlgorithm();
+
+        SweepSpec spec = new SweepSpec();
+        Map<String, List<Double>> grid = new LinkedHashMap<>();
+        grid.put("signalMargin", Arrays.asList((double) base.getSignalMargin(), base.getSignalMargin() * 2.0));
+        grid.put("volatilityA", Arrays.asList((double) base.getVolatilityA(), base.getVolatilityA() * 0.5));
+        spec.setGrid(grid);
+
+        List<SweepResult> results = new SweepRunner(config, 4).run(tape, base, spec);
+        Assert.assertEquals(results.size(), 4);
+        for (int i = 0; i < results.size(); i++) {
+            SweepResult r = results.get(i);
+            Assert.assertEquals(r.getRank(), i + 1);
+            if (i > 0) {
+                Assert.assertTrue(results.get(i - 1).getResult().getPnl() >= r.getResult().getPnl());
+            }
+            // 并行回测之间不互相影响，和单独运行的结果相同
+            List<BacktestResult> expected = new BacktestEngine(Collections.singletonList(SweepRunner.apply(base, r.getParams())), config).run(tape);
+            Assert.assertEquals(r.getResult(), expected.get(0));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package barwindow;
+
+import capital.daphne.algorithms.AlgorithmProcessor;
+import capital.daphne.algorithms.BarWindowProcessor;
+import capital.daphne.algorithms.TableProcessorAdapter;
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.Signal;
+import capital.daphne.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BarWindow和原来的dataframe之间的转换，以及Table-based processor的适配
+ */
+public class BarWindowTest {
+
+    private static Table loadTable(String csvFile, int n) {
+        List<Bar> bars = TestUtils.loadCsv(csvFile);
+        String[] dates = new String[n];
+        double[] vwap = new double[n];
+        double[] open = new double[n];
+        double[] close = new double[n];
+        double[] high = new double[n];
+        double[] low = new double[n];
+        double[] volatility = new double[n];
+        for (int i = 0; i < n; i++) {
+            Bar bar = bars.get(i);
+            dates[i] = bar.getDate();
+            vwap[i] = bar.getVwap();
+            open[i] = bar.getOpen();
+            close[i] = bar.getClose();
+            high[i] = bar.getHigh();
+            low[i] = bar.getLow();
+            volatility[i] = 0.0012;
+        }
+        return Table.create(csvFile,
+                StringColumn.create("date_us", dates),
+                DoubleColumn.create("vwap", vwap),
+                DoubleColumn.create("open", open),
+                DoubleColumn.create("close", close),
+                DoubleColumn.create("high", high),
+                DoubleColumn.create("low", low),
+                DoubleColumn.create("volatility", volatility));
+    }
+
+    @Test
+    public void fromTableToTable() {
+        Table df = loadTable("src/test/java/sma/SPY_20231208.csv", 200);
+        BarWindow bars = BarWindow.fromTable(df, 458.01, 458.03);
+
+        Assert.assertEquals(bars.size(), 200);
+        Assert.assertEquals(bars.volatility(), 0.0012);
+        Assert.assertEquals(bars.bidPrice(), 458.01);
+        Assert.assertEquals(bars.askPrice(), 458.03);
+        Assert.assertTrue(Double.isNaN(bars.prevVwap(0)));
+
+        Table table = bars.toTable();
+        Assert.assertEquals(table.rowCount(), 200);
+        for (int i = 0; i < 200; i++) {
+            String date = df.stringColumn("date_us").get(i);
+            Assert.assertEquals(table.stringColumn("date_us").get(i), date);
+            Assert.assertEquals(table.doubleColumn("vwap").getDouble(i), df.doubleColumn("vwap").getDouble(i));
+            Assert.assertEquals(table.doubleColumn("high").getDouble(i), df.doubleColumn("high").getDouble(i));
+            Assert.assertEquals(table.doubleColumn("low").getDouble(i), df.doubleColumn("low").getDouble(i));
+            Assert.assertEquals(bars.usDateTime(i), Utils.genUsDateTime(date, "yyyy-MM-dd HH:mm:ssXXX"));
+            if (i > 0) {
+                Assert.assertEquals(table.doubleColumn("prev_vwap").getDouble(i), df.doubleColumn("vwap").getDouble(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void tailKeepsMarket() {
+        Table df = loadTable("src/test/java/sma/SPY_20231208.csv", 50);
+        BarWindow bars = BarWindow.fromTable(df, 1.0, 2.0);
+        BarWindow tail = bars.tail(10);
+
+        Assert.assertEquals(tail.size(), 10);
+        Assert.assertEquals(tail.date(0), bars.date(40));
+        Assert.assertEquals(tail.vwap(tail.lastIndex()), bars.vwap(bars.lastIndex()));
+        Assert.assertEquals(tail.bidPrice(), 1.0);
+        Assert.assertEquals(tail.askPrice(), 2.0);
+        Assert.assertNull(bars.tail(51));
+    }
+
+    @Test
+    public void adapterSharesTable() {
+        Table df = loadTable("src/test/java/sma/SPY_20231208.csv", 50);
+        BarWindow bars = BarWindow.fromTable(df, 1.0, 2.0);
+
+        List<Table> seen = new ArrayList<>();
+        AlgorithmProcessor tableProcessor = (table, position, maxPosition, bidPrice, askPrice) -> {
+            seen.add(table);
+            Assert.assertEquals(bidPrice, 1.0);
+            Assert.assertEquals(askPrice, 2.0);
+            return null;
+        };
+        BarWindowProcessor first = TableProcessorAdapter.adapt(tableProcessor);
+        BarWindowProcessor second = TableProcessorAdapter.adapt(tableProcessor);
+        first.getSignal(bars, 0, 100);
+        second.getSignal(bars, 0, 100);
+
+        Assert.assertEquals(seen.size(), 2);
+        Assert.assertSame(seen.get(0), seen.get(1));
+        Assert.assertNull(TableProcessorAdapter.adapt(null));
+
+        BarWindowProcessor direct = new BarWindowProcessor() {
+            @Override
+            public Signal getSignal(BarWindow window, int position, int maxPosition) {
+                return null;
+            }
+        };
+        Assert.assertSame(TableProcessorAdapter.adapt(direct), direct);
+    }
+}
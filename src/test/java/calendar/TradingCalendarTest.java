@@ -0,0 +1,96 @@
+package calendar;
+
+import capital.daphne.models.TradingHours;
+import capital.daphne.models.TradingSchedule;
+import capital.daphne.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.LocalDateTime;
+
+public class TradingCalendarTest {
+
+    private static final String STK_PERIODS = "20231101:0400-20231101:2000;20231102:0400-20231102:2000;20231103:0400-20231103:2000;20231104:CLOSED;20231105:CLOSED;20231106:0400-20231106:2000";
+
+    private static final String FUT_PERIODS = "20231031:1700-20231101:1600;20231101:1700-20231102:1600;20231102:1700-20231103:1600;20231104:CLOSED;20231105:1700-20231106:1600";
+
+    private static final String CASH_PERIODS = "20231031:1715-20231101:1700;20231101:1715-20231102:1700;20231102:1715-20231103:1700;20231104:CLOSED;20231105:1715-20231106:1700";
+
+    @Test
+    public void testMatchesSegmentScan() {
+        String[][] cases = {{STK_PERIODS, "STK"}, {STK_PERIODS, "CFD"}, {FUT_PERIODS, "FUT"}, {CASH_PERIODS, "CASH"}};
+        int[] offsets = {0, 60, 1800};
+        int[] closeSeconds = {60, 600, 3600};
+        for (String[] c : cases) {
+            TradingHours[] tradingHours = Utils.parseTradingHours(c[0], c[1]);
+            TradingSchedule schedule = TradingSchedule.of(c[0], c[1], tradingHours);
+            Assert.assertTrue(schedule.isMarketClose());
+
+            // 每分钟检查一次，覆盖整个时段
+            LocalDateTime time = LocalDateTime.of(2023, 10, 31, 0, 0);
+            LocalDateTime end = LocalDateTime.of(2023, 11, 7, 0, 0);
+            while (time.isBefore(end)) {
+                for (int offset : offsets) {
+                    Assert.assertEquals(schedule.isTradingNow(time, offset), scanTradingNow(tradingHours, time, offset),
+                            c[1] + " isTradingNow " + time + " offset=" + offset);
+                }
+                for (int seconds : closeSeconds) {
+                    Assert.assertEquals(schedule.isCloseToClosing(time, seconds), scanCloseToClosing(tradingHours, time, seconds),
+                            c[1] + " isCloseToClosing " + time + " seconds=" + seconds);
+                }
+                time = time.plusSeconds(30);
+            }
+        }
+    }
+
+    @Test
+    public void testStkBoundaries() {
+        TradingSchedule schedule = TradingSchedule.of(STK_PERIODS, "STK", Utils.parseTradingHours(STK_PERIODS, "STK"));
+        Assert.assertFalse(schedule.isTradingNow(LocalDateTime.of(2023, 11, 1, 9, 29), 0));
+        Assert.assertTrue(schedule.isTradingNow(LocalDateTime.of(2023, 11, 1, 9, 30), 0));
+        Assert.assertFalse(schedule.isTradingNow(LocalDateTime.of(2023, 11, 1, 9, 30), 60));
+        Assert.assertTrue(schedule.isTradingNow(LocalDateTime.of(2023, 11, 1, 15, 59), 0));
+        Assert.assertFalse(schedule.isTradingNow(LocalDateTime.of(2023, 11, 1, 16, 0), 0));
+        Assert.assertFalse(schedule.isTradingNow(LocalDateTime.of(2023, 11, 4, 10, 0), 0));
+
+        long now = TradingSchedule.toSeconds(LocalDateTime.of(2023, 11, 1, 15, 51));
+        Assert.assertEquals(schedule.secondsToClose(now), 540);
+        Assert.assertTrue(schedule.isCloseToClosing(now, 600));
+        Assert.assertFalse(schedule.isCloseToClosing(now, 500));
+        Assert.assertEquals(schedule.secondsToClose(TradingSchedule.toSeconds(LocalDateTime.of(2023, 11, 1, 17, 0))), -1);
+    }
+
+    @Test
+    public void testNoClosedDay() {
+        String periods = "20231101:0930-20231101:1600";
+        TradingSchedule schedule = TradingSchedule.of(periods, "STK", Utils.parseTradingHours(periods, "STK"));
+        Assert.assertFalse(schedule.isMarketClose());
+    }
+
+    // 以下是原来逐个时段判断的逻辑
+    private boolean scanTradingNow(TradingHours[] tradingHours, LocalDateTime currentTime, int startTradingAfterOpenMarketSeconds) {
+        for (TradingHours tradingHour : tradingHours) {
+            if (tradingHour == null || tradingHour.isClosed()) {
+                continue;
+            }
+            LocalDateTime startTradingTime = tradingHour.getStartTime().plusSeconds(startTradingAfterOpenMarketSeconds);
+            if ((currentTime.isAfter(startTradingTime) || currentTime.isEqual(startTradingTime)) &&
+                    currentTime.isBefore(tradingHour.getEndTime())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean scanCloseToClosing(TradingHours[] tradingHours, LocalDateTime currentTime, int seconds) {
+        for (TradingHours tradingHour : tradingHours) {
+            if (tradingHour == null || tradingHour.isClosed()) {
+                continue;
+            }
+            if (currentTime.isBefore(tradingHour.getEndTime()) && currentTime.plusSeconds(seconds).isAfter(tradingHour.getEndTime())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
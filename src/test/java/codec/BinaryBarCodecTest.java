@@ -0,0 +1,84 @@
+package codec;
+
+import capital.daphne.models.BarInfo;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.BarWindow;
+import capital.daphne.utils.BinaryBarCodec;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BAR_BIN、WAP_BIN编码后解码，和原来的bar对比
+ */
+public class BinaryBarCodecTest {
+
+    private static List<BarInfo> loadBars(int n) {
+        List<Bar> bars = TestUtils.loadCsv("src/test/java/sma/SPY_20231208.csv");
+        List<BarInfo> barList = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Bar bar = bars.get(i);
+            BarInfo barInfo = new BarInfo();
+            barInfo.setDate(bar.getDate());
+            barInfo.setVwap(bar.getVwap());
+            barInfo.setOpen(bar.getOpen());
+            barInfo.setHigh(bar.getHigh());
+            barInfo.setLow(bar.getLow());
+            barInfo.setClose(bar.getClose());
+            barList.add(barInfo);
+        }
+        return barList;
+    }
+
+    @Test
+    public void barsRoundTrip() {
+        List<BarInfo> bars = loadBars(300);
+        byte[] data = BinaryBarCodec.encodeBars(bars);
+        Assert.assertEquals(data.length, 300 * BinaryBarCodec.BAR_RECORD_BYTES);
+        Assert.assertEquals(BinaryBarCodec.barCount(data), 300);
+
+        // 容量不够时只保留最后几根
+        BarSeries barSeries = new BarSeries(256);
+        BinaryBarCodec.decodeInto(data, BinaryBarCodec.barCount(data) - barSeries.getCapacity(), barSeries);
+        BarWindow window = barSeries.window(256);
+        for (int i = 0; i < 256; i++) {
+            BarInfo bar = bars.get(300 - 256 + i);
+            Assert.assertEquals(window.date(i), bar.getDate());
+            Assert.assertEquals(window.vwap(i), bar.getVwap());
+            Assert.assertEquals(window.open(i), bar.getOpen());
+            Assert.assertEquals(window.high(i), bar.getHigh());
+            Assert.assertEquals(window.low(i), bar.getLow());
+            Assert.assertEquals(window.close(i), bar.getClose());
+        }
+        Assert.assertEquals(barSeries.getLastTimeNanos(), BinaryBarCodec.epochSecondsAt(data, 299) * 1_000_000_000L);
+    }
+
+    @Test
+    public void appendOneBar() {
+        List<BarInfo> bars = loadBars(11);
+        BarSeries barSeries = new BarSeries(16);
+        BinaryBarCodec.decodeInto(BinaryBarCodec.encodeBars(bars.subList(0, 10)), 0, barSeries);
+
+        // producer APPEND之后读取最后两条记录
+        byte[] tail = BinaryBarCodec.encodeBars(bars.subList(9, 11));
+        Assert.assertEquals(BinaryBarCodec.epochSecondsAt(tail, 0) * 1_000_000_000L, barSeries.getLastTimeNanos());
+        BinaryBarCodec.decodeInto(tail, 1, barSeries);
+        Assert.assertEquals(barSeries.size(), 11);
+        Assert.assertEquals(barSeries.getLastDate(), bars.get(10).getDate());
+    }
+
+    @Test
+    public void wapsRoundTrip() {
+        double[] waps = {458.02, 458.0325, 457.99, Double.NaN};
+        double[] decoded = BinaryBarCodec.decodeWaps(BinaryBarCodec.encodeWaps(waps));
+        Assert.assertEquals(decoded.length, waps.length);
+        for (int i = 0; i < waps.length; i++) {
+            Assert.assertEquals(Double.doubleToLongBits(decoded[i]), Double.doubleToLongBits(waps[i]));
+        }
+        Assert.assertEquals(BinaryBarCodec.decodeWaps(null).length, 0);
+    }
+}
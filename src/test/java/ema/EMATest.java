@@ -92,6 +92,8 @@ public class EMATest {
                 day = processDate;
                 wapList.clear();
                 barsvc.clearEma(ac.getAccountId() + ":" + ac.getSymbol() + ":" + ac.getSecType());
+                // ema保存在实例中，换天时重新创建
+                ema = new EMA(ac);
             }
 
             BarInfo barInfo = processBar(bar, ac);
@@ -0,0 +1,105 @@
+package ewm;
+
+import capital.daphne.utils.EwmKernel;
+import capital.daphne.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.columns.numbers.DoubleColumnType;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.List;
+
+public class EwmKernelTest {
+    private static final double EPSILON = 1e-9;
+
+    private static double[] loadVwap() {
+        List<Bar> bars = TestUtils.loadCsv("src/test/java/sma/SPY_20231208.csv");
+        double[] vwap = new double[bars.size()];
+        for (int i = 0; i < vwap.length; i++) {
+            vwap[i] = bars.get(i).getVwap();
+        }
+        return vwap;
+    }
+
+    @Test
+    public void testMatchesLegacyEwm() {
+        double[] vwap = loadVwap();
+        // 第一个值缺失，和initEma里lag(1)之后的输入一样
+        double[] lagged = new double[vwap.length];
+        lagged[0] = Double.NaN;
+        System.arraycopy(vwap, 0, lagged, 1, vwap.length - 1);
+
+        for (double[] input : new double[][]{vwap, lagged}) {
+            DoubleColumn inputCol = DoubleColumn.create("input", input);
+            for (boolean prefillSma : new boolean[]{true, false}) {
+                for (boolean adjust : new boolean[]{true, false}) {
+                    for (int period : new int[]{1, 12, 26, 300}) {
+                        double alpha = 2.0 / (period + 1);
+                        DoubleColumn expected = legacyEwm(inputCol, alpha, "expected", prefillSma, adjust, period, period - 1);
+                        DoubleColumn actual = Utils.ewm(inputCol, alpha, "actual", prefillSma, adjust, period, period - 1);
+                        Assert.assertEquals(actual.size(), expected.size());
+                        for (int i = 0; i < expected.size(); i++) {
+                            String message = String.format("prefillSma=%b, adjust=%b, period=%d, i=%d", prefillSma, adjust, period, i);
+                            double e = expected.getDouble(i);
+                            double a = actual.getDouble(i);
+                            Assert.assertEquals(Double.isNaN(a), Double.isNaN(e), message);
+                            if (!Double.isNaN(e)) {
+                                Assert.assertEquals(a, e, EPSILON, message);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 改写前的Utils.ewm
+     */
+    private static DoubleColumn legacyEwm(DoubleColumn inputCol, double alpha, String outputColumnName, boolean prefillSma, boolean adjust, int period, int minPeriods) {
+        DoubleColumn result = DoubleColumn.create(outputColumnName, inputCol.size());
+        int startIndex = 1;
+        if (prefillSma) {
+            DoubleColumn sma = inputCol.rolling(period).mean();
+            Double initialSma = sma.getDouble(period - 1);
+            if (initialSma == null || initialSma.isNaN()) {
+                initialSma = 0.0d;
+            }
+            result.set(period - 1, initialSma);
+            startIndex = period;
+        } else {
+            result.set(0, inputCol.getDouble(0));
+        }
+        if (!adjust) {
+            for (int i = startIndex; i < inputCol.size(); i++) {
+                Double prevValue = result.getDouble(i - 1);
+                if (prevValue == null || prevValue.isNaN()) {
+                    prevValue = 0.0d;
+                }
+                double ema = inputCol.getDouble(i) * alpha + prevValue * (1 - alpha);
+                result.set(i, ema);
+            }
+        } else {
+            double alphaWeightedSum = 0;
+            double alphaWeightedInputSum = 0;
+            for (int i = 0; i < inputCol.size(); i++) {
+                double alphaWeightRet = Math.pow(1 - alpha, i);
+                alphaWeightedSum += alphaWeightRet;
+                alphaWeightedInputSum = (alphaWeightedInputSum * (1 - alpha) + inputCol.getDouble(i));
+                if (alphaWeightedSum != 0) {
+                    result.set(i, alphaWeightedInputSum / alphaWeightedSum);
+                } else {
+                    result.set(i, 0);
+                }
+            }
+        }
+        if (!prefillSma || adjust) {
+            for (int i = 0; i <= minPeriods; i++) {
+                result.set(i, DoubleColumnType.missingValueIndicator());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,382 @@
+package indicators;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.algorithms.DMA;
+import capital.daphne.algorithms.SMA;
+import capital.daphne.algorithms.close.MACDSingal;
+import capital.daphne.indicators.BarCursor;
+import capital.daphne.indicators.Macd;
+import capital.daphne.indicators.RollingMax;
+import capital.daphne.indicators.RollingMean;
+import capital.daphne.indicators.RollingMin;
+import capital.daphne.models.BarWindow;
+import capital.daphne.services.RedisContext;
+import capital.daphne.services.ta.TARegistry;
+import capital.daphne.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 流式指标和原来在每个dataframe上用Tablesaw重新计算的结果对比
+ * 除了单独的指标，DMA、SMA、MACDSingal也按实盘的滑动窗口逐根bar调用，对比processor中的指标值
+ */
+public class IndicatorGoldenTest {
+    private static final double EPSILON = 1e-8;
+
+    private static final String[] CSV_FILES = {
+            "src/test/java/sma/SPY_20231208.csv",
+            "src/test/java/sma/AMZN_20231208.csv",
+            "src/test/java/sma/MSFT_20231208.csv",
+    };
+
+    private static Table loadTable(String csvFile) {
+        List<Bar> bars = TestUtils.loadCsv(csvFile);
+        String[] dates = new String[bars.size()];
+        double[] vwap = new double[bars.size()];
+        double[] high = new double[bars.size()];
+        double[] low = new double[bars.size()];
+        for (int i = 0; i < bars.size(); i++) {
+            dates[i] = bars.get(i).getDate();
+            vwap[i] = bars.get(i).getVwap();
+            high[i] = bars.get(i).getHigh();
+            low[i] = bars.get(i).getLow();
+        }
+        return Table.create(csvFile,
+                StringColumn.create("date_us", dates),
+                DoubleColumn.create("vwap", vwap),
+                DoubleColumn.create("high", high),
+                DoubleColumn.create("low", low));
+    }
+
+    private static void assertClose(double actual, double expected, String message) {
+        if (Double.isNaN(expected)) {
+            Assert.assertTrue(Double.isNaN(actual), message + ", expected NaN but was " + actual);
+            return;
+        }
+        Assert.assertEquals(actual, expected, EPSILON, message);
+    }
+
+    @Test
+    public void testSmaMatchesRollingMean() {
+        int numStatsBars = 60;
+        int windowSize = numStatsBars + 1;
+        for (String csvFile : CSV_FILES) {
+            Table all = loadTable(csvFile);
+            RollingMean sma = new RollingMean(numStatsBars);
+            BarCursor cursor = new BarCursor();
+            for (int end = windowSize; end <= all.rowCount(); end++) {
+                Table df = all.inRange(end - windowSize, end);
+                int from = cursor.seek(df);
+                if (from < 0) {
+                    sma.reset();
+                    from = 0;
+                }
+                for (int i = from; i < df.rowCount(); i++) {
+                    sma.update(df.doubleColumn("vwap").getDouble(i));
+                }
+                cursor.commit(df);
+
+                DoubleColumn expected = df.doubleColumn("vwap").rolling(numStatsBars).mean();
+                assertClose(sma.getValue(), expected.getDouble(expected.size() - 1), csvFile + " end=" + end);
+            }
+        }
+    }
+
+    /**
+     * 实盘中processor看到的窗口序列，返回{start, end}：
+     * 先按windowSize每次滑动一根bar，中间有一次重复的窗口（没有新bar）；再换成resizedWindowSize；
+     * 最后跳过超过窗口大小的bar（找不到上一次的bar，指标需要重置），再按windowSize滑动到结尾
+     */
+    private static List<int[]> slidingWindows(int rowCount, int windowSize, int resizedWindowSize) {
+        List<int[]> windows = new ArrayList<>();
+        int end = windowSize;
+        for (; end < rowCount / 3; end++) {
+            windows.add(new int[]{end - windowSize, end});
+        }
+        windows.add(new int[]{end - 1 - windowSize, end - 1});
+        for (; end < rowCount * 2 / 3; end++) {
+            windows.add(new int[]{end - resizedWindowSize, end});
+        }
+        for (end += Math.max(windowSize, resizedWindowSize) * 2; end <= rowCount; end++) {
+            windows.add(new int[]{end - windowSize, end});
+        }
+        return windows;
+    }
+
+    private static AppConfigManager.AppConfig.AlgorithmConfig newAlgorithmConfig(String name, int numStatsBars) {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = new AppConfigManager.AppConfig.AlgorithmConfig();
+        ac.setName(name);
+        ac.setAccountId("GOLDEN");
+        ac.setSymbol("SPY");
+        ac.setSecType("STK");
+        ac.setNumStatsBars(numStatsBars);
+        ac.setOrderSize(100);
+        ac.setMaxPortfolioPositions(500);
+        ac.setMinIntervalBetweenSignal(35);
+        ac.setSignalMargin(0.0003f);
+        return ac;
+    }
+
+    /**
+     * 原来DMA.preProcess中的rolling(window).mean().lag(lag)，取最后一行
+     */
+    private static double lastOfLag(DoubleColumn mean, int lag) {
+        return mean.lag(lag).getDouble(mean.size() - 1);
+    }
+
+    @Test
+    public void testDmaMatchesTablesaw() {
+        // fastWindow, slowWindow, trendWindow, delayOpenSeconds, windowSize, resizedWindowSize
+        int[][] params = {
+                {5, 20, 0, 0, 31, 40},
+                // trend均线是trendWindow + slowWindow = 30，窗口只比它多一两根bar，
+                // trend1刚好落在rowCount - 1 - lag = window - 2，原来的结果是NaN
+                {5, 20, 10, 5, 31, 25},
+                {5, 20, 10, 10, 32, 31},
+                {12, 60, 30, 25, 91, 100},
+        };
+        for (String csvFile : CSV_FILES) {
+            Table all = loadTable(csvFile);
+            for (int[] p : params) {
+                AppConfigManager.AppConfig.AlgorithmConfig ac = newAlgorithmConfig("DMA", p[4] - 1);
+                AppConfigManager.AppConfig.DMAParams dp = new AppConfigManager.AppConfig.DMAParams();
+                dp.setOrderMode("b");
+                dp.setFastWindow(p[0]);
+                dp.setSlowWindow(p[1]);
+                dp.setTrendWindow(p[2]);
+                dp.setDelayOpenSeconds(p[3]);
+                dp.setBarSeconds(5);
+                dp.setLongFilterKey(TARegistry.NO_FILTER);
+                dp.setShortFilterKey(TARegistry.NO_FILTER);
+                ac.setDmaParams(dp);
+
+                int fastWindow = p[0];
+                int slowWindow = p[1];
+                int trendWindow = p[2] + slowWindow;
+                int delayBars = p[3] / 5;
+                DMA dma = new DMA(ac);
+                try (RedisContext ignored = RedisContext.offline(new HashMap<>(), key -> new double[0])) {
+                    for (int[] window : slidingWindows(all.rowCount(), p[4], p[5])) {
+                        Table df = all.inRange(window[0], window[1]);
+                        dma.getSignal(df, 0, ac.getMaxPortfolioPositions(), Double.NaN, Double.NaN);
+
+                        String message = csvFile + " " + Arrays.toString(p) + " window=" + Arrays.toString(window);
+                        DoubleColumn fast = df.doubleColumn("vwap").rolling(fastWindow).mean();
+                        DoubleColumn slow = df.doubleColumn("vwap").rolling(slowWindow).mean();
+                        assertClose(dma.getFast1(), lastOfLag(fast, 1 + delayBars), "fast1 " + message);
+                        assertClose(dma.getFast2(), lastOfLag(fast, 2 + delayBars), "fast2 " + message);
+                        assertClose(dma.getSlow1(), lastOfLag(slow, 1 + delayBars), "slow1 " + message);
+                        assertClose(dma.getSlow2(), lastOfLag(slow, 2 + delayBars), "slow2 " + message);
+                        assertClose(dma.getFast1Cur(), lastOfLag(fast, 1), "fast1Cur " + message);
+                        assertClose(dma.getFast2Cur(), lastOfLag(fast, 2), "fast2Cur " + message);
+                        assertClose(dma.getSlow1Cur(), lastOfLag(slow, 1), "slow1Cur " + message);
+                        assertClose(dma.getSlow2Cur(), lastOfLag(slow, 2), "slow2Cur " + message);
+                        if (trendWindow > slowWindow) {
+                            DoubleColumn trend = df.doubleColumn("vwap").rolling(trendWindow).mean();
+                            assertClose(dma.getTrend1(), lastOfLag(trend, 1 + delayBars), "trend1 " + message);
+                            assertClose(dma.getTrend1Cur(), lastOfLag(trend, 1), "trend1Cur " + message);
+                        } else {
+                            Assert.assertTrue(Double.isNaN(dma.getTrend1()), "trend1 " + message);
+                            Assert.assertTrue(Double.isNaN(dma.getTrend1Cur()), "trend1Cur " + message);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSmaProcessorMatchesRollingMean() {
+        int numStatsBars = 60;
+        for (String csvFile : CSV_FILES) {
+            Table all = loadTable(csvFile);
+            SMA sma = new SMA(newAlgorithmConfig("SMA", numStatsBars));
+            try (RedisContext ignored = RedisContext.offline(new HashMap<>(), key -> new double[0])) {
+                for (int[] window : slidingWindows(all.rowCount(), numStatsBars + 1, numStatsBars + 20)) {
+                    Table df = all.inRange(window[0], window[1]);
+                    double vwap = df.doubleColumn("vwap").getDouble(df.rowCount() - 1);
+                    sma.getSignal(BarWindow.fromTable(df, vwap, vwap), 0, 500);
+
+                    DoubleColumn expected = df.doubleColumn("vwap").rolling(numStatsBars).mean();
+                    assertClose(sma.getSmaValue(), expected.getDouble(expected.size() - 1), csvFile + " window=" + Arrays.toString(window));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMacdSingalMatchesUtilsEwm() {
+        int shortPeriod = 12;
+        int longPeriod = 26;
+        int signalPeriod = 9;
+        for (String csvFile : CSV_FILES) {
+            Table all = loadTable(csvFile);
+            AppConfigManager.AppConfig.AlgorithmConfig ac = newAlgorithmConfig("EMA", 60);
+            AppConfigManager.AppConfig.CloseAlgorithmConfig cac = new AppConfigManager.AppConfig.CloseAlgorithmConfig();
+            cac.setMethod("MACDSingal");
+            cac.setMacdShortNumStatsBar(shortPeriod);
+            cac.setMacdLongNumStatsBar(longPeriod);
+            cac.setMacdSignalNumStatsBar(signalPeriod);
+            ac.setCloseAlgo(cac);
+            MACDSingal macdSingal = new MACDSingal(ac);
+            // 窗口大小变化时重新创建Macd，跳过的bar超过窗口大小时重置
+            try (RedisContext ignored = RedisContext.offline(new HashMap<>(), key -> new double[0])) {
+                for (int[] window : slidingWindows(all.rowCount(), 61, 40)) {
+                    Table df = all.inRange(window[0], window[1]);
+                    double vwap = df.doubleColumn("vwap").getDouble(df.rowCount() - 1);
+                    // 没有ORDER_LIST，不会给出信号，只更新MACD
+                    Assert.assertNull(macdSingal.getSignal(BarWindow.fromTable(df, vwap, vwap), 0, 500));
+                    DoubleColumn vwapCol = df.doubleColumn("vwap");
+                    DoubleColumn shortEma = Utils.ewm(vwapCol, 2.0 / (shortPeriod + 1), "short", true, false, shortPeriod, shortPeriod - 1);
+                    DoubleColumn longEma = Utils.ewm(vwapCol, 2.0 / (longPeriod + 1), "long", true, false, longPeriod, longPeriod - 1);
+                    DoubleColumn line = shortEma.subtract(longEma);
+                    DoubleColumn signal = Utils.ewm(line, 2.0 / (signalPeriod + 1), "signal", true, false, signalPeriod, signalPeriod - 1);
+
+                    String message = csvFile + " window=" + Arrays.toString(window);
+                    assertClose(macdSingal.getMacdLine(), line.getDouble(line.size() - 1), "line " + message);
+                    assertClose(macdSingal.getMacdSignal(), signal.getDouble(signal.size() - 1), "signal " + message);
+                }
+            }
+        }
+    }
+
+    /**
+     * 窗口（numStatsBars + 1）比长周期或信号周期短时不抛异常，MACD一直是NaN，不会给出平仓信号
+     */
+    @Test
+    public void testMacdSingalShortWindow() {
+        Table all = loadTable(CSV_FILES[0]);
+        for (int[] p : new int[][]{{12, 26, 9, 18}, {12, 26, 30, 28}}) {
+            Macd macd = new Macd(p[0], p[1], p[2], p[3]);
+            for (int i = 0; i < 100; i++) {
+                macd.update(all.doubleColumn("vwap").getDouble(i));
+                Assert.assertFalse(macd.isReady());
+                Assert.assertTrue(Double.isNaN(macd.getValue()));
+                Assert.assertTrue(Double.isNaN(macd.getSignal()));
+            }
+            Macd restored = new Macd(p[0], p[1], p[2], p[3]);
+            restored.restore(macd.snapshot());
+            Assert.assertTrue(Double.isNaN(restored.getValue()));
+        }
+
+        AppConfigManager.AppConfig.AlgorithmConfig ac = newAlgorithmConfig("EMA", 17);
+        AppConfigManager.AppConfig.CloseAlgorithmConfig cac = new AppConfigManager.AppConfig.CloseAlgorithmConfig();
+        cac.setMethod("MACDSingal");
+        cac.setMacdShortNumStatsBar(12);
+        cac.setMacdLongNumStatsBar(26);
+        cac.setMacdSignalNumStatsBar(9);
+        ac.setCloseAlgo(cac);
+        MACDSingal macdSingal = new MACDSingal(ac);
+        try (RedisContext ignored = RedisContext.offline(new HashMap<>(), key -> new double[0])) {
+            for (int end = 18; end <= 60; end++) {
+                Table df = all.inRange(end - 18, end);
+                double vwap = df.doubleColumn("vwap").getDouble(df.rowCount() - 1);
+                Assert.assertNull(macdSingal.getSignal(BarWindow.fromTable(df, vwap, vwap), 0, 500));
+                Assert.assertTrue(Double.isNaN(macdSingal.getMacdLine()));
+                Assert.assertTrue(Double.isNaN(macdSingal.getMacdSignal()));
+            }
+        }
+    }
+
+    @Test
+    public void testMacdMatchesUtilsEwm() {
+        int[][] params = {{12, 26, 9, 61}, {12, 26, 9, 26}, {5, 10, 10, 10}};
+        for (String csvFile : CSV_FILES) {
+            Table all = loadTable(csvFile);
+            for (int[] p : params) {
+                int shortPeriod = p[0];
+                int longPeriod = p[1];
+                int signalPeriod = p[2];
+                int windowSize = p[3];
+                Macd macd = new Macd(shortPeriod, longPeriod, signalPeriod, windowSize);
+                for (int end = 1; end <= all.rowCount(); end++) {
+                    macd.update(all.doubleColumn("vwap").getDouble(end - 1));
+                    if (end < windowSize) {
+                        Assert.assertFalse(macd.isReady());
+                        continue;
+                    }
+                    // 抽样对比，Tablesaw的计算比较慢
+                    if (end % 7 != 0 && end != all.rowCount()) {
+                        continue;
+                    }
+                    Table df = all.inRange(end - windowSize, end);
+                    DoubleColumn vwap = df.doubleColumn("vwap");
+                    DoubleColumn shortEma = Utils.ewm(vwap, 2.0 / (shortPeriod + 1), "short", true, false, shortPeriod, shortPeriod - 1);
+                    DoubleColumn longEma = Utils.ewm(vwap, 2.0 / (longPeriod + 1), "long", true, false, longPeriod, longPeriod - 1);
+                    DoubleColumn line = shortEma.subtract(longEma);
+                    DoubleColumn signal = Utils.ewm(line, 2.0 / (signalPeriod + 1), "signal", true, false, signalPeriod, signalPeriod - 1);
+
+                    String message = csvFile + " " + shortPeriod + "/" + longPeriod + "/" + signalPeriod + "/" + windowSize + " end=" + end;
+                    assertClose(macd.getValue(), line.getDouble(windowSize - 1), message);
+                    assertClose(macd.getSignal(), signal.getDouble(windowSize - 1), message);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRollingMaxMinMatchTablesaw() {
+        int period = 990;
+        Table all = loadTable(CSV_FILES[0]);
+        DoubleColumn expectedMax = all.doubleColumn("high").rolling(period).max();
+        DoubleColumn expectedMin = all.doubleColumn("low").rolling(period).min();
+        RollingMax max = new RollingMax(period);
+        RollingMin min = new RollingMin(period);
+        for (int i = 0; i < all.rowCount(); i++) {
+            max.update(all.doubleColumn("high").getDouble(i));
+            min.update(all.doubleColumn("low").getDouble(i));
+            assertClose(max.getValue(), expectedMax.getDouble(i), "max i=" + i);
+            assertClose(min.getValue(), expectedMin.getDouble(i), "min i=" + i);
+        }
+    }
+
+    @Test
+    public void testSnapshotRestore() {
+        Table all = loadTable(CSV_FILES[0]);
+        DoubleColumn vwap = all.doubleColumn("vwap");
+        Macd macd = new Macd(12, 26, 9, 61);
+        RollingMax max = new RollingMax(100);
+        for (int i = 0; i < 5000; i++) {
+            macd.update(vwap.getDouble(i));
+            max.update(vwap.getDouble(i));
+        }
+        Macd restoredMacd = new Macd(12, 26, 9, 61);
+        restoredMacd.restore(macd.snapshot());
+        RollingMax restoredMax = new RollingMax(100);
+        restoredMax.restore(max.snapshot());
+        for (int i = 5000; i < all.rowCount(); i++) {
+            macd.update(vwap.getDouble(i));
+            max.update(vwap.getDouble(i));
+            restoredMacd.update(vwap.getDouble(i));
+            restoredMax.update(vwap.getDouble(i));
+            Assert.assertEquals(restoredMacd.getValue(), macd.getValue());
+            Assert.assertEquals(restoredMacd.getSignal(), macd.getSignal());
+            Assert.assertEquals(restoredMax.getValue(), max.getValue());
+        }
+    }
+
+    @Test
+    public void testBarCursor() {
+        Table all = loadTable(CSV_FILES[0]);
+        BarCursor cursor = new BarCursor();
+        Table first = all.inRange(0, 10);
+        Assert.assertEquals(cursor.seek(first), -1);
+        cursor.commit(first);
+        // 同一个窗口没有新bar
+        Assert.assertEquals(cursor.seek(first), 10);
+        // 滑动了3根
+        Assert.assertEquals(cursor.seek(all.inRange(3, 13)), 7);
+        // 中间漏掉的bar超过窗口大小，需要重置
+        Assert.assertEquals(cursor.seek(all.inRange(20, 30)), -1);
+    }
+}
@@ -0,0 +1,68 @@
+package json;
+
+import capital.daphne.models.BarInfo;
+import capital.daphne.models.OrderInfo;
+import capital.daphne.models.WapCache;
+import capital.daphne.utils.JsonCodec;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * 共享reader和只解析尾部bar的结果，和完整解析对比
+ */
+public class JsonCodecTest {
+
+    private static String barListJson(int n) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("{\"date\": \"2023-12-08 09:%02d:%02d-05:00\", \"vwap\": %.4f, \"open\": %.2f, \"high\": %.2f, \"low\": %.2f, \"close\": %.2f, \"volatility\": 0.001}",
+                    i / 12 % 60, i % 12 * 5, 458 + i * 0.0125, 458 + i * 0.01, 458.5 + i * 0.01, 457.5 + i * 0.01, 458 + i * 0.02));
+        }
+        return sb.append("]").toString();
+    }
+
+    @Test
+    public void tailBarsMatchFullList() throws Exception {
+        String json = barListJson(500);
+        List<BarInfo> all = JsonCodec.readBarList(json);
+        Assert.assertEquals(all.size(), 500);
+
+        // 每一个尾部长度都和完整解析的结果相同，超过总数时返回全部
+        for (int n = 1; n <= 501; n++) {
+            assertTail(json, all, n);
+        }
+        assertTail(json, all, 4096);
+    }
+
+    private static void assertTail(String json, List<BarInfo> all, int n) throws Exception {
+        List<BarInfo> tail = JsonCodec.readTailBars(json, n);
+        int size = Math.min(n, all.size());
+        Assert.assertEquals(tail.size(), size);
+        Assert.assertEquals(tail, all.subList(all.size() - size, all.size()), "n=" + n);
+    }
+
+    @Test
+    public void tailBarsOfEmptyList() throws Exception {
+        Assert.assertTrue(JsonCodec.readTailBars("[]", 10).isEmpty());
+        Assert.assertTrue(JsonCodec.readTailBars(null, 10).isEmpty());
+    }
+
+    @Test
+    public void typedReaders() throws Exception {
+        List<OrderInfo> orders = JsonCodec.readOrderList("[{\"orderId\": 1, \"quantity\": 100, \"dateTime\": \"2023-12-08T09:30:00.000\"}, {\"orderId\": 2, \"quantity\": -100, \"dateTime\": \"2023-12-08T09:31:00.000\"}]");
+        Assert.assertEquals(orders.size(), 2);
+        Assert.assertEquals(orders.get(1).getQuantity(), -100);
+
+        WapCache wapCache = JsonCodec.readWapCache("{\"maxWap\": 459.1, \"minWap\": 457.2}");
+        Assert.assertEquals(wapCache.getMaxWap(), 459.1);
+        Assert.assertEquals(wapCache.getMinWap(), 457.2);
+
+        BarInfo bar = JsonCodec.readBar(JsonCodec.write(JsonCodec.readTailBars(barListJson(3), 1).get(0)));
+        Assert.assertEquals(bar.getDate(), "2023-12-08 09:00:10-05:00");
+    }
+}
@@ -0,0 +1,221 @@
+package lock;
+
+import capital.daphne.JedisManager;
+import capital.daphne.models.Signal;
+import capital.daphne.services.LockSvc;
+import capital.daphne.services.StateCache;
+import capital.daphne.transport.HttpSignalTransport;
+import capital.daphne.transport.SendResult;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InProgressLockTest {
+    private static final String KEY = "TEST_ACCOUNT:SPY:STK:IN_PROGRESS";
+
+    @BeforeClass
+    public void setUp() {
+        JedisManager.initializeJedisPool();
+        try (Jedis jedis = JedisManager.getJedisPool().getResource()) {
+            jedis.del(KEY);
+        }
+    }
+
+    @Test
+    public void testNoDuplicateSignalUnderContention() throws Exception {
+        LockSvc lockSvc = new LockSvc();
+        int threads = 16;
+        int rounds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                CyclicBarrier barrier = new CyclicBarrier(threads);
+                AtomicInteger sent = new AtomicInteger();
+                List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(() -> {
+                        barrier.await();
+                        String token = lockSvc.tryLock(KEY);
+                        if (token != null) {
+                            // 拿到锁的才会发送信号
+                            sent.incrementAndGet();
+                        }
+                        return token;
+                    }));
+                }
+                String owner = null;
+                for (Future<String> future : futures) {
+                    String token = future.get(5, TimeUnit.SECONDS);
+                    if (token != null) {
+                        owner = token;
+                    }
+                }
+                Assert.assertEquals(sent.get(), 1, "round " + round);
+                Assert.assertTrue(lockSvc.release(KEY, owner));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOnlyOwnerCanRelease() {
+        LockSvc lockSvc = new LockSvc();
+        String token = lockSvc.tryLock(KEY);
+        Assert.assertNotNull(token);
+        Assert.assertNull(lockSvc.tryLock(KEY));
+        Assert.assertFalse(lockSvc.release(KEY, "not-the-owner"));
+        Assert.assertNull(lockSvc.tryLock(KEY));
+        Assert.assertTrue(lockSvc.release(KEY, token));
+        Assert.assertFalse(lockSvc.release(KEY, token));
+    }
+
+    @Test
+    public void testLockExpires() throws Exception {
+        LockSvc lockSvc = new LockSvc(200);
+        String token = lockSvc.tryLock(KEY);
+        Assert.assertNotNull(token);
+        try (Jedis jedis = JedisManager.getJedisPool().getResource()) {
+            long ttl = jedis.pttl(KEY);
+            Assert.assertTrue(ttl > 0 && ttl <= 200, "ttl=" + ttl);
+        }
+        Thread.sleep(300);
+        // 过期后其他人可以加锁，旧token不能释放新锁
+        String newToken = lockSvc.tryLock(KEY);
+        Assert.assertNotNull(newToken);
+        Assert.assertFalse(lockSvc.release(KEY, token));
+        Assert.assertTrue(lockSvc.release(KEY, newToken));
+    }
+
+    /**
+     * trader写入的"true"表示被占用，"false"等其他值表示空闲，加锁后重新设置TTL
+     */
+    @Test
+    public void testTraderValues() {
+        LockSvc lockSvc = new LockSvc(5000);
+        try (Jedis jedis = JedisManager.getJedisPool().getResource()) {
+            jedis.set(KEY, "true");
+            Assert.assertTrue(StateCache.isInProgress(KEY));
+            Assert.assertNull(lockSvc.tryLock(KEY));
+
+            // SET key false会清掉TTL，不能因为key存在就一直加锁失败
+            jedis.set(KEY, "false");
+            Assert.assertFalse(StateCache.isInProgress(KEY));
+            String token = lockSvc.tryLock(KEY);
+            Assert.assertNotNull(token);
+            Assert.assertEquals(jedis.get(KEY), token);
+            long ttl = jedis.pttl(KEY);
+            Assert.assertTrue(ttl > 0 && ttl <= 5000, "ttl=" + ttl);
+            Assert.assertTrue(StateCache.isInProgress(KEY));
+            Assert.assertTrue(lockSvc.release(KEY, token));
+        } finally {
+            try (Jedis jedis = JedisManager.getJedisPool().getResource()) {
+                jedis.del(KEY);
+            }
+        }
+    }
+
+    /**
+     * trader处理得比请求超时还慢：请求可能已经被接受，锁必须保留，下一根bar不能再发一个新uuid的信号
+     */
+    @Test
+    public void testLockKeptOnTimeout() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        AtomicInteger requests = new AtomicInteger();
+        server.createContext("/trade", exchange -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(500);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            LockSvc lockSvc = new LockSvc();
+            HttpSignalTransport transport = new HttpSignalTransport("127.0.0.1", server.getAddress().getPort(), "trade", 1000, 100, 0, 1);
+            String token = lockSvc.tryLock(KEY);
+            Assert.assertNotNull(token);
+
+            SendResult result = transport.send(newSignal());
+            Assert.assertEquals(result, SendResult.UNKNOWN);
+            Assert.assertEquals(requests.get(), 1);
+            Assert.assertFalse(lockSvc.releaseIfRejected(KEY, token, result));
+            try (Jedis jedis = JedisManager.getJedisPool().getResource()) {
+                Assert.assertEquals(jedis.get(KEY), token);
+            }
+            // 下一根bar的信号加锁失败
+            Assert.assertNull(lockSvc.tryLock(KEY));
+            Assert.assertTrue(lockSvc.release(KEY, token));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * 请求没有发出（连接被拒绝）或者被trader拒绝（4xx）时立即释放
+     */
+    @Test
+    public void testLockReleasedOnRejection() throws Exception {
+        LockSvc lockSvc = new LockSvc();
+
+        // 先占用一个端口再关闭，连接会被拒绝
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        HttpSignalTransport refused = new HttpSignalTransport("127.0.0.1", closedPort, "trade", 1000, 100, 1, 1);
+        String token = lockSvc.tryLock(KEY);
+        SendResult result = refused.send(newSignal());
+        Assert.assertEquals(result, SendResult.REJECTED);
+        Assert.assertTrue(lockSvc.releaseIfRejected(KEY, token, result));
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/trade", exchange -> {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            HttpSignalTransport transport = new HttpSignalTransport("127.0.0.1", server.getAddress().getPort(), "trade", 1000, 1000, 1, 1);
+            token = lockSvc.tryLock(KEY);
+            result = transport.send(newSignal());
+            Assert.assertEquals(result, SendResult.REJECTED);
+            Assert.assertTrue(lockSvc.releaseIfRejected(KEY, token, result));
+            // 锁已经释放，下一根bar可以重新加锁
+            String next = lockSvc.tryLock(KEY);
+            Assert.assertNotNull(next);
+            Assert.assertTrue(lockSvc.release(KEY, next));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private Signal newSignal() {
+        Signal signal = new Signal();
+        signal.setValid(true);
+        signal.setAccountId("TEST_ACCOUNT");
+        signal.setUuid(UUID.randomUUID().toString());
+        signal.setSymbol("SPY");
+        signal.setSecType("STK");
+        signal.setWap(458.02);
+        signal.setQuantity(100);
+        signal.setOrderType(Signal.OrderType.OPEN);
+        signal.setBenchmarkColumn("vwap");
+        return signal;
+    }
+}
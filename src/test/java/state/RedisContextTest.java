@@ -0,0 +1,73 @@
+package state;
+
+import capital.daphne.JedisManager;
+import capital.daphne.models.OrderInfo;
+import capital.daphne.services.PositionSvc;
+import capital.daphne.services.RedisContext;
+import capital.daphne.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * evaluation开始前批量读取的值，在上下文关闭前不再访问redis
+ */
+public class RedisContextTest {
+    private static final String POSITION_KEY = "TEST_ACCOUNT:SPY:STK:POSITION";
+    private static final String ORDER_LIST_KEY = "TEST_ACCOUNT:SPY:STK:ORDER_LIST";
+    private static final String MAX_MIN_KEY = "SPY:STK:MAX_MIN_WAP";
+
+    @BeforeClass
+    public void setUp() {
+        JedisManager.initializeJedisPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        try (Jedis jedis = JedisManager.getJedisPool().getResource()) {
+            jedis.del(POSITION_KEY, ORDER_LIST_KEY, MAX_MIN_KEY);
+        }
+    }
+
+    @Test
+    public void testReadsFromSnapshot() {
+        try (Jedis jedis = JedisManager.getJedisPool().getResource()) {
+            jedis.set(POSITION_KEY, "200");
+            jedis.set(ORDER_LIST_KEY, "[{\"orderId\": 1, \"quantity\": 200, \"dateTime\": \"2023-12-08T09:30:00.000\"}]");
+            jedis.set(MAX_MIN_KEY, "{\"maxWap\": 459.1, \"minWap\": 457.2}");
+        }
+
+        PositionSvc positionSvc = new PositionSvc();
+        try (RedisContext context = RedisContext.open(Arrays.asList(POSITION_KEY, ORDER_LIST_KEY, MAX_MIN_KEY))) {
+            Assert.assertSame(RedisContext.current(), context);
+            Assert.assertTrue(context.contains(MAX_MIN_KEY));
+
+            // 删除后在上下文中仍然读到批量读取时的值，说明没有再访问redis
+            tearDown();
+            Assert.assertEquals(positionSvc.getPosition("TEST_ACCOUNT", "SPY", "STK"), 200);
+            List<OrderInfo> orderList = Utils.getOrderList("TEST_ACCOUNT", "SPY", "STK");
+            Assert.assertNotNull(orderList);
+            Assert.assertEquals(orderList.get(0).getQuantity(), 200);
+            Assert.assertEquals(RedisContext.get(MAX_MIN_KEY), "{\"maxWap\": 459.1, \"minWap\": 457.2}");
+        }
+
+        Assert.assertNull(RedisContext.current());
+        Assert.assertEquals(positionSvc.getPosition("TEST_ACCOUNT", "SPY", "STK"), 0);
+        Assert.assertNull(RedisContext.get(MAX_MIN_KEY));
+    }
+
+    @Test
+    public void testMissingKeys() {
+        try (RedisContext context = RedisContext.open(Arrays.asList(POSITION_KEY, POSITION_KEY))) {
+            // 不存在的key也记录下来，不会再单独读取
+            Assert.assertTrue(context.contains(POSITION_KEY));
+            Assert.assertNull(context.value(POSITION_KEY));
+            Assert.assertFalse(context.contains(ORDER_LIST_KEY));
+        }
+    }
+}
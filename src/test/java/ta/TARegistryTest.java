@@ -0,0 +1,49 @@
+package ta;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.services.ta.TARegistry;
+import capital.daphne.services.ta.StreamingWILLR;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TARegistryTest {
+
+    private static AppConfigManager.AppConfig.AlgorithmConfig dmaConfig(String longFilterKey, String shortFilterKey) {
+        AppConfigManager.AppConfig.DMAParams dp = new AppConfigManager.AppConfig.DMAParams();
+        dp.setLongFilterKey(longFilterKey);
+        dp.setShortFilterKey(shortFilterKey);
+        AppConfigManager.AppConfig.AlgorithmConfig ac = new AppConfigManager.AppConfig.AlgorithmConfig();
+        ac.setName("DMA");
+        ac.setDmaParams(dp);
+        return ac;
+    }
+
+    @Test
+    public void testNoFilter() {
+        TARegistry registry = TARegistry.of(dmaConfig("-", "-"));
+        Assert.assertNull(registry.getLongFilter());
+        Assert.assertNull(registry.getShortFilter());
+
+        // 非DMA的algorithm没有dmaParams
+        AppConfigManager.AppConfig.AlgorithmConfig ac = new AppConfigManager.AppConfig.AlgorithmConfig();
+        ac.setName("SMA");
+        Assert.assertNull(TARegistry.of(ac).getLongFilter());
+    }
+
+    @Test
+    public void testResolveOnce() {
+        TARegistry registry = TARegistry.of(dmaConfig("WILLR", "WILLR"));
+        Assert.assertTrue(registry.getLongFilter() instanceof StreamingWILLR);
+        Assert.assertSame(registry.getShortFilter(), registry.getLongFilter());
+        Assert.assertEquals(registry.getShortFilterKey(), "WILLR");
+
+        registry = TARegistry.of(dmaConfig("-", "WILLR"));
+        Assert.assertNull(registry.getLongFilter());
+        Assert.assertTrue(registry.getShortFilter() instanceof StreamingWILLR);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownKeyFailsFast() {
+        TARegistry.of(dmaConfig("WILLX", "-"));
+    }
+}
@@ -0,0 +1,85 @@
+package ta;
+
+import capital.daphne.services.ta.StreamingWILLR;
+import capital.daphne.services.ta.WILLR;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.List;
+
+/**
+ * 流式WILLR和批量版本在同一个滑动窗口上的结果对比
+ */
+public class WILLRTest {
+
+    private static Table loadTable(String csvFile) {
+        List<Bar> bars = TestUtils.loadCsv(csvFile);
+        int n = bars.size();
+        String[] dates = new String[n];
+        double[] close = new double[n];
+        double[] high = new double[n];
+        double[] low = new double[n];
+        for (int i = 0; i < n; i++) {
+            dates[i] = bars.get(i).getDate();
+            close[i] = bars.get(i).getClose();
+            high[i] = bars.get(i).getHigh();
+            low[i] = bars.get(i).getLow();
+        }
+        return Table.create(csvFile,
+                StringColumn.create("date_us", dates),
+                DoubleColumn.create("close", close),
+                DoubleColumn.create("high", high),
+                DoubleColumn.create("low", low));
+    }
+
+    private static void crossCheck(Table all, int period, int offset, int windowSize, int step) {
+        StreamingWILLR streaming = new StreamingWILLR(period, offset);
+        WILLR batch = new WILLR(period, offset);
+        for (int end = windowSize; end <= all.rowCount(); end += step) {
+            Table window = all.inRange(end - windowSize, end);
+            double actual = streaming.latest(window, WILLR.COLUMN);
+
+            Table df = batch.ta(all.inRange(end - windowSize, end));
+            double expected = df.doubleColumn(WILLR.COLUMN).getDouble(df.rowCount() - 1);
+
+            String message = String.format("period=%d, offset=%d, windowSize=%d, end=%d", period, offset, windowSize, end);
+            if (Double.isNaN(expected)) {
+                Assert.assertTrue(Double.isNaN(actual), message + ", expected NaN but was " + actual);
+            } else {
+                Assert.assertEquals(actual, expected, 1e-9, message);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesBatch() {
+        Table all = loadTable("src/test/java/sma/SPY_20231208.csv");
+        // 和实盘一样每次滑动一根bar
+        crossCheck(all, 990, 1, 1501, 1);
+        crossCheck(all, 14, 0, 30, 1);
+    }
+
+    @Test
+    public void testGapsAndShortWindows() {
+        Table all = loadTable("src/test/java/sma/AMZN_20231208.csv");
+        // 每次跳过的bar比窗口多，每次都会重置
+        crossCheck(all, 50, 2, 120, 500);
+        // 窗口不够period + offset时和批量版本一样是NaN
+        crossCheck(all, 990, 1, 990, 7);
+    }
+
+    @Test
+    public void testSharedInstanceIsIdempotent() {
+        Table all = loadTable("src/test/java/sma/SPY_20231208.csv");
+        StreamingWILLR streaming = new StreamingWILLR(20, 1);
+        Table window = all.inRange(0, 100);
+        double first = streaming.latest(window, WILLR.COLUMN);
+        // 多空共用一个实例时同一根bar会查询两次
+        Assert.assertEquals(streaming.latest(window, WILLR.COLUMN), first);
+    }
+}
@@ -4,6 +4,7 @@ import capital.daphne.AppConfigManager;
 import capital.daphne.JedisManager;
 import capital.daphne.models.BarInfo;
 import capital.daphne.models.WapCache;
+import capital.daphne.utils.JsonCodec;
 import capital.daphne.utils.Utils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.csv.CSVFormat;
@@ -78,6 +79,18 @@ public class TestUtils {
         return dataframe;
     }
 
+    /**
+     * 复制config.json中的第一个algorithm并换成指定的account和标的，修改复制的配置不影响其他测试
+     */
+    public static AppConfigManager.AppConfig.AlgorithmConfig copyAlgorithm(String accountId, String symbol, String secType) throws Exception {
+        AppConfigManager.AppConfig.AlgorithmConfig template = AppConfigManager.getInstance().getAppConfig().getAlgorithms().get(0);
+        AppConfigManager.AppConfig.AlgorithmConfig ac = JsonCodec.read(JsonCodec.write(template), AppConfigManager.AppConfig.AlgorithmConfig.class);
+        ac.setAccountId(accountId);
+        ac.setSymbol(symbol);
+        ac.setSecType(secType);
+        return ac;
+    }
+
     public static LocalDateTime genUsDateTimeNow() {
         ZonedDateTime easternTime = ZonedDateTime.now(ZoneId.of("America/New_York"));
         return easternTime.toLocalDateTime();
@@ -0,0 +1,159 @@
+package transport;
+
+import capital.daphne.models.Signal;
+import capital.daphne.transport.HttpSignalTransport;
+import capital.daphne.transport.SendResult;
+import capital.daphne.transport.SignalJson;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SignalTransportTest {
+
+    private HttpServer server;
+
+    private final List<String> idempotencyKeys = new CopyOnWriteArrayList<>();
+
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+
+    // 前几次请求返回的状态码，之后返回200
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    private int failureCode;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        idempotencyKeys.clear();
+        bodies.clear();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/trade", exchange -> {
+            idempotencyKeys.add(exchange.getRequestHeaders().getFirst("Idempotency-Key"));
+            try (InputStream in = exchange.getRequestBody()) {
+                bodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            int code = failuresLeft.getAndDecrement() > 0 ? failureCode : 200;
+            byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private HttpSignalTransport newTransport(int maxRetries) {
+        return new HttpSignalTransport("127.0.0.1", server.getAddress().getPort(), "trade", 1000, 2000, maxRetries, 1);
+    }
+
+    private Signal newSignal() {
+        Signal signal = new Signal();
+        signal.setValid(true);
+        signal.setAccountId("DU123");
+        signal.setUuid("3f0c7a2e-uuid");
+        signal.setSymbol("SPY");
+        signal.setSecType("STK");
+        signal.setWap(458.02);
+        signal.setQuantity(-100);
+        signal.setOrderType(Signal.OrderType.OPEN);
+        signal.setBenchmarkColumn("vwap");
+        return signal;
+    }
+
+    @Test
+    public void testSendOk() throws Exception {
+        failuresLeft.set(0);
+        HttpSignalTransport transport = newTransport(2);
+        Assert.assertEquals(transport.send(newSignal()), SendResult.ACCEPTED);
+        Assert.assertEquals(transport.send(newSignal()), SendResult.ACCEPTED);
+
+        Assert.assertEquals(bodies.size(), 2);
+        JsonNode body = new ObjectMapper().readTree(bodies.get(0));
+        // uuid只在Idempotency-Key中，body和原来的格式相同
+        Assert.assertFalse(body.has("uuid"));
+        Assert.assertEquals(idempotencyKeys.get(0), "3f0c7a2e-uuid");
+        Assert.assertEquals(body.get("accountId").asText(), "DU123");
+        Assert.assertEquals(body.get("wap").asDouble(), 458.02);
+        Assert.assertEquals(body.get("quantity").asInt(), -100);
+        Assert.assertEquals(body.get("orderType").asText(), "OPEN");
+        Assert.assertEquals(body.get("benchmarkColumn").asText(), "vwap");
+    }
+
+    @Test
+    public void testAcceptedIsSuccess() {
+        failureCode = 202;
+        failuresLeft.set(1);
+        HttpSignalTransport transport = newTransport(2);
+        Assert.assertEquals(transport.send(newSignal()), SendResult.ACCEPTED);
+        // 2xx不重试
+        Assert.assertEquals(idempotencyKeys.size(), 1);
+    }
+
+    @Test
+    public void testRetryWithSameIdempotencyKey() {
+        failureCode = 503;
+        failuresLeft.set(2);
+        HttpSignalTransport transport = newTransport(2);
+        Assert.assertEquals(transport.send(newSignal()), SendResult.ACCEPTED);
+
+        Assert.assertEquals(idempotencyKeys.size(), 3);
+        for (String key : idempotencyKeys) {
+            Assert.assertEquals(key, "3f0c7a2e-uuid");
+        }
+    }
+
+    @Test
+    public void testRetryExhausted() {
+        failureCode = 503;
+        failuresLeft.set(10);
+        HttpSignalTransport transport = newTransport(1);
+        // 5xx时trader可能已经处理了请求
+        Assert.assertEquals(transport.send(newSignal()), SendResult.UNKNOWN);
+        Assert.assertEquals(idempotencyKeys.size(), 2);
+    }
+
+    @Test
+    public void testNoRetryOnClientError() {
+        failureCode = 400;
+        failuresLeft.set(1);
+        HttpSignalTransport transport = newTransport(3);
+        Assert.assertEquals(transport.send(newSignal()), SendResult.REJECTED);
+        Assert.assertEquals(idempotencyKeys.size(), 1);
+    }
+
+    @Test
+    public void testJsonEscape() throws Exception {
+        Signal signal = newSignal();
+        signal.setBenchmarkColumn("a\"b\\c\n");
+        signal.setOrderType(null);
+        JsonNode body = new ObjectMapper().readTree(SignalJson.toJson(signal));
+        Assert.assertEquals(body.get("benchmarkColumn").asText(), "a\"b\\c\n");
+        Assert.assertFalse(body.has("orderType"));
+
+        // 非有限的wap不能序列化，也不会发送
+        for (double wap : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            Signal invalid = newSignal();
+            invalid.setWap(wap);
+            Assert.assertFalse(SignalJson.isSendable(invalid));
+            Assert.assertThrows(IllegalArgumentException.class, () -> SignalJson.toJson(invalid));
+            Assert.assertEquals(newTransport(2).send(invalid), SendResult.REJECTED);
+        }
+        Assert.assertTrue(bodies.isEmpty());
+    }
+}
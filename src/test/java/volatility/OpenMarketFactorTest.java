@@ -0,0 +1,81 @@
+package volatility;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.models.BarSeries;
+import capital.daphne.services.BarSvc;
+import capital.daphne.services.RedisContext;
+import capital.daphne.services.VolatilityEngine;
+import capital.daphne.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import testutils.TestUtils;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+
+/**
+ * 开盘之后启动时，开盘volatility系数从bar和wap恢复，和一直运行时的结果一致
+ */
+public class OpenMarketFactorTest {
+    private static final ZoneId EASTERN = ZoneId.of("America/New_York");
+
+    private static void setTime(LocalDateTime time) {
+        Utils.setClock(Clock.fixed(time.atZone(EASTERN).toInstant(), EASTERN));
+    }
+
+    private static AppConfigManager.AppConfig.AlgorithmConfig loadAlgorithm() throws Exception {
+        // 没有其他测试使用的标的，避免和BarSvc中静态的wap副本冲突
+        AppConfigManager.AppConfig.AlgorithmConfig ac = TestUtils.copyAlgorithm("WARMUP", "WARM", "STK");
+        ac.setMarketOpenReductionSeconds(600);
+        return ac;
+    }
+
+    @AfterMethod
+    public void resetClock() {
+        Utils.setClock(null);
+    }
+
+    @Test
+    public void testMissingFactorSkipsAdjustment() throws Exception {
+        setTime(LocalDateTime.of(2023, 9, 28, 9, 31, 0));
+        // 原来这里会因为没有开盘系数抛出NullPointerException
+        Assert.assertEquals(new BarSvc(false).adjustVolatilityDuringMarketOpenPeriod(0.5, loadAlgorithm()), 0.5);
+    }
+
+    @Test
+    public void testRestoreMatchesLive() throws Exception {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = loadAlgorithm();
+        LocalDateTime open = LocalDateTime.of(2023, 9, 28, 9, 30, 0);
+
+        // 开盘前12根、开盘后12根5秒bar，每根bar一个wap
+        BarSeries barSeries = new BarSeries(64);
+        double[] waps = new double[24];
+        for (int i = 0; i < waps.length; i++) {
+            LocalDateTime time = open.plusSeconds((i - 12) * 5L);
+            waps[i] = 100 + Math.sin(i * 0.7) + i * 0.05;
+            long epochSeconds = time.atZone(EASTERN).toEpochSecond();
+            barSeries.append(Utils.formatBarDate(epochSeconds), epochSeconds * 1_000_000_000L, waps[i], waps[i], waps[i], waps[i], waps[i]);
+        }
+
+        // 一直运行：开盘时刻收到开盘前最后一根bar，这时WAP_LIST中有12个wap
+        BarSvc live = new BarSvc(false);
+        setTime(open.plusSeconds(1));
+        double openVolatility = VolatilityEngine.of(waps, 12).weightedVolatility(ac.getTimeWeightedA(), ac.getTimeWeightedB(), ac.getTimeWeightedC());
+        live.adjustVolatilityDuringMarketOpenPeriod(openVolatility, ac);
+
+        // 开盘1分钟后重启
+        BarSvc restarted = new BarSvc(false);
+        setTime(open.plusSeconds(60));
+        try (RedisContext ignored = RedisContext.offline(new HashMap<>(), key -> waps)) {
+            Assert.assertTrue(restarted.restoreOpenMarketVolatilityFactor(ac, barSeries.window(barSeries.size())));
+        }
+        Assert.assertEquals(restarted.adjustVolatilityDuringMarketOpenPeriod(0.5, ac), live.adjustVolatilityDuringMarketOpenPeriod(0.5, ac), 1e-12);
+
+        // 过了衰减期不需要恢复
+        setTime(open.plusSeconds(3600));
+        Assert.assertFalse(new BarSvc(false).restoreOpenMarketVolatilityFactor(ac, barSeries.window(barSeries.size())));
+    }
+}
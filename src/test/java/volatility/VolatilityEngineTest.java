@@ -0,0 +1,63 @@
+package volatility;
+
+import capital.daphne.services.VolatilityEngine;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class VolatilityEngineTest {
+
+    @Test
+    public void testSegmentsMatchSubList() {
+        List<Bar> bars = TestUtils.loadCsv("src/test/java/sma/SPY_20231208.csv");
+        double[] waps = new double[bars.size()];
+        for (int i = 0; i < waps.length; i++) {
+            waps[i] = bars.get(i).getVwap();
+        }
+
+        int[] sizes = {0, 1, 5, 9, 10, 11, 99, 101, 999, waps.length};
+        for (int size : sizes) {
+            VolatilityEngine engine = VolatilityEngine.of(waps, size);
+            List<Double> wapList = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                wapList.add(waps[i]);
+            }
+            for (int i = 0; i < VolatilityEngine.SEGMENTS; i++) {
+                int startIndex = (int) (size * (i * 10 / 100.0));
+                List<Double> subset = wapList.subList(startIndex, size);
+                double max = Double.MIN_VALUE;
+                double min = Double.MAX_VALUE;
+                for (double wap : subset) {
+                    max = Math.max(max, wap);
+                    min = Math.min(min, wap);
+                }
+                Assert.assertEquals(engine.getSegmentMax(i), max, "size=" + size + ", segment=" + i);
+                Assert.assertEquals(engine.getSegmentMin(i), min, "size=" + size + ", segment=" + i);
+            }
+        }
+    }
+
+    @Test
+    public void testWeightedVolatility() {
+        double[] waps = {100.0, 101.0, 99.0, 102.0, 98.0, 100.5, 100.2, 99.8, 100.1, 100.0, 100.3};
+        VolatilityEngine engine = VolatilityEngine.of(waps);
+
+        double a = 1.0, b = 0.5, c = 0.1;
+        double totalWeight = 0.0;
+        double totalVolatility = 0.0;
+        for (int i = 0; i < VolatilityEngine.SEGMENTS; i++) {
+            double subsetVolatility = (engine.getSegmentMax(i) - engine.getSegmentMin(i)) / engine.getSegmentMin(i);
+            int x = i + 1;
+            double timeWeight = a + b * x + c * x * x;
+            totalWeight += timeWeight;
+            totalVolatility += subsetVolatility * timeWeight;
+        }
+        Assert.assertEquals(engine.weightedVolatility(a, b, c), totalVolatility / totalWeight);
+        Assert.assertEquals(engine.getMax(), 102.0);
+        Assert.assertEquals(engine.getMin(), 98.0);
+    }
+}
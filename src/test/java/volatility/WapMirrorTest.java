@@ -0,0 +1,83 @@
+package volatility;
+
+import capital.daphne.services.VolatilityEngine;
+import capital.daphne.services.WapMirror;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testmodels.Bar;
+import testutils.TestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 模拟datasource维护WAP_LIST（队尾追加，超过保留数量从队头删除），增量更新的副本和全量计算的结果对比
+ */
+public class WapMirrorTest {
+
+    private static double[] toArray(List<Double> list) {
+        double[] waps = new double[list.size()];
+        for (int i = 0; i < waps.length; i++) {
+            waps[i] = list.get(i);
+        }
+        return waps;
+    }
+
+    @Test
+    public void testMatchesFullScan() {
+        List<Bar> bars = TestUtils.loadCsv("src/test/java/sma/SPY_20231208.csv");
+        Random random = new Random(42);
+        int maxKeepNumOfWap = 1440;
+        int tailSize = 32;
+
+        List<Double> wapList = new ArrayList<>();
+        WapMirror wapMirror = new WapMirror();
+        int reloads = 0;
+        int i = 0;
+        while (i < bars.size()) {
+            // 通常每条消息新增一个wap，偶尔重复消息或者漏掉几条
+            int added = random.nextInt(50) == 0 ? random.nextInt(20) : 1;
+            for (int k = 0; k < added && i < bars.size(); k++, i++) {
+                wapList.add(bars.get(i).getVwap());
+                if (wapList.size() > maxKeepNumOfWap + 1) {
+                    wapList.remove(0);
+                }
+            }
+
+            int t = Math.min(tailSize, wapList.size());
+            double[] tail = toArray(wapList.subList(wapList.size() - t, wapList.size()));
+            double head = wapList.isEmpty() ? Double.NaN : wapList.get(0);
+            if (!wapMirror.applyTail(wapList.size(), head, tail)) {
+                reloads++;
+                wapMirror.reload(toArray(wapList));
+            }
+
+            VolatilityEngine expected = VolatilityEngine.of(toArray(wapList));
+            VolatilityEngine actual = wapMirror.toVolatilityEngine();
+            Assert.assertEquals(actual.size(), expected.size());
+            for (int s = 0; s < VolatilityEngine.SEGMENTS; s++) {
+                Assert.assertEquals(actual.getSegmentMax(s), expected.getSegmentMax(s), "i=" + i + ", segment=" + s);
+                Assert.assertEquals(actual.getSegmentMin(s), expected.getSegmentMin(s), "i=" + i + ", segment=" + s);
+            }
+        }
+        // 大部分消息都是增量更新
+        Assert.assertTrue(reloads < bars.size() / 5, "reloads=" + reloads);
+    }
+
+    @Test
+    public void testMisalignedTail() {
+        WapMirror wapMirror = new WapMirror();
+        wapMirror.reload(new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        // 尾部对不上
+        Assert.assertFalse(wapMirror.applyTail(11, 1, new double[]{3, 4, 5, 6, 7, 8, 9, 100, 11}));
+        // 队头对不上
+        Assert.assertFalse(wapMirror.applyTail(10, 5, new double[]{3, 4, 5, 6, 7, 8, 9, 10, 11}));
+        Assert.assertEquals(wapMirror.size(), 10);
+
+        Assert.assertTrue(wapMirror.applyTail(10, 2, new double[]{3, 4, 5, 6, 7, 8, 9, 10, 11}));
+        Assert.assertEquals(wapMirror.size(), 10);
+        Assert.assertEquals(wapMirror.toVolatilityEngine().getMax(), 11.0);
+        Assert.assertEquals(wapMirror.toVolatilityEngine().getMin(), 2.0);
+    }
+}
@@ -0,0 +1,166 @@
+package warmup;
+
+import capital.daphne.AppConfigManager;
+import capital.daphne.algorithms.ProcessorBundle;
+import capital.daphne.algorithms.SMA;
+import capital.daphne.models.BarSeries;
+import capital.daphne.models.BarTape;
+import capital.daphne.models.BarWindow;
+import capital.daphne.models.MarketSnapshot;
+import capital.daphne.models.Signal;
+import capital.daphne.services.BarSvc;
+import capital.daphne.services.RedisContext;
+import capital.daphne.services.SignalSvc;
+import capital.daphne.services.VolatilityEngine;
+import capital.daphne.transport.SendResult;
+import capital.daphne.transport.SignalTransport;
+import capital.daphne.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testutils.TestUtils;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * 启动预热：用存档补在redis的bar前面，以及预热之后processor从最后一根bar继续计算
+ * 每个测试使用不同的symbol，避免和BarSvc中静态的BarSeries冲突
+ */
+public class WarmupTest {
+    private static final long START_SECONDS = LocalDateTime.of(2023, 9, 28, 9, 30, 0).atZone(ZoneId.of("America/New_York")).toEpochSecond();
+
+    /**
+     * 第from到to - 1根5秒bar，vwap由下标和base决定，可以区分来自哪段tape
+     */
+    private static BarTape tape(int from, int to, double base) {
+        int n = to - from;
+        long[] times = new long[n];
+        double[] vwaps = new double[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = START_SECONDS + (from + i) * 5L;
+            vwaps[i] = base + (from + i) * 0.01;
+        }
+        DoubleBuffer prices = DoubleBuffer.wrap(vwaps);
+        return new BarTape("WARM", "STK", LongBuffer.wrap(times), prices, prices, prices, prices, prices);
+    }
+
+    private static void assertBars(BarWindow bars, int from, double base, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(bars.timeNanos(offset + i), (START_SECONDS + (from + i) * 5L) * 1_000_000_000L);
+            Assert.assertEquals(bars.vwap(offset + i), base + (from + i) * 0.01, 1e-12);
+        }
+    }
+
+    @Test
+    public void testPrependKeepsOrder() {
+        BarSvc barSvc = new BarSvc(false);
+        String key = "PREP1:STK";
+        Assert.assertEquals(barSvc.prependBars(key, tape(50, 60, 100)), 10);
+        Assert.assertEquals(barSvc.prependBars(key, tape(40, 50, 200)), 10);
+
+        // 更早的存档bar在前，原来的bar保持原样接在后面
+        BarWindow bars = barSvc.getBars(key);
+        Assert.assertEquals(bars.size(), 20);
+        assertBars(bars, 40, 200, 0, 10);
+        assertBars(bars, 50, 100, 10, 10);
+        for (int i = 1; i < bars.size(); i++) {
+            Assert.assertTrue(bars.timeNanos(i) > bars.timeNanos(i - 1));
+        }
+    }
+
+    @Test
+    public void testPrependSkipsNewerBars() {
+        BarSvc barSvc = new BarSvc(false);
+        String key = "PREP2:STK";
+        barSvc.prependBars(key, tape(50, 60, 100));
+
+        // 存档中和已有bar重叠以及更新的bar都不补充，已有的bar不被存档覆盖
+        Assert.assertEquals(barSvc.prependBars(key, tape(45, 65, 200)), 5);
+        BarWindow bars = barSvc.getBars(key);
+        Assert.assertEquals(bars.size(), 15);
+        assertBars(bars, 45, 200, 0, 5);
+        assertBars(bars, 50, 100, 5, 10);
+
+        // 存档中没有更早的bar
+        Assert.assertEquals(barSvc.prependBars(key, tape(45, 65, 300)), 0);
+        Assert.assertEquals(barSvc.getBars(key).size(), 15);
+    }
+
+    @Test
+    public void testPrependCapacity() {
+        BarSvc barSvc = new BarSvc(false);
+        String key = "PREP3:STK";
+        int archived = 10000;
+        barSvc.prependBars(key, tape(archived, archived + 10, 100));
+
+        // 只补充到环形缓冲区满为止，保留最靠近已有bar的存档bar
+        int prepended = barSvc.prependBars(key, tape(0, archived, 200));
+        BarWindow bars = barSvc.getBars(key);
+        Assert.assertTrue(prepended > 0 && prepended < archived);
+        Assert.assertEquals(bars.size(), prepended + 10);
+        assertBars(bars, archived - prepended, 200, 0, prepended);
+        assertBars(bars, archived, 100, prepended, 10);
+
+        // 已经满了，不再补充
+        Assert.assertEquals(barSvc.prependBars(key, tape(0, archived, 300)), 0);
+    }
+
+    @Test
+    public void testProcessorsCatchUpAfterWarmup() throws Exception {
+        AppConfigManager.AppConfig.AlgorithmConfig ac = TestUtils.copyAlgorithm("WARMUP", "CATCH", "STK");
+        ac.setName("SMA");
+        ac.setNumStatsBars(18);
+
+        SignalTransport transport = new SignalTransport() {
+            @Override
+            public SendResult send(Signal signal) {
+                return SendResult.ACCEPTED;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SignalSvc signalSvc = new SignalSvc(Collections.singletonList(ac), transport);
+        ProcessorBundle bundle = signalSvc.route(ac.getSymbol(), ac.getSecType())[0];
+        SMA sma = (SMA) bundle.getOpenProcessor();
+
+        // 和WarmupSvc一样：redis中没有bar，全部来自存档，计算一次丢弃信号
+        BarSvc barSvc = new BarSvc(false);
+        String key = "CATCH:STK";
+        int warmBars = 40;
+        barSvc.prependBars(key, tape(0, warmBars, 100));
+        VolatilityEngine volatilityEngine = VolatilityEngine.of(new double[]{100, 100}, 2);
+        try (RedisContext ignored = RedisContext.offline(new HashMap<>(), k -> new double[0])) {
+            signalSvc.getTradeSignal(bundle, new MarketSnapshot(ac.getSymbol(), ac.getSecType(), barSvc.getBars(key), volatilityEngine, 0, 0, null), 0.5);
+        }
+        double expectedWarm = 0;
+        for (int i = warmBars - 18; i < warmBars; i++) {
+            expectedWarm += 100 + i * 0.01;
+        }
+        Assert.assertEquals(sma.getSmaValue(), expectedWarm / 18, 1e-9);
+
+        // 第一根实时bar：已经处理过的bar换成不同的值，只有重新计算旧bar时结果才会变
+        BarSeries live = new BarSeries(64);
+        BarTape changed = tape(0, warmBars, 500);
+        BarTape next = tape(warmBars, warmBars + 1, 100);
+        for (BarTape t : new BarTape[]{changed, next}) {
+            for (int i = 0; i < t.size(); i++) {
+                long epochSeconds = t.epochSeconds(i);
+                live.append(Utils.formatBarDate(epochSeconds), epochSeconds * 1_000_000_000L, t.vwap(i), t.open(i), t.high(i), t.low(i), t.close(i));
+            }
+        }
+        try (RedisContext ignored = RedisContext.offline(new HashMap<>(), k -> new double[0])) {
+            signalSvc.getTradeSignal(bundle, new MarketSnapshot(ac.getSymbol(), ac.getSecType(), live.window(live.size()), volatilityEngine, 0, 0, null), 0.5);
+        }
+        double expectedLive = 0;
+        for (int i = warmBars + 1 - 18; i <= warmBars; i++) {
+            expectedLive += 100 + i * 0.01;
+        }
+        Assert.assertEquals(sma.getSmaValue(), expectedLive / 18, 1e-9);
+    }
+}